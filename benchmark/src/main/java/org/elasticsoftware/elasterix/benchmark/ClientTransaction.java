@@ -0,0 +1,37 @@
+package org.elasticsoftware.elasterix.benchmark;
+
+import org.elasticsoftware.sip.codec.SipRequestImpl;
+import org.jboss.netty.util.Timeout;
+
+/**
+ * A request sent by a {@link Uac} and waiting for its response. Over UDP the
+ * request is retransmitted (timers A and E of RFC 3261 17.1) until a response is
+ * received or the transaction times out.
+ *
+ * @author Leonard Wolters
+ */
+final class ClientTransaction {
+    final TransactionType type;
+    final Uac uac;
+    final SipRequestImpl request;
+    /**
+     * Invoked when done, whether successful or not
+     */
+    final Runnable next;
+    /**
+     * Start of the transaction; kept when the request is resent with credentials
+     */
+    final long startNanos;
+    String branch;
+    long retransmitInterval;
+    boolean authorized;
+    Timeout timeout;
+
+    ClientTransaction(TransactionType type, Uac uac, SipRequestImpl request, Runnable next) {
+        this.type = type;
+        this.uac = uac;
+        this.request = request;
+        this.next = next;
+        this.startNanos = System.nanoTime();
+    }
+}
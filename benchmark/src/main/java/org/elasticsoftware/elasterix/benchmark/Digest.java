@@ -0,0 +1,73 @@
+package org.elasticsoftware.elasterix.benchmark;
+
+import org.elasticsoftware.sip.codec.header.DigestCredentials;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Computes the Authorization header answering a digest challenge, see
+ * http://tools.ietf.org/html/rfc2617#section-3.2.2
+ *
+ * @author Leonard Wolters
+ */
+final class Digest {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Digest() {
+    }
+
+    /**
+     * Returns the credentials of given user answering given challenge (i.e. the
+     * value of a WWW-Authenticate or Proxy-Authenticate header) for a request
+     * with given method and uri
+     *
+     * @param nonceCount number of requests sent with this nonce (including this one)
+     */
+    static String authorization(DigestCredentials challenge, String username, String password,
+                                String method, String uri, long nonceCount) {
+        String realm = challenge.getRealm();
+        String nonce = challenge.getNonce();
+        String ha1 = md5(username + ":" + realm + ":" + password);
+        String ha2 = md5(method + ":" + uri);
+
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("Digest username=\"").append(username)
+                .append("\",realm=\"").append(realm)
+                .append("\",nonce=\"").append(nonce)
+                .append("\",uri=\"").append(uri).append('"');
+        String qop = challenge.getQop();
+        if (qop != null && qop.contains("auth")) {
+            String nc = String.format("%08x", nonceCount);
+            String cnonce = Long.toHexString(ThreadLocalRandom.current().nextLong());
+            sb.append(",response=\"").append(md5(ha1 + ":" + nonce + ":" + nc + ":" + cnonce + ":auth:" + ha2))
+                    .append("\",qop=auth,nc=").append(nc)
+                    .append(",cnonce=\"").append(cnonce).append('"');
+        } else {
+            sb.append(",response=\"").append(md5(ha1 + ":" + nonce + ":" + ha2)).append('"');
+        }
+        sb.append(",algorithm=MD5");
+        if (challenge.getOpaque() != null) {
+            sb.append(",opaque=\"").append(challenge.getOpaque()).append('"');
+        }
+        return sb.toString();
+    }
+
+    static String md5(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+            char[] chars = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                chars[2 * i] = HEX[(digest[i] >> 4) & 0x0f];
+                chars[2 * i + 1] = HEX[digest[i] & 0x0f];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.elasticsoftware.elasterix.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies (in microseconds) with a fixed relative
+ * precision: values are counted in buckets of which the width is at most 1/64th
+ * (1.6%) of the value, up to 2^38 microseconds (76 hours). Percentiles report the
+ * upper bound of the bucket holding the requested value.
+ *
+ * @author Leonard Wolters
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final long MAX_VALUE = (1L << 38) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records given latency (in microseconds); negative values are recorded as 0,
+     * values beyond 2^38 as 2^38
+     */
+    public void record(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while ((current = max.get()) < value && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the maximum latency recorded (in microseconds)
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean latency (in microseconds) or 0 if nothing is recorded
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the latency (in microseconds) below or at which given percentage
+     * (0 - 100) of the recorded latencies are, or 0 if nothing is recorded
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(String.format("Invalid percentile[%f]", percentile));
+        }
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        // the epsilon compensates rounding errors, e.g. 99.9 / 100 * 1000 > 999
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total - 1e-9));
+        long cumulative = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            cumulative += counts.get(i);
+            if (cumulative >= target) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Values below 2 * SUB_BUCKETS have a bucket each; above, every power of two
+     * is divided into SUB_BUCKETS buckets
+     */
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (exponent + 1) * SUB_BUCKETS + (int) (value >>> exponent) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the highest value counted by the bucket with given index
+     */
+    static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS - 1;
+        long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << exponent;
+        return lowest + (1L << exponent) - 1;
+    }
+}
@@ -0,0 +1,561 @@
+package org.elasticsoftware.elasterix.benchmark;
+
+import org.apache.log4j.Logger;
+import org.elasticsoftware.sip.codec.SipDatagramDecoder;
+import org.elasticsoftware.sip.codec.SipHeader;
+import org.elasticsoftware.sip.codec.SipMessageEncoder;
+import org.elasticsoftware.sip.codec.SipMethod;
+import org.elasticsoftware.sip.codec.SipRequest;
+import org.elasticsoftware.sip.codec.SipRequestImpl;
+import org.elasticsoftware.sip.codec.SipResponse;
+import org.elasticsoftware.sip.codec.SipResponseStatus;
+import org.elasticsoftware.sip.codec.SipVersion;
+import org.elasticsoftware.sip.codec.header.DigestCredentials;
+import org.elasticsoftware.sip.codec.header.ViaHeader;
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.FixedReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * SIPp-style load generator: simulates <code>users</code> user agents, all
+ * sharing a single UDP socket, against a SIP server. The users are named
+ * <code>firstUser</code>, <code>firstUser + 1</code>, ... and share the same
+ * <code>password</code>; they have to be known by the server.<br>
+ * <br>
+ * A run consists of three phases:
+ * <ol>
+ * <li>every user registers (answering the digest challenge)</li>
+ * <li>for <code>duration</code> seconds, <code>rate</code> times per second an
+ * idle user calls (INVITE) another user and then refreshes its registration</li>
+ * <li>every user unregisters</li>
+ * </ol>
+ * Registrations are started at <code>rate</code> per second as well. The latency
+ * of a transaction is the time between sending the (first) request and receiving
+ * the final response, including the challenge and retransmissions. The INVITE
+ * transaction is done at the first response that is no challenge (typically
+ * 100 Trying), as the server sets up the call asynchronously. Requests received
+ * (e.g. the INVITE for the callee) are answered with 200 OK.<br>
+ * <br>
+ * Throughput and p50/p99/p999 latency per {@link TransactionType} are reported
+ * every <code>reportInterval</code> seconds and when done. Run with e.g.
+ * <pre>
+ * java -jar loadgenerator.jar -host 127.0.0.1 -port 5060 -users 1000 -rate 200 -duration 60
+ * </pre>
+ *
+ * @author Leonard Wolters
+ */
+public class LoadGenerator {
+    private static final Logger log = Logger.getLogger(LoadGenerator.class);
+    /**
+     * RFC 3261 timer values (in milliseconds)
+     */
+    private static final long T1 = 500;
+    private static final long T2 = 4000;
+    private static final long TRANSACTION_TIMEOUT = 64 * T1;
+    private static final String MAGIC_COOKIE = ViaHeader.MAGIC_COOKIE;
+
+    private String host = "127.0.0.1";
+    private int port = 5060;
+    private String localHost = "127.0.0.1";
+    private String domain;
+    private int users = 1000;
+    private int firstUser = 1000;
+    private String password = "test";
+    private double rate = 100;
+    private int duration = 60;
+    private int expires = 3600;
+    private int reportInterval = 5;
+    private PrintStream out = System.out;
+
+    private final Map<TransactionType, TransactionStatistics> statistics =
+            new EnumMap<TransactionType, TransactionStatistics>(TransactionType.class);
+    private final ConcurrentMap<String, ClientTransaction> transactions =
+            new ConcurrentHashMap<String, ClientTransaction>();
+    private final AtomicLong branches = new AtomicLong();
+    /**
+     * Number of user agents busy
+     */
+    private final AtomicInteger busy = new AtomicInteger();
+    private final AtomicLong skipped = new AtomicLong();
+    private ConnectionlessBootstrap bootstrap;
+    private Channel channel;
+    private InetSocketAddress serverAddress;
+    private String viaPrefix;
+    private Timer timer;
+    private Uac[] uacs;
+
+    public LoadGenerator() {
+        for (TransactionType type : TransactionType.values()) {
+            statistics.put(type, new TransactionStatistics(type));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String name = args[i];
+            String value = args[i + 1];
+            if ("-host".equals(name)) {
+                generator.setHost(value);
+            } else if ("-port".equals(name)) {
+                generator.setPort(Integer.parseInt(value));
+            } else if ("-localHost".equals(name)) {
+                generator.setLocalHost(value);
+            } else if ("-domain".equals(name)) {
+                generator.setDomain(value);
+            } else if ("-users".equals(name)) {
+                generator.setUsers(Integer.parseInt(value));
+            } else if ("-firstUser".equals(name)) {
+                generator.setFirstUser(Integer.parseInt(value));
+            } else if ("-password".equals(name)) {
+                generator.setPassword(value);
+            } else if ("-rate".equals(name)) {
+                generator.setRate(Double.parseDouble(value));
+            } else if ("-duration".equals(name)) {
+                generator.setDuration(Integer.parseInt(value));
+            } else if ("-expires".equals(name)) {
+                generator.setExpires(Integer.parseInt(value));
+            } else if ("-reportInterval".equals(name)) {
+                generator.setReportInterval(Integer.parseInt(value));
+            } else {
+                throw new IllegalArgumentException(String.format("Unknown option[%s]", name));
+            }
+        }
+        generator.run();
+    }
+
+    /**
+     * Runs all phases and reports the results
+     */
+    public void run() throws InterruptedException {
+        start();
+        try {
+            long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+
+            // 1. register
+            long phaseStart = System.nanoTime();
+            for (int i = 0; i < uacs.length; i++) {
+                pace(phaseStart, i, periodNanos);
+                final Uac uac = uacs[i];
+                if (uac.acquire()) {
+                    busy.incrementAndGet();
+                    register(uac, TransactionType.REGISTER, expires, release(uac));
+                }
+            }
+            awaitIdle();
+            report("Registration", System.nanoTime() - phaseStart, false, TransactionType.REGISTER);
+
+            // 2. call and re-register
+            phaseStart = System.nanoTime();
+            long end = phaseStart + TimeUnit.SECONDS.toNanos(duration);
+            long nextReport = phaseStart + TimeUnit.SECONDS.toNanos(reportInterval);
+            long intervalStart = phaseStart;
+            for (long n = 0; ; n++) {
+                pace(phaseStart, n, periodNanos);
+                long now = System.nanoTime();
+                if (now >= end) {
+                    break;
+                }
+                if (reportInterval > 0 && now >= nextReport) {
+                    report("Interval", now - intervalStart, true, TransactionType.INVITE,
+                            TransactionType.REREGISTER);
+                    intervalStart = now;
+                    nextReport += TimeUnit.SECONDS.toNanos(reportInterval);
+                }
+                call();
+            }
+            awaitIdle();
+            report("Calls", System.nanoTime() - phaseStart, false, TransactionType.INVITE,
+                    TransactionType.REREGISTER);
+
+            // 3. unregister
+            phaseStart = System.nanoTime();
+            int n = 0;
+            for (final Uac uac : uacs) {
+                if (uac.isRegistered() && uac.acquire()) {
+                    pace(phaseStart, n++, periodNanos);
+                    busy.incrementAndGet();
+                    register(uac, TransactionType.UNREGISTER, 0, release(uac));
+                }
+            }
+            awaitIdle();
+            report("Unregistration", System.nanoTime() - phaseStart, false, TransactionType.UNREGISTER);
+            if (skipped.get() > 0) {
+                out.println(String.format("%d calls skipped; no idle user agents left", skipped.get()));
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Binds the socket and creates the user agents
+     */
+    public void start() {
+        serverAddress = new InetSocketAddress(host, port);
+        if (domain == null) {
+            domain = host;
+        }
+        bootstrap = new ConnectionlessBootstrap(new NioDatagramChannelFactory(Executors.newCachedThreadPool(), 1));
+        bootstrap.setOption("receiveBufferSizePredictorFactory", new FixedReceiveBufferSizePredictorFactory(65535));
+        bootstrap.setOption("receiveBufferSize", 4 * 1024 * 1024);
+        bootstrap.setOption("sendBufferSize", 4 * 1024 * 1024);
+        bootstrap.setPipeline(Channels.pipeline(new SipDatagramDecoder(), new SipMessageEncoder(),
+                new Handler()));
+        channel = bootstrap.bind(new InetSocketAddress(localHost, 0));
+        String contact = localHost + ":" + ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        viaPrefix = "SIP/2.0/UDP " + contact + ";rport;branch=" + MAGIC_COOKIE + "-";
+        timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+
+        uacs = new Uac[users];
+        for (int i = 0; i < users; i++) {
+            uacs[i] = new Uac(i, Integer.toString(firstUser + i), password, domain, contact);
+        }
+        log.info(String.format("start. %d user agents at [%s] for server [%s]", users, contact, serverAddress));
+    }
+
+    public void stop() {
+        if (timer != null) {
+            timer.stop();
+            timer = null;
+        }
+        if (channel != null) {
+            channel.close().awaitUninterruptibly();
+            bootstrap.releaseExternalResources();
+            channel = null;
+        }
+    }
+
+    public TransactionStatistics getStatistics(TransactionType type) {
+        return statistics.get(type);
+    }
+
+    /**
+     * Lets a random idle, registered user agent call another registered user
+     * and re-register when done
+     */
+    private void call() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(uacs.length);
+        for (int i = 0; i < uacs.length; i++) {
+            final Uac caller = uacs[(first + i) % uacs.length];
+            if (!caller.isRegistered() || !caller.acquire()) {
+                continue;
+            }
+            Uac callee = uacs[random.nextInt(uacs.length)];
+            busy.incrementAndGet();
+            final Runnable release = release(caller);
+            send(new ClientTransaction(TransactionType.INVITE, caller, caller.createInvite(nextVia(), callee),
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            register(caller, TransactionType.REREGISTER, expires, release);
+                        }
+                    }));
+            return;
+        }
+        skipped.incrementAndGet();
+    }
+
+    private void register(Uac uac, TransactionType type, int expires, Runnable next) {
+        send(new ClientTransaction(type, uac, uac.createRegister(nextVia(), expires), next));
+    }
+
+    private Runnable release(final Uac uac) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                uac.release();
+                busy.decrementAndGet();
+            }
+        };
+    }
+
+    private String nextVia() {
+        return viaPrefix + branches.incrementAndGet();
+    }
+
+    private static String getBranch(String via) {
+        return via.substring(via.lastIndexOf('=') + 1);
+    }
+
+    private void send(ClientTransaction transaction) {
+        String via = transaction.request.getHeaderValue(SipHeader.VIA);
+        transaction.branch = getBranch(via);
+        transaction.retransmitInterval = T1;
+        transactions.put(transaction.branch, transaction);
+        channel.write(transaction.request, serverAddress);
+        schedule(transaction);
+    }
+
+    private void schedule(final ClientTransaction transaction) {
+        try {
+            transaction.timeout = timer.newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) throws Exception {
+                    retransmit(transaction);
+                }
+            }, transaction.retransmitInterval, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            // timer is stopped
+        }
+    }
+
+    private void retransmit(ClientTransaction transaction) {
+        synchronized (transaction) {
+            if (transactions.get(transaction.branch) != transaction) {
+                return;
+            }
+            if (System.nanoTime() - transaction.startNanos >= TimeUnit.MILLISECONDS.toNanos(TRANSACTION_TIMEOUT)) {
+                transactions.remove(transaction.branch);
+                statistics.get(transaction.type).timedOut();
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("retransmit. %s of [%s] timed out", transaction.type,
+                            transaction.uac.getUsername()));
+                }
+            } else {
+                channel.write(transaction.request, serverAddress);
+                transaction.retransmitInterval = transaction.type == TransactionType.INVITE
+                        ? 2 * transaction.retransmitInterval
+                        : Math.min(2 * transaction.retransmitInterval, T2);
+                schedule(transaction);
+                return;
+            }
+        }
+        transaction.next.run();
+    }
+
+    private void onResponse(SipResponse response) {
+        String value = response.getHeaderValue(SipHeader.VIA);
+        if (value == null) {
+            return;
+        }
+        ClientTransaction transaction = transactions.get(ViaHeader.parse(value).getBranch());
+        if (transaction == null) {
+            // retransmitted or late response
+            return;
+        }
+        int code = response.getResponseStatus().getCode();
+        boolean invite = transaction.type == TransactionType.INVITE;
+        if (code < 200 && !invite) {
+            return;
+        }
+        synchronized (transaction) {
+            if (!transactions.remove(transaction.branch, transaction)) {
+                return;
+            }
+            if (transaction.timeout != null) {
+                transaction.timeout.cancel();
+            }
+            if (invite && code >= 300) {
+                ack(transaction, response);
+            }
+            if ((code == 401 || code == 407) && !transaction.authorized) {
+                String challenge = response.getHeaderValue(code == 401
+                        ? SipHeader.WWW_AUTHENTICATE : SipHeader.PROXY_AUTHENTICATE);
+                if (challenge != null) {
+                    transaction.authorized = true;
+                    transaction.uac.retry(transaction.request, nextVia(), DigestCredentials.parse(challenge));
+                    send(transaction);
+                    return;
+                }
+            }
+        }
+
+        TransactionStatistics stats = statistics.get(transaction.type);
+        if (code < 300) {
+            stats.succeeded(System.nanoTime() - transaction.startNanos);
+            if (transaction.type == TransactionType.REGISTER || transaction.type == TransactionType.REREGISTER) {
+                transaction.uac.setRegistered(true);
+            } else if (transaction.type == TransactionType.UNREGISTER) {
+                transaction.uac.setRegistered(false);
+            }
+        } else {
+            stats.failed();
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("onResponse. %s of [%s] failed[%d]", transaction.type,
+                        transaction.uac.getUsername(), code));
+            }
+        }
+        transaction.next.run();
+    }
+
+    /**
+     * Acknowledges a final, non 2xx, response to an INVITE (RFC 3261 17.1.1.3)
+     */
+    private void ack(ClientTransaction transaction, SipResponse response) {
+        SipRequestImpl invite = transaction.request;
+        SipRequestImpl ack = new SipRequestImpl(SipVersion.SIP_2_0, SipMethod.ACK, invite.getUri());
+        ack.addHeader(SipHeader.VIA, invite.getHeaderValue(SipHeader.VIA));
+        ack.addHeader(SipHeader.MAX_FORWARDS, 70);
+        ack.addHeader(SipHeader.FROM, invite.getHeaderValue(SipHeader.FROM));
+        ack.addHeader(SipHeader.TO, response.getHeaderValue(SipHeader.TO));
+        ack.addHeader(SipHeader.CALL_ID, invite.getHeaderValue(SipHeader.CALL_ID));
+        ack.addHeader(SipHeader.CSEQ, invite.getHeaderValue(SipHeader.CSEQ).split(" ")[0] + " ACK");
+        ack.addHeader(SipHeader.CONTENT_LENGTH, 0);
+        channel.write(ack, serverAddress);
+    }
+
+    private void onRequest(SipRequest request, SocketAddress remoteAddress) {
+        if (request.getMethod() == SipMethod.ACK) {
+            return;
+        }
+        request.setResponseStatus(SipResponseStatus.OK);
+        SipResponse response = request.toSipResponse();
+        response.removeHeader(SipHeader.CONTENT_TYPE);
+        response.setHeader(SipHeader.CONTENT_LENGTH, 0);
+        response.setContent(null);
+        channel.write(response, remoteAddress);
+    }
+
+    /**
+     * Waits until all user agents are idle, or the longest a transaction can take
+     */
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2 * TRANSACTION_TIMEOUT;
+        while (busy.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void pace(long startNanos, long n, long periodNanos) {
+        long wait;
+        while ((wait = startNanos + n * periodNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private void report(String title, long elapsedNanos, boolean interval, TransactionType... types) {
+        double seconds = elapsedNanos / 1e9;
+        out.println(String.format("%s (%.1f s)", title, seconds));
+        out.println(String.format("  %-11s %9s %7s %8s %10s %9s %9s %9s %9s", "type", "ok", "failed",
+                "timeout", "ok/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        for (TransactionType type : types) {
+            TransactionStatistics stats = statistics.get(type);
+            LatencyHistogram latencies = interval ? stats.nextInterval() : stats.getLatencies();
+            out.println(String.format("  %-11s %9d %7s %8s %10.1f %9.3f %9.3f %9.3f %9.3f", stats.getType(),
+                    latencies.getCount(), interval ? "" : Long.toString(stats.getFailed()),
+                    interval ? "" : Long.toString(stats.getTimedOut()), latencies.getCount() / seconds,
+                    latencies.getPercentile(50) / 1000.0, latencies.getPercentile(99) / 1000.0,
+                    latencies.getPercentile(99.9) / 1000.0, latencies.getMax() / 1000.0));
+        }
+    }
+
+    /**
+     * Dispatches received responses to their transaction and answers requests
+     */
+    private final class Handler extends SimpleChannelUpstreamHandler {
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            if (e.getMessage() instanceof SipRequest) {
+                onRequest((SipRequest) e.getMessage(), e.getRemoteAddress());
+            } else if (e.getMessage() instanceof SipResponse) {
+                onResponse((SipResponse) e.getMessage());
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+            log.warn(String.format("exceptionCaught. %s", e.getCause()));
+        }
+    }
+
+    ////////////////////////////////////
+    //
+    //  Getters /  Setters
+    //
+    ////////////////////////////////////
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Address the user agents' socket is bound to
+     */
+    public void setLocalHost(String localHost) {
+        this.localHost = localHost;
+    }
+
+    /**
+     * Domain of the users (defaults to the host)
+     */
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    public void setUsers(int users) {
+        if (users < 1) {
+            throw new IllegalArgumentException("users must be positive");
+        }
+        this.users = users;
+    }
+
+    public void setFirstUser(int firstUser) {
+        this.firstUser = firstUser;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    /**
+     * Number of calls (and registrations) started per second
+     */
+    public void setRate(double rate) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        this.rate = rate;
+    }
+
+    /**
+     * Duration of the call phase (in seconds)
+     */
+    public void setDuration(int duration) {
+        this.duration = duration;
+    }
+
+    public void setExpires(int expires) {
+        this.expires = expires;
+    }
+
+    /**
+     * Interval (in seconds) of reporting during the call phase; 0 disables
+     */
+    public void setReportInterval(int reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    public void setOut(PrintStream out) {
+        this.out = out;
+    }
+}
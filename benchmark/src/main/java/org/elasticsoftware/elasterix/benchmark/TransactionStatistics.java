@@ -0,0 +1,69 @@
+package org.elasticsoftware.elasterix.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Outcome of all transactions of a single {@link TransactionType}: latencies of
+ * the successful ones, the number of failed (i.e. answered by an error response)
+ * and timed out ones. Besides the totals, the latencies since the last report
+ * are kept.
+ *
+ * @author Leonard Wolters
+ */
+public final class TransactionStatistics {
+    private final TransactionType type;
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final AtomicReference<LatencyHistogram> interval =
+            new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    TransactionStatistics(TransactionType type) {
+        this.type = type;
+    }
+
+    void succeeded(long latencyNanos) {
+        long micros = latencyNanos / 1000;
+        total.record(micros);
+        interval.get().record(micros);
+    }
+
+    void failed() {
+        failed.incrementAndGet();
+    }
+
+    void timedOut() {
+        timedOut.incrementAndGet();
+    }
+
+    /**
+     * Returns the latencies recorded since the previous invocation
+     */
+    LatencyHistogram nextInterval() {
+        return interval.getAndSet(new LatencyHistogram());
+    }
+
+    public TransactionType getType() {
+        return type;
+    }
+
+    /**
+     * Returns the latencies of all successful transactions
+     */
+    public LatencyHistogram getLatencies() {
+        return total;
+    }
+
+    public long getSucceeded() {
+        return total.getCount();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+}
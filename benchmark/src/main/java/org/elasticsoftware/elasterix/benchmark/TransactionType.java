@@ -0,0 +1,25 @@
+package org.elasticsoftware.elasterix.benchmark;
+
+/**
+ * Types of transactions measured by the {@link LoadGenerator}
+ *
+ * @author Leonard Wolters
+ */
+public enum TransactionType {
+    /**
+     * Initial registration, including the digest challenge
+     */
+    REGISTER,
+    /**
+     * Call set up, until the first (non challenge) response
+     */
+    INVITE,
+    /**
+     * Refresh of an existing registration
+     */
+    REREGISTER,
+    /**
+     * Removal of a registration (expires 0)
+     */
+    UNREGISTER
+}
@@ -0,0 +1,142 @@
+package org.elasticsoftware.elasterix.benchmark;
+
+import org.elasticsoftware.sip.codec.SipHeader;
+import org.elasticsoftware.sip.codec.SipMethod;
+import org.elasticsoftware.sip.codec.SipRequestImpl;
+import org.elasticsoftware.sip.codec.SipVersion;
+import org.elasticsoftware.sip.codec.header.DigestCredentials;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.util.CharsetUtil;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A simulated user agent (client): a user registering its contact and making
+ * calls. The last digest challenge received is remembered and used for all
+ * subsequent requests, like soft phones do.
+ *
+ * @author Leonard Wolters
+ */
+final class Uac {
+    private static final String USER_AGENT = "Elasterix LoadGenerator";
+
+    private final int index;
+    private final String username;
+    private final String password;
+    private final String domain;
+    private final String contact;
+    private final String registrationCallId;
+    private final String tag;
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private volatile boolean registered;
+    private long registrationSequence;
+    private int calls;
+    private DigestCredentials challenge;
+    private long nonceCount;
+
+    Uac(int index, String username, String password, String domain, String contact) {
+        this.index = index;
+        this.username = username;
+        this.password = password;
+        this.domain = domain;
+        this.contact = contact;
+        this.registrationCallId = String.format("reg-%d-%d@%s", index, System.currentTimeMillis(), domain);
+        this.tag = Integer.toHexString(31 * index + (int) System.nanoTime());
+    }
+
+    /**
+     * Returns a REGISTER request with given expiration (0 to unregister)
+     */
+    synchronized SipRequestImpl createRegister(String via, int expires) {
+        SipRequestImpl request = createRequest(SipMethod.REGISTER, "sip:" + domain, via, username,
+                registrationCallId, ++registrationSequence);
+        request.addHeader(SipHeader.EXPIRES, expires);
+        authorize(request);
+        return request;
+    }
+
+    /**
+     * Returns an INVITE request (with a minimal SDP offer) calling given user
+     */
+    synchronized SipRequestImpl createInvite(String via, Uac callee) {
+        String callId = String.format("call-%d-%d-%d@%s", index, ++calls, System.nanoTime(), domain);
+        SipRequestImpl request = createRequest(SipMethod.INVITE, "sip:" + callee.username + "@" + domain,
+                via, callee.username, callId, 1);
+        byte[] sdp = ("v=0\r\n"
+                + "o=" + username + " 1 1 IN IP4 127.0.0.1\r\n"
+                + "s=-\r\n"
+                + "c=IN IP4 127.0.0.1\r\n"
+                + "t=0 0\r\n"
+                + "m=audio 8000 RTP/AVP 0 8 101\r\n"
+                + "a=rtpmap:101 telephone-event/8000\r\n").getBytes(CharsetUtil.UTF_8);
+        request.setHeader(SipHeader.CONTENT_TYPE, "application/sdp");
+        request.setHeader(SipHeader.CONTENT_LENGTH, sdp.length);
+        request.setContent(ChannelBuffers.wrappedBuffer(sdp));
+        authorize(request);
+        return request;
+    }
+
+    /**
+     * Prepares given request for sending it once more with the credentials
+     * answering given challenge: next sequence number, new branch
+     */
+    synchronized void retry(SipRequestImpl request, String via, DigestCredentials challenge) {
+        this.challenge = challenge;
+        this.nonceCount = 0;
+        long sequence = request.getMethod() == SipMethod.REGISTER ? ++registrationSequence
+                : Long.parseLong(request.getHeaderValue(SipHeader.CSEQ).split(" ")[0]) + 1;
+        request.setHeader(SipHeader.VIA, via);
+        request.setHeader(SipHeader.CSEQ, sequence + " " + request.getMethod().name());
+        authorize(request);
+    }
+
+    private SipRequestImpl createRequest(SipMethod method, String uri, String via, String to,
+                                         String callId, long sequence) {
+        SipRequestImpl request = new SipRequestImpl(SipVersion.SIP_2_0, method, uri);
+        request.addHeader(SipHeader.VIA, via);
+        request.addHeader(SipHeader.MAX_FORWARDS, 70);
+        request.addHeader(SipHeader.FROM, "<sip:" + username + "@" + domain + ">;tag=" + tag);
+        request.addHeader(SipHeader.TO, "<sip:" + to + "@" + domain + ">");
+        request.addHeader(SipHeader.CALL_ID, callId);
+        request.addHeader(SipHeader.CSEQ, sequence + " " + method.name());
+        request.addHeader(SipHeader.CONTACT, "<sip:" + username + "@" + contact + ";transport=udp>");
+        request.addHeader(SipHeader.USER_AGENT, USER_AGENT);
+        request.addHeader(SipHeader.CONTENT_LENGTH, 0);
+        return request;
+    }
+
+    private void authorize(SipRequestImpl request) {
+        if (challenge == null) {
+            return;
+        }
+        request.setHeader(SipHeader.AUTHORIZATION, Digest.authorization(challenge, username, password,
+                request.getMethod().name(), request.getUri(), ++nonceCount));
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    boolean isRegistered() {
+        return registered;
+    }
+
+    void setRegistered(boolean registered) {
+        this.registered = registered;
+    }
+
+    /**
+     * Returns true if this user agent was idle and is now busy
+     */
+    boolean acquire() {
+        return busy.compareAndSet(false, true);
+    }
+
+    void release() {
+        busy.set(false);
+    }
+}
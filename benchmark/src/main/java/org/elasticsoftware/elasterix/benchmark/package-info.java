@@ -0,0 +1,6 @@
+/**
+ * End to end SIP load generator, see {@link org.elasticsoftware.elasterix.benchmark.LoadGenerator}.
+ *
+ * @author Leonard Wolters
+ */
+package org.elasticsoftware.elasterix.benchmark;
@@ -0,0 +1,63 @@
+package org.elasticsoftware.elasterix.benchmark;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Leonard Wolters
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testIndex() {
+        long previous = -1;
+        for (int i = 0; i <= LatencyHistogram.index((1L << 38) - 1); i++) {
+            long highest = LatencyHistogram.highestValue(i);
+            Assert.assertEquals(LatencyHistogram.index(highest), i);
+            Assert.assertEquals(LatencyHistogram.index(previous + 1), i);
+            // relative precision
+            Assert.assertTrue(highest - previous - 1 <= Math.max(0, highest / 64));
+            previous = highest;
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.getPercentile(99), 0);
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(histogram.getCount(), 100000);
+        Assert.assertEquals(histogram.getMax(), 100000);
+        Assert.assertEquals(histogram.getMean(), 50000.5, 0.001);
+        assertNear(histogram.getPercentile(50), 50000);
+        assertNear(histogram.getPercentile(99), 99000);
+        assertNear(histogram.getPercentile(99.9), 99900);
+        Assert.assertEquals(histogram.getPercentile(100), 100000);
+        Assert.assertEquals(histogram.getPercentile(0), 1);
+    }
+
+    @Test
+    public void testOutliers() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 998; i++) {
+            histogram.record(100);
+        }
+        histogram.record(5000);
+        histogram.record(-1);
+        Assert.assertEquals(histogram.getPercentile(50), 100);
+        Assert.assertEquals(histogram.getPercentile(99.9), 100);
+        Assert.assertEquals(histogram.getPercentile(100), 5000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        new LatencyHistogram().getPercentile(101);
+    }
+
+    private void assertNear(long actual, long expected) {
+        Assert.assertTrue(actual >= expected && actual <= expected + expected / 64,
+                String.format("%d not near %d", actual, expected));
+    }
+}
@@ -0,0 +1,139 @@
+package org.elasticsoftware.elasterix.benchmark;
+
+import org.elasticsoftware.sip.SipChannelFactoryImpl;
+import org.elasticsoftware.sip.SipMessageHandler;
+import org.elasticsoftware.sip.SipMessageSenderImpl;
+import org.elasticsoftware.sip.SipServer;
+import org.elasticsoftware.sip.SipServerHandler;
+import org.elasticsoftware.sip.codec.SipHeader;
+import org.elasticsoftware.sip.codec.SipMethod;
+import org.elasticsoftware.sip.codec.SipRequest;
+import org.elasticsoftware.sip.codec.SipResponse;
+import org.elasticsoftware.sip.codec.SipResponseStatus;
+import org.elasticsoftware.sip.codec.header.DigestCredentials;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Runs the load generator against a SIP server challenging every REGISTER and
+ * answering INVITEs with 100 Trying
+ *
+ * @author Leonard Wolters
+ */
+public class LoadGeneratorTest {
+    private static final String REALM = "elasterix";
+    private static final String NONCE = "4b7a5ec2f8c9d1e3";
+    private static final String PASSWORD = "secret";
+
+    private SipServer server;
+    private SipChannelFactoryImpl channelFactory;
+
+    @BeforeMethod
+    public void startServer() {
+        channelFactory = new SipChannelFactoryImpl();
+        final SipMessageSenderImpl sender = new SipMessageSenderImpl();
+        sender.setSipChannelFactory(channelFactory);
+        SipServerHandler handler = new SipServerHandler();
+        handler.setSipChannelFactory(channelFactory);
+        handler.setMessageHandler(new SipMessageHandler() {
+            @Override
+            public void onRequest(SipRequest request) {
+                SipResponse response;
+                if (request.getMethod() == SipMethod.INVITE) {
+                    request.setResponseStatus(SipResponseStatus.TRYING);
+                    response = request.toSipResponse();
+                } else if (request.getMethod() != SipMethod.REGISTER) {
+                    request.setResponseStatus(SipResponseStatus.METHOD_NOT_ALLOWED);
+                    response = request.toSipResponse();
+                } else if (request.getHeaderValue(SipHeader.AUTHORIZATION) == null) {
+                    request.setResponseStatus(SipResponseStatus.UNAUTHORIZED);
+                    response = request.toSipResponse();
+                    response.addHeader(SipHeader.WWW_AUTHENTICATE, String.format(
+                            "Digest algorithm=MD5, realm=\"%s\", nonce=\"%s\"", REALM, NONCE));
+                } else {
+                    request.setResponseStatus(authenticate(request) ? SipResponseStatus.OK
+                            : SipResponseStatus.FORBIDDED);
+                    response = request.toSipResponse();
+                }
+                sender.sendResponse(response);
+            }
+
+            @Override
+            public void onResponse(SipResponse response) {
+            }
+        });
+        channelFactory.setSipServerHandler(handler);
+
+        server = new SipServer();
+        server.setPort(0);
+        server.setSipServerHandler(handler);
+        server.start();
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        server.stop();
+        channelFactory.destroy();
+    }
+
+    private boolean authenticate(SipRequest request) {
+        DigestCredentials credentials = DigestCredentials.parse(request.getHeaderValue(SipHeader.AUTHORIZATION));
+        String ha1 = Digest.md5(credentials.getUsername() + ":" + REALM + ":" + PASSWORD);
+        String ha2 = Digest.md5("REGISTER:" + credentials.getUri());
+        return NONCE.equals(credentials.getNonce())
+                && Digest.md5(ha1 + ":" + NONCE + ":" + ha2).equals(credentials.getResponse());
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LoadGenerator generator = new LoadGenerator();
+        generator.setPort(server.getDatagramAddress().getPort());
+        generator.setUsers(20);
+        generator.setPassword(PASSWORD);
+        generator.setRate(200);
+        generator.setDuration(1);
+        generator.setReportInterval(0);
+        generator.setOut(new PrintStream(bytes, true));
+        generator.run();
+
+        assertStatistics(generator.getStatistics(TransactionType.REGISTER), 20);
+        TransactionStatistics invite = generator.getStatistics(TransactionType.INVITE);
+        assertStatistics(invite, invite.getSucceeded());
+        Assert.assertTrue(invite.getSucceeded() > 0);
+        assertStatistics(generator.getStatistics(TransactionType.REREGISTER), invite.getSucceeded());
+        assertStatistics(generator.getStatistics(TransactionType.UNREGISTER), 20);
+
+        String report = bytes.toString("UTF-8");
+        Assert.assertTrue(report.contains("p999 ms"), report);
+        Assert.assertTrue(report.contains("UNREGISTER"), report);
+    }
+
+    @Test
+    public void testWrongPassword() throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.setPort(server.getDatagramAddress().getPort());
+        generator.setUsers(5);
+        generator.setPassword("wrong");
+        generator.setRate(100);
+        generator.setDuration(0);
+        generator.setOut(new PrintStream(new ByteArrayOutputStream()));
+        generator.run();
+
+        TransactionStatistics register = generator.getStatistics(TransactionType.REGISTER);
+        Assert.assertEquals(register.getSucceeded(), 0);
+        Assert.assertEquals(register.getFailed(), 5);
+        Assert.assertEquals(generator.getStatistics(TransactionType.UNREGISTER).getSucceeded(), 0);
+    }
+
+    private void assertStatistics(TransactionStatistics statistics, long succeeded) {
+        Assert.assertEquals(statistics.getSucceeded(), succeeded, statistics.getType().name());
+        Assert.assertEquals(statistics.getFailed(), 0, statistics.getType().name());
+        Assert.assertEquals(statistics.getTimedOut(), 0, statistics.getType().name());
+    }
+}
@@ -17,6 +17,7 @@
 package org.elasticsoftware.elasterix.server;
 
 import org.apache.log4j.Logger;
+import org.elasticsoftware.elasterix.server.sip.BindingExpiryNotifier;
 import org.elasticsoftware.elasterix.server.sip.SipService;
 import org.elasticsoftware.elasticactors.ActorSystem;
 import org.elasticsoftware.elasticactors.DependsOn;
@@ -65,5 +66,6 @@ public class ElasterixServer extends SpringBasedActorSystem {
         //@todo: this is a hack, we need to do this through postActivate
         SipService sipService = applicationContext.getBean(SipService.class);
         sipService.setActorSystem(actorSystem);
+        ServerConfig.getLocationService().setExpiryListener(new BindingExpiryNotifier(actorSystem));
     }
 }
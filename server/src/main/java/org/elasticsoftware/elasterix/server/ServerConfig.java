@@ -1,5 +1,7 @@
 package org.elasticsoftware.elasterix.server;
 
+import org.elasticsoftware.sip.SipLocationService;
+import org.elasticsoftware.sip.SipNonceManager;
 import org.springframework.beans.factory.annotation.Value;
 
 import java.text.DateFormat;
@@ -21,6 +23,9 @@ public class ServerConfig {
     @Value("${sip.port}")
     private static int port = 5060;
 
+    private static SipNonceManager nonceManager;
+    private static SipLocationService locationService;
+
     public static String getRealm() {
         return "elastic-software";
     }
@@ -73,6 +78,30 @@ public class ServerConfig {
         return "MD5";
     }
     
+    /**
+     * Returns the issuer of the digest nonces, configured (lifetime and the
+     * secret shared by the nodes) as bean <code>sipNonceManager</code>
+     */
+    public static synchronized SipNonceManager getNonceManager() {
+        if (nonceManager == null) {
+            nonceManager = new SipNonceManager();
+        }
+        return nonceManager;
+    }
+
+    /**
+     * Returns the (started) location service holding the bindings of the
+     * User Agent Clients registered with this node
+     */
+    public static synchronized SipLocationService getLocationService() {
+        if (locationService == null) {
+            locationService = new SipLocationService();
+            locationService.setTickMillis(1000);
+            locationService.start();
+        }
+        return locationService;
+    }
+
     public static String getUserAgent() {
     	return "Elasterix 0.1";
     }
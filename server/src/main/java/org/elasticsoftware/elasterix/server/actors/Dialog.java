@@ -1,6 +1,5 @@
 package org.elasticsoftware.elasterix.server.actors;
 
-import java.util.StringTokenizer;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -16,19 +15,20 @@ import org.elasticsoftware.sip.codec.SipHeader;
 import org.elasticsoftware.sip.codec.SipMethod;
 import org.elasticsoftware.sip.codec.SipResponseStatus;
 import org.elasticsoftware.sip.codec.SipUser;
+import org.elasticsoftware.sip.codec.header.CSeqHeader;
 import org.springframework.util.StringUtils;
 
 /**
  * A dialog is a temporary dialog between a user / uac and a server.<br>
  * <br>
- * This class is primarily used for keeping track of CSeq's
+ * This class is primarily used for keeping track of CSeq's. REGISTER requests
+ * do not pass a dialog; they go straight to the User actor.
  *
  * @author Leonard Wolters
  */
 public class Dialog extends UntypedActor {
 	private static final Logger log = Logger.getLogger(Dialog.class);	
 	
-	public static int TIMEOUT_DESTRUCTION_REGISTER = 120;
 	public static int TIMEOUT_DESTRUCTION_OTHER = 3;
 	
 	@Override
@@ -50,11 +50,6 @@ public class Dialog extends UntypedActor {
 			
 			ActorRef sipService = getSystem().serviceActorFor("sipService");
 			switch(sipMessage.getSipMethod()) {
-			case REGISTER:
-				if(checkAuthentication(sipMessage, state)) return;
-				if(checkCSeq(sipService, sipMessage, state)) return;
-				getSystem().actorFor("user/" + state.getUsername()).tell(message, getSelf());
-				break;
 			case INVITE:
 				if(checkAuthentication(sipMessage, state)) return;
 				if(checkCSeq(sipService, sipMessage, state)) return;
@@ -62,8 +57,8 @@ public class Dialog extends UntypedActor {
 				getSystem().actorFor("user/" + toUser.getUsername()).tell(message, getSelf());
 				break;
 			case SUBSCRIBE:
-				sipService.tell(sipMessage.toSipResponseMessage(SipResponseStatus.NOT_FOUND
-						.setOptionalMessage("no mailbox")), getSelf());
+				sipService.tell(sipMessage.toSipResponseMessage(SipResponseStatus.NOT_FOUND,
+						"no mailbox"), getSelf());
 				break;
 			default:
 				sipService.tell(sipMessage.toSipResponseMessage(SipResponseStatus.NOT_IMPLEMENTED), 
@@ -108,15 +103,9 @@ public class Dialog extends UntypedActor {
 		// update lastUpdate and (re)schedule destruction
 		state.lastUpdate = System.currentTimeMillis();
 		if(method != null) {
-			switch(method) {
-			case REGISTER:
-				scheduleForDestruction(state, TIMEOUT_DESTRUCTION_REGISTER);
-				break;
-			default:
-				// most dialogs do not need to be persistent. Kill them
-				// immediately
-				scheduleForDestruction(state, TIMEOUT_DESTRUCTION_OTHER);
-			}
+			// most dialogs do not need to be persistent. Kill them
+			// immediately
+			scheduleForDestruction(state, TIMEOUT_DESTRUCTION_OTHER);
 		}
 		
 		return false;
@@ -144,13 +133,9 @@ public class Dialog extends UntypedActor {
 		if(message instanceof SipRequestMessage) {
 			SipRequestMessage m = (SipRequestMessage) message;
 			switch(m.getSipMethod()) {
-			case REGISTER:
-				sipService.tell(m.toSipResponseMessage(SipResponseStatus.NOT_FOUND.setOptionalMessage(
-						String.format("User[%s] (From) not found", state.getUsername()))), getSelf());
-				break;
 			case INVITE:
-				sipService.tell(m.toSipResponseMessage(SipResponseStatus.NOT_FOUND.setOptionalMessage(
-						String.format("User[%s] (TO) not found", state.getUsername()))), getSelf());
+				sipService.tell(m.toSipResponseMessage(SipResponseStatus.NOT_FOUND,
+						String.format("User[%s] (TO) not found", state.getUsername())), getSelf());
 				break;
 			}
 		} else if(message instanceof TimeoutMessage) {
@@ -219,29 +204,25 @@ public class Dialog extends UntypedActor {
             sipRequest.addHeader(SipHeader.CSEQ, String.format("%d %s", state.getCount(), state.getMethod()));
             return false;
         } else {
-            int cSeqCount = -1;
-            String cSeqMethod = null;
-
-            // CSeq: 1 REGISTER || 304 INVITE .....
-            StringTokenizer st = new StringTokenizer(cSeq, " ", false);
-            while (st.countTokens() >= 2) {
-                try {
-                    cSeqCount = Integer.parseInt(st.nextToken());
-                } catch (Exception e) {
-                    sipService.tell(sipRequest.toSipResponseMessage(SipResponseStatus.BAD_REQUEST.setOptionalMessage(
-                            String.format("Invalid CSEQ[%s]", cSeq))), getSelf());
-                    return true;
-                }
-                cSeqMethod = st.nextToken();
+            CSeqHeader header;
+            try {
+                // CSeq: 1 REGISTER || 304 INVITE .....
+                header = CSeqHeader.parse(cSeq);
+            } catch (IllegalArgumentException e) {
+                sipService.tell(sipRequest.toSipResponseMessage(SipResponseStatus.BAD_REQUEST,
+                        String.format("Invalid CSEQ[%s]", cSeq)), getSelf());
+                return true;
             }
+            long cSeqCount = header.getSequence();
+            String cSeqMethod = header.getMethodName();
 
             // check method
             if (!state.getMethod().equalsIgnoreCase(cSeqMethod)) {
                 log.warn(String.format("checkCSeq. CSEQ message method[%s] doens't equal state method[%s]",
                         cSeqMethod, state.getMethod()));
-                sipService.tell(sipRequest.toSipResponseMessage(SipResponseStatus.UNAUTHORIZED.setOptionalMessage(
+                sipService.tell(sipRequest.toSipResponseMessage(SipResponseStatus.UNAUTHORIZED,
                         String.format("CSEQ method[%s] doens't equals message type[%s]", cSeqMethod,
-                                state.getMethod()))), getSelf());
+                                state.getMethod())), getSelf());
                 return true;
             }
 
@@ -249,9 +230,9 @@ public class Dialog extends UntypedActor {
             if (state.getCount() != cSeqCount) {
                 log.warn(String.format("checkCSeq. CSEQ message count[%d] doens't equal state count[%d]",
                         cSeqCount, state.getCount()));
-                sipService.tell(sipRequest.toSipResponseMessage(SipResponseStatus.UNAUTHORIZED.setOptionalMessage(
+                sipService.tell(sipRequest.toSipResponseMessage(SipResponseStatus.UNAUTHORIZED,
                         String.format("CSEQ count[%d] doens't equals message count[%d]",
-                                cSeqCount, state.getCount()))), getSelf());
+                                cSeqCount, state.getCount())), getSelf());
                 return true;
             }
         }
@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
@@ -28,19 +29,24 @@ import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonProperty;
 import org.elasticsoftware.elasterix.server.ServerConfig;
 import org.elasticsoftware.elasterix.server.messages.ApiHttpMessage;
+import org.elasticsoftware.elasterix.server.messages.BindingsExpiredMessage;
 import org.elasticsoftware.elasterix.server.messages.SipRequestMessage;
 import org.elasticsoftware.elasterix.server.messages.TimeoutMessage;
 import org.elasticsoftware.elasterix.server.sip.SipMessageHelper;
 import org.elasticsoftware.elasticactors.ActorRef;
 import org.elasticsoftware.elasticactors.UntypedActor;
+import org.elasticsoftware.sip.SipNonceManager;
 import org.elasticsoftware.sip.codec.SipHeader;
 import org.elasticsoftware.sip.codec.SipMethod;
 import org.elasticsoftware.sip.codec.SipResponseStatus;
 import org.elasticsoftware.sip.codec.SipUser;
 import org.elasticsoftware.sip.codec.SipVersion;
+import org.elasticsoftware.sip.codec.header.CSeqHeader;
+import org.elasticsoftware.sip.codec.header.ContactHeader;
+import org.elasticsoftware.sip.codec.header.DigestCredentials;
+import org.elasticsoftware.sip.codec.header.DigestHash;
 import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
-import org.springframework.security.authentication.encoding.Md5PasswordEncoder;
 import org.springframework.util.StringUtils;
 
 /**
@@ -52,11 +58,17 @@ public final class User extends UntypedActor {
 	private static final Logger log = Logger.getLogger(User.class);
 	private static final boolean STRICT_UAC = true;
 	private static final boolean SEND_OPTIONS = false;
-	/** To be used for generating alphanumeric nonce */
-	private static final char[] CHARACTERS = new char[] {'a','b','c','d','e','f','g','h',
-		'i','j','k','l','m','n','o','p','q','r','s','t','u','v','w','x','y','z'};
-	private Md5PasswordEncoder encoder = new Md5PasswordEncoder();
 	
+	@Override
+	public void postCreate(ActorRef creator) throws Exception {
+		restoreBindings(getState(null).getAsObject(State.class));
+	}
+
+	@Override
+	public void postActivate(String previousVersion) throws Exception {
+		restoreBindings(getState(null).getAsObject(State.class));
+	}
+
 	@Override
 	public void onReceive(ActorRef sender, Object message) throws Exception {
 		ActorRef sipService = getSystem().serviceActorFor("sipService");
@@ -65,33 +77,30 @@ public final class User extends UntypedActor {
 		if(message instanceof SipRequestMessage) {
 			SipRequestMessage request = (SipRequestMessage) message;
 			
+			// REGISTER is sent straight from the SipService: authenticate, bind and respond
+			if(request.getSipMethod() == SipMethod.REGISTER) {
+				if(!authenticate(sender, request, state)) {
+					challenge(sipService, request);
+				} else if(!checkContact(sipService, request) && !checkCSeq(sipService, request, state)) {
+					register(sipService, request, state);
+				}
+				return;
+			}
+			
 			// check if request authenticated
 			if(request.isAuthenticated()) {
 				// previously authenticated. Continue
 			} else {
 				if(authenticate(sender, request, state)) {
 					request.setAuthenticated(true);
-					if(request.getSipMethod() == SipMethod.REGISTER) {
-						// OK, Update nonce so that next requests are automatically rejected. 
-						state.setNonce(generateNonce());
-					}
 					sender.tell(request, getSelf());
 				} else {					
-					if(request.getSipMethod() == SipMethod.REGISTER) {
-						state.setNonce(generateNonce());
-						request.addHeader(SipHeader.WWW_AUTHENTICATE, String.format("Digest algorithm=%s, "
-								+ "realm=\"%s\", nonce=\"%s\"", ServerConfig.getDigestAlgorithm(), 
-								ServerConfig.getRealm(), state.getNonce()));
-					}
 					sipService.tell(request.toSipResponseMessage(SipResponseStatus.UNAUTHORIZED), getSelf());
 				}
 				return;
 			}
 
 			switch (request.getSipMethod()) {
-			case REGISTER:
-				register(sipService, request, state);	
-				return;
 			case INVITE:
 				invite(sipService, request, state);
 				return;
@@ -112,7 +121,7 @@ public final class User extends UntypedActor {
 				if("reset".equalsIgnoreCase(apiMessage.getAction()) 
 						|| "clear".equalsIgnoreCase(apiMessage.getAction())) {
 					log.info("Resetting: " + state.getUsername());
-					state.userAgentClients.clear();
+					removeBindings(state);
 					sender.tell(apiMessage.toHttpResponse(HttpResponseStatus.OK, state), getSelf());
 					return;
 				}
@@ -132,15 +141,28 @@ public final class User extends UntypedActor {
 					state.lastName = update.getLastName();
 				}
 				if(StringUtils.hasLength(update.getPassword())) {
-					state.password = update.getPassword();
+					state.setPassword(update.getPassword());
 				}
 				sender.tell(apiMessage.toHttpResponse(HttpResponseStatus.OK, state), getSelf());
 			} else if (HttpMethod.DELETE == method) {
 				// TODO: we can either remove user here or at UserController#onReceive
+				removeBindings(state);
 				getSystem().stop(getSelf());
 				sender.tell(apiMessage.toHttpResponse(HttpResponseStatus.OK, state), getSelf());
 			}
+		} else if (message instanceof BindingsExpiredMessage) {
+			// batch of bindings expired in the location service. Remove them unless 
+			// renewed in the mean time
+			long now = System.currentTimeMillis();
+			for(String uac : ((BindingsExpiredMessage) message).getUserAgentClients()) {
+				Long expires = state.userAgentClients.get(uac);
+				if(expires != null && expires.longValue() <= now) {
+					state.userAgentClients.remove(uac);
+					state.registrations.remove(uac);
+				}
+			}
 		} else if (message instanceof TimeoutMessage) {
+			// scheduled before bindings were kept in the location service
 			state.clearUserAgentClients();
 		} else {
 			unhandled(message);
@@ -164,8 +186,8 @@ public final class User extends UntypedActor {
 				}
 
 				if(STRICT_UAC) {
-					sipService.tell(m.toSipResponseMessage(SipResponseStatus.GONE.setOptionalMessage(
-						String.format("UAC[%s] not found", receiver.getActorId()))), getSelf());
+					sipService.tell(m.toSipResponseMessage(SipResponseStatus.GONE,
+							String.format("UAC[%s] not found", receiver.getActorId())), getSelf());
 				} else {
 					// create UAC and resent message
 					StringTokenizer st = new StringTokenizer(receiver.getActorId(), "/_", false);
@@ -185,33 +207,164 @@ public final class User extends UntypedActor {
 	 * See http://en.wikipedia.org/wiki/Digest_access_authentication
 	 * 
 	 * @param state
-	 * @param props
+	 * @param credentials
 	 * @return
 	 */
-	protected String generateHash(User.State state, Map<String, String> props) {
-		// please see 
-		// http://en.wikipedia.org/wiki/Digest_access_authentication
-		// http://hashcat.net/forum/thread-1455.html
-		String ha1 = String.format("%s:%s:%s", props.get("username"), props.get("realm"), 
-				state.password);
-		String ha2 = String.format("%s:%s", "REGISTER", props.get("uri"));
-		//log.debug(String.format("HA1(%s) -> %s", ha1, encoder.encodePassword(ha1, null)));
-		//log.debug(String.format("HA2(%s) -> %s", ha2, encoder.encodePassword(ha2, null)));
-		return encoder.encodePassword(String.format("%s:%s:%s", encoder.encodePassword(ha1, null), 
-				props.get("nonce"), encoder.encodePassword(ha2, null)), null);
+	protected String generateHash(User.State state, DigestCredentials credentials) {
+		return DigestHash.response(ServerConfig.getDigestAlgorithm(), state.getHa1(credentials), 
+				credentials.getNonce(), credentials.getParameter("nc"), credentials.getCnonce(), 
+				credentials.getQop(), SipMethod.REGISTER.name(), credentials.getUri());
+	}
+
+	/**
+	 * Answers a REGISTER that failed authentication with a 401 carrying a new nonce
+	 */
+	protected void challenge(ActorRef sipService, SipRequestMessage request) {
+		request.addHeader(SipHeader.WWW_AUTHENTICATE, String.format("Digest algorithm=%s, "
+				+ "realm=\"%s\", nonce=\"%s\", qop=\"auth\"%s", ServerConfig.getDigestAlgorithm(), 
+				ServerConfig.getRealm(), ServerConfig.getNonceManager().generate(
+				ServerConfig.getRealm()), isStale(request) ? ", stale=true" : ""));
+		sipService.tell(request.toSipResponseMessage(SipResponseStatus.UNAUTHORIZED), getSelf());
+	}
+
+	/**
+	 * Checks the Contact of a REGISTER. The wildcard contact (removing all bindings)
+	 * must be the only contact and come with Expires 0. A REGISTER without Contact
+	 * queries the current bindings.
+	 * <p/>
+	 * http://tools.ietf.org/html/rfc3261#section-10.3 (step 6)
+	 * 
+	 * @return true if the request is rejected (and answered)
+	 */
+	protected boolean checkContact(ActorRef sipService, SipRequestMessage request) {
+		if(!StringUtils.hasLength(request.getHeader(SipHeader.CONTACT))) {
+			return false;
+		}
+		ContactHeader contact = getContact(request);
+		if(contact == null || (!contact.isWildcard() 
+				&& !StringUtils.hasLength(request.getSipUser(SipHeader.CONTACT).getDomain()))) {
+			log.warn(String.format("checkContact. Missing or invalid Contact[%s]", 
+					request.getHeader(SipHeader.CONTACT)));
+			sipService.tell(request.toSipResponseMessage(SipResponseStatus.BAD_REQUEST,
+					String.format("Missing or invalid Contact[%s]", request.getHeader(SipHeader.CONTACT))), 
+					getSelf());
+			return true;
+		}
+		if(contact.isWildcard()) {
+			Long expires = request.getHeaderAsLong(SipHeader.EXPIRES);
+			if(request.getHeaders().get(SipHeader.CONTACT.getName()).size() > 1
+					|| request.getHeader(SipHeader.CONTACT).indexOf(',') != -1
+					|| expires == null || expires.longValue() != 0) {
+				sipService.tell(request.toSipResponseMessage(SipResponseStatus.BAD_REQUEST,
+						"Contact[*] requires Expires 0 and no other contacts"), getSelf());
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the (first) Contact of given request or null if absent or invalid
+	 */
+	private static ContactHeader getContact(SipRequestMessage request) {
+		String value = request.getHeader(SipHeader.CONTACT);
+		if(!StringUtils.hasLength(value)) {
+			return null;
+		}
+		try {
+			return ContactHeader.parse(value);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks the CSeq of a REGISTER against the registration record of its contact
+	 * <p/>
+	 * http://tools.ietf.org/html/rfc3261#section-10.3 (step 7)
+	 * 
+	 * @return true if the request is rejected (and answered)
+	 */
+	protected boolean checkCSeq(ActorRef sipService, SipRequestMessage request, State state) {
+		ContactHeader contact = getContact(request);
+		SipUser user = contact == null || contact.isWildcard() ? null : request.getSipUser(SipHeader.CONTACT);
+		Registration registration = user == null ? null : state.getRegistration(user);
+		String callId = request.getCallDialog();
+		boolean sameCall = registration != null && registration.getCallId().equals(callId);
+
+		String cSeq = request.getHeader(SipHeader.CSEQ);
+		if(!StringUtils.hasLength(cSeq)) {
+			// the specs indicate that cseq might be empty. If so, add a new entry
+			long count = sameCall ? registration.getCSeq() + 1 : 1;
+			log.warn(String.format("checkCSeq. No CSEQ set for REGISTER[%s,%s]. Creating new one", 
+					callId, state.getUsername()));
+			request.addHeader(SipHeader.CSEQ, String.format("%d %s", count, SipMethod.REGISTER.name()));
+			return false;
+		}
+
+		CSeqHeader header;
+		try {
+			// CSeq: 1 REGISTER
+			header = CSeqHeader.parse(cSeq);
+		} catch (IllegalArgumentException e) {
+			sipService.tell(request.toSipResponseMessage(SipResponseStatus.BAD_REQUEST,
+					String.format("Invalid CSEQ[%s]", cSeq)), getSelf());
+			return true;
+		}
+
+		// check method
+		if(!SipMethod.REGISTER.name().equalsIgnoreCase(header.getMethodName())) {
+			log.warn(String.format("checkCSeq. CSEQ method[%s] doesn't equal REGISTER", 
+					header.getMethodName()));
+			sipService.tell(request.toSipResponseMessage(SipResponseStatus.BAD_REQUEST,
+					String.format("CSEQ method[%s] doesn't equal REGISTER", header.getMethodName())), 
+					getSelf());
+			return true;
+		}
+
+		// check count. Within the same Call-ID it must increase
+		if(sameCall && header.getSequence() <= registration.getCSeq()) {
+			log.warn(String.format("checkCSeq. CSEQ count[%d] not higher than registered count[%d]", 
+					header.getSequence(), registration.getCSeq()));
+			sipService.tell(request.toSipResponseMessage(SipResponseStatus.SERVER_INTERNAL_ERROR,
+					String.format("CSEQ count[%d] out of order", header.getSequence())), getSelf());
+			return true;
+		}
+		return false;
 	}
 
 	protected void register(ActorRef sipService, SipRequestMessage message, State state) {
 		if(log.isDebugEnabled()) log.debug(String.format("register. [%s]", message));
 
+		ContactHeader contact = getContact(message);
+		if(contact == null) {
+			// query: list the current bindings (http://tools.ietf.org/html/rfc3261#section-10.2.3)
+			addBindings(message, state);
+			message.appendHeader(SipHeader.TO, "tag", UUID.randomUUID().toString());
+			sipService.tell(message.toSipResponseMessage(SipResponseStatus.OK), getSelf());
+			return;
+		}
+		if(contact.isWildcard()) {
+			// remove all bindings (Expires 0 is checked by checkContact)
+			removeBindings(state);
+			message.appendHeader(SipHeader.TO, "tag", UUID.randomUUID().toString());
+			sipService.tell(message.toSipResponseMessage(SipResponseStatus.OK), getSelf());
+			return;
+		}
+
 		// get uac 
 		SipUser user = message.getSipUser(SipHeader.CONTACT);
 		
+		// remember Call-ID and CSeq of the contact's registration
+		CSeqHeader cSeq = CSeqHeader.parse(message.getHeader(SipHeader.CSEQ));
+		state.setRegistration(user, new Registration(message.getCallDialog(), cSeq.getSequence()));
+		
 		// check expiration...
 		long expires = message.getExpires();
 		if(expires == 0) {
 			// remove current binding with UAC set in message (if exist)
 			state.removeUserAgentClient(user);
+			ServerConfig.getLocationService().unregister(state.getUsername(), state.key(user));
 			
 			// TODO remove UAC actor as well?
 		} else {
@@ -230,15 +383,11 @@ public final class User extends UntypedActor {
 				}
 			}
 			
-			// update binding (with new expiration)
-			state.addUserAgentClient(user, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expires));
-			
-			// schedule timeout for destruction (i.e. removal of binding UAC / user)
-			TimeoutMessage timeoutMessage = new TimeoutMessage();
-			timeoutMessage.setTimeoutInMilliSeconds(TimeUnit.SECONDS.toMillis(expires));
-			timeoutMessage.setUserAgentClient(state.key(user));
-			getSystem().getScheduler().scheduleOnce(getSelf(), 
-					timeoutMessage, getSelf(), expires, TimeUnit.SECONDS);
+			// update binding (with new expiration). A re-registration moves the deadline 
+			// of the existing binding in the location service
+			long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expires);
+			state.addUserAgentClient(user, expiresAt);
+			ServerConfig.getLocationService().register(state.getUsername(), state.key(user), expiresAt);
 			
 			// send SIP Options message to client in order to find out which services are supported
 			if(SEND_OPTIONS) {
@@ -247,7 +396,8 @@ public final class User extends UntypedActor {
 			}
 		}
 
-		// send OK back to client
+		// append TO user with UID tag and send OK back to client
+		message.appendHeader(SipHeader.TO, "tag", UUID.randomUUID().toString());
 		sipService.tell(message.toSipResponseMessage(SipResponseStatus.OK), getSelf());
 	}
 	
@@ -257,31 +407,23 @@ public final class User extends UntypedActor {
 				state.getUsername()));
 		}
 		
-		// forward message to all registered UAC's of callee
-		long now = System.currentTimeMillis();
+		// forward message to all registered (not expired) UAC's of callee
 		boolean ringing = false;
-		for(Map.Entry<String,Long> uacEntry : state.getUserAgentClients().entrySet()) {
-			// check is UAC is expired
-			if(uacEntry.getValue() < now) {
-				log.info(String.format("invite. User[%s] -> UAC[%s, %s] expired",
-						state.getUsername(), uacEntry.getKey(), new Date(uacEntry.getValue())));
-			} else {
-				if(log.isDebugEnabled()) {
-					log.debug(String.format("invite. User[%s], ringing UAC[%s]",
-							state.getUsername(), uacEntry.getKey()));
-				}
-				// sent message to UAC
-				ActorRef actor = getSystem().actorFor(uacEntry.getKey());
-				actor.tell(message, getSelf());
-				ringing = true;
+		for(String uac : ServerConfig.getLocationService().getContacts(state.getUsername())) {
+			if(log.isDebugEnabled()) {
+				log.debug(String.format("invite. User[%s], ringing UAC[%s]", state.getUsername(), uac));
 			}
+			// sent message to UAC
+			ActorRef actor = getSystem().actorFor(uac);
+			actor.tell(message, getSelf());
+			ringing = true;
 		}
 		
 		// did we rang a device (or at least notified a single UAC)?
 		if(!ringing) {
 			log.info(String.format("invite. No registered UAC for user[%s]", state.getUsername()));
-			sipService.tell(message.toSipResponseMessage(SipResponseStatus.GONE.setOptionalMessage( 
-					String.format("No registered UAC for user[%s]", state.getUsername()))), getSelf());				
+			sipService.tell(message.toSipResponseMessage(SipResponseStatus.GONE,
+					String.format("No registered UAC for user[%s]", state.getUsername())), getSelf());				
 		} else {
 			// OK, the message is sent to at least one UAC. Wait for the response
 			// to be sent back by this UAC. For now, return a 'trying' which is a
@@ -305,30 +447,59 @@ public final class User extends UntypedActor {
 				return false;
 			}
 			
-			Map<String,String> map = request.tokenize(SipHeader.AUTHORIZATION);
+			DigestCredentials credentials = request.getDigestCredentials(SipHeader.AUTHORIZATION);
+			if(credentials == null) {
+				if(log.isDebugEnabled()) log.debug(String.format("authenticate. Invalid authorization[%s]",
+						authorization));
+				return false;
+			}
 			
 			// check username
-			String val = map.get("username");
+			String val = credentials.getUsername();
 			if(!state.getUsername().equalsIgnoreCase(val)) {
 				if(log.isDebugEnabled()) log.debug(String.format("authenticate. Provided username[%s] "
 						+ "!= given username[%s]", val, state.getUsername()));
 				return false;
 			}
 
-			// check nonce
-			val = map.get("nonce");
-			if(!state.getNonce().equalsIgnoreCase(val)) {
+			// check nonce (issued by us for this realm and not expired) 
+			SipNonceManager nonces = ServerConfig.getNonceManager();
+			SipNonceManager.Verdict verdict = nonces.verify(credentials.getNonce(), ServerConfig.getRealm());
+			if(verdict != SipNonceManager.Verdict.VALID) {
 				if(log.isDebugEnabled()) log.debug(String.format("authenticate. Provided nonce[%s] "
-						+ "!= given nonce[%s]", val, state.getNonce()));
+						+ "is %s", credentials.getNonce(), verdict));
 				return false;
 			}
-			
+
+			// check quality of protection
+			val = credentials.getQop();
+			if(val != null && !"auth".equalsIgnoreCase(val)) {
+				if(log.isDebugEnabled()) log.debug(String.format("authenticate. Unsupported qop[%s]", val));
+				return false;
+			}
+
+			// check algorithm
+			val = credentials.getAlgorithm();
+			if(val != null && !ServerConfig.getDigestAlgorithm().equalsIgnoreCase(val)) {
+				if(log.isDebugEnabled()) log.debug(String.format("authenticate. Provided algorithm[%s] "
+						+ "!= given algorithm[%s]", val, ServerConfig.getDigestAlgorithm()));
+				return false;
+			}
+
 			// check hash
-			val = map.get("response"); 
-			String secretHash = generateHash(state, map);
-			if(!secretHash.equals(val)) {
+			val = credentials.getResponse(); 
+			if(!DigestHash.matches(ServerConfig.getDigestAlgorithm(), state.getHa1(credentials), 
+					credentials.getNonce(), credentials.getParameter("nc"), credentials.getCnonce(), 
+					credentials.getQop(), SipMethod.REGISTER.name(), credentials.getUri(), val)) {
 				if(log.isDebugEnabled()) log.debug(String.format("authenticate. Provided hash[%s] "
-						+ "!= given hash[%s]", val, secretHash));
+						+ "!= given hash[%s]", val, generateHash(state, credentials)));
+				return false;
+			}
+
+			// check replay (nonce count must increase with every use of the nonce)
+			if(!nonces.use(credentials.getNonce(), credentials.getNonceCount())) {
+				if(log.isDebugEnabled()) log.debug(String.format("authenticate. Nonce[%s] replayed "
+						+ "with nc[%s]", credentials.getNonce(), credentials.getParameter("nc")));
 				return false;
 			}
 			return true;
@@ -344,17 +515,70 @@ public final class User extends UntypedActor {
 		return false;
 	}
 	
-	private String generateNonce() {
-		// a value between 10M and 100M 
-		long nonce = (10000000 + ((long) (Math.random() * 90000000.0)));
-		// add 5 random characters at random places...
-		StringBuffer sb = new StringBuffer(Long.toString(nonce));
-		for(int i = 0; i < 5; i++) {
-			char c = CHARACTERS[(int) ((double) (CHARACTERS.length - 1) * Math.random())];
-			int idx = (int) (Math.random() * (double) (sb.length() - 1));
-			sb.insert(idx, c);
-		}
-		return sb.toString();
+	/**
+	 * Removes all bindings of given user, from its state and the location service
+	 */
+	private void removeBindings(State state) {
+		for(String uac : state.userAgentClients.keySet()) {
+			ServerConfig.getLocationService().unregister(state.getUsername(), uac);
+		}
+		state.userAgentClients.clear();
+		state.registrations.clear();
+	}
+
+	/**
+	 * Adds a Contact (with the remaining time as expires) for every binding of given
+	 * user that has not expired
+	 */
+	private void addBindings(SipRequestMessage message, State state) {
+		long now = System.currentTimeMillis();
+		for(Map.Entry<String, Long> entry : state.getUserAgentClients().entrySet()) {
+			String contact = toContact(entry.getKey());
+			if(contact != null && entry.getValue() > now) {
+				message.addHeader(SipHeader.CONTACT, String.format("%s;expires=%d", contact, 
+						TimeUnit.MILLISECONDS.toSeconds(entry.getValue() - now)));
+			}
+		}
+	}
+
+	/**
+	 * Returns the contact address of given binding key (see {@link State#key(SipUser)}),
+	 * or null if it is not a binding key
+	 */
+	private static String toContact(String key) {
+		int port = key.lastIndexOf('_');
+		int domain = port == -1 ? -1 : key.lastIndexOf('_', port - 1);
+		if(!key.startsWith("uac/") || domain < 4) {
+			return null;
+		}
+		String username = key.substring(4, domain);
+		return String.format("<sip:%s%s:%s>", username.length() == 0 ? "" : username + "@", 
+				key.substring(domain + 1, port), key.substring(port + 1));
+	}
+
+	/**
+	 * Puts the (persisted) bindings that have not expired in the location service,
+	 * which only lives in memory
+	 */
+	private void restoreBindings(State state) {
+		if(state == null) {
+			return;
+		}
+		state.clearUserAgentClients();
+		for(Map.Entry<String, Long> entry : state.getUserAgentClients().entrySet()) {
+			ServerConfig.getLocationService().register(state.getUsername(), entry.getKey(), 
+					entry.getValue());
+		}
+	}
+
+	/**
+	 * Returns true if the request carries credentials with an expired nonce, i.e.
+	 * the client can retry with a new nonce without asking for the password
+	 */
+	private boolean isStale(SipRequestMessage request) {
+		DigestCredentials credentials = request.getDigestCredentials(SipHeader.AUTHORIZATION);
+		return credentials != null && ServerConfig.getNonceManager().isStale(credentials.getNonce(), 
+				ServerConfig.getRealm());
 	}
 
 	/**
@@ -365,19 +589,31 @@ public final class User extends UntypedActor {
 		private final String username;
 		/** UID of User Agent Client (key) and expires (seconds) as value */
 		private Map<String, Long> userAgentClients = new HashMap<String, Long>();
-		private String nonce;
+		/** Registration record (Call-ID and CSeq) per User Agent Client */
+		private Map<String, Registration> registrations = new HashMap<String, Registration>();
 		private String tag;
 		private String firstName;
 		private String lastName;
 		private String password;
+		/** H(username:realm:password), computed when the password is set */
+		private String ha1;
+
+		public State(String email, String username, String password) {
+			this(email, username, password, null);
+		}
 
 		@JsonCreator
 		public State(@JsonProperty("email") String email,
 				@JsonProperty("username") String username,
-				@JsonProperty("password") String password) {
+				@JsonProperty("password") String password,
+				@JsonProperty("ha1") String ha1) {
 			this.email = email;
 			this.username = username;
 			this.password = password;
+			this.ha1 = ha1;
+			if(ha1 == null) {
+				this.ha1 = generateHa1(username);
+			}
 		}
 
 		@JsonProperty("email")
@@ -395,16 +631,21 @@ public final class User extends UntypedActor {
 			return password;
 		}
 
+		@JsonProperty("ha1")
+		public String getHa1() {
+			return ha1;
+		}
+
 		@JsonProperty("userAgentClients")
 		public Map<String, Long> getUserAgentClients() {
 			return userAgentClients;
 		}
 
-		@JsonProperty("nonce")
-		public String getNonce() {
-			return nonce;
+		@JsonProperty("registrations")
+		public Map<String, Registration> getRegistrations() {
+			return registrations;
 		}
-		
+
 		@JsonProperty("tag")
 		public String getTag() {
 			return tag;
@@ -421,6 +662,7 @@ public final class User extends UntypedActor {
 		}
 
 		public boolean removeUserAgentClient(SipUser user) {
+			registrations.remove(key(user));
 			return userAgentClients.remove(key(user)) != null;
 		}
 
@@ -431,7 +673,6 @@ public final class User extends UntypedActor {
 		 * @param expiration
 		 */
 		public void addUserAgentClient(SipUser user, long expirationDate) {
-			removeUserAgentClient(user);
 			userAgentClients.put(key(user), expirationDate);
 		}
 		
@@ -446,6 +687,7 @@ public final class User extends UntypedActor {
 								new Date(entry.getValue())));
 					}
 					it.remove();
+					registrations.remove(entry.getKey());
 				}
 			}
 		}
@@ -454,13 +696,68 @@ public final class User extends UntypedActor {
 			return userAgentClients.get(key(user));
 		}
 
-		protected void setNonce(String nonce) {
-			this.nonce = nonce;
+		public Registration getRegistration(SipUser user) {
+			return registrations.get(key(user));
 		}
-		
+
+		protected void setRegistration(SipUser user, Registration registration) {
+			registrations.put(key(user), registration);
+		}
+
+		/**
+		 * Returns the HA1 for given credentials: the stored one, unless the credentials
+		 * are for a username (in another case) or realm it was not computed for
+		 */
+		protected String getHa1(DigestCredentials credentials) {
+			if(ha1 != null && username.equals(credentials.getUsername()) 
+					&& ServerConfig.getRealm().equals(credentials.getRealm())) {
+				return ha1;
+			}
+			return DigestHash.ha1(ServerConfig.getDigestAlgorithm(), credentials.getUsername(), 
+					credentials.getRealm(), password);
+		}
+
+		protected void setPassword(String password) {
+			this.password = password;
+			this.ha1 = generateHa1(username);
+		}
+
+		private String generateHa1(String username) {
+			if(username == null || password == null) {
+				return null;
+			}
+			return DigestHash.ha1(ServerConfig.getDigestAlgorithm(), username, ServerConfig.getRealm(), 
+					password);
+		}
+
 		protected String key(SipUser user) {
 			return String.format("uac/%s_%s_%d", user.getUsername(), user.getDomain(), 
 					user.getPort());
 		}
 	}
+
+	/**
+	 * Call-ID and CSeq of the last accepted REGISTER of a User Agent Client
+	 */
+	public static final class Registration {
+		private final String callId;
+		private final long cSeq;
+
+		@JsonCreator
+		public Registration(@JsonProperty("callId") String callId,
+				@JsonProperty("cSeq") long cSeq) {
+			this.callId = callId;
+			this.cSeq = cSeq;
+		}
+
+		@JsonProperty("callId")
+		public String getCallId() {
+			return callId;
+		}
+
+		@JsonProperty("cSeq")
+		public long getCSeq() {
+			return cSeq;
+		}
+	}
 }
@@ -20,6 +20,7 @@ import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.annotate.JsonProperty;
 import org.elasticsoftware.sip.codec.SipHeader;
 import org.elasticsoftware.sip.codec.SipUser;
+import org.elasticsoftware.sip.codec.header.DigestCredentials;
 import org.springframework.util.StringUtils;
 
 import java.util.*;
@@ -31,6 +32,7 @@ public abstract class AbstractSipMessage {
     private String version;
     private final LinkedHashMap<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
     protected final byte[] content;
+    private transient SipUser[] sipUsers;
 
     protected AbstractSipMessage(String version, Map<String, List<String>> headers, byte[] content) {
         this.version = version;
@@ -67,6 +69,7 @@ public abstract class AbstractSipMessage {
     }
 
     public void addHeader(SipHeader header, String value) {
+        sipUsers = null;
         List<String> values = headers.get(header.getName());
         if (values == null) {
             values = new ArrayList<String>();
@@ -89,13 +92,15 @@ public abstract class AbstractSipMessage {
         String val = getHeader(header);
         if (StringUtils.hasLength(val)) {
             // TODO check for duplicate?
-            setHeader(header, String.format("%s;%s=%s", val, key, value));
+            setHeader(header, new StringBuilder(val.length() + key.length() + value.length() + 2)
+                    .append(val).append(';').append(key).append('=').append(value).toString());
             return true;
         }
         return false;
     }
 
     public boolean removeHeader(SipHeader header) {
+        sipUsers = null;
         return headers.remove(header.getName()) != null;
     }
 
@@ -122,7 +127,8 @@ public abstract class AbstractSipMessage {
     /**
      * Parses a traditional sip user element belonging to given header, e.g. <br>
      * "Hans de Borst"<sip:124@sip.outerteams.com:5060>;tag=ce337d00<br>
-     * If no header is passed, SipHeader.TO will be used
+     * If no header is passed, SipHeader.TO will be used. The user is parsed
+     * once and cached until the headers are modified.
      *
      * @param header
      * @return
@@ -132,11 +138,17 @@ public abstract class AbstractSipMessage {
         if (header == null) {
             header = SipHeader.TO;
         }
+        if (sipUsers != null && sipUsers[header.ordinal()] != null) {
+            return sipUsers[header.ordinal()];
+        }
         String user = getHeader(header);
         if (!StringUtils.hasLength(user)) {
             return null;
         }
-        return new SipUser(user);
+        if (sipUsers == null) {
+            sipUsers = new SipUser[SipHeader.values().length];
+        }
+        return sipUsers[header.ordinal()] = new SipUser(user);
     }
 
     @JsonIgnore
@@ -151,50 +163,26 @@ public abstract class AbstractSipMessage {
     }
 
     /**
-     * Tokenizes value belonging to given header, e.g.
+     * Parses the credentials belonging to given header, e.g.
      * Authorization: Digest username="124",realm="elasticsoftware",nonce="24855234",
      * uri="sip:sip.outerteams.com:5060",response="749c35e9fe30d6ba46cc801bdfe535a0",algorithm=MD5
      * <br>
-     * <br>
-     * will be tokenized into:
-     * <ol>
-     * <li>digest      -> digest</li>
-     * <li>username    -> 124</li>
-     * <li>realm       -> elasticsoftware</li>
-     * <li>nonce       -> 24855234</li>
-     * <li>uri         -> sip:sip.outerteams.com:5060</li>
-     * <li>response    -> 749c35e9fe30d6ba46cc801bdfe535a0</li>
-     * <li>algorithm   -> MD5</li>
-     * </ol>
-     * <br>
-     * <b>This method does **not** handle spaces and comma correctly in attribute values</b>
+     * Quoted values may contain spaces and commas.
      *
-     * @param value
-     * @return
+     * @param header
+     * @return the credentials or null if header is absent or invalid
      */
-    public Map<String, String> tokenize(SipHeader header) {
-        Map<String, String> map = new HashMap<String, String>();
-
-        // sanity check
+    @JsonIgnore
+    public DigestCredentials getDigestCredentials(SipHeader header) {
         String value = getHeader(header);
-        if (StringUtils.isEmpty(value)) {
-            return map;
+        if (!StringUtils.hasLength(value)) {
+            return null;
         }
-
-        // Authorization: Digest username="124",realm="elasticsoftware",nonce="24855234",
-        // uri="sip:sip.outerteams.com:5060",response="749c35e9fe30d6ba46cc801bdfe535a0",algorithm=MD5
-        StringTokenizer st = new StringTokenizer(value, " ,", false);
-        while (st.hasMoreTokens()) {
-            String token = st.nextToken();
-            int idx = token.indexOf("=");
-            if (idx != -1) {
-                map.put(token.substring(0, idx).toLowerCase(),
-                        token.substring(idx + 1).replace('\"', ' ').trim());
-            } else {
-                map.put(token.toLowerCase(), token);
-            }
+        try {
+            return DigestCredentials.parse(value);
+        } catch (IllegalArgumentException e) {
+            return null;
         }
-        return map;
     }
 
     public abstract String toShortString();
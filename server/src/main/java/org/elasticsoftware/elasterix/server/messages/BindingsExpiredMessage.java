@@ -0,0 +1,25 @@
+package org.elasticsoftware.elasterix.server.messages;
+
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+/**
+ * Tells a User the bindings of (some of) its User Agent Clients expired
+ *
+ * @author Leonard Wolters
+ */
+public class BindingsExpiredMessage {
+	private final List<String> userAgentClients;
+
+	@JsonCreator
+	public BindingsExpiredMessage(@JsonProperty("userAgentClients") List<String> userAgentClients) {
+		this.userAgentClients = userAgentClients;
+	}
+
+	@JsonProperty("userAgentClients")
+	public List<String> getUserAgentClients() {
+		return userAgentClients;
+	}
+}
@@ -83,14 +83,22 @@ public class SipRequestMessage extends AbstractSipMessage {
     }
 
     public SipResponseMessage toSipResponseMessage(SipResponseStatus status) {
+        return toSipResponseMessage(status, null);
+    }
+
+    /**
+     * Creates the response with given status, adding given text to its reason
+     * phrase (if not null)
+     */
+    public SipResponseMessage toSipResponseMessage(SipResponseStatus status, String optionalMessage) {
         return new SipResponseMessage(this.getVersion().toString(), status.getCode(),
-                getHeaders(), getContent(), status.getOptionalMessage());
+                getHeaders(), getContent(), optionalMessage);
     }
 
     public SipRequest toSipRequest() {
         SipRequest request = new SipRequestImpl(SipVersion.lookup(getVersion()), getSipMethod(), getUri());
         for (Map.Entry<String, List<String>> entry : getHeaders().entrySet()) {
-            request.addHeader(SipHeader.lookup(entry.getKey()), entry.getValue().toArray());
+            request.addHeader(entry.getKey(), entry.getValue().toArray());
         }
         // TODO fix content
         return request;
@@ -21,7 +21,6 @@ import java.util.Map;
 
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonProperty;
-import org.elasticsoftware.sip.codec.SipHeader;
 import org.elasticsoftware.sip.codec.SipResponse;
 import org.elasticsoftware.sip.codec.SipResponseImpl;
 import org.elasticsoftware.sip.codec.SipResponseStatus;
@@ -38,7 +37,8 @@ public class SipResponseMessage extends AbstractSipMessage {
     public SipResponseMessage(SipResponse response) {
         super(response.getVersion().toString(), response.getHeaders(),
                 null);
-        setSipResponseStatus(response.getResponseStatus());
+        this.response = response.getResponseStatus().getCode();
+        this.responseMessage = response.getOptionalMessage();
     }
 
     @JsonCreator
@@ -59,7 +59,6 @@ public class SipResponseMessage extends AbstractSipMessage {
 
     public SipResponseMessage setSipResponseStatus(SipResponseStatus responseStatus) {
         this.response = responseStatus.getCode();
-        this.responseMessage = responseStatus.getOptionalMessage();
         return this;
     }
 
@@ -75,11 +74,11 @@ public class SipResponseMessage extends AbstractSipMessage {
 
     public SipResponse toSipResponse() {
         SipResponseStatus status = SipResponseStatus.lookup(response);
-        status.setOptionalMessage(responseMessage);
         SipVersion version = SipVersion.lookup(getVersion(), true);
         SipResponse response = new SipResponseImpl(version, status);
+        response.setOptionalMessage(responseMessage);
         for (Map.Entry<String, List<String>> entry : getHeaders().entrySet()) {
-            response.addHeader(SipHeader.lookup(entry.getKey()), entry.getValue().toArray());
+            response.addHeader(entry.getKey(), entry.getValue().toArray());
         }
         // TODO: fix content
         return response;
@@ -0,0 +1,32 @@
+package org.elasticsoftware.elasterix.server.sip;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.elasticsoftware.elasterix.server.messages.BindingsExpiredMessage;
+import org.elasticsoftware.elasticactors.ActorSystem;
+import org.elasticsoftware.sip.SipLocationService;
+
+/**
+ * Tells the User actors of the bindings that expired in the location service,
+ * in one message per user per tick
+ *
+ * @author Leonard Wolters
+ */
+public class BindingExpiryNotifier implements SipLocationService.ExpiryListener {
+	private static final Logger log = Logger.getLogger(BindingExpiryNotifier.class);
+	private final ActorSystem actorSystem;
+
+	public BindingExpiryNotifier(ActorSystem actorSystem) {
+		this.actorSystem = actorSystem;
+	}
+
+	@Override
+	public void onExpired(String username, List<String> userAgentClients) {
+		if(log.isDebugEnabled()) {
+			log.debug(String.format("onExpired. User[%s] -> UAC%s expired", username, userAgentClients));
+		}
+		actorSystem.actorFor("user/" + username).tell(new BindingsExpiredMessage(userAgentClients), 
+				actorSystem.serviceActorFor("sipService"));
+	}
+}
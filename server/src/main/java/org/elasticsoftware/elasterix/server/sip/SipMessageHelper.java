@@ -9,6 +9,7 @@ import org.elasticsoftware.sip.codec.SipHeader;
 import org.elasticsoftware.sip.codec.SipMethod;
 import org.elasticsoftware.sip.codec.SipUser;
 import org.elasticsoftware.sip.codec.SipVersion;
+import org.elasticsoftware.sip.codec.header.ViaHeader;
 
 /**
  * @author Leonard Wolters
@@ -65,12 +66,20 @@ public class SipMessageHelper {
         message.addHeader(SipHeader.SUPPORTED, ServerConfig.getSupported());
         message.addHeader(SipHeader.TO, to.toHeader(rinstance, ServerConfig.getProtocol(), true));
         message.addHeader(SipHeader.USER_AGENT, ServerConfig.getUserAgent());
-        message.setHeader(SipHeader.VIA, String.format("%s/%s %s:%d;branch=z9hG4bK326c96f4",
-				message.getVersion().toString(), ServerConfig.getProtocol(), ServerConfig.getIPAddress(), 
-				ServerConfig.getSipPort()));
+        message.setHeader(SipHeader.VIA, createVia(message.getVersion().toString()));
         return message;
 	}
 	
+	/**
+	 * Creates the Via of a request sent by this server. Every request gets a
+	 * unique branch, as it identifies its (client) transaction
+	 */
+	private static String createVia(String version) {
+		return String.format("%s/%s %s:%d;branch=%s%s", version, ServerConfig.getProtocol(),
+				ServerConfig.getIPAddress(), ServerConfig.getSipPort(), ViaHeader.MAGIC_COOKIE,
+				Long.toHexString(UUID.randomUUID().getLeastSignificantBits()));
+	}
+
 	public static SipRequestMessage checkRequest(SipRequestMessage message) {
 		
 		//
@@ -82,9 +91,7 @@ public class SipMessageHelper {
 		//
 		// Add header
 		//
-		message.setHeader(SipHeader.VIA, String.format("%s/%s %s:%d;branch=z9hG4bK326c96f4",
-				message.getVersion().toString(), ServerConfig.getProtocol(), ServerConfig.getIPAddress(), 
-				ServerConfig.getSipPort()));
+		message.setHeader(SipHeader.VIA, createVia(message.getVersion().toString()));
 		
 		return message;
 	}
@@ -99,15 +106,6 @@ public class SipMessageHelper {
 		message.setHeader(SipHeader.SERVER, ServerConfig.getServerName());
 		message.setHeader(SipHeader.SUPPORTED, ServerConfig.getSupported());
 		
-		// 
-		// alter existing headers
-		//
-		SipUser contact = message.getSipUser(SipHeader.CONTACT);
-		if(contact != null) {
-			message.appendHeader(SipHeader.VIA, "received", contact.getDomain());
-			message.appendHeader(SipHeader.VIA, "rport", Long.toString(contact.getPort()));
-		}
-		
 		//
 		// Optionally, remove headers
 		//
@@ -27,15 +27,19 @@ import org.elasticsoftware.elasticactors.UntypedActor;
 import org.elasticsoftware.sip.SipMessageHandler;
 import org.elasticsoftware.sip.SipMessageSender;
 import org.elasticsoftware.sip.codec.SipHeader;
+import org.elasticsoftware.sip.codec.SipMethod;
 import org.elasticsoftware.sip.codec.SipRequest;
 import org.elasticsoftware.sip.codec.SipResponse;
+import org.elasticsoftware.sip.codec.SipResponseStatus;
 import org.elasticsoftware.sip.codec.SipUser;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * Default implementation of the Sip Message Handler.<br>
  * <br>
- * This is a Service Actor based implementation.
+ * This is a Service Actor based implementation. A REGISTER is told straight to
+ * the User actor of the From user, which authenticates, binds and responds in
+ * one go; other requests go to the Dialog actor of their Call-ID.
  *
  * @author Leonard Wolters
  */
@@ -50,8 +54,6 @@ public final class SipService extends UntypedActor implements SipMessageHandler
      */
     private ActorSystem actorSystem;
 
-    private final SipMessageCallbackImpl dummyCallback = new SipMessageCallbackImpl();
-
     /**
      * Constructor
      */
@@ -80,7 +82,14 @@ public final class SipService extends UntypedActor implements SipMessageHandler
     public void onUndeliverable(ActorRef receiver, Object message) throws Exception {
         if (message instanceof SipRequestMessage) {
             SipRequestMessage m = (SipRequestMessage) message;
-            
+            if (m.getSipMethod() == SipMethod.REGISTER) {
+                // user not found
+                SipUser user = m.getSipUser(SipHeader.FROM);
+                sendResponse(m.toSipResponseMessage(SipResponseStatus.NOT_FOUND,
+                        String.format("User[%s] (From) not found", user.getUsername())));
+                return;
+            }
+
             // Create new dialog actor
             SipUser user = m.getSipUser(SipHeader.FROM);
             String callId = m.getCallDialog();
@@ -105,7 +114,11 @@ public final class SipService extends UntypedActor implements SipMessageHandler
     public void onRequest(SipRequest request) {
         SipRequestMessage m = new SipRequestMessage(request);
         if (log.isDebugEnabled()) log.debug(String.format("onRequest: %s", m.toShortString()));
-        tellDialog(m);
+        if (m.getSipMethod() == SipMethod.REGISTER) {
+            tellUser(m);
+        } else {
+            tellDialog(m);
+        }
     }
 
     @Override
@@ -114,6 +127,20 @@ public final class SipService extends UntypedActor implements SipMessageHandler
         if (log.isDebugEnabled()) log.debug(String.format("onResponse: %s", m.toShortString()));
     }
 
+    private void tellUser(SipRequestMessage message) {
+
+        // get From user (must be present, check done #SipStatelessResponder)
+        SipUser user = message.getSipUser(SipHeader.FROM);
+        if (user == null) {
+            sendResponse(message.toSipResponseMessage(SipResponseStatus.BAD_REQUEST, "No From header"));
+            return;
+        }
+
+        // redirect to user actor. Undeliverable if the user does not exist
+        ActorRef actor = actorSystem.actorFor(String.format("user/%s", user.getUsername()));
+        actor.tell(message, actorSystem.serviceActorFor("sipService"));
+    }
+
     private void tellDialog(AbstractSipMessage message) {
 
         // get call ID (must be present, check done #SipServerHandler)
@@ -138,7 +165,7 @@ public final class SipService extends UntypedActor implements SipMessageHandler
 	 */
 	private void sendResponse(SipResponseMessage message) {
 		SipMessageHelper.checkResponse(message);
-		sipMessageSender.sendResponse(message.toSipResponse(), dummyCallback);
+		sipMessageSender.sendResponse(message.toSipResponse());
 	}
 	
 	/**
@@ -149,7 +176,7 @@ public final class SipService extends UntypedActor implements SipMessageHandler
 	 */
 	private void sendRequest(SipRequestMessage message) {
 		SipMessageHelper.checkRequest(message);
-		sipMessageSender.sendRequest(message.toSipRequest(), dummyCallback);
+		sipMessageSender.sendRequest(message.toSipRequest());
 	}
 
     public void setActorSystem(ActorSystem actorSystem) {
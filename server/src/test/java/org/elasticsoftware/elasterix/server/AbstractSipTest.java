@@ -177,8 +177,12 @@ public abstract class AbstractSipTest {
     	// check if actor is deleted
         ActorRef dummy = actorSystem.actorOf("test123", DummyActor.class, null);
         ActorRef ref = actorSystem.actorFor(actorId);
+        DummyActor.onUndeliverable = null;
         ref.tell("test", dummy);
-        Thread.sleep(300);
+        long end = System.currentTimeMillis() + 5000;
+        while (DummyActor.onUndeliverable == null && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
         Assert.assertNotNull(DummyActor.onUndeliverable);
         Assert.assertEquals(DummyActor.onUndeliverable.toString(), "test");
     }
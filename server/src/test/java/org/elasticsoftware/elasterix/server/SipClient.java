@@ -59,14 +59,32 @@ public class SipClient {
     }
 
     public String getMessage() {
-        if (messages.size() > 0) {
-            log.info(String.format("Number of messages:%d. Returning last one", messages.size()));
-            return messages.remove(messages.size() - 1);
+        synchronized (messages) {
+            if (messages.size() > 0) {
+                log.info(String.format("Number of messages:%d. Returning last one", messages.size()));
+                return messages.remove(messages.size() - 1);
+            }
         }
         log.info(String.format("Number of messages:0. Returning NULL"));
         return null;
     }
 
+    /**
+     * Waits (at most given time) for a message to be received and returns the last
+     * one received, or null if none is received in time
+     */
+    public String waitForMessage(long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        synchronized (messages) {
+            long remaining = timeoutMillis;
+            while (messages.isEmpty() && remaining > 0) {
+                messages.wait(remaining);
+                remaining = end - System.currentTimeMillis();
+            }
+            return getMessage();
+        }
+    }
+
     public void sendMessage(SipRequest request) throws Exception {
 
         // initial line
@@ -158,7 +176,10 @@ public class SipClient {
                         buffer.append(line).append("\n");
                     } else {
                         log.info(String.format("Message received[%s]", socketType));
-                        messages.add(buffer.toString());
+                        synchronized (messages) {
+                            messages.add(buffer.toString());
+                            messages.notifyAll();
+                        }
                         buffer.setLength(0);
                     }
                 }
@@ -19,7 +19,6 @@ package org.elasticsoftware.elasterix.server;
 import java.util.UUID;
 
 import org.apache.log4j.Logger;
-import org.elasticsoftware.elasterix.server.actors.Dialog;
 import org.elasticsoftware.sip.codec.SipHeader;
 import org.elasticsoftware.sip.codec.SipMethod;
 import org.elasticsoftware.sip.codec.SipRequest;
@@ -39,11 +38,10 @@ import org.testng.annotations.Test;
  */
 public class SipRegisterTest extends AbstractSipTest {
     private static final Logger log = Logger.getLogger(SipRegisterTest.class);
+    private static final long TIMEOUT = 5000;
 
     @Test(enabled = true)
-    public void testScheduleDestruction() throws Exception {
-    	Dialog.TIMEOUT_DESTRUCTION_REGISTER = 1;
-    	
+    public void testRegisterWithoutDialog() throws Exception {
     	String callerId = "1234";
     	String callId = UUID.randomUUID().toString();
     	
@@ -53,12 +51,9 @@ public class SipRegisterTest extends AbstractSipTest {
         req.addHeader(SipHeader.FROM, "\"Leonard Wolters\"<" + callerId + "@" + domain + ">");
         req.addHeader(SipHeader.VIA, "yyy");
         sipServer.sendMessage(req);
-        // sleep sometime in order for message to be sent back.
-        Thread.sleep(1300);
+        // REGISTER goes straight to the user, no dialog is created
+        Assert.assertNotNull(sipServer.waitForMessage(TIMEOUT));
         checkIfDeleted("dialog/" + callId);
-        
-        // reset timeout
-        Dialog.TIMEOUT_DESTRUCTION_REGISTER = 120;
     }
     
     @Test(enabled = true)
@@ -75,13 +70,20 @@ public class SipRegisterTest extends AbstractSipTest {
     @Test(enabled = true)
     public void testRegisterUserNoContact() throws Exception {
         SipRequest req = new SipRequestImpl(SipVersion.SIP_2_0, SipMethod.REGISTER, "sip:sip.localhost.com:5060");
+        req.addHeader(SipHeader.CALL_ID, UUID.randomUUID().toString());
+        req.addHeader(SipHeader.CONTACT, "<sip:124@62.163.143.30:60240;transport=UDP>");
         req.addHeader(SipHeader.FROM, "\"Leonard Wolters\"<sip:lwolters@sip.localhost.com:5060>");
-        sipServer.sendMessage(req);
-        // sleep sometime in order for message to be sent back.
-        Thread.sleep(300);
-        String message = sipServer.getMessage();
-        Assert.assertNotNull(message);
-        Assert.assertTrue(message.startsWith("SIP/2.0 400 Bad Request"));
+        req.addHeader(SipHeader.VIA, "yyy");
+        req.addHeader(SipHeader.EXPIRES, "3600");
+        req.addHeader(SipHeader.CSEQ, "1 REGISTER");
+        Assert.assertTrue(register(req, 2).startsWith("SIP/2.0 200 OK"));
+
+        // without Contact the bindings are queried (http://tools.ietf.org/html/rfc3261#section-10.2.3)
+        req.removeHeader(SipHeader.CONTACT);
+        req.removeHeader(SipHeader.EXPIRES);
+        String message = register(req, 3);
+        Assert.assertTrue(message.startsWith("SIP/2.0 200 OK"), message);
+        Assert.assertTrue(message.contains("Contact: <sip:124@62.163.143.30:60240>;expires="), message);
     }
 
     @Test(enabled = true)
@@ -296,5 +298,70 @@ public class SipRegisterTest extends AbstractSipTest {
         Assert.assertTrue(message.startsWith("SIP/2.0 200 OK"));
 
     }
-}
 
+    @Test(enabled = true)
+    public void testRegisterUserCSeqOutOfOrder() throws Exception {
+        SipRequest req = new SipRequestImpl(SipVersion.SIP_2_0, SipMethod.REGISTER, "sip:sip.localhost.com:5060");
+        req.addHeader(SipHeader.CALL_ID, UUID.randomUUID().toString());
+        req.addHeader(SipHeader.CONTACT, "<sip:124@62.163.143.30:60237;transport=UDP>");
+        req.addHeader(SipHeader.FROM, "\"Leonard Wolters\"<sip:lwolters@sip.localhost.com:5060>");
+        req.addHeader(SipHeader.VIA, "yyy");
+        req.addHeader(SipHeader.CSEQ, "1 REGISTER");
+        Assert.assertTrue(register(req, 5).startsWith("SIP/2.0 200 OK"));
+
+        // same Call-ID, lower CSeq
+        Assert.assertTrue(register(req, 4).startsWith("SIP/2.0 500 Server Internal Error"));
+    }
+
+    @Test(enabled = true)
+    public void testRegisterUserInvalidContact() throws Exception {
+        SipRequest req = new SipRequestImpl(SipVersion.SIP_2_0, SipMethod.REGISTER, "sip:sip.localhost.com:5060");
+        req.addHeader(SipHeader.CALL_ID, UUID.randomUUID().toString());
+        req.addHeader(SipHeader.CONTACT, "<sip:124@62.163.143.30:60238;transport=UDP");
+        req.addHeader(SipHeader.FROM, "\"Leonard Wolters\"<sip:lwolters@sip.localhost.com:5060>");
+        req.addHeader(SipHeader.VIA, "yyy");
+        req.addHeader(SipHeader.CSEQ, "1 REGISTER");
+        Assert.assertTrue(register(req, 2).startsWith("SIP/2.0 400 Bad Request"));
+    }
+
+    @Test(enabled = true)
+    public void testRegisterUserWildcard() throws Exception {
+        String callId = UUID.randomUUID().toString();
+        SipRequest req = new SipRequestImpl(SipVersion.SIP_2_0, SipMethod.REGISTER, "sip:sip.localhost.com:5060");
+        req.addHeader(SipHeader.CALL_ID, callId);
+        req.addHeader(SipHeader.CONTACT, "<sip:124@62.163.143.30:60239;transport=UDP>");
+        req.addHeader(SipHeader.FROM, "\"Leonard Wolters\"<sip:lwolters@sip.localhost.com:5060>");
+        req.addHeader(SipHeader.VIA, "yyy");
+        req.addHeader(SipHeader.EXPIRES, "3600");
+        req.addHeader(SipHeader.CSEQ, "1 REGISTER");
+        Assert.assertTrue(register(req, 2).startsWith("SIP/2.0 200 OK"));
+        Assert.assertFalse(ServerConfig.getLocationService().getContacts("lwolters").isEmpty());
+
+        // wildcard without Expires 0 is rejected
+        req.setHeader(SipHeader.CONTACT, "*");
+        Assert.assertTrue(register(req, 3).startsWith("SIP/2.0 400 Bad Request"));
+
+        // removes all bindings
+        req.setHeader(SipHeader.EXPIRES, "0");
+        Assert.assertTrue(register(req, 4).startsWith("SIP/2.0 200 OK"));
+        Assert.assertTrue(ServerConfig.getLocationService().getContacts("lwolters").isEmpty());
+    }
+
+    /**
+     * Sends given REGISTER without credentials, answers the challenge (as lwolters)
+     * with given CSeq and returns the response
+     */
+    private String register(SipRequest req, int cSeq) throws Exception {
+        req.removeHeader(SipHeader.AUTHORIZATION);
+        sipServer.sendMessage(req);
+        String message = sipServer.waitForMessage(TIMEOUT);
+        Assert.assertNotNull(message);
+        int idx = message.indexOf("nonce=") + 7;
+        setAuthorization(req, "lwolters", message.substring(idx, message.indexOf('\"', idx)), "test");
+        req.setHeader(SipHeader.CSEQ, cSeq + " REGISTER");
+        sipServer.sendMessage(req);
+        message = sipServer.waitForMessage(TIMEOUT);
+        Assert.assertNotNull(message);
+        return message;
+    }
+}
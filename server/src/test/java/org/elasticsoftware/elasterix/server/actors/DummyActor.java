@@ -10,7 +10,7 @@ import org.elasticsoftware.elasticactors.UntypedActor;
 public class DummyActor extends UntypedActor {
 	private static final Logger log = Logger.getLogger(DummyActor.class);
 	
-	public static Object onUndeliverable;
+	public static volatile Object onUndeliverable;
 	public static Object onReceive;
 
 	@Override
@@ -47,4 +47,49 @@ public class SipUserTest {
         Assert.assertEquals("sip.outerteams.com", user.getDomain());
         Assert.assertEquals(5060, user.getPort());
     }
+
+    @Test
+    public void testSipUserSecure() throws Exception {
+        SipUser user = new SipUser("Bob <sips:bob@biloxi.example.com>;tag=a6c85cf");
+        Assert.assertEquals("Bob", user.getDisplayName());
+        Assert.assertEquals("bob", user.getUsername());
+        Assert.assertEquals("biloxi.example.com", user.getDomain());
+        Assert.assertEquals(0, user.getPort());
+        Assert.assertTrue(user.isSecure());
+    }
+
+    @Test
+    public void testSipUserIPv6() throws Exception {
+        SipUser user = new SipUser("<sip:124@[2001:db8::10]:5070;transport=TCP>");
+        Assert.assertEquals("124", user.getUsername());
+        Assert.assertEquals("2001:db8::10", user.getDomain());
+        Assert.assertEquals(5070, user.getPort());
+        Assert.assertEquals("TCP", user.getUriParameter("transport"));
+        Assert.assertEquals("<sip:124@[2001:db8::10]:5070>", user.toHeader(null, null, true));
+    }
+
+    @Test
+    public void testSipUserUriParameters() throws Exception {
+        SipUser user = new SipUser("<sip:124@62.163.143.30:60236;transport=UDP;lr;rinstance=e6768ab86fdcf0b4?subject=x>");
+        Assert.assertFalse(user.isSecure());
+        Assert.assertEquals("UDP", user.getUriParameter("Transport"));
+        Assert.assertEquals("", user.getUriParameter("lr"));
+        Assert.assertEquals("e6768ab86fdcf0b4", user.getUriParameter("rinstance"));
+        Assert.assertNull(user.getUriParameter("subject"));
+        Assert.assertNull(user.getUriParameter("maddr"));
+    }
+
+    @Test
+    public void testSipUserWithoutChevrons() throws Exception {
+        SipUser user = new SipUser("sip:124@sip.outerteams.com;tag=ce337d00");
+        Assert.assertNull(user.getDisplayName());
+        Assert.assertEquals("124", user.getUsername());
+        Assert.assertEquals("sip.outerteams.com", user.getDomain());
+        Assert.assertNull(user.getUriParameter("tag"));
+
+        user = new SipUser("sip:sip.outerteams.com:5060");
+        Assert.assertNull(user.getUsername());
+        Assert.assertEquals("sip.outerteams.com", user.getDomain());
+        Assert.assertEquals(5060, user.getPort());
+    }
 }
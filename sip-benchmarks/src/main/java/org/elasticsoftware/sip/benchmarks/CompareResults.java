@@ -0,0 +1,151 @@
+package org.elasticsoftware.sip.benchmarks;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Compares the results of a benchmark run (JMH json, see <code>-rf json</code>)
+ * with the committed baseline and prints, per benchmark and parameters, the
+ * change of the score and of the bytes allocated per operation (if run with
+ * <code>-prof gc</code>). A change for the worse beyond the threshold (in
+ * percent, default 10) is marked as a regression, in which case the exit status
+ * is 1.<br>
+ * <br>
+ * The score is only compared if its error (the 99.9% confidence interval, in
+ * percent of the score) is within the threshold in both runs; otherwise the
+ * change cannot be told from noise and is marked as such. The bytes allocated
+ * per operation hardly vary between runs and are always compared. Usage:
+ * <pre>
+ * java -cp benchmarks.jar org.elasticsoftware.sip.benchmarks.CompareResults baseline.json result.json [threshold]
+ * </pre>
+ *
+ * @author Leonard Wolters
+ */
+public final class CompareResults {
+    private static final String ALLOCATION = "·gc.alloc.rate.norm";
+    /**
+     * Allocation differences below this number of bytes are noise (e.g. TLAB
+     * accounting)
+     */
+    private static final double ALLOCATION_NOISE = 16;
+
+    private CompareResults() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <baseline.json> <result.json> [threshold]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        Map<String, JsonNode> baseline = read(new File(args[0]));
+        Map<String, JsonNode> results = read(new File(args[1]));
+
+        int regressions = 0;
+        int noisy = 0;
+        System.out.println(String.format("%-70s %14s %14s %8s %8s %10s %10s", "benchmark", "baseline",
+                "result", "change", "error", "B/op base", "B/op"));
+        for (Map.Entry<String, JsonNode> entry : results.entrySet()) {
+            JsonNode result = entry.getValue();
+            JsonNode base = baseline.get(entry.getKey());
+            double score = result.path("primaryMetric").path("score").getDoubleValue();
+            double allocation = allocation(result);
+            if (base == null) {
+                System.out.println(String.format("%-70s %14s %14.1f %8s %8s %10s %10s", entry.getKey(), "-",
+                        score, "new", formatError(error(result)), "-", format(allocation)));
+                continue;
+            }
+            double baseScore = base.path("primaryMetric").path("score").getDoubleValue();
+            double baseAllocation = allocation(base);
+            // throughput: higher is better; average time (and others): lower is better
+            boolean higherIsBetter = "thrpt".equals(result.path("mode").getTextValue());
+            double change = baseScore == 0 ? 0 : 100 * (score - baseScore) / baseScore;
+            double error = Math.max(error(base), error(result));
+            boolean regression = false;
+            String remark = "";
+            if (higherIsBetter ? change < -threshold : change > threshold) {
+                if (error > threshold) {
+                    noisy++;
+                    remark = "  NOISY";
+                } else {
+                    regression = true;
+                }
+            }
+            if (baseAllocation >= 0 && allocation >= 0 && allocation - baseAllocation > ALLOCATION_NOISE
+                    && allocation > baseAllocation * (1 + threshold / 100)) {
+                regression = true;
+            }
+            if (regression) {
+                regressions++;
+                remark = "  REGRESSION";
+            }
+            System.out.println(String.format("%-70s %14.1f %14.1f %+7.1f%% %8s %10s %10s%s", entry.getKey(),
+                    baseScore, score, change, formatError(error), format(baseAllocation), format(allocation),
+                    remark));
+        }
+        System.out.println(String.format("%d regression(s) beyond %.1f%%", regressions, threshold));
+        if (noisy > 0) {
+            System.out.println(String.format("%d score change(s) beyond %.1f%% not compared: error exceeds "
+                    + "the threshold (run with more forks and iterations)", noisy, threshold));
+        }
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    /**
+     * Returns the results keyed by benchmark name and parameters
+     */
+    private static Map<String, JsonNode> read(File file) throws Exception {
+        Map<String, JsonNode> results = new LinkedHashMap<String, JsonNode>();
+        for (JsonNode result : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(result.path("benchmark").getTextValue()
+                    .replace("org.elasticsoftware.sip.benchmarks.", ""));
+            Map<String, String> params = new TreeMap<String, String>();
+            Iterator<Map.Entry<String, JsonNode>> fields = result.path("params").getFields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                params.put(field.getKey(), field.getValue().getTextValue());
+            }
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue());
+            }
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+
+    /**
+     * Returns the bytes allocated per operation or -1 if not measured
+     */
+    private static double allocation(JsonNode result) {
+        JsonNode metric = result.path("secondaryMetrics").path(ALLOCATION);
+        return metric.isMissingNode() ? -1 : metric.path("score").getDoubleValue();
+    }
+
+    /**
+     * Returns the error of the score in percent of the score, infinite if unknown
+     * (JMH reports NaN for a single measurement)
+     */
+    private static double error(JsonNode result) {
+        JsonNode metric = result.path("primaryMetric");
+        double score = metric.path("score").getDoubleValue();
+        JsonNode error = metric.path("scoreError");
+        if (!error.isNumber() || score == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return 100 * error.getDoubleValue() / Math.abs(score);
+    }
+
+    private static String formatError(double error) {
+        return Double.isInfinite(error) ? "-" : String.format("%.1f%%", error);
+    }
+
+    private static String format(double allocation) {
+        return allocation < 0 ? "-" : String.format("%.0f", allocation);
+    }
+}
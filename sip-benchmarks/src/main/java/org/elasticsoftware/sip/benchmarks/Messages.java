@@ -0,0 +1,141 @@
+package org.elasticsoftware.sip.benchmarks;
+
+/**
+ * SIP messages used by the benchmarks
+ *
+ * @author Leonard Wolters
+ */
+public final class Messages {
+
+    private Messages() {
+    }
+
+    /**
+     * Returns a REGISTER request as sent by a typical soft phone, using
+     * given sequence number for branch, call id and CSeq
+     */
+    public static String register(int seq) {
+        return register(seq, "TCP", "192.168.1.10", 5060);
+    }
+
+    /**
+     * Returns a REGISTER request sent by given transport from given host and port
+     */
+    public static String register(int seq, String transport, String host, int port) {
+        return "REGISTER sip:sip.localhost.com:5060 SIP/2.0\r\n"
+                + "Via: SIP/2.0/" + transport + " " + host + ":" + port + ";branch=z9hG4bK-" + seq + "-d8754z-;rport\r\n"
+                + "Max-Forwards: 70\r\n"
+                + "Contact: <sip:124@192.168.1.10:5060;rinstance=8d2b2ac2d0a5c1f3;transport=TCP>\r\n"
+                + "To: \"124\"<sip:124@sip.localhost.com:5060>\r\n"
+                + "From: \"124\"<sip:124@sip.localhost.com:5060>;tag=8a7d2e6b\r\n"
+                + "Call-ID: " + seq + "-ZjE4ZTVhZjJlODY1ZDc0NDQ5ZjEyMTg0NGU5YWQ3YTE.\r\n"
+                + "CSeq: " + (seq + 1) + " REGISTER\r\n"
+                + "Expires: 3600\r\n"
+                + "Allow: INVITE, ACK, CANCEL, OPTIONS, BYE, REFER, NOTIFY, MESSAGE, SUBSCRIBE, INFO\r\n"
+                + "User-Agent: X-Lite release 4.5.4 stamp 71128\r\n"
+                + "Content-Length: 0\r\n"
+                + "\r\n";
+    }
+
+    /**
+     * Returns an INVITE request with an SDP offer (audio and video) as sent by a
+     * typical soft phone
+     */
+    public static String invite(int seq) {
+        String sdp = "v=0\r\n"
+                + "o=- 13021925633373920 1 IN IP4 192.168.1.10\r\n"
+                + "s=X-Lite release 4.5.4 stamp 71128\r\n"
+                + "c=IN IP4 192.168.1.10\r\n"
+                + "t=0 0\r\n"
+                + "m=audio 64504 RTP/AVP 9 8 120 0 84 101\r\n"
+                + "a=rtpmap:120 opus/48000/2\r\n"
+                + "a=fmtp:120 useinbandfec=1; usedtx=1; maxaveragebitrate=64000\r\n"
+                + "a=rtpmap:84 speex/16000\r\n"
+                + "a=rtpmap:101 telephone-event/8000\r\n"
+                + "a=fmtp:101 0-15\r\n"
+                + "a=sendrecv\r\n"
+                + "m=video 62460 RTP/AVP 123 100 34\r\n"
+                + "a=rtpmap:123 H264/90000\r\n"
+                + "a=fmtp:123 profile-level-id=42801f; packetization-mode=1\r\n"
+                + "a=rtpmap:100 VP8/90000\r\n"
+                + "a=rtpmap:34 H263/90000\r\n"
+                + "a=sendrecv\r\n";
+        return "INVITE sip:125@sip.localhost.com:5060 SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP 192.168.1.10:5060;branch=z9hG4bK-" + seq + "-d8754z-;rport\r\n"
+                + "Max-Forwards: 70\r\n"
+                + "Contact: <sip:124@192.168.1.10:5060;rinstance=8d2b2ac2d0a5c1f3>\r\n"
+                + "To: <sip:125@sip.localhost.com:5060>\r\n"
+                + "From: \"124\"<sip:124@sip.localhost.com:5060>;tag=5c0a3e1f\r\n"
+                + "Call-ID: " + seq + "-YjY4NDM0MzBjMmRhNGQ5MDQ2MDI3MzRmZGQ1ZjQ0ODU.\r\n"
+                + "CSeq: 2 INVITE\r\n"
+                + "Allow: INVITE, ACK, CANCEL, OPTIONS, BYE, REFER, NOTIFY, MESSAGE, SUBSCRIBE, INFO\r\n"
+                + "Content-Type: application/sdp\r\n"
+                + "Proxy-Authorization: Digest username=\"124\",realm=\"elasterix\","
+                + "nonce=\"24855234\",uri=\"sip:125@sip.localhost.com:5060\","
+                + "response=\"749c35e9fe30d6ba46cc801bdfe535a0\",algorithm=MD5\r\n"
+                + "Supported: replaces\r\n"
+                + "User-Agent: X-Lite release 4.5.4 stamp 71128\r\n"
+                + "Content-Length: " + sdp.length() + "\r\n"
+                + "\r\n"
+                + sdp;
+    }
+
+    /**
+     * Returns the 200 OK response to the REGISTER of {@link #register(int)}
+     */
+    public static String ok(int seq) {
+        return "SIP/2.0 200 OK\r\n"
+                + "Via: SIP/2.0/UDP 192.168.1.10:5060;branch=z9hG4bK-" + seq + "-d8754z-;rport=5060"
+                + ";received=192.168.1.10\r\n"
+                + "Contact: <sip:124@192.168.1.10:5060;rinstance=8d2b2ac2d0a5c1f3;transport=TCP>;expires=3600\r\n"
+                + "To: \"124\"<sip:124@sip.localhost.com:5060>;tag=a73kszlfl\r\n"
+                + "From: \"124\"<sip:124@sip.localhost.com:5060>;tag=8a7d2e6b\r\n"
+                + "Call-ID: " + seq + "-ZjE4ZTVhZjJlODY1ZDc0NDQ5ZjEyMTg0NGU5YWQ3YTE.\r\n"
+                + "CSeq: " + (seq + 1) + " REGISTER\r\n"
+                + "Date: Thu, 30 May 2013 07:05:12 GMT\r\n"
+                + "Server: Elasterix\r\n"
+                + "Content-Length: 0\r\n"
+                + "\r\n";
+    }
+
+    /**
+     * Returns a NOTIFY request carrying a presence document (PIDF) of a watched
+     * user, as sent by a presence server
+     */
+    public static String notify(int seq) {
+        String pidf = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+                + "<presence xmlns=\"urn:ietf:params:xml:ns:pidf\"\r\n"
+                + "    xmlns:dm=\"urn:ietf:params:xml:ns:pidf:data-model\"\r\n"
+                + "    xmlns:rpid=\"urn:ietf:params:xml:ns:pidf:rpid\"\r\n"
+                + "    entity=\"sip:125@sip.localhost.com\">\r\n"
+                + "  <tuple id=\"t8a7d2e6b\">\r\n"
+                + "    <status><basic>open</basic></status>\r\n"
+                + "    <contact priority=\"0.8\">sip:125@192.168.1.11:5060</contact>\r\n"
+                + "    <note xml:lang=\"en\">Available</note>\r\n"
+                + "    <timestamp>2013-05-30T07:05:12Z</timestamp>\r\n"
+                + "  </tuple>\r\n"
+                + "  <dm:person id=\"p5c0a3e1f\">\r\n"
+                + "    <rpid:activities><rpid:on-the-phone/></rpid:activities>\r\n"
+                + "    <dm:note>On the phone</dm:note>\r\n"
+                + "  </dm:person>\r\n"
+                + "  <dm:device id=\"d8d2b2ac2\">\r\n"
+                + "    <status><basic>open</basic></status>\r\n"
+                + "    <dm:deviceID>urn:x-mac:0003ba4811e3</dm:deviceID>\r\n"
+                + "    <dm:note>X-Lite release 4.5.4 stamp 71128</dm:note>\r\n"
+                + "  </dm:device>\r\n"
+                + "</presence>\r\n";
+        return "NOTIFY sip:124@192.168.1.10:5060 SIP/2.0\r\n"
+                + "Via: SIP/2.0/TCP sip.localhost.com:5060;branch=z9hG4bK-" + seq + "-a73kszlfl\r\n"
+                + "Max-Forwards: 70\r\n"
+                + "To: \"124\"<sip:124@sip.localhost.com:5060>;tag=8a7d2e6b\r\n"
+                + "From: <sip:125@sip.localhost.com:5060>;tag=a73kszlfl\r\n"
+                + "Call-ID: " + seq + "-ZjE4ZTVhZjJlODY1ZDc0NDQ5ZjEyMTg0NGU5YWQ3YTE.\r\n"
+                + "CSeq: 3 NOTIFY\r\n"
+                + "Event: presence\r\n"
+                + "Subscription-State: active;expires=3600\r\n"
+                + "Content-Type: application/pidf+xml\r\n"
+                + "Content-Length: " + pidf.length() + "\r\n"
+                + "\r\n"
+                + pidf;
+    }
+}
@@ -0,0 +1,77 @@
+package org.elasticsoftware.sip.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsoftware.sip.codec.SipContentCompressor;
+import org.elasticsoftware.sip.codec.SipMessage;
+import org.elasticsoftware.sip.codec.SipMessageEncoder;
+import org.elasticsoftware.sip.codec.SipStreamDecoder;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.util.CharsetUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes an INVITE (SDP) or NOTIFY (PIDF) with its body sent as is
+ * (<code>identity</code>) or compressed for a peer accepting
+ * <code>deflate</code> or <code>gzip</code>, i.e. the CPU spent per message
+ * on compression.
+ *
+ * @author Leonard Wolters
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SipContentCompressorBenchmark {
+    @Param({"invite", "notify"})
+    private String message;
+
+    @Param({"identity", "deflate", "gzip"})
+    private String encoding;
+
+    private Encoder encoder;
+    private SipContentCompressor compressor;
+    private SipMessage sipMessage;
+
+    @Setup
+    public void setup() throws Exception {
+        String value = "notify".equals(message) ? Messages.notify(1) : Messages.invite(1);
+        DecoderEmbedder<SipMessage> decoder = new DecoderEmbedder<SipMessage>(new SipStreamDecoder());
+        decoder.offer(ChannelBuffers.copiedBuffer(value, CharsetUtil.UTF_8));
+        sipMessage = decoder.poll();
+        encoder = new Encoder();
+        compressor = new SipContentCompressor();
+        if (!"identity".equals(encoding)) {
+            compressor.setAcceptEncoding(encoding);
+        }
+    }
+
+    @Benchmark
+    public Object encode() throws Exception {
+        return encoder.encode(compressor.compress(sipMessage));
+    }
+
+    private static final class Encoder extends SipMessageEncoder {
+        Encoder() {
+            super(HeapChannelBufferFactory.getInstance());
+        }
+
+        Object encode(SipMessage message) throws Exception {
+            return encode(null, null, message);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.elasticsoftware.sip.benchmarks;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsoftware.sip.SipChannelFactoryImpl;
+import org.elasticsoftware.sip.SipMessageHandler;
+import org.elasticsoftware.sip.SipMessageSenderImpl;
+import org.elasticsoftware.sip.SipServer;
+import org.elasticsoftware.sip.SipServerHandler;
+import org.elasticsoftware.sip.codec.SipRequest;
+import org.elasticsoftware.sip.codec.SipResponse;
+import org.elasticsoftware.sip.codec.SipResponseStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Load test of the UDP listener of the {@link SipServer}: every benchmark thread
+ * acts as a UAC sending a REGISTER and waiting for its 200 OK, which the server
+ * routes back by the Via. The handler spends <code>handlerTokens</code> of CPU
+ * (see {@link Blackhole#consumeCPU(long)}) per request, standing in for
+ * authentication and dispatching.<br>
+ * <br>
+ * With <code>datagramWorkerThreads</code> 0 every datagram is decoded and handled
+ * by the single I/O thread of the datagram channel; otherwise by a pool of that
+ * many threads. Run with <code>-t</code> to vary the number of UACs, e.g.
+ * <code>-t 1,4,8 -p datagramWorkerThreads=0,4</code>.
+ *
+ * @author Leonard Wolters
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class SipDatagramServerBenchmark {
+    @Param({"0", "4"})
+    private int datagramWorkerThreads;
+
+    @Param({"0", "20000"})
+    private long handlerTokens;
+
+    private SipServer server;
+    private SipChannelFactoryImpl channelFactory;
+    private InetSocketAddress address;
+
+    @Setup
+    public void setup() {
+        channelFactory = new SipChannelFactoryImpl();
+        final SipMessageSenderImpl sender = new SipMessageSenderImpl();
+        sender.setSipChannelFactory(channelFactory);
+        SipServerHandler handler = new SipServerHandler();
+        handler.setSipChannelFactory(channelFactory);
+        handler.setMessageHandler(new SipMessageHandler() {
+            @Override
+            public void onRequest(SipRequest request) {
+                Blackhole.consumeCPU(handlerTokens);
+                request.setResponseStatus(SipResponseStatus.OK);
+                sender.sendResponse(request.toSipResponse());
+            }
+
+            @Override
+            public void onResponse(SipResponse response) {
+            }
+        });
+        channelFactory.setSipServerHandler(handler);
+
+        server = new SipServer();
+        server.setPort(0);
+        server.setSipServerHandler(handler);
+        server.setDatagramWorkerThreads(datagramWorkerThreads);
+        server.start();
+        address = new InetSocketAddress("127.0.0.1", server.getDatagramAddress().getPort());
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+        channelFactory.destroy();
+    }
+
+    @State(Scope.Thread)
+    public static class Uac {
+        private static final AtomicInteger ids = new AtomicInteger();
+
+        private DatagramSocket socket;
+        private DatagramPacket request;
+        private DatagramPacket response;
+
+        @Setup(Level.Trial)
+        public void setup(SipDatagramServerBenchmark benchmark) throws Exception {
+            socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+            socket.setSoTimeout(1000);
+            byte[] bytes = Messages.register(ids.incrementAndGet(), "UDP", "127.0.0.1",
+                    socket.getLocalPort()).getBytes("UTF-8");
+            request = new DatagramPacket(bytes, bytes.length, benchmark.address);
+            response = new DatagramPacket(new byte[4096], 4096);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public int register(Uac uac) throws Exception {
+        uac.socket.send(uac.request);
+        try {
+            uac.socket.receive(uac.response);
+        } catch (SocketTimeoutException e) {
+            // lost datagram; counted as an (expensive) operation
+            return 0;
+        }
+        return uac.response.getLength();
+    }
+}
@@ -0,0 +1,68 @@
+package org.elasticsoftware.sip.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsoftware.sip.codec.SipHeader;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.util.CharsetUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolves a header name into a {@link SipHeader}, from a <code>String</code> and
+ * straight from the received bytes. The time per lookup should not depend on the
+ * position of the header in the enumeration (nor on whether it is known at all).
+ * <br>
+ * <br>
+ * The <code>scan</code> benchmark is the linear scan over all headers that
+ * <code>SipHeader.lookup</code> used to do.
+ *
+ * @author Leonard Wolters
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SipHeaderLookupBenchmark {
+    @Param({"Accept", "Via", "v", "call-id", "WWW-Authenticate", "P-Asserted-Identity"})
+    private String name;
+
+    private ChannelBuffer buffer;
+
+    @Setup
+    public void setup() {
+        buffer = ChannelBuffers.copiedBuffer(name + ": value", CharsetUtil.US_ASCII);
+    }
+
+    @Benchmark
+    public SipHeader string() {
+        return SipHeader.lookup(name);
+    }
+
+    @Benchmark
+    public SipHeader bytes() {
+        return SipHeader.lookup(buffer, 0, name.length());
+    }
+
+    @Benchmark
+    public SipHeader scan() {
+        for (SipHeader header : SipHeader.values()) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                return header;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,87 @@
+package org.elasticsoftware.sip.benchmarks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsoftware.sip.codec.SipHeader;
+import org.elasticsoftware.sip.codec.SipResponseImpl;
+import org.elasticsoftware.sip.codec.SipResponseStatus;
+import org.elasticsoftware.sip.codec.SipVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Builds a response the way the server does (copying the headers of the request,
+ * adding a couple of its own) and reads a few (partly absent) headers.<br>
+ * <br>
+ * The <code>store</code> benchmark uses the {@link SipResponseImpl}, the
+ * <code>map</code> benchmark the <code>LinkedHashMap</code> (keyed by header
+ * name) the message used to keep its headers in.
+ *
+ * @author Leonard Wolters
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SipHeaderStoreBenchmark {
+    private static final SipHeader[] COPIED = {SipHeader.VIA, SipHeader.FROM, SipHeader.TO,
+            SipHeader.CALL_ID, SipHeader.CSEQ, SipHeader.CONTACT};
+    private static final SipHeader[] READ = {SipHeader.CSEQ, SipHeader.CALL_ID,
+            SipHeader.CONTENT_LENGTH, SipHeader.WWW_AUTHENTICATE, SipHeader.VIA};
+    private static final String VALUE = "SIP/2.0/TCP 192.168.1.10:5060;branch=z9hG4bK-d8754z-;rport";
+
+    @Benchmark
+    public void store(Blackhole bh) {
+        SipResponseImpl response = new SipResponseImpl(SipVersion.SIP_2_0, SipResponseStatus.OK);
+        for (SipHeader header : COPIED) {
+            response.addHeader(header, VALUE);
+        }
+        response.addHeader(SipHeader.EXPIRES, 3600);
+        response.addHeader(SipHeader.DATE, VALUE);
+        response.setHeader(SipHeader.CONTENT_LENGTH, 0);
+        for (SipHeader header : READ) {
+            bh.consume(response.getHeaderValue(header));
+        }
+        bh.consume(response);
+    }
+
+    @Benchmark
+    public void map(Blackhole bh) {
+        Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+        for (SipHeader header : COPIED) {
+            add(headers, header, VALUE);
+        }
+        add(headers, SipHeader.EXPIRES, Integer.valueOf(3600));
+        add(headers, SipHeader.DATE, VALUE);
+        headers.remove(SipHeader.CONTENT_LENGTH.getName());
+        add(headers, SipHeader.CONTENT_LENGTH, Integer.valueOf(0));
+        for (SipHeader header : READ) {
+            List<String> values = headers.get(header.getName());
+            bh.consume(values == null || values.isEmpty() ? null : values.get(0));
+        }
+        bh.consume(headers);
+    }
+
+    private static void add(Map<String, List<String>> headers, SipHeader header, Object value) {
+        List<String> values = headers.get(header.getName());
+        if (values == null) {
+            values = new ArrayList<String>();
+            headers.put(header.getName(), values);
+        }
+        values.add(value.toString());
+    }
+}
@@ -0,0 +1,90 @@
+package org.elasticsoftware.sip.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsoftware.sip.codec.SipDatagramDecoder;
+import org.elasticsoftware.sip.codec.SipMessage;
+import org.elasticsoftware.sip.codec.SipMessageDecoder;
+import org.elasticsoftware.sip.codec.SipStreamDecoder;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.util.CharsetUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes a single, complete message: a REGISTER with credentials, an INVITE with
+ * an SDP offer or the 200 OK to a REGISTER, as received over UDP (one datagram)
+ * or TCP (one segment).<br>
+ * <br>
+ * Run with <code>-prof gc</code> to see the bytes allocated per message
+ * (<code>gc.alloc.rate.norm</code>).
+ *
+ * @author Leonard Wolters
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SipMessageDecoderBenchmark {
+    @Param({"register", "invite", "ok"})
+    private String message;
+
+    private ChannelBuffer buffer;
+    private Datagram datagramDecoder;
+
+    @Setup
+    public void setup() {
+        String value;
+        if ("invite".equals(message)) {
+            value = Messages.invite(1);
+        } else if ("ok".equals(message)) {
+            value = Messages.ok(1);
+        } else {
+            value = Messages.register(1, "UDP", "192.168.1.10", 5060).replace("Content-Length",
+                    "Authorization: Digest username=\"124\",realm=\"elasterix\",nonce=\"24855234\","
+                    + "uri=\"sip:sip.localhost.com:5060\",response=\"749c35e9fe30d6ba46cc801bdfe535a0\","
+                    + "algorithm=MD5\r\nContent-Length");
+        }
+        buffer = ChannelBuffers.copiedBuffer(value, CharsetUtil.UTF_8);
+        datagramDecoder = new Datagram();
+    }
+
+    @Benchmark
+    public Object datagram() throws Exception {
+        return datagramDecoder.decode(buffer.duplicate());
+    }
+
+    @Benchmark
+    public SipMessage stream() {
+        return decode(new DecoderEmbedder<SipMessage>(new SipStreamDecoder()));
+    }
+
+    @Benchmark
+    public SipMessage replaying() {
+        return decode(new DecoderEmbedder<SipMessage>(new SipMessageDecoder()));
+    }
+
+    private SipMessage decode(DecoderEmbedder<SipMessage> embedder) {
+        embedder.offer(buffer.duplicate());
+        return embedder.poll();
+    }
+
+    private static final class Datagram extends SipDatagramDecoder {
+        Object decode(ChannelBuffer buffer) throws Exception {
+            return decode(null, null, buffer);
+        }
+    }
+}
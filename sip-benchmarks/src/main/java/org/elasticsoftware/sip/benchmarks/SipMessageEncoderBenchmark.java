@@ -0,0 +1,97 @@
+package org.elasticsoftware.sip.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsoftware.sip.codec.SipHeader;
+import org.elasticsoftware.sip.codec.SipMessage;
+import org.elasticsoftware.sip.codec.SipMessageEncoder;
+import org.elasticsoftware.sip.codec.SipResponseImpl;
+import org.elasticsoftware.sip.codec.SipResponseStatus;
+import org.elasticsoftware.sip.codec.SipVersion;
+import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes the responses that make up most of the outbound traffic (100 Trying,
+ * 401 Unauthorized and 200 OK to a REGISTER) into heap or direct buffers.
+ *
+ * @author Leonard Wolters
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SipMessageEncoderBenchmark {
+    @Param({"heap", "direct"})
+    private String buffers;
+
+    private Encoder encoder;
+    private SipMessage trying;
+    private SipMessage unauthorized;
+    private SipMessage ok;
+
+    @Setup
+    public void setup() {
+        encoder = new Encoder("direct".equals(buffers)
+                ? new DirectChannelBufferFactory(1024 * 1024)
+                : HeapChannelBufferFactory.getInstance());
+        trying = response(SipResponseStatus.TRYING);
+        unauthorized = response(SipResponseStatus.UNAUTHORIZED);
+        unauthorized.addHeader(SipHeader.WWW_AUTHENTICATE, "Digest realm=\"elasticsoftware\", "
+                + "nonce=\"MTM3NTE2NjMxMjQ0NjoxMjQ6ZWxhc3RpY3NvZnR3YXJl\", algorithm=MD5");
+        ok = response(SipResponseStatus.OK);
+        ok.addHeader(SipHeader.CONTACT, "<sip:124@192.168.1.10:5060;rinstance=8d2b2ac2d0a5c1f3;"
+                + "transport=TCP>;expires=3600");
+        ok.addHeader(SipHeader.DATE, "Thu, 30 May 2013 07:05:12 GMT");
+    }
+
+    private static SipMessage response(SipResponseStatus status) {
+        SipMessage response = new SipResponseImpl(SipVersion.SIP_2_0, status);
+        response.addHeader(SipHeader.VIA, "SIP/2.0/TCP 192.168.1.10:5060;branch=z9hG4bK-d8754z-;rport");
+        response.addHeader(SipHeader.FROM, "\"124\"<sip:124@sip.localhost.com:5060>;tag=8a7d2e6b");
+        response.addHeader(SipHeader.TO, "\"124\"<sip:124@sip.localhost.com:5060>");
+        response.addHeader(SipHeader.CALL_ID, "ZjE4ZTVhZjJlODY1ZDc0NDQ5ZjEyMTg0NGU5YWQ3YTE.");
+        response.addHeader(SipHeader.CSEQ, "2 REGISTER");
+        response.addHeader(SipHeader.CONTENT_LENGTH, 0);
+        return response;
+    }
+
+    @Benchmark
+    public Object trying() throws Exception {
+        return encoder.encode(trying);
+    }
+
+    @Benchmark
+    public Object unauthorized() throws Exception {
+        return encoder.encode(unauthorized);
+    }
+
+    @Benchmark
+    public Object ok() throws Exception {
+        return encoder.encode(ok);
+    }
+
+    private static final class Encoder extends SipMessageEncoder {
+        Encoder(ChannelBufferFactory bufferFactory) {
+            super(bufferFactory);
+        }
+
+        Object encode(SipMessage message) throws Exception {
+            return encode(null, null, message);
+        }
+    }
+}
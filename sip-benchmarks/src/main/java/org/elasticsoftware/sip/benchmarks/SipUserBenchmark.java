@@ -0,0 +1,58 @@
+package org.elasticsoftware.sip.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsoftware.sip.codec.SipUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses the values of the From, To and Contact headers and request uris into a
+ * {@link SipUser}, and formats a From header out of it.
+ *
+ * @author Leonard Wolters
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SipUserBenchmark {
+    @Param({"from", "contact", "uri"})
+    private String header;
+
+    private String value;
+    private SipUser user;
+
+    @Setup
+    public void setup() {
+        if ("from".equals(header)) {
+            value = "\"Hans de Borst\"<sip:124@sip.localhost.com:5060>;tag=8a7d2e6b";
+        } else if ("contact".equals(header)) {
+            value = "<sip:124@62.163.143.30:60236;transport=UDP;rinstance=e6768ab86fdcf0b4>;expires=3600";
+        } else {
+            value = "sip:125@sip.localhost.com:5060";
+        }
+        user = new SipUser(value);
+    }
+
+    @Benchmark
+    public SipUser parse() {
+        return new SipUser(value);
+    }
+
+    @Benchmark
+    public String format() {
+        return user.fromHeader("8a7d2e6b");
+    }
+}
@@ -0,0 +1,67 @@
+package org.elasticsoftware.sip.benchmarks.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsoftware.elasterix.server.messages.SipRequestMessage;
+import org.elasticsoftware.sip.benchmarks.Messages;
+import org.elasticsoftware.sip.codec.SipDatagramDecoder;
+import org.elasticsoftware.sip.codec.SipRequest;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.util.CharsetUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converts a decoded request into the {@link SipRequestMessage} handed to the
+ * actors, and back into a request (as done for every message relayed). Only
+ * built with the <code>server</code> profile.
+ *
+ * @author Leonard Wolters
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SipMessageConversionBenchmark {
+    @Param({"register", "invite"})
+    private String message;
+
+    private SipRequest request;
+    private SipRequestMessage requestMessage;
+
+    @Setup
+    public void setup() throws Exception {
+        String value = "invite".equals(message) ? Messages.invite(1) : Messages.register(1);
+        ChannelBuffer buffer = ChannelBuffers.copiedBuffer(value, CharsetUtil.UTF_8);
+        request = (SipRequest) new Decoder().decode(buffer);
+        requestMessage = new SipRequestMessage(request);
+    }
+
+    @Benchmark
+    public SipRequestMessage toMessage() {
+        return new SipRequestMessage(request);
+    }
+
+    @Benchmark
+    public SipRequest toSipRequest() {
+        return requestMessage.toSipRequest();
+    }
+
+    private static final class Decoder extends SipDatagramDecoder {
+        Object decode(ChannelBuffer buffer) throws Exception {
+            return decode(null, null, buffer);
+        }
+    }
+}
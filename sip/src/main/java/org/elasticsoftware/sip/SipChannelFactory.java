@@ -16,8 +16,13 @@
 
 package org.elasticsoftware.sip;
 
+import org.elasticsoftware.sip.codec.SipMessage;
 import org.elasticsoftware.sip.codec.SipUser;
+import org.elasticsoftware.sip.codec.header.ViaHeader;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+
+import java.net.SocketAddress;
 
 /**
  * @author Leonard Wolters
@@ -31,8 +36,56 @@ public interface SipChannelFactory {
     void setChannel(SipUser user, Channel channel);
 
     /**
-     * @param message
+     * Registers the channel on which a message from given remote address was
+     * received, i.e. the connection itself (stream transports) or the channel
+     * on which to reply (datagrams)
+     *
+     * @param remoteAddress
+     * @param channel
+     */
+    void setChannel(SocketAddress remoteAddress, Channel channel);
+
+    /**
+     * Returns a connected channel to given user or null if none is connected.
+     * This method never connects.
+     *
+     * @param user
      * @return
      */
     Channel getChannel(SipUser user);
+
+    /**
+     * Writes given message to given user. A connected channel is reused if
+     * present, otherwise a connection is made without blocking; messages
+     * written whilst connecting are queued and written (in order) once
+     * connected.
+     *
+     * @param user
+     * @param message
+     * @return future which is notified when the message is written or failed
+     */
+    ChannelFuture write(SipUser user, SipMessage message);
+
+    /**
+     * Returns the transport (as in a Via, e.g. TCP) of the channels messages to
+     * given user are written on by {@link #write(SipUser, SipMessage)}
+     *
+     * @param user
+     * @return
+     */
+    String getTransport(SipUser user);
+
+    /**
+     * Writes given response back to the sender of the request, as identified
+     * by the top most Via of the request (see http://tools.ietf.org/html/rfc3261#section-18.2.2).
+     * Stream responses are written on the connection the request arrived on or,
+     * if closed, on a new connection to the received address and sent-by port.
+     * Datagram responses are sent to the received address and rport (or sent-by port);
+     * a sent-by host name is resolved on a separate thread.
+     *
+     * @param via
+     * @param message
+     * @return future which is notified when the message is written or failed
+     */
+    ChannelFuture write(ViaHeader via, SipMessage message);
 }
@@ -17,39 +17,157 @@
 package org.elasticsoftware.sip;
 
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
 import org.apache.log4j.Logger;
+import org.elasticsoftware.sip.codec.SipMessage;
 import org.elasticsoftware.sip.codec.SipUser;
+import org.elasticsoftware.sip.codec.header.ViaHeader;
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelFutureNotifier;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultChannelFuture;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Keep track of users and their channel in order to quickly communicate or
- * transfer sip messages
+ * transfer sip messages<br>
+ * <br>
+ * Outbound connections are made through a single client bootstrap (and thus
+ * a single boss and worker pool) and never block the calling thread. Per remote
+ * host:port at most <code>maxConnectionsPerHost</code> connections are made and
+ * at most <code>maxPendingWrites</code> messages are queued whilst connecting.
+ * Connections made by this factory are closed when idle for longer than
+ * <code>idleTimeoutMillis</code>; connections made by clients are left open.<br>
+ * <br>
+ * Channels on which messages are received are registered by their remote
+ * address, so responses are written back on the connection (or datagram channel)
+ * the request arrived on, without lookup by Contact or connecting. Endpoints
+ * are kept in a LRU cache of <code>initialCacheSize</code>, but endpoints holding
+ * such (inbound) connections are kept until their last one is closed, no matter
+ * how many connections are accepted.<br>
+ * <br>
+ * The number of messages queued per remote host:port (whilst connecting and in
+ * the {@link SipWriteQueue} of its connections) is exposed through JMX.
  *
  * @author Leonard Wolters
  */
+@ManagedResource(objectName = "org.elasticsoftware.sip:name=SipChannelFactory",
+        description = "Connections and outbound queues per remote host:port")
 public class SipChannelFactoryImpl implements SipChannelFactory {
     private static final Logger log = Logger.getLogger(SipChannelFactoryImpl.class);
+    private static final int DEFAULT_PORT = 5060;
+    private static final String TCP = "TCP";
     /**
      * Initial capacity of cache
      */
     private int initialCacheSize = 5000;
+    private int maxConnectionsPerHost = 1;
+    private int maxPendingWrites = 64;
+    private int maxQueuedWrites = 1024;
+    private long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(5);
+    private int connectTimeoutMillis = 5000;
+    private int workerCount = Runtime.getRuntime().availableProcessors();
     private SipServerHandler sipServerHandler;
+    private ChannelFactory clientChannelFactory;
+    private boolean releaseClientChannelFactory;
+    private ClientBootstrap bootstrap;
+    private Timer timer;
+    private int resolverCount = 2;
+    /**
+     * Resolves the host names of Via's lacking a received address
+     */
+    private ExecutorService resolver;
+    /**
+     * Channel (on which datagrams are received) used for sending datagrams
+     */
+    private volatile Channel datagramChannel;
 
     /**
-     * LRU Cache with a capacity of 5000
+     * LRU Cache of endpoints (i.e. remote host:port)
+     */
+    private volatile ConcurrentMap<String, Endpoint> cache;
+    /**
+     * Endpoints holding connections made by the remote end. These are never
+     * evicted, as the remote end (e.g. behind a NAT) can only be reached over
+     * its own connection; an endpoint is removed once its last inbound
+     * connection is closed. Their number is bounded by the number of accepted
+     * connections.
      */
-    private final ConcurrentMap<String, Channel> cache =
-            new ConcurrentLinkedHashMap.Builder<String, Channel>().maximumWeightedCapacity(initialCacheSize).build();
+    private final ConcurrentMap<String, Endpoint> inboundEndpoints = new ConcurrentHashMap<String, Endpoint>();
+
+    @PostConstruct
+    public synchronized void init() {
+        if (cache != null) {
+            return;
+        }
+        if (clientChannelFactory == null) {
+            // Important notice; use NioClientSocketChannelFactory instead
+            // of NioServerSocketChannelFactory
+            clientChannelFactory = new NioClientSocketChannelFactory(Executors.newCachedThreadPool(),
+                    Executors.newCachedThreadPool(), 1, workerCount);
+            releaseClientChannelFactory = true;
+        }
+        bootstrap = new ClientBootstrap(clientChannelFactory);
+        SipPipelineFactory pipelineFactory = new SipPipelineFactory(sipServerHandler);
+        pipelineFactory.setMaxQueuedWrites(maxQueuedWrites);
+        bootstrap.setPipelineFactory(pipelineFactory);
+        bootstrap.setOption("connectTimeoutMillis", connectTimeoutMillis);
+        bootstrap.setOption("tcpNoDelay", true);
+        bootstrap.setOption("keepAlive", true);
+
+        cache = new ConcurrentLinkedHashMap.Builder<String, Endpoint>()
+                .maximumWeightedCapacity(initialCacheSize)
+                .listener(new EvictionListener<String, Endpoint>() {
+                    @Override
+                    public void onEviction(String key, Endpoint endpoint) {
+                        endpoint.evict();
+                    }
+                }).build();
+
+        resolver = Executors.newFixedThreadPool(resolverCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sip-resolver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        if (idleTimeoutMillis > 0) {
+            timer = new HashedWheelTimer();
+            scheduleIdleCheck();
+        }
+    }
 
     @Override
     public void setChannel(SipUser user, Channel channel) {
@@ -57,14 +175,54 @@ public class SipChannelFactoryImpl implements SipChannelFactory {
             log.warn(String.format("setChannel. No user provided"));
             return;
         }
+        if (!channel.isConnected()) {
+            // e.g. the (shared) datagram channel
+            return;
+        }
         if (log.isDebugEnabled()) {
-            log.debug(String.format("setChannel. Caching channel for [%s]", key(user)));
+            log.debug(String.format("setChannel. Caching channel for [%s:%d]", user.getDomain(), user.getPort()));
         }
-        cache.put(key(user), channel);
+        getEndpoint(user.getDomain(), user.getPort()).register(channel, false);
     }
 
-    private String key(SipUser sipUser) {
-        return String.format("%s:%d", sipUser.getDomain(), sipUser.getPort());
+    @Override
+    public void setChannel(SocketAddress remoteAddress, Channel channel) {
+        if (!channel.isConnected()) {
+            datagramChannel = channel;
+            return;
+        }
+        if (remoteAddress instanceof InetSocketAddress) {
+            InetSocketAddress address = (InetSocketAddress) remoteAddress;
+            getEndpoint(address.getAddress().getHostAddress(), address.getPort()).register(channel, false);
+        }
+    }
+
+    private String key(String host, int port) {
+        return new StringBuilder(host.length() + 6).append(host).append(':').append(port).toString();
+    }
+
+    private Endpoint getEndpoint(SipUser user) {
+        return getEndpoint(user.getDomain(), user.getPort());
+    }
+
+    private Endpoint getEndpoint(String host, int port) {
+        if (cache == null) {
+            init();
+        }
+        String key = key(host, port);
+        Endpoint endpoint = cache.get(key);
+        if (endpoint == null) {
+            // evicted from the cache but still holding inbound connections?
+            endpoint = inboundEndpoints.get(key);
+        }
+        if (endpoint == null) {
+            endpoint = new Endpoint(key, host, port);
+            Endpoint existing = cache.putIfAbsent(key, endpoint);
+            if (existing != null) {
+                endpoint = existing;
+            }
+        }
+        return endpoint;
     }
 
     @Override
@@ -73,78 +231,488 @@ public class SipChannelFactoryImpl implements SipChannelFactory {
             log.warn("getChannel. No user provided");
             return null;
         }
-        return assureOpen(cache, user);
+        return getEndpoint(user).getChannel();
+    }
+
+    @Override
+    public ChannelFuture write(SipUser user, SipMessage message) {
+        if (user == null) {
+            throw new NullPointerException("user");
+        }
+        return getEndpoint(user).write(message);
+    }
+
+    /**
+     * Outbound connections are always made over TCP
+     */
+    @Override
+    public String getTransport(SipUser user) {
+        return TCP;
+    }
+
+    @Override
+    public ChannelFuture write(ViaHeader via, SipMessage message) {
+        String host = via.getReceived();
+        if (host == null || host.length() == 0) {
+            host = via.getHost();
+        }
+        int port = via.getPort() > 0 ? via.getPort() : DEFAULT_PORT;
+        int rport = via.getRport();
+
+        if ("UDP".equalsIgnoreCase(via.getTransport())) {
+            Channel c = datagramChannel;
+            if (c == null) {
+                return failedFuture(new IllegalStateException("No datagram channel registered"));
+            }
+            if (isAddress(host)) {
+                return c.write(message, new InetSocketAddress(host, rport > 0 ? rport : port));
+            }
+            return resolveAndWrite(c, host, rport > 0 ? rport : port, message);
+        }
+
+        // the connection the request arrived on (if still open)
+        if (rport > 0) {
+            Endpoint endpoint = inboundEndpoints.get(key(host, rport));
+            Channel c = endpoint == null ? null : endpoint.getChannel();
+            if (c != null) {
+                return c.write(message);
+            }
+        }
+        return getEndpoint(host, port).write(message);
+    }
+
+    /**
+     * Resolves given host name on the resolver pool, i.e. never on the (I/O)
+     * thread sending the response, and writes the datagram once resolved
+     */
+    private ChannelFuture resolveAndWrite(final Channel channel, final String host, final int port,
+                                          final SipMessage message) {
+        if (cache == null) {
+            init();
+        }
+        final ChannelFuture future = Channels.future(channel);
+        try {
+            resolver.execute(new Runnable() {
+                @Override
+                public void run() {
+                    InetSocketAddress address = new InetSocketAddress(host, port);
+                    if (address.isUnresolved()) {
+                        log.warn(String.format("write. Unable to resolve host[%s]", host));
+                        future.setFailure(new UnknownHostException(host));
+                    } else {
+                        channel.write(message, address).addListener(new ChannelFutureNotifier(future));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // destroyed
+            future.setFailure(e);
+        }
+        return future;
+    }
+
+    /**
+     * Returns true if given host is an IPv4 or (Via, i.e. unbracketed) IPv6
+     * address, which is not looked up when creating a socket address
+     */
+    static boolean isAddress(String host) {
+        if (host.indexOf(':') != -1) {
+            return true;
+        }
+        int dots = 0;
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c == '.') {
+                dots++;
+            } else if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return dots == 3;
+    }
+
+    /**
+     * Returns a failed future for a message that could not be sent (and thus
+     * has no channel)
+     */
+    private static ChannelFuture failedFuture(Throwable cause) {
+        ChannelFuture future = new DefaultChannelFuture(null, false);
+        future.setFailure(cause);
+        return future;
+    }
+
+    /**
+     * Returns the number of messages queued per remote host:port, for all
+     * destinations having messages queued
+     */
+    @ManagedAttribute(description = "Number of messages queued per remote host:port")
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new TreeMap<String, Integer>();
+        if (cache != null) {
+            for (Endpoint endpoint : cache.values()) {
+                int depth = endpoint.getQueueDepth();
+                if (depth > 0) {
+                    depths.put(endpoint.key, depth);
+                }
+            }
+        }
+        return depths;
+    }
+
+    @ManagedAttribute(description = "Total number of messages queued")
+    public int getQueuedMessages() {
+        int total = 0;
+        if (cache != null) {
+            for (Endpoint endpoint : cache.values()) {
+                total += endpoint.getQueueDepth();
+            }
+        }
+        return total;
+    }
+
+    @ManagedAttribute(description = "Number of remote host:port's known")
+    public int getEndpointCount() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    @ManagedAttribute(description = "Number of remote host:port's holding connections made by the remote end")
+    public int getInboundEndpointCount() {
+        return inboundEndpoints.size();
     }
 
     @PreDestroy
-    public void destroy() {
-        log.info(String.format("Closing [%d] channels", cache.size()));
-        for (Channel c : cache.values()) {
+    public synchronized void destroy() {
+        if (bootstrap == null) {
+            return;
+        }
+        log.info(String.format("Closing [%d] endpoints", cache.size()));
+        if (timer != null) {
+            timer.stop();
+        }
+        resolver.shutdownNow();
+        Set<Endpoint> endpoints = new HashSet<Endpoint>(cache.values());
+        endpoints.addAll(inboundEndpoints.values());
+        for (Endpoint endpoint : endpoints) {
             try {
-                c.close();
+                endpoint.close(true);
             } catch (Exception e) {
                 log.error(e);
             }
         }
+        cache.clear();
+        inboundEndpoints.clear();
+        if (releaseClientChannelFactory) {
+            bootstrap.releaseExternalResources();
+        }
+        bootstrap = null;
     }
 
-    private Channel assureOpen(ConcurrentMap<String, Channel> cache, SipUser user) {
+    private void scheduleIdleCheck() {
+        try {
+            timer.newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) throws Exception {
+                    long idleSince = System.currentTimeMillis() - idleTimeoutMillis;
+                    // endpoints evicted from the cache holding inbound connections
+                    // may also hold outbound ones
+                    Set<Endpoint> endpoints = new HashSet<Endpoint>(cache.values());
+                    endpoints.addAll(inboundEndpoints.values());
+                    for (Endpoint endpoint : endpoints) {
+                        if (endpoint.closeIdle(idleSince)) {
+                            cache.remove(endpoint.key, endpoint);
+                        }
+                    }
+                    scheduleIdleCheck();
+                }
+            }, Math.max(idleTimeoutMillis / 2, 10), TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            // timer is stopped, i.e. destroyed
+        }
+    }
+
+    /**
+     * Netty completes the close future before the channel state is updated,
+     * hence both are checked
+     */
+    private static boolean isConnected(Channel channel) {
+        return channel.isConnected() && !channel.getCloseFuture().isDone();
+    }
+
+    /**
+     * Connections to a single remote host:port
+     */
+    private final class Endpoint implements ChannelFutureListener {
+        private final String key;
+        private final String host;
+        private final int port;
+        /** connected channels, both made by us (outbound) and by the remote end */
+        private final List<Channel> channels = new ArrayList<Channel>(2);
+        private final Set<Channel> outbound = new HashSet<Channel>(2);
+        private final List<Object[]> pending = new ArrayList<Object[]>();
+        private ChannelFuture connecting;
+        /** evicted from the cache; a connection being made is handed to its successor */
+        private boolean evicted;
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        private Endpoint(String key, String host, int port) {
+            this.key = key;
+            this.host = host;
+            this.port = port;
+        }
 
-        // check is channel is open
-        Channel c = cache.get(key(user));
-        if (c != null && c.isConnected() && c.isOpen()) {
-            if (log.isDebugEnabled()) {
-                log.debug(String.format("assureOpen. Cache hit [%s]", key(user)));
+        private synchronized Channel getChannel() {
+            lastActivity = System.currentTimeMillis();
+            for (Channel c : channels) {
+                if (isConnected(c)) {
+                    return c;
+                }
             }
-            return c;
+            return null;
         }
 
-        try {
-            if (log.isDebugEnabled()) {
-                log.debug(String.format("assureOpen. Connecting address[%s:%d]",
-                        user.getDomain(), user.getPort()));
-            }
-            c = createChannel(user.getDomain(), user.getPort());
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
-        }
-        cache.put(key(user), c);
-        return c;
-    }
-
-    /**
-     * Creates a new channel to given host and port.<br>
-     *
-     * @param host
-     * @param port
-     * @return
-     * @throws Exception
-     */
-    private Channel createChannel(String host, int port) throws Exception {
-        // Important notice; use NioClientSocketChannelFactory instead
-        // of NioServerSocketChannelFactory
-        ChannelFactory channelFactory = new NioClientSocketChannelFactory(
-                Executors.newCachedThreadPool(),
-                Executors.newCachedThreadPool());
-        ClientBootstrap bootstrap = new ClientBootstrap(channelFactory);
-        //bootstrap.setPipelineFactory(new SipClientPipelineFactory(false,false));
-        bootstrap.setPipelineFactory(new SipPipelineFactory(sipServerHandler));
-        ChannelFuture future = bootstrap.connect(new InetSocketAddress(host, port));
-
-        // open / connect to channel
-        Channel c = future.await().getChannel();
-        if (!future.isSuccess()) {
-            log.warn(String.format("createChannel. Establishing connection failed[%s]",
-                    future.getCause().getMessage()));
-            bootstrap.releaseExternalResources();
+        /**
+         * Returns the number of messages waiting for a connection to be established
+         * or queued on the connections
+         */
+        private synchronized int getQueueDepth() {
+            int depth = pending.size();
+            for (Channel c : channels) {
+                SipWriteQueue queue = c.getPipeline().get(SipWriteQueue.class);
+                if (queue != null) {
+                    depth += queue.size();
+                }
+            }
+            return depth;
+        }
+
+        private void register(final Channel channel, boolean isOutbound) {
+            synchronized (this) {
+                lastActivity = System.currentTimeMillis();
+                if (channels.contains(channel)) {
+                    return;
+                }
+                channels.add(channel);
+                if (isOutbound) {
+                    outbound.add(channel);
+                } else {
+                    inboundEndpoints.put(key, this);
+                }
+            }
+            channel.getCloseFuture().addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    synchronized (Endpoint.this) {
+                        channels.remove(channel);
+                        outbound.remove(channel);
+                        if (channels.size() == outbound.size()) {
+                            inboundEndpoints.remove(key, Endpoint.this);
+                        }
+                    }
+                }
+            });
+        }
+
+        private ChannelFuture write(SipMessage message) {
+            Channel c = null;
+            ChannelFuture queued = null;
+            boolean connect = false;
+            synchronized (this) {
+                lastActivity = System.currentTimeMillis();
+                Channel fallback = null;
+                // channels being closed do not count against the maximum
+                int connected = 0;
+                for (Channel channel : channels) {
+                    if (!isConnected(channel)) {
+                        continue;
+                    }
+                    connected++;
+                    if (channel.isWritable()) {
+                        c = channel;
+                        break;
+                    }
+                    if (fallback == null) {
+                        fallback = channel;
+                    }
+                }
+                if (c == null) {
+                    if (connecting == null && connected < maxConnectionsPerHost) {
+                        connecting = bootstrap.connect(new InetSocketAddress(host, port));
+                        connect = true;
+                    }
+                    if (connecting != null) {
+                        if (pending.size() >= maxPendingWrites) {
+                            log.warn(String.format("write. Dropping message for [%s]; %d messages pending",
+                                    key, pending.size()));
+                            return Channels.failedFuture(connecting.getChannel(),
+                                    new IllegalStateException("Too many pending writes for " + key));
+                        }
+                        queued = Channels.future(connecting.getChannel());
+                        pending.add(new Object[]{message, queued});
+                    } else {
+                        c = fallback;
+                    }
+                }
+            }
+            if (connect) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("write. Connecting address[%s]", key));
+                }
+                connecting.addListener(this);
+            }
+            if (queued != null) {
+                return queued;
+            }
+            return c.write(message);
+        }
+
+        /**
+         * Invoked when connecting is done; writes or fails pending messages
+         */
+        @Override
+        public void operationComplete(ChannelFuture future) throws Exception {
+            List<Object[]> writes;
+            boolean rehome;
+            synchronized (this) {
+                connecting = null;
+                writes = new ArrayList<Object[]>(pending);
+                pending.clear();
+                rehome = evicted;
+                if (future.isSuccess() && !rehome) {
+                    register(future.getChannel(), true);
+                }
+            }
+            if (future.isSuccess()) {
+                if (rehome) {
+                    // otherwise the connection is never reused nor closed when idle
+                    getEndpoint(host, port).register(future.getChannel(), true);
+                }
+                for (Object[] write : writes) {
+                    future.getChannel().write(write[0]).addListener(
+                            new ChannelFutureNotifier((ChannelFuture) write[1]));
+                }
+            } else {
+                log.warn(String.format("write. Establishing connection to [%s] failed[%s]",
+                        key, future.getCause() == null ? "cancelled" : future.getCause().getMessage()));
+                for (Object[] write : writes) {
+                    ((ChannelFuture) write[1]).setFailure(future.getCause());
+                }
+            }
+        }
+
+        /**
+         * Invoked when evicted from the cache; closes the outbound channels
+         */
+        private void evict() {
+            synchronized (this) {
+                evicted = true;
+            }
+            close(false);
+        }
+
+        /**
+         * Closes outbound channels if idle since given time
+         *
+         * @return true if this endpoint holds no channels anymore
+         */
+        private boolean closeIdle(long idleSince) {
+            if (lastActivity >= idleSince) {
+                return false;
+            }
+            close(false);
+            synchronized (this) {
+                return channels.isEmpty() && connecting == null;
+            }
+        }
+
+        /**
+         * Closes the outbound channels or, if <code>all</code>, all channels
+         */
+        private void close(boolean all) {
+            List<Channel> close;
+            synchronized (this) {
+                close = new ArrayList<Channel>(all ? channels : outbound);
+            }
+            for (Channel c : close) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("close. Closing channel to [%s]", key));
+                }
+                c.close();
+            }
         }
-        return c;
     }
 
+    ////////////////////////////////////
+    //
+    //  Getters /  Setters
+    //
+    ////////////////////////////////////
+
     public void setInitialCacheSize(int initialCacheSize) {
         this.initialCacheSize = initialCacheSize;
     }
 
+    /**
+     * Maximum number of connections made per remote host:port (default 1)
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        if (maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerHost must be positive");
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * Maximum number of messages queued per remote host:port whilst connecting
+     */
+    public void setMaxPendingWrites(int maxPendingWrites) {
+        this.maxPendingWrites = maxPendingWrites;
+    }
+
+    /**
+     * Maximum number of messages queued per outbound connection whilst the remote
+     * end does not keep up, see {@link SipWriteQueue}
+     */
+    public void setMaxQueuedWrites(int maxQueuedWrites) {
+        this.maxQueuedWrites = maxQueuedWrites;
+    }
+
+    /**
+     * Time after which idle outbound connections are closed; 0 disables closing
+     */
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Number of threads resolving the host names responses are sent to
+     * (default 2)
+     */
+    public void setResolverCount(int resolverCount) {
+        if (resolverCount < 1) {
+            throw new IllegalArgumentException("resolverCount must be positive");
+        }
+        this.resolverCount = resolverCount;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Number of worker (selector) threads shared by all outbound connections.
+     * Ignored if a client channel factory is set.
+     */
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Channel factory used for outbound connections; not released on destroy
+     */
+    public void setClientChannelFactory(ChannelFactory clientChannelFactory) {
+        this.clientChannelFactory = clientChannelFactory;
+    }
+
     @Required
     public void setSipServerHandler(SipServerHandler sipServerHandler) {
         this.sipServerHandler = sipServerHandler;
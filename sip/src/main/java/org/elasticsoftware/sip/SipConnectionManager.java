@@ -0,0 +1,210 @@
+package org.elasticsoftware.sip;
+
+import org.apache.log4j.Logger;
+import org.elasticsoftware.sip.codec.SipStreamDecoder;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelConfig;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.SocketChannelConfig;
+import org.jboss.netty.handler.timeout.IdleStateAwareChannelUpstreamHandler;
+import org.jboss.netty.handler.timeout.IdleStateEvent;
+import org.jboss.netty.handler.timeout.IdleStateHandler;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the stream (TCP/TLS) connections accepted by the
+ * {@link SipServer}:<br>
+ * - at most <code>maxConnections</code> connections are open at a time; a
+ * connection beyond that is closed straight away, before anything is read<br>
+ * - a connection on which nothing was read or written for
+ * <code>idleTimeoutSeconds</code> (e.g. of a phone that disappeared without
+ * closing it) is closed. Clients keeping their connection open send CRLF keep
+ * alives well within this time.<br>
+ * <br>
+ * The memory held per connection, i.e. the partially received messages buffered
+ * by the decoders, the messages queued for writing and the socket buffers, is
+ * exposed through JMX.
+ *
+ * @author Leonard Wolters
+ */
+@Sharable
+@ManagedResource(objectName = "org.elasticsoftware.sip:name=SipConnections",
+        description = "Stream connections accepted and the memory they hold")
+public class SipConnectionManager extends IdleStateAwareChannelUpstreamHandler {
+    private static final Logger log = Logger.getLogger(SipConnectionManager.class);
+
+    private int maxConnections = 0;
+    private int idleTimeoutSeconds = 0;
+
+    private final ChannelGroup channels = new DefaultChannelGroup("sip-connections");
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong idleClosed = new AtomicLong();
+    private Timer timer;
+    private IdleStateHandler idleStateHandler;
+
+    /**
+     * Returns the (shared) handler firing idle events for the connections, or
+     * null if connections are never closed for being idle
+     */
+    public synchronized ChannelHandler getIdleStateHandler() {
+        if (idleTimeoutSeconds <= 0) {
+            return null;
+        }
+        if (idleStateHandler == null) {
+            timer = new HashedWheelTimer(1, TimeUnit.SECONDS);
+            idleStateHandler = new IdleStateHandler(timer, 0, 0, idleTimeoutSeconds, TimeUnit.SECONDS);
+        }
+        return idleStateHandler;
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        if (timer != null) {
+            timer.stop();
+            timer = null;
+            idleStateHandler = null;
+        }
+    }
+
+    @Override
+    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        int count = connections.incrementAndGet();
+        if (maxConnections > 0 && count > maxConnections) {
+            if (rejected.incrementAndGet() % 1000 == 1) {
+                log.warn(String.format("channelOpen. Maximum of %d connections reached, closing [%s]",
+                        maxConnections, ctx.getChannel().getRemoteAddress()));
+            }
+            ctx.getChannel().close();
+            return;
+        }
+        channels.add(ctx.getChannel());
+        super.channelOpen(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        connections.decrementAndGet();
+        super.channelClosed(ctx, e);
+    }
+
+    @Override
+    public void channelIdle(ChannelHandlerContext ctx, IdleStateEvent e) throws Exception {
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("channelIdle. Closing [%s], idle for %d seconds",
+                    ctx.getChannel().getRemoteAddress(), idleTimeoutSeconds));
+        }
+        idleClosed.incrementAndGet();
+        ctx.getChannel().close();
+    }
+
+    ////////////////////////////////////
+    //
+    //  JMX
+    //
+    ////////////////////////////////////
+
+    @ManagedAttribute(description = "Number of open connections")
+    public int getConnectionCount() {
+        return channels.size();
+    }
+
+    @ManagedAttribute(description = "Number of connections closed for exceeding the maximum")
+    public long getRejectedConnections() {
+        return rejected.get();
+    }
+
+    @ManagedAttribute(description = "Number of connections closed for being idle")
+    public long getIdleClosedConnections() {
+        return idleClosed.get();
+    }
+
+    /**
+     * Returns the capacity of the buffers holding partially received messages
+     */
+    @ManagedAttribute(description = "Bytes buffered by the decoders of all connections")
+    public long getDecoderBufferBytes() {
+        long bytes = 0;
+        for (Channel channel : channels) {
+            SipStreamDecoder decoder = channel.getPipeline().get(SipStreamDecoder.class);
+            if (decoder != null) {
+                bytes += decoder.getBufferCapacity();
+            }
+        }
+        return bytes;
+    }
+
+    @ManagedAttribute(description = "Number of messages queued for writing on all connections")
+    public long getQueuedWrites() {
+        long queued = 0;
+        for (Channel channel : channels) {
+            SipWriteQueue queue = channel.getPipeline().get(SipWriteQueue.class);
+            if (queue != null) {
+                queued += queue.size();
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Returns the size of the send and receive buffers of all connections. These
+     * are held by the kernel rather than on the heap.
+     */
+    @ManagedAttribute(description = "Bytes of socket send and receive buffers of all connections")
+    public long getSocketBufferBytes() {
+        long bytes = 0;
+        for (Channel channel : channels) {
+            ChannelConfig config = channel.getConfig();
+            if (config instanceof SocketChannelConfig) {
+                bytes += ((SocketChannelConfig) config).getReceiveBufferSize()
+                        + ((SocketChannelConfig) config).getSendBufferSize();
+            }
+        }
+        return bytes;
+    }
+
+    @ManagedAttribute(description = "Average number of bytes buffered (heap and kernel) per connection")
+    public long getBytesPerConnection() {
+        int count = channels.size();
+        return count == 0 ? 0 : (getDecoderBufferBytes() + getSocketBufferBytes()) / count;
+    }
+
+    ////////////////////////////////////
+    //
+    //  Getters /  Setters
+    //
+    ////////////////////////////////////
+
+    @ManagedAttribute(description = "Maximum number of open connections (0 for no maximum)")
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Maximum number of open connections (0, default, for no maximum)
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Number of seconds without reads and writes after which a connection is
+     * closed (0, default, to keep idle connections open)
+     */
+    public void setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+    }
+}
@@ -0,0 +1,65 @@
+package org.elasticsoftware.sip;
+
+import static org.jboss.netty.channel.Channels.pipeline;
+
+import org.elasticsoftware.sip.codec.SipDatagramDecoder;
+import org.elasticsoftware.sip.codec.SipMessageEncoder;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+
+/**
+ * SIP pipeline factory for datagram (UDP) channels<br>
+ * <br>
+ * Each datagram holds a complete SIP message, so there is no need for a
+ * stateful (stream) decoder. All handlers are stateless and shared by every
+ * pipeline created. If a {@link SipRateLimiter} is set, datagrams over the
+ * limit are dropped by the I/O thread, before being queued for the executor.
+ *
+ * @author Leonard Wolters
+ */
+public class SipDatagramPipelineFactory implements ChannelPipelineFactory {
+    private final SipDatagramDecoder decoder = new SipDatagramDecoder();
+    private final SipMessageEncoder encoder;
+    private final SipServerHandler handler;
+    private final ExecutionHandler executionHandler;
+    private SipRateLimiter rateLimiter;
+
+    public SipDatagramPipelineFactory(SipServerHandler handler) {
+        this(handler, new SipMessageEncoder());
+    }
+
+    public SipDatagramPipelineFactory(SipServerHandler handler, SipMessageEncoder encoder) {
+        this(handler, encoder, null);
+    }
+
+    /**
+     * If an execution handler is given, datagrams are decoded and handled by its
+     * executor instead of by the I/O thread that received them
+     */
+    public SipDatagramPipelineFactory(SipServerHandler handler, SipMessageEncoder encoder,
+                                      ExecutionHandler executionHandler) {
+        this.handler = handler;
+        this.encoder = encoder;
+        this.executionHandler = executionHandler;
+    }
+
+    @Override
+    public ChannelPipeline getPipeline() throws Exception {
+        ChannelPipeline pipeline = pipeline();
+        if (rateLimiter != null) {
+            pipeline.addLast("limiter", rateLimiter);
+        }
+        if (executionHandler != null) {
+            pipeline.addLast("executor", executionHandler);
+        }
+        pipeline.addLast("decoder", decoder);
+        pipeline.addLast("encoder", encoder);
+        pipeline.addLast("handler", handler);
+        return pipeline;
+    }
+
+    public void setRateLimiter(SipRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+}
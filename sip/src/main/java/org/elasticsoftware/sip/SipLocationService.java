@@ -0,0 +1,365 @@
+package org.elasticsoftware.sip;
+
+import org.apache.log4j.Logger;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Location service (see http://tools.ietf.org/html/rfc3261#section-10.2):
+ * the bindings of contacts to an address of record, each with the time it
+ * expires.<br>
+ * <br>
+ * Expiry is tracked in a hierarchical timing wheel of 4 levels of 64 slots; a
+ * slot of the first level spans <code>tickMillis</code>, one of the next level
+ * 64 ticks, etc. Registering, re-registering (which moves the deadline of the
+ * existing binding) and removing a binding take constant time, as does every
+ * tick; a binding is cascaded down a level at most 3 times before it expires.
+ * With ticks of a second the wheel covers 194 days; later deadlines are held
+ * in the last level until they come within range.<br>
+ * <br>
+ * Each tick, the bindings that expired are removed and reported to the
+ * {@link ExpiryListener} in one batch per address of record. The number of
+ * active bindings and the expiry backlog are exposed through JMX.
+ *
+ * @author Leonard Wolters
+ */
+@ManagedResource(objectName = "org.elasticsoftware.sip:name=SipLocationService",
+        description = "Registered bindings and their expiry")
+public class SipLocationService {
+    private static final Logger log = Logger.getLogger(SipLocationService.class);
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    /**
+     * Number of ticks covered by the wheel
+     */
+    private static final long RANGE = 1L << (WHEEL_BITS * LEVELS);
+
+    /**
+     * Notified of the bindings that expired
+     */
+    public interface ExpiryListener {
+        /**
+         * Called once per tick and address of record with the contacts of which
+         * the bindings expired (and are removed)
+         */
+        void onExpired(String addressOfRecord, List<String> contacts);
+    }
+
+    private long tickMillis = 1000;
+    private ExpiryListener expiryListener;
+
+    /**
+     * Bindings per address of record, by contact
+     */
+    private final Map<String, Map<String, Binding>> bindings = new HashMap<String, Map<String, Binding>>();
+    /**
+     * First binding of every slot of every level; the bindings of a slot form a
+     * doubly linked list
+     */
+    private final Binding[][] wheel = new Binding[LEVELS][WHEEL_SIZE];
+    private long currentTick = -1;
+    private int bindingCount;
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong pending = new AtomicLong();
+    private ScheduledExecutorService executor;
+
+    /**
+     * Starts ticking, if not started yet
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sip-location-service");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    advance(System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    log.error(e.getMessage(), e);
+                }
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Binds given contact to the address of record until <code>expiresAt</code>
+     * (ms), or moves the deadline of the existing binding
+     */
+    public synchronized void register(String addressOfRecord, String contact, long expiresAt) {
+        if (currentTick < 0) {
+            currentTick = System.currentTimeMillis() / tickMillis;
+        }
+        Map<String, Binding> contacts = bindings.get(addressOfRecord);
+        if (contacts == null) {
+            contacts = new HashMap<String, Binding>(4);
+            bindings.put(addressOfRecord, contacts);
+        }
+        Binding binding = contacts.get(contact);
+        if (binding == null) {
+            binding = new Binding(addressOfRecord, contact);
+            contacts.put(contact, binding);
+            bindingCount++;
+        } else {
+            unlink(binding);
+        }
+        binding.expiresAt = expiresAt;
+        schedule(binding, currentTick + 1);
+    }
+
+    /**
+     * Removes the binding of given contact to the address of record
+     *
+     * @return false if not bound
+     */
+    public synchronized boolean unregister(String addressOfRecord, String contact) {
+        Map<String, Binding> contacts = bindings.get(addressOfRecord);
+        Binding binding = contacts == null ? null : contacts.remove(contact);
+        if (binding == null) {
+            return false;
+        }
+        if (contacts.isEmpty()) {
+            bindings.remove(addressOfRecord);
+        }
+        unlink(binding);
+        bindingCount--;
+        return true;
+    }
+
+    /**
+     * Returns the contacts bound to given address of record that have not
+     * expired
+     */
+    public List<String> getContacts(String addressOfRecord) {
+        return getContacts(addressOfRecord, System.currentTimeMillis());
+    }
+
+    synchronized List<String> getContacts(String addressOfRecord, long now) {
+        Map<String, Binding> contacts = bindings.get(addressOfRecord);
+        if (contacts == null) {
+            return new ArrayList<String>(0);
+        }
+        List<String> result = new ArrayList<String>(contacts.size());
+        for (Binding binding : contacts.values()) {
+            if (binding.expiresAt > now) {
+                result.add(binding.contact);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Advances the wheel up to given time (ms), removing the bindings that
+     * expired and notifying the listener of them
+     */
+    void advance(long now) {
+        Map<String, List<String>> expiredContacts = new HashMap<String, List<String>>();
+        synchronized (this) {
+            if (currentTick < 0) {
+                return;
+            }
+            long target = now / tickMillis;
+            while (currentTick < target) {
+                currentTick++;
+                // cascade the slots of the higher levels reached, highest level first
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+                        cascade(level, (int) ((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK));
+                    }
+                }
+                expire(expiredContacts);
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : expiredContacts.entrySet()) {
+            try {
+                if (expiryListener != null) {
+                    expiryListener.onExpired(entry.getKey(), entry.getValue());
+                }
+            } catch (RuntimeException e) {
+                log.error(String.format("advance. Notifying expiry of %s failed", entry.getKey()), e);
+            } finally {
+                pending.addAndGet(-entry.getValue().size());
+            }
+        }
+    }
+
+    /**
+     * Links given binding in the slot of its deadline, but not before
+     * <code>minTick</code>
+     */
+    private void schedule(Binding binding, long minTick) {
+        long tick = Math.max((binding.expiresAt + tickMillis - 1) / tickMillis, minTick);
+        long delta = Math.min(tick - currentTick, RANGE - 1);
+        tick = currentTick + delta;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        binding.level = level;
+        binding.slot = slot;
+        binding.previous = null;
+        binding.next = wheel[level][slot];
+        if (binding.next != null) {
+            binding.next.previous = binding;
+        }
+        wheel[level][slot] = binding;
+    }
+
+    private void unlink(Binding binding) {
+        if (binding.previous != null) {
+            binding.previous.next = binding.next;
+        } else {
+            wheel[binding.level][binding.slot] = binding.next;
+        }
+        if (binding.next != null) {
+            binding.next.previous = binding.previous;
+        }
+        binding.previous = null;
+        binding.next = null;
+    }
+
+    /**
+     * Moves the bindings of given slot to the lower levels
+     */
+    private void cascade(int level, int slot) {
+        Binding binding = wheel[level][slot];
+        wheel[level][slot] = null;
+        while (binding != null) {
+            Binding next = binding.next;
+            schedule(binding, currentTick);
+            binding = next;
+        }
+    }
+
+    /**
+     * Removes the bindings of the slot of the current tick
+     */
+    private void expire(Map<String, List<String>> expiredContacts) {
+        int slot = (int) (currentTick & WHEEL_MASK);
+        Binding binding = wheel[0][slot];
+        wheel[0][slot] = null;
+        while (binding != null) {
+            Binding next = binding.next;
+            if ((binding.expiresAt + tickMillis - 1) / tickMillis > currentTick) {
+                // not yet due, can only be a deadline beyond the range of the wheel
+                schedule(binding, currentTick + 1);
+            } else {
+                Map<String, Binding> contacts = bindings.get(binding.addressOfRecord);
+                contacts.remove(binding.contact);
+                if (contacts.isEmpty()) {
+                    bindings.remove(binding.addressOfRecord);
+                }
+                bindingCount--;
+                List<String> list = expiredContacts.get(binding.addressOfRecord);
+                if (list == null) {
+                    list = new ArrayList<String>(2);
+                    expiredContacts.put(binding.addressOfRecord, list);
+                }
+                list.add(binding.contact);
+                expired.incrementAndGet();
+                pending.incrementAndGet();
+            }
+            binding = next;
+        }
+    }
+
+    /**
+     * Binding of a contact, linked in a slot of the wheel
+     */
+    private static final class Binding {
+        private final String addressOfRecord;
+        private final String contact;
+        private long expiresAt;
+        private int level;
+        private int slot;
+        private Binding previous;
+        private Binding next;
+
+        private Binding(String addressOfRecord, String contact) {
+            this.addressOfRecord = addressOfRecord;
+            this.contact = contact;
+        }
+    }
+
+    ////////////////////////////////////
+    //
+    //  JMX
+    //
+    ////////////////////////////////////
+
+    @ManagedAttribute(description = "Number of active bindings")
+    public synchronized int getBindingCount() {
+        return bindingCount;
+    }
+
+    @ManagedAttribute(description = "Number of addresses of record with active bindings")
+    public synchronized int getAddressOfRecordCount() {
+        return bindings.size();
+    }
+
+    @ManagedAttribute(description = "Number of bindings expired")
+    public long getExpiredBindings() {
+        return expired.get();
+    }
+
+    @ManagedAttribute(description = "Number of expired bindings of which the listener is not notified yet")
+    public long getExpiryBacklog() {
+        return pending.get();
+    }
+
+    @ManagedAttribute(description = "Milliseconds the wheel lags behind the clock")
+    public synchronized long getExpiryLagMillis() {
+        return currentTick < 0 ? 0 : Math.max(0, System.currentTimeMillis() - (currentTick + 1) * tickMillis);
+    }
+
+    ////////////////////////////////////
+    //
+    //  Getters /  Setters
+    //
+    ////////////////////////////////////
+
+    /**
+     * Duration of a tick (default 1000 ms), i.e. the precision of expiry. Must be
+     * set before the first binding is registered.
+     */
+    public void setTickMillis(long tickMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive: " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+    }
+
+    public void setExpiryListener(ExpiryListener expiryListener) {
+        this.expiryListener = expiryListener;
+    }
+}
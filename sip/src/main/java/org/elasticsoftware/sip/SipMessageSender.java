@@ -2,11 +2,15 @@ package org.elasticsoftware.sip;
 
 import org.elasticsoftware.sip.codec.SipRequest;
 import org.elasticsoftware.sip.codec.SipResponse;
+import org.jboss.netty.channel.ChannelFuture;
 
 /**
  * Interface for sending messages<br>
  * To be used by third party, and when using Spring make sure to
- * set it by using the <code>Autowired</code> annotation
+ * set it by using the <code>Autowired</code> annotation<br>
+ * <br>
+ * Sending never blocks; the returned future completes once the message is
+ * written (or failed to be written) to the network.
  *
  * @author Leonard Wolters
  */
@@ -14,17 +18,19 @@ public interface SipMessageSender {
 
     /**
      * Sends a SIP response to the corresponding recipient,
-     * as defined in the message.
+     * as defined by the top most Via of the message.
      *
-     * @param message
+     * @param response
+     * @return future notified when the response is written
      */
-    void sendResponse(SipResponse response, SipMessageCallback callback);
+    ChannelFuture sendResponse(SipResponse response);
 
     /**
      * Sends a SIP request to the corresponding recipient,
-     * as defined in the message.
+     * as defined by the request uri of the message.
      *
-     * @param message
+     * @param request
+     * @return future notified when the request is written
      */
-    void sendRequest(SipRequest request, SipMessageCallback callback);
+    ChannelFuture sendRequest(SipRequest request);
 }
@@ -1,5 +1,8 @@
 package org.elasticsoftware.sip;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.annotation.PostConstruct;
 
 import org.apache.log4j.Logger;
@@ -8,7 +11,11 @@ import org.elasticsoftware.sip.codec.SipMessage;
 import org.elasticsoftware.sip.codec.SipRequest;
 import org.elasticsoftware.sip.codec.SipResponse;
 import org.elasticsoftware.sip.codec.SipUser;
-import org.jboss.netty.channel.Channel;
+import org.elasticsoftware.sip.codec.header.ViaHeader;
+import org.elasticsoftware.sip.transaction.SipTransactionManager;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.DefaultChannelFuture;
 import org.springframework.beans.factory.annotation.Required;
 import org.springframework.stereotype.Component;
 
@@ -19,6 +26,8 @@ import org.springframework.stereotype.Component;
  * <br>
  * This implementation takes automatically care of handling sockets and
  * connections, and reestablish connections to client's when required.<br>
+ * If a {@link SipTransactionManager} is set, messages are sent through their
+ * transaction, which retransmits them over unreliable transports.<br>
  *
  * @author Leonard Wolters
  */
@@ -31,13 +40,28 @@ public class SipMessageSenderImpl implements SipMessageSender {
      * Channel Factory is required for obtaining channels used for sending messages
      */
     private SipChannelFactory sipChannelFactory;
+    private SipTransactionManager transactionManager;
+
+    /**
+     * Writes are asynchronous; failures are logged (and reported to the caller
+     * through the returned future)
+     */
+    private static final ChannelFutureListener LOG_FAILURE = new ChannelFutureListener() {
+        @Override
+        public void operationComplete(ChannelFuture future) throws Exception {
+            if (!future.isSuccess()) {
+                log.warn(String.format("Sending message failed[%s]", future.getCause() == null
+                        ? "cancelled" : future.getCause().getMessage()));
+            }
+        }
+    };
 
     @PostConstruct
     private void init() {
     }
 
 	@Override
-	public void sendRequest(SipRequest request, SipMessageCallback callback) {
+	public ChannelFuture sendRequest(SipRequest request) {
 		if(log.isDebugEnabled()) {
 			log.debug(String.format("Sending Request\n%s", request));
 		}
@@ -45,21 +69,18 @@ public class SipMessageSenderImpl implements SipMessageSender {
 		// content length
 		request.setHeader(SipHeader.CONTENT_LENGTH, request.getContentLength(0));
 
-		Channel c = sipChannelFactory.getChannel(new SipUser(request.getUri()));
-		if(c == null) {
-			log.error(String.format("sendRequest. No channel set/found."));
-			return;
-		}
-		if(c.isConnected() && c.isOpen()) {
-			logMessage("SENDING REQUEST", request);
-			c.write(request);
-		} else {
-			log.warn(String.format("sendRequest. Channel not connected or closed"));
-		}
+		SipUser user = new SipUser(request.getUri());
+		setTransport(request, sipChannelFactory.getTransport(user));
+		logMessage("SENDING REQUEST", request);
+		ChannelFuture future = transactionManager != null
+				? transactionManager.sendRequest(user, request)
+				: sipChannelFactory.write(user, request);
+		future.addListener(LOG_FAILURE);
+		return future;
 	}
 
 	@Override
-	public void sendResponse(SipResponse response, SipMessageCallback callback) {
+	public ChannelFuture sendResponse(SipResponse response) {
 		if(log.isDebugEnabled()) {
 			log.debug(String.format("Sending Response\n%s", response));
 		}
@@ -67,17 +88,59 @@ public class SipMessageSenderImpl implements SipMessageSender {
 		// content length
 		response.setHeader(SipHeader.CONTENT_LENGTH, response.getContentLength(0));
 		
-		Channel c = sipChannelFactory.getChannel(response.getSipUser(SipHeader.CONTACT));
-		if(c == null) {
-			log.error(String.format("sendResponse. No channel set/found."));
+		// responses are routed by the top most via (RFC 3261 18.2.2), not by contact
+		String value = response.getHeaderValue(SipHeader.VIA);
+		if(value == null) {
+			log.error(String.format("sendResponse. No Via set/found."));
+			return failedFuture(new IllegalArgumentException("No Via"));
+		}
+		ViaHeader via;
+		try {
+			via = ViaHeader.parse(value);
+		} catch (IllegalArgumentException e) {
+			log.error(String.format("sendResponse. Invalid Via[%s]", value));
+			return failedFuture(e);
+		}
+		logMessage("SENDING RESPONSE", response);
+		ChannelFuture future = transactionManager != null
+				? transactionManager.sendResponse(via, response)
+				: sipChannelFactory.write(via, response);
+		future.addListener(LOG_FAILURE);
+		return future;
+	}
+
+	/**
+	 * Sets the transport of the top most Via to the one the request is actually
+	 * sent over (see http://tools.ietf.org/html/rfc3261#section-18.1.1)
+	 */
+	private void setTransport(SipRequest request, String transport) {
+		List<String> vias = request.getHeaderValues(SipHeader.VIA);
+		if(vias.isEmpty()) {
 			return;
 		}
-		if(c.isConnected() && c.isOpen()) {
-			logMessage("SENDING RESPONSE", response);
-			c.write(response);
-		} else {
-			log.warn(String.format("sendResponse. Channel not connected or closed"));
+		ViaHeader via;
+		try {
+			via = ViaHeader.parse(vias.get(0));
+		} catch (IllegalArgumentException e) {
+			log.warn(String.format("setTransport. Invalid Via[%s]", vias.get(0)));
+			return;
+		}
+		if(transport.equalsIgnoreCase(via.getTransport())) {
+			return;
 		}
+		List<String> values = new ArrayList<String>(vias);
+		values.set(0, via.setTransport(transport).toString());
+		request.setHeader(SipHeader.VIA, values.toArray());
+	}
+
+	/**
+	 * Returns a failed future for a message that could not be sent (and thus
+	 * has no channel)
+	 */
+	private static ChannelFuture failedFuture(Throwable cause) {
+		ChannelFuture future = new DefaultChannelFuture(null, false);
+		future.setFailure(cause);
+		return future;
 	}
 
     @Required
@@ -85,6 +148,10 @@ public class SipMessageSenderImpl implements SipMessageSender {
         this.sipChannelFactory = sipChannelFactory;
     }
 
+    public void setTransactionManager(SipTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
     private void logMessage(String prefix, SipMessage message) {
     	if(sipLog.isDebugEnabled()) {
     		sipLog.debug(String.format("%s\n%s\n", prefix, message));
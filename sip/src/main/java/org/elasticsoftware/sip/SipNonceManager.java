@@ -0,0 +1,309 @@
+package org.elasticsoftware.sip;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import org.apache.log4j.Logger;
+import org.jboss.netty.util.CharsetUtil;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issues and verifies the nonces of digest authentication challenges (see
+ * http://tools.ietf.org/html/rfc2617#section-3.2.1) without storing them. A
+ * nonce holds the time it was issued and a (cryptographically strong) random value,
+ * signed together with the realm by a HMAC-SHA256:<br>
+ * <code>hex(seconds) hex(random) hex(HMAC(secret, hex(seconds) hex(random) realm))</code><br>
+ * <br>
+ * A nonce is accepted for <code>lifetimeSeconds</code> after which it is stale,
+ * i.e. the client should be challenged again with <code>stale=true</code>.
+ * Replays are detected by the nonce count (nc): the highest count used with a
+ * nonce is tracked in a LRU cache of at most <code>maxTrackedNonces</code>
+ * nonces, and a nonce used without count can be used once.<br>
+ * <br>
+ * All nodes verifying each others nonces need the same <code>secret</code>;
+ * without one, a random secret is generated and nonces do not survive a restart.
+ *
+ * @author Leonard Wolters
+ */
+@ManagedResource(objectName = "org.elasticsoftware.sip:name=SipNonces",
+        description = "Digest authentication nonces issued and verified")
+public class SipNonceManager {
+    private static final Logger log = Logger.getLogger(SipNonceManager.class);
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final char[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+            'a', 'b', 'c', 'd', 'e', 'f'};
+    /**
+     * Hex digits of the time, the random value and the (truncated) HMAC
+     */
+    private static final int TIME_LENGTH = 8;
+    private static final int RANDOM_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final int SIGNED_LENGTH = TIME_LENGTH + RANDOM_LENGTH;
+    private static final int NONCE_LENGTH = SIGNED_LENGTH + MAC_LENGTH;
+    /**
+     * Seconds a nonce may be issued in the future, allowing for clocks of nodes
+     * running apart
+     */
+    private static final int MAX_CLOCK_SKEW = 60;
+
+    public enum Verdict {
+        VALID, STALE, INVALID
+    }
+
+    private int lifetimeSeconds = 300;
+    private int maxTrackedNonces = 100000;
+    private volatile SecretKeySpec key;
+
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(getKey());
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+    /**
+     * The random part must not be predictable from nonces issued before
+     */
+    private final ThreadLocal<SecureRandom> randoms = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            return new SecureRandom();
+        }
+    };
+    private volatile ConcurrentMap<String, AtomicLong> tracked;
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+
+    /**
+     * Returns a new nonce for given realm
+     */
+    public String generate(String realm) {
+        return generate(realm, System.currentTimeMillis());
+    }
+
+    String generate(String realm, long now) {
+        char[] nonce = new char[NONCE_LENGTH];
+        toHex(now / 1000, nonce, 0, TIME_LENGTH);
+        toHex(randoms.get().nextLong(), nonce, TIME_LENGTH, RANDOM_LENGTH);
+        byte[] mac = sign(nonce, realm);
+        for (int i = 0; i < MAC_LENGTH / 2; i++) {
+            nonce[SIGNED_LENGTH + 2 * i] = HEX[(mac[i] >> 4) & 0x0f];
+            nonce[SIGNED_LENGTH + 2 * i + 1] = HEX[mac[i] & 0x0f];
+        }
+        issued.incrementAndGet();
+        return new String(nonce);
+    }
+
+    /**
+     * Verifies given nonce was issued (by a node sharing the secret) for given
+     * realm and has not expired
+     */
+    public Verdict verify(String nonce, String realm) {
+        return verify(nonce, realm, System.currentTimeMillis());
+    }
+
+    Verdict verify(String nonce, String realm, long now) {
+        Verdict verdict = check(nonce, realm, now);
+        if (verdict == Verdict.STALE) {
+            stale.incrementAndGet();
+        } else if (verdict == Verdict.INVALID) {
+            invalid.incrementAndGet();
+        }
+        return verdict;
+    }
+
+    /**
+     * Returns true if given nonce was issued for given realm but has expired,
+     * i.e. a challenge answering it should be flagged stale. Unlike
+     * {@link #verify(String, String)} this is not counted.
+     */
+    public boolean isStale(String nonce, String realm) {
+        return check(nonce, realm, System.currentTimeMillis()) == Verdict.STALE;
+    }
+
+    private Verdict check(String nonce, String realm, long now) {
+        if (nonce == null || nonce.length() != NONCE_LENGTH) {
+            return Verdict.INVALID;
+        }
+        char[] chars = nonce.toCharArray();
+        byte[] mac = sign(chars, realm);
+        int difference = 0;
+        for (int i = 0; i < MAC_LENGTH / 2; i++) {
+            difference |= chars[SIGNED_LENGTH + 2 * i] ^ HEX[(mac[i] >> 4) & 0x0f];
+            difference |= chars[SIGNED_LENGTH + 2 * i + 1] ^ HEX[mac[i] & 0x0f];
+        }
+        if (difference != 0) {
+            return Verdict.INVALID;
+        }
+        long age = now / 1000 - Long.parseLong(nonce.substring(0, TIME_LENGTH), 16);
+        if (age > lifetimeSeconds || age < -MAX_CLOCK_SKEW) {
+            return Verdict.STALE;
+        }
+        return Verdict.VALID;
+    }
+
+    /**
+     * Records the use of a (verified) nonce with given nonce count, to be called
+     * once the credentials are found valid
+     *
+     * @param nonceCount nc of the credentials, or -1 if absent
+     * @return false if the nonce was used with the same or a higher count
+     * before, i.e. the request is a replay
+     */
+    public boolean use(String nonce, long nonceCount) {
+        long count = nonceCount <= 0 ? 1 : nonceCount;
+        ConcurrentMap<String, AtomicLong> map = getTracked();
+        AtomicLong highest = map.get(nonce);
+        if (highest == null) {
+            AtomicLong created = new AtomicLong();
+            highest = map.putIfAbsent(nonce, created);
+            if (highest == null) {
+                highest = created;
+            }
+        }
+        while (true) {
+            long current = highest.get();
+            if (count <= current) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("use. Nonce[%s] replayed, nc %d <= %d", nonce, count, current));
+                }
+                replayed.incrementAndGet();
+                return false;
+            }
+            if (highest.compareAndSet(current, count)) {
+                return true;
+            }
+        }
+    }
+
+    private byte[] sign(char[] nonce, String realm) {
+        Mac mac = macs.get();
+        for (int i = 0; i < SIGNED_LENGTH; i++) {
+            mac.update((byte) nonce[i]);
+        }
+        if (realm != null) {
+            mac.update(realm.getBytes(CharsetUtil.UTF_8));
+        }
+        return mac.doFinal();
+    }
+
+    private static void toHex(long value, char[] chars, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            chars[i] = HEX[(int) (value & 0x0f)];
+            value >>>= 4;
+        }
+    }
+
+    private SecretKeySpec getKey() {
+        SecretKeySpec spec = key;
+        if (spec == null) {
+            synchronized (this) {
+                spec = key;
+                if (spec == null) {
+                    log.info("getKey. No secret set, nonces are only valid on this node until restart");
+                    byte[] secret = new byte[32];
+                    new SecureRandom().nextBytes(secret);
+                    key = spec = new SecretKeySpec(secret, ALGORITHM);
+                }
+            }
+        }
+        return spec;
+    }
+
+    private ConcurrentMap<String, AtomicLong> getTracked() {
+        ConcurrentMap<String, AtomicLong> map = tracked;
+        if (map == null) {
+            synchronized (this) {
+                map = tracked;
+                if (map == null) {
+                    tracked = map = new ConcurrentLinkedHashMap.Builder<String, AtomicLong>()
+                            .maximumWeightedCapacity(maxTrackedNonces).build();
+                }
+            }
+        }
+        return map;
+    }
+
+    ////////////////////////////////////
+    //
+    //  JMX
+    //
+    ////////////////////////////////////
+
+    @ManagedAttribute(description = "Number of nonces issued")
+    public long getIssued() {
+        return issued.get();
+    }
+
+    @ManagedAttribute(description = "Number of expired nonces received")
+    public long getStale() {
+        return stale.get();
+    }
+
+    @ManagedAttribute(description = "Number of nonces received not issued for the realm")
+    public long getInvalid() {
+        return invalid.get();
+    }
+
+    @ManagedAttribute(description = "Number of nonces received again with the same nonce count")
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    @ManagedAttribute(description = "Number of nonces of which the nonce count is tracked")
+    public int getTrackedNonces() {
+        ConcurrentMap<String, AtomicLong> map = tracked;
+        return map == null ? 0 : map.size();
+    }
+
+    ////////////////////////////////////
+    //
+    //  Getters /  Setters
+    //
+    ////////////////////////////////////
+
+    @ManagedAttribute(description = "Seconds a nonce is accepted after it is issued")
+    public int getLifetimeSeconds() {
+        return lifetimeSeconds;
+    }
+
+    /**
+     * Seconds a nonce is accepted after it is issued (default 300)
+     */
+    public void setLifetimeSeconds(int lifetimeSeconds) {
+        if (lifetimeSeconds <= 0) {
+            throw new IllegalArgumentException("lifetimeSeconds must be positive: " + lifetimeSeconds);
+        }
+        this.lifetimeSeconds = lifetimeSeconds;
+    }
+
+    /**
+     * Maximum number of nonces of which the nonce count is tracked (default
+     * 100000). Should cover the nonces issued within their lifetime.
+     */
+    public void setMaxTrackedNonces(int maxTrackedNonces) {
+        this.maxTrackedNonces = maxTrackedNonces;
+    }
+
+    /**
+     * Secret the nonces are signed with, to be shared by all nodes and set before
+     * the first nonce is issued. If empty, a random secret is generated.
+     */
+    public void setSecret(String secret) {
+        this.key = secret == null || secret.length() == 0 ? null
+                : new SecretKeySpec(secret.getBytes(CharsetUtil.UTF_8), ALGORITHM);
+    }
+}
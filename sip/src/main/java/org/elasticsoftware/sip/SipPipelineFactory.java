@@ -1,12 +1,13 @@
 package org.elasticsoftware.sip;
 
 import org.apache.log4j.Logger;
-import org.elasticsoftware.sip.codec.SipMessageDecoder;
+import org.elasticsoftware.sip.codec.SipContentCompressor;
 import org.elasticsoftware.sip.codec.SipMessageEncoder;
+import org.elasticsoftware.sip.codec.SipStreamDecoder;
 import org.elasticsoftware.sip.ssl.DummySecureSslContextFactory;
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
-import org.jboss.netty.handler.codec.http.HttpContentCompressor;
 import org.jboss.netty.handler.ssl.SslHandler;
 import org.springframework.beans.factory.annotation.Required;
 import org.springframework.beans.factory.annotation.Value;
@@ -17,7 +18,13 @@ import javax.net.ssl.SSLEngine;
 import static org.jboss.netty.channel.Channels.pipeline;
 
 /**
- * Standard SIP pipeline factory<br>
+ * Standard SIP pipeline factory, used for stream (TCP) channels. Datagram
+ * channels use the {@link SipDatagramPipelineFactory}<br>
+ * <br>
+ * Outbound messages of a connection are queued and flushed in batches by a
+ * {@link SipWriteQueue}. If a {@link SipConnectionManager} is set, it (and
+ * the idle state handler it provides) comes first, followed by the
+ * {@link SipRateLimiter} (if set), both ahead of TLS and decoding.
  *
  * @author Leonard Wolters
  */
@@ -25,12 +32,21 @@ public class SipPipelineFactory implements ChannelPipelineFactory {
     private static final Logger log = Logger.getLogger(SipPipelineFactory.class);
 
     private final SipServerHandler handler;
+    private final SipMessageEncoder encoder;
     private boolean ssl = false;
     private boolean compression = true;
+    private int maxQueuedWrites = 1024;
     private SSLContext sslContext;
+    private SipRateLimiter rateLimiter;
+    private SipConnectionManager connectionManager;
 
     public SipPipelineFactory(SipServerHandler handler) {
+        this(handler, new SipMessageEncoder());
+    }
+
+    public SipPipelineFactory(SipServerHandler handler, SipMessageEncoder encoder) {
         this.handler = handler;
+        this.encoder = encoder;
     }
 
     @Override
@@ -39,16 +55,27 @@ public class SipPipelineFactory implements ChannelPipelineFactory {
         if (log.isDebugEnabled()) {
             log.debug(String.format("Create pipeline(ssl: %b)", ssl));
         }
+        if (connectionManager != null) {
+            ChannelHandler idleStateHandler = connectionManager.getIdleStateHandler();
+            if (idleStateHandler != null) {
+                pipeline.addLast("idle", idleStateHandler);
+            }
+            pipeline.addLast("connections", connectionManager);
+        }
+        if (rateLimiter != null) {
+            pipeline.addLast("limiter", rateLimiter);
+        }
+        pipeline.addLast("queue", new SipWriteQueue(maxQueuedWrites));
         if (ssl) {
             SSLEngine engine = getSslContext().createSSLEngine();
             engine.setUseClientMode(false);
             pipeline.addLast("ssl", new SslHandler(engine));
         }
 
-        pipeline.addLast("decoder", new SipMessageDecoder());
-        pipeline.addLast("encoder", new SipMessageEncoder());
+        pipeline.addLast("decoder", new SipStreamDecoder());
+        pipeline.addLast("encoder", encoder);
         if (compression) {
-            pipeline.addLast("deflater", new HttpContentCompressor());
+            pipeline.addLast("deflater", new SipContentCompressor());
         }
         pipeline.addLast("handler", handler);
         return pipeline;
@@ -64,6 +91,26 @@ public class SipPipelineFactory implements ChannelPipelineFactory {
         this.sslContext = sslContext;
     }
 
+    public void setConnectionManager(SipConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    public void setRateLimiter(SipRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Maximum number of outbound messages queued per connection (e.g. for a slow
+     * peer) before writes fail
+     */
+    public void setMaxQueuedWrites(int maxQueuedWrites) {
+        this.maxQueuedWrites = maxQueuedWrites;
+    }
+
+    /**
+     * If set (default), bodies of outbound messages are compressed once the peer
+     * advertises support for it, see {@link SipContentCompressor}
+     */
     @Required
     @Value("${sip.compression}")
     public void setCompression(boolean compression) {
@@ -0,0 +1,603 @@
+package org.elasticsoftware.sip;
+
+import static org.jboss.netty.handler.codec.http.HttpConstants.CR;
+import static org.jboss.netty.handler.codec.http.HttpConstants.LF;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import org.apache.log4j.Logger;
+import org.elasticsoftware.sip.codec.SipHeader;
+import org.elasticsoftware.sip.codec.SipResponseStatus;
+import org.elasticsoftware.sip.codec.SipVersion;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.util.CharsetUtil;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * First stage of the SIP pipelines, limiting the rate at which messages are
+ * accepted, before they are decoded:<br>
+ * - in total, by a token bucket of <code>globalMessagesPerSecond</code>. This
+ * is checked first, so a source is not charged for a message refused because
+ * of overload<br>
+ * - per source IP address, by a token bucket of <code>messagesPerSecond</code>
+ * (allowing bursts of <code>burst</code> messages)<br>
+ * - sources on the denylist are ignored until their entry expires. A source
+ * exceeding its rate for <code>denyAfterDrops</code> messages in a row (e.g. a
+ * scanner flooding REGISTERs) is put on the denylist for <code>denySeconds</code>.<br>
+ * <br>
+ * Datagrams over the limit of their source are silently dropped: the source
+ * address of a datagram is easily spoofed, so answering them would turn the
+ * server into a reflector. Datagrams refused because of overload are dropped as
+ * well or, if <code>retryAfter</code> is set, requests are answered with a 503
+ * Service Unavailable carrying a Retry-After. The 503 is built by copying the raw
+ * Via, From, To, Call-ID and CSeq lines, so nothing past the first line is
+ * decoded.<br>
+ * <br>
+ * On streams every read counts as a message. A connection over the limit of its
+ * source (or from a denied source) is closed, as dropping bytes would break the
+ * framing. On overload the read is passed on, but reading the connection is
+ * suspended until the global bucket has room again, so TCP flow control slows
+ * down the client instead of forcing it to reconnect.<br>
+ * <br>
+ * The buckets are lock free (a single compare-and-set of the theoretical arrival
+ * time, see the generic cell rate algorithm) and kept in a LRU cache of at most
+ * <code>maxSources</code> addresses. Drop counts and the denylist are exposed
+ * through JMX.
+ *
+ * @author Leonard Wolters
+ */
+@Sharable
+@ManagedResource(objectName = "org.elasticsoftware.sip:name=SipRateLimiter",
+        description = "Message rate limits per source address")
+public class SipRateLimiter extends SimpleChannelUpstreamHandler {
+    private static final Logger log = Logger.getLogger(SipRateLimiter.class);
+    private static final byte[] CRLF = {CR, LF};
+    private static final byte[] TAG = ";tag=".getBytes(CharsetUtil.UTF_8);
+    private static final SipHeader[] COPIED_HEADERS = {SipHeader.VIA, SipHeader.FROM, SipHeader.TO,
+            SipHeader.CALL_ID, SipHeader.CSEQ};
+    private static final byte[] STATUS_LINE = String.format("%s %d %s\r\n", SipVersion.SIP_2_0.toString(),
+            SipResponseStatus.SERVICE_UNAVAILABLE.getCode(),
+            SipResponseStatus.SERVICE_UNAVAILABLE.getReasonPhrase()).getBytes(CharsetUtil.UTF_8);
+
+    enum Verdict {
+        ACCEPT, OVER_LIMIT, OVERLOADED, DENIED
+    }
+
+    private int messagesPerSecond = 50;
+    private int burst = 100;
+    private int globalMessagesPerSecond = 10000;
+    private int globalBurst = 10000;
+    private int denyAfterDrops = 500;
+    private int denySeconds = 600;
+    private int retryAfter = 0;
+    private int maxSources = 65536;
+
+    private final TokenBucket global = new TokenBucket(System.nanoTime());
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+    private final AtomicLong suspended = new AtomicLong();
+    private final AtomicLong deniedSources = new AtomicLong();
+
+    /**
+     * Pre-encoded Retry-After and Content-Length headers, ending with the empty line
+     */
+    private volatile byte[] trailer;
+    private volatile ConcurrentMap<InetAddress, Source> sources;
+    /**
+     * Denied addresses and the time (in millis) their entry expires
+     */
+    private volatile ConcurrentMap<InetAddress, Long> denylist;
+    private Timer timer;
+
+    @PreDestroy
+    public synchronized void destroy() {
+        if (timer != null) {
+            timer.stop();
+            timer = null;
+        }
+    }
+
+    @Override
+    public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        InetAddress address = getAddress(ctx.getChannel().getRemoteAddress());
+        if (address != null && isDenied(address, System.currentTimeMillis())) {
+            closed.incrementAndGet();
+            ctx.getChannel().close();
+            return;
+        }
+        super.channelConnected(ctx, e);
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        InetAddress address = getAddress(e.getRemoteAddress());
+        long now = System.nanoTime();
+        Verdict verdict = address == null ? Verdict.ACCEPT : check(address, now);
+        if (verdict == Verdict.ACCEPT) {
+            ctx.sendUpstream(e);
+            return;
+        }
+        if (ctx.getChannel().isConnected()) {
+            if (verdict == Verdict.OVERLOADED) {
+                suspend(ctx.getChannel(), global.getDelay(now, globalMessagesPerSecond, globalBurst));
+                ctx.sendUpstream(e);
+                return;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("messageReceived. Closing connection of [%s]: %s", address, verdict));
+            }
+            closed.incrementAndGet();
+            ctx.getChannel().close();
+            return;
+        }
+        ChannelBuffer response = verdict == Verdict.OVERLOADED && retryAfter > 0
+                ? serviceUnavailable((ChannelBuffer) e.getMessage()) : null;
+        if (response != null) {
+            rejected.incrementAndGet();
+            ctx.getChannel().write(response, e.getRemoteAddress());
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Takes a token for a message from given address (at given time in nanos)
+     * from the global bucket and its own bucket
+     */
+    Verdict check(InetAddress address, long now) {
+        if (isDenied(address, System.currentTimeMillis())) {
+            return Verdict.DENIED;
+        }
+        if (!global.tryAcquire(now, globalMessagesPerSecond, globalBurst)) {
+            return Verdict.OVERLOADED;
+        }
+        Source source = getSource(address, now);
+        if (!source.tryAcquire(now, messagesPerSecond, burst)) {
+            // the message is not accepted after all
+            global.release(globalMessagesPerSecond);
+            if (denyAfterDrops > 0 && source.drops.incrementAndGet() == denyAfterDrops) {
+                log.warn(String.format("check. Denying [%s] for %d seconds after %d messages over the limit",
+                        address.getHostAddress(), denySeconds, denyAfterDrops));
+                deny(address, TimeUnit.SECONDS.toMillis(denySeconds));
+            }
+            return Verdict.OVER_LIMIT;
+        }
+        if (source.drops.get() != 0) {
+            source.drops.set(0);
+        }
+        return Verdict.ACCEPT;
+    }
+
+    /**
+     * Stops reading given connection for given number of nanos (at least one
+     * tick of the timer)
+     */
+    private void suspend(final Channel channel, long delay) {
+        if (!channel.isReadable()) {
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("suspend. Overloaded, suspending [%s] for %d ns", channel.getRemoteAddress(), delay));
+        }
+        suspended.incrementAndGet();
+        channel.setReadable(false);
+        getTimer().newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                channel.setReadable(true);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized Timer getTimer() {
+        if (timer == null) {
+            timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+        }
+        return timer;
+    }
+
+    private boolean isDenied(InetAddress address, long now) {
+        ConcurrentMap<InetAddress, Long> denylist = getDenylist();
+        if (denylist.isEmpty()) {
+            return false;
+        }
+        Long expires = denylist.get(address);
+        if (expires == null) {
+            return false;
+        }
+        if (expires > now) {
+            return true;
+        }
+        denylist.remove(address, expires);
+        return false;
+    }
+
+    private void deny(InetAddress address, long millis) {
+        deniedSources.incrementAndGet();
+        getDenylist().put(address, System.currentTimeMillis() + millis);
+        getSources().remove(address);
+    }
+
+    private Source getSource(InetAddress address, long now) {
+        ConcurrentMap<InetAddress, Source> sources = getSources();
+        Source source = sources.get(address);
+        if (source == null) {
+            source = new Source(now);
+            Source existing = sources.putIfAbsent(address, source);
+            if (existing != null) {
+                source = existing;
+            }
+        }
+        return source;
+    }
+
+    private ConcurrentMap<InetAddress, Source> getSources() {
+        ConcurrentMap<InetAddress, Source> map = sources;
+        if (map == null) {
+            synchronized (this) {
+                map = sources;
+                if (map == null) {
+                    sources = map = new ConcurrentLinkedHashMap.Builder<InetAddress, Source>()
+                            .maximumWeightedCapacity(maxSources).build();
+                }
+            }
+        }
+        return map;
+    }
+
+    private ConcurrentMap<InetAddress, Long> getDenylist() {
+        ConcurrentMap<InetAddress, Long> map = denylist;
+        if (map == null) {
+            synchronized (this) {
+                map = denylist;
+                if (map == null) {
+                    denylist = map = new ConcurrentLinkedHashMap.Builder<InetAddress, Long>()
+                            .maximumWeightedCapacity(maxSources).build();
+                }
+            }
+        }
+        return map;
+    }
+
+    private static InetAddress getAddress(SocketAddress remoteAddress) {
+        return remoteAddress instanceof InetSocketAddress ? ((InetSocketAddress) remoteAddress).getAddress() : null;
+    }
+
+    /**
+     * Returns the 503 answering given datagram, or null if it is not a request
+     * (or an ACK, which is never answered)
+     */
+    ChannelBuffer serviceUnavailable(ChannelBuffer request) {
+        int index = request.readerIndex();
+        int end = request.writerIndex();
+        if (end - index < 4 || !isUpperCase(request.getByte(index))
+                || startsWith(request, index, "SIP/") || startsWith(request, index, "ACK ")) {
+            return null;
+        }
+        int lineEnd = request.indexOf(index, end, LF);
+        if (lineEnd == -1) {
+            return null;
+        }
+        byte[] trailer = getTrailer();
+        ChannelBuffer response = ChannelBuffers.dynamicBuffer(STATUS_LINE.length + trailer.length + 512);
+        response.writeBytes(STATUS_LINE);
+        boolean copying = false;
+        for (index = lineEnd + 1; index < end; index = lineEnd + 1) {
+            lineEnd = request.indexOf(index, end, LF);
+            if (lineEnd == -1) {
+                lineEnd = end;
+            }
+            int contentEnd = lineEnd > index && request.getByte(lineEnd - 1) == CR ? lineEnd - 1 : lineEnd;
+            if (contentEnd == index) {
+                // empty line: end of the headers
+                break;
+            }
+            byte first = request.getByte(index);
+            if (first == ' ' || first == '\t') {
+                // continuation of the previous line
+                if (copying) {
+                    response.writeBytes(request, index, contentEnd - index);
+                    response.writeBytes(CRLF);
+                }
+                continue;
+            }
+            SipHeader header = getHeader(request, index, contentEnd);
+            copying = isCopied(header);
+            if (copying) {
+                response.writeBytes(request, index, contentEnd - index);
+                if (header == SipHeader.TO && !contains(request, index, contentEnd, TAG)) {
+                    // the tag is derived from the request, so a retransmission
+                    // gets the same response
+                    response.writeBytes(TAG);
+                    response.writeBytes(Integer.toHexString(ChannelBuffers.hashCode(request))
+                            .getBytes(CharsetUtil.UTF_8));
+                }
+                response.writeBytes(CRLF);
+            }
+        }
+        response.writeBytes(trailer);
+        return response;
+    }
+
+    private static SipHeader getHeader(ChannelBuffer buffer, int index, int end) {
+        int colon = buffer.indexOf(index, end, (byte) ':');
+        if (colon == -1) {
+            return null;
+        }
+        int nameEnd = colon;
+        while (nameEnd > index && (buffer.getByte(nameEnd - 1) == ' ' || buffer.getByte(nameEnd - 1) == '\t')) {
+            nameEnd--;
+        }
+        return SipHeader.lookup(buffer, index, nameEnd - index);
+    }
+
+    private static boolean isCopied(SipHeader header) {
+        for (SipHeader copied : COPIED_HEADERS) {
+            if (copied == header) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isUpperCase(byte b) {
+        return b >= 'A' && b <= 'Z';
+    }
+
+    private static boolean startsWith(ChannelBuffer buffer, int index, String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buffer.getByte(index + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if given (lower case) bytes occur, ignoring case, between given indexes
+     */
+    private static boolean contains(ChannelBuffer buffer, int index, int end, byte[] bytes) {
+        for (int i = index; i <= end - bytes.length; i++) {
+            int j = 0;
+            while (j < bytes.length && toLowerCase(buffer.getByte(i + j)) == bytes[j]) {
+                j++;
+            }
+            if (j == bytes.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + 32 : b;
+    }
+
+    private byte[] getTrailer() {
+        byte[] bytes = trailer;
+        if (bytes == null) {
+            trailer = bytes = String.format("%s: %d\r\n%s: 0\r\n\r\n", SipHeader.RETRY_AFTER.getName(), retryAfter,
+                    SipHeader.CONTENT_LENGTH.getName()).getBytes(CharsetUtil.UTF_8);
+        }
+        return bytes;
+    }
+
+    /**
+     * Token bucket, kept as the theoretical arrival time (in nanos) of the next
+     * message: a message is accepted if that time is at most <code>burst</code>
+     * intervals ahead of now, after which it moves one interval ahead
+     */
+    private static class TokenBucket {
+        private final AtomicLong arrival;
+
+        /**
+         * Creates a full bucket
+         */
+        TokenBucket(long now) {
+            arrival = new AtomicLong(now);
+        }
+
+        boolean tryAcquire(long now, int perSecond, int burst) {
+            if (perSecond <= 0) {
+                return true;
+            }
+            long interval = TimeUnit.SECONDS.toNanos(1) / perSecond;
+            long tolerance = interval * Math.max(burst, 1);
+            for (;;) {
+                long current = arrival.get();
+                long next = (current - now > 0 ? current : now) + interval;
+                if (next - now > tolerance) {
+                    return false;
+                }
+                if (arrival.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Returns the token taken by a message that is not accepted after all
+         */
+        void release(int perSecond) {
+            if (perSecond > 0) {
+                arrival.addAndGet(-TimeUnit.SECONDS.toNanos(1) / perSecond);
+            }
+        }
+
+        /**
+         * Returns the number of nanos until a message will be accepted
+         */
+        long getDelay(long now, int perSecond, int burst) {
+            if (perSecond <= 0) {
+                return 0;
+            }
+            long interval = TimeUnit.SECONDS.toNanos(1) / perSecond;
+            long tolerance = interval * Math.max(burst, 1);
+            return Math.max(0, arrival.get() + interval - tolerance - now);
+        }
+    }
+
+    private static final class Source extends TokenBucket {
+        /**
+         * Number of messages over the limit since the last accepted one
+         */
+        private final AtomicInteger drops = new AtomicInteger();
+
+        private Source(long now) {
+            super(now);
+        }
+    }
+
+    ////////////////////////////////////
+    //
+    //  JMX
+    //
+    ////////////////////////////////////
+
+    @ManagedAttribute(description = "Number of datagrams dropped")
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @ManagedAttribute(description = "Number of datagrams answered with a 503 Service Unavailable on overload")
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @ManagedAttribute(description = "Number of connections closed")
+    public long getClosed() {
+        return closed.get();
+    }
+
+    @ManagedAttribute(description = "Number of times reading a connection was suspended on overload")
+    public long getSuspended() {
+        return suspended.get();
+    }
+
+    @ManagedAttribute(description = "Number of times a source was put on the denylist")
+    public long getDeniedSources() {
+        return deniedSources.get();
+    }
+
+    @ManagedAttribute(description = "Number of source addresses tracked")
+    public int getSourceCount() {
+        return sources == null ? 0 : sources.size();
+    }
+
+    /**
+     * Returns the denied addresses and the number of seconds their entry remains
+     */
+    @ManagedAttribute(description = "Denied addresses and the number of seconds they remain denied")
+    public Map<String, Long> getDenied() {
+        Map<String, Long> denied = new TreeMap<String, Long>();
+        long now = System.currentTimeMillis();
+        if (denylist != null) {
+            for (Map.Entry<InetAddress, Long> entry : denylist.entrySet()) {
+                if (entry.getValue() > now) {
+                    denied.put(entry.getKey().getHostAddress(), TimeUnit.MILLISECONDS.toSeconds(entry.getValue() - now));
+                }
+            }
+        }
+        return denied;
+    }
+
+    @ManagedOperation(description = "Denies given address for given number of seconds")
+    public void deny(String address, long seconds) throws UnknownHostException {
+        log.info(String.format("deny. Denying [%s] for %d seconds", address, seconds));
+        deny(InetAddress.getByName(address), TimeUnit.SECONDS.toMillis(seconds));
+    }
+
+    @ManagedOperation(description = "Removes given address from the denylist")
+    public void allow(String address) throws UnknownHostException {
+        log.info(String.format("allow. Removing [%s] from the denylist", address));
+        getDenylist().remove(InetAddress.getByName(address));
+    }
+
+    ////////////////////////////////////
+    //
+    //  Getters /  Setters
+    //
+    ////////////////////////////////////
+
+    /**
+     * Sustained number of messages accepted per second from a single address
+     * (0 for no limit)
+     */
+    public void setMessagesPerSecond(int messagesPerSecond) {
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    /**
+     * Number of messages accepted at once from a single address
+     */
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    /**
+     * Sustained number of messages accepted per second in total (0 for no limit)
+     */
+    public void setGlobalMessagesPerSecond(int globalMessagesPerSecond) {
+        this.globalMessagesPerSecond = globalMessagesPerSecond;
+    }
+
+    public void setGlobalBurst(int globalBurst) {
+        this.globalBurst = globalBurst;
+    }
+
+    /**
+     * Number of messages in a row over the limit after which an address is
+     * denied (0 to never deny addresses automatically)
+     */
+    public void setDenyAfterDrops(int denyAfterDrops) {
+        this.denyAfterDrops = denyAfterDrops;
+    }
+
+    public void setDenySeconds(int denySeconds) {
+        this.denySeconds = denySeconds;
+    }
+
+    /**
+     * If set, datagram requests refused because of overload are answered with a
+     * 503 Service Unavailable, asking to retry after this number of seconds,
+     * instead of being dropped. Requests over the limit of their source and from
+     * denied addresses are never answered.
+     */
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+        this.trailer = null;
+    }
+
+    /**
+     * Maximum number of addresses tracked (and denied); the least recently seen
+     * are forgotten first
+     */
+    public void setMaxSources(int maxSources) {
+        this.maxSources = maxSources;
+    }
+}
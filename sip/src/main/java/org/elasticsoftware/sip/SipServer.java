@@ -1,15 +1,20 @@
 package org.elasticsoftware.sip;
 
 import org.apache.log4j.Logger;
+import org.elasticsoftware.sip.codec.SipMessageEncoder;
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.FixedReceiveBufferSizePredictorFactory;
 import org.jboss.netty.channel.ServerChannelFactory;
 import org.jboss.netty.channel.socket.DatagramChannelFactory;
 import org.jboss.netty.channel.socket.InternetProtocolFamily;
 import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.handler.execution.MemoryAwareThreadPoolExecutor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Required;
 import org.springframework.beans.factory.annotation.Value;
@@ -26,6 +31,7 @@ import java.util.concurrent.Executors;
  */
 public class SipServer {
     private static final Logger log = Logger.getLogger(SipServer.class);
+    private static final int MAX_DATAGRAM_SIZE = 65535;
 
     /**
      * Default port for the SIP server
@@ -42,31 +48,99 @@ public class SipServer {
 
     private int socketBacklog = 128;
     private boolean socketReuseAddress = true;
-    private int childSocketKeepAlive = 10;
+    private boolean childSocketKeepAlive = true;
     private boolean childSocketTcpNoDelay = true;
+    /**
+     * SO_RCVBUF and SO_SNDBUF of accepted connections (0 for the OS default).
+     * SIP messages are small, so small buffers keep the memory held by many
+     * (mostly idle) connections low.
+     */
     private int childSocketReceiveBufferSize = 8192;
     private int childSocketSendBufferSize = 8192;
+    /**
+     * Number of bytes pending in the write buffer of a connection above which it
+     * becomes unwritable (and below which it becomes writable again), see
+     * {@link SipWriteQueue}; 0 for the netty defaults (64 KB and 32 KB)
+     */
+    private int childWriteBufferHighWaterMark = 0;
+    private int childWriteBufferLowWaterMark = 0;
     private ServerChannelFactory serverChannelFactory;
     private DatagramChannelFactory datagramChannelFactory;
     private ChannelPipelineFactory channelPipelineFactory;
+    private ChannelPipelineFactory datagramPipelineFactory;
+
+    /**
+     * If set, outbound messages are encoded into direct buffers, allocated
+     * from a preallocated slab of this size (in bytes)
+     */
+    private int directBufferCapacity = 0;
+
+    /**
+     * A datagram channel is served by a single I/O thread. If set, received
+     * datagrams are decoded and handled by a pool of this many threads, so UDP
+     * throughput scales with the number of cores. Datagrams may then be handled
+     * out of order, which SIP over UDP has to cope with anyway.
+     */
+    private int datagramWorkerThreads = 0;
+    /**
+     * Maximum number of bytes of received datagrams waiting to be handled by
+     * the datagram workers before reading is suspended
+     */
+    private long datagramMaxQueuedBytes = 16 * 1024 * 1024;
+    /**
+     * SO_RCVBUF of the datagram channel (0 for the OS default)
+     */
+    private int datagramReceiveBufferSize = 0;
+    private ExecutionHandler datagramExecutionHandler;
+    /**
+     * If set, limits the rate at which messages are accepted per source address,
+     * ahead of decoding (stream and datagram)
+     */
+    private SipRateLimiter rateLimiter;
+    /**
+     * If set, limits the number of connections and closes idle ones
+     */
+    private SipConnectionManager connectionManager;
 
     @PostConstruct
     public void start() {
+        if (childWriteBufferLowWaterMark > 0 && childWriteBufferHighWaterMark > 0
+                && childWriteBufferLowWaterMark > childWriteBufferHighWaterMark) {
+            throw new IllegalArgumentException(String.format(
+                    "childWriteBufferLowWaterMark (%d) cannot be greater than childWriteBufferHighWaterMark (%d)",
+                    childWriteBufferLowWaterMark, childWriteBufferHighWaterMark));
+        }
+        SipMessageEncoder encoder = directBufferCapacity > 0
+                ? new SipMessageEncoder(new DirectChannelBufferFactory(directBufferCapacity))
+                : new SipMessageEncoder();
         if (serverChannelFactory == null) {
             serverChannelFactory = new NioServerSocketChannelFactory(
                     Executors.newCachedThreadPool(),
                     Executors.newCachedThreadPool());
         }
         if (channelPipelineFactory == null) {
-            channelPipelineFactory = new SipPipelineFactory(sipServerHandler);
+            SipPipelineFactory pipelineFactory = new SipPipelineFactory(sipServerHandler, encoder);
+            pipelineFactory.setRateLimiter(rateLimiter);
+            pipelineFactory.setConnectionManager(connectionManager);
+            channelPipelineFactory = pipelineFactory;
         }
         ServerBootstrap bootstrap = new ServerBootstrap(serverChannelFactory);
         bootstrap.setOption("backlog", socketBacklog);
         bootstrap.setOption("reuseAddress", socketReuseAddress);
         bootstrap.setOption("child.keepAlive", childSocketKeepAlive);
         bootstrap.setOption("child.tcpNoDelay", childSocketTcpNoDelay);
-        bootstrap.setOption("child.receiveBufferSize", childSocketReceiveBufferSize);
-        bootstrap.setOption("child.sendBufferSize", childSocketSendBufferSize);
+        if (childSocketReceiveBufferSize > 0) {
+            bootstrap.setOption("child.receiveBufferSize", childSocketReceiveBufferSize);
+        }
+        if (childSocketSendBufferSize > 0) {
+            bootstrap.setOption("child.sendBufferSize", childSocketSendBufferSize);
+        }
+        if (childWriteBufferHighWaterMark > 0) {
+            bootstrap.setOption("child.writeBufferHighWaterMark", childWriteBufferHighWaterMark);
+        }
+        if (childWriteBufferLowWaterMark > 0) {
+            bootstrap.setOption("child.writeBufferLowWaterMark", childWriteBufferLowWaterMark);
+        }
         bootstrap.setPipelineFactory(channelPipelineFactory);
         serverChannel = bootstrap.bind(new InetSocketAddress(port));
 
@@ -75,15 +149,34 @@ public class SipServer {
         }
         // udp connection
         ConnectionlessBootstrap udpBootstrap = new ConnectionlessBootstrap(datagramChannelFactory);
-        // @todo: add properties
-        udpBootstrap.setPipelineFactory(channelPipelineFactory);
+        // a datagram is read into a (pooled) buffer of the predicted size and copied
+        // out at its actual size; the default (768 bytes) truncates most INVITEs
+        udpBootstrap.setOption("receiveBufferSizePredictorFactory",
+                new FixedReceiveBufferSizePredictorFactory(MAX_DATAGRAM_SIZE));
+        if (datagramReceiveBufferSize > 0) {
+            udpBootstrap.setOption("receiveBufferSize", datagramReceiveBufferSize);
+        }
+        if (datagramPipelineFactory == null) {
+            if (datagramWorkerThreads > 0) {
+                datagramExecutionHandler = new ExecutionHandler(new MemoryAwareThreadPoolExecutor(
+                        datagramWorkerThreads, datagramMaxQueuedBytes, datagramMaxQueuedBytes));
+            }
+            SipDatagramPipelineFactory pipelineFactory = new SipDatagramPipelineFactory(sipServerHandler, encoder,
+                    datagramExecutionHandler);
+            pipelineFactory.setRateLimiter(rateLimiter);
+            datagramPipelineFactory = pipelineFactory;
+        }
+        udpBootstrap.setPipelineFactory(datagramPipelineFactory);
         datagramChannel = udpBootstrap.bind(new InetSocketAddress(port));
     }
 
     @PreDestroy
     public void stop() {
         serverChannel.close();
-        datagramChannel.close();
+        datagramChannel.close().awaitUninterruptibly();
+        if (datagramExecutionHandler != null) {
+            datagramExecutionHandler.releaseExternalResources();
+        }
     }
 
     ////////////////////////////////////
@@ -103,6 +196,38 @@ public class SipServer {
         this.sipServerHandler = sipServerHandler;
     }
 
+    public void setSocketBacklog(int socketBacklog) {
+        this.socketBacklog = socketBacklog;
+    }
+
+    public void setSocketReuseAddress(boolean socketReuseAddress) {
+        this.socketReuseAddress = socketReuseAddress;
+    }
+
+    public void setChildSocketKeepAlive(boolean childSocketKeepAlive) {
+        this.childSocketKeepAlive = childSocketKeepAlive;
+    }
+
+    public void setChildSocketTcpNoDelay(boolean childSocketTcpNoDelay) {
+        this.childSocketTcpNoDelay = childSocketTcpNoDelay;
+    }
+
+    public void setChildSocketReceiveBufferSize(int childSocketReceiveBufferSize) {
+        this.childSocketReceiveBufferSize = childSocketReceiveBufferSize;
+    }
+
+    public void setChildSocketSendBufferSize(int childSocketSendBufferSize) {
+        this.childSocketSendBufferSize = childSocketSendBufferSize;
+    }
+
+    public void setChildWriteBufferHighWaterMark(int childWriteBufferHighWaterMark) {
+        this.childWriteBufferHighWaterMark = childWriteBufferHighWaterMark;
+    }
+
+    public void setChildWriteBufferLowWaterMark(int childWriteBufferLowWaterMark) {
+        this.childWriteBufferLowWaterMark = childWriteBufferLowWaterMark;
+    }
+
     public void setServerChannelFactory(ServerChannelFactory channelFactory) {
         this.serverChannelFactory = channelFactory;
     }
@@ -111,6 +236,52 @@ public class SipServer {
         this.datagramChannelFactory = datagramChannelFactory;
     }
 
+    public void setChannelPipelineFactory(ChannelPipelineFactory channelPipelineFactory) {
+        this.channelPipelineFactory = channelPipelineFactory;
+    }
+
+    public void setDatagramPipelineFactory(ChannelPipelineFactory datagramPipelineFactory) {
+        this.datagramPipelineFactory = datagramPipelineFactory;
+    }
+
+    public void setDirectBufferCapacity(int directBufferCapacity) {
+        this.directBufferCapacity = directBufferCapacity;
+    }
+
+    public void setDatagramWorkerThreads(int datagramWorkerThreads) {
+        this.datagramWorkerThreads = datagramWorkerThreads;
+    }
+
+    public void setDatagramMaxQueuedBytes(long datagramMaxQueuedBytes) {
+        this.datagramMaxQueuedBytes = datagramMaxQueuedBytes;
+    }
+
+    public void setDatagramReceiveBufferSize(int datagramReceiveBufferSize) {
+        this.datagramReceiveBufferSize = datagramReceiveBufferSize;
+    }
+
+    public void setRateLimiter(SipRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public void setConnectionManager(SipConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    /**
+     * Returns the local address of the stream (TCP) server channel (once started)
+     */
+    public InetSocketAddress getStreamAddress() {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Returns the local address of the datagram channel (once started)
+     */
+    public InetSocketAddress getDatagramAddress() {
+        return (InetSocketAddress) datagramChannel.getLocalAddress();
+    }
+
     ////////////////////////////////////
     //
     //  Main, used for testing..
@@ -2,17 +2,23 @@ package org.elasticsoftware.sip;
 
 import org.apache.log4j.Logger;
 import org.elasticsoftware.sip.codec.SipHeader;
+import org.elasticsoftware.sip.codec.SipKeepAlive;
 import org.elasticsoftware.sip.codec.SipMessage;
 import org.elasticsoftware.sip.codec.SipRequest;
 import org.elasticsoftware.sip.codec.SipResponse;
-import org.elasticsoftware.sip.codec.SipResponseStatus;
-import org.jboss.netty.channel.Channel;
+import org.elasticsoftware.sip.codec.header.ViaHeader;
+import org.elasticsoftware.sip.transaction.SipTransactionManager;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.DatagramChannel;
 import org.springframework.beans.factory.annotation.Required;
-import org.springframework.util.StringUtils;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Sip Server Handler<br>
@@ -20,6 +26,11 @@ import org.springframework.util.StringUtils;
  * This handler takes care of all incoming SIP messages sent by the SipServer
  * and must sent back corresponding SIP responses, indicating the state of
  * the message<br>
+ * <br>
+ * Keep alives, OPTIONS and requests lacking mandatory headers are answered by
+ * the {@link SipStatelessResponder}, without creating a transaction. If a
+ * {@link SipTransactionManager} is set, retransmitted requests and responses are
+ * absorbed by their transaction before being handled.
  *
  * @author Leonard Wolters
  */
@@ -29,17 +40,26 @@ public class SipServerHandler extends SimpleChannelUpstreamHandler {
 
     private SipMessageHandler messageHandler;
     private SipChannelFactory sipChannelFactory;
-    private boolean strictParsing = true;
+    private SipTransactionManager transactionManager;
+    private SipStatelessResponder statelessResponder = new SipStatelessResponder();
 
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
             throws Exception {
+        if (e.getMessage() instanceof SipKeepAlive) {
+            if (statelessResponder != null) {
+                statelessResponder.pong(ctx.getChannel(), e.getRemoteAddress());
+            }
+            return;
+        }
         SipMessage message = (SipMessage) e.getMessage();
         logMessage(String.format("RECEIVED %s", message instanceof SipRequest ? 
         		"REQUEST" : "RESPONSE"), message);
 
         // update LRU cache (if set)
         if (sipChannelFactory != null) {
+            sipChannelFactory.setChannel(e.getRemoteAddress(), ctx.getChannel());
+
             // we need to check if the key used for caching this channel is
             // present. If no key is found, bounce message directly back
             // to sender (whilst we still have this channel)
@@ -56,39 +76,58 @@ public class SipServerHandler extends SimpleChannelUpstreamHandler {
         // delegate action to handler
         if (message instanceof SipRequest) {
             SipRequest request = (SipRequest) message;
-
-            if (strictParsing) {
-                switch (request.getMethod()) {
-                    case INVITE:
-                        if (!checkForHeaders(request, ctx.getChannel(), SipHeader.FROM, SipHeader.TO)) return;
-                        break;
-                    case REGISTER:
-                        if (!checkForHeaders(request, ctx.getChannel(), SipHeader.CALL_ID,
-                                SipHeader.CONTACT, SipHeader.FROM, SipHeader.VIA)) return;
-                        break;
-                }
+            setReceived(request, e.getRemoteAddress(), ctx.getChannel().isConnected());
+            if (statelessResponder != null
+                    && statelessResponder.respond(ctx.getChannel(), e.getRemoteAddress(), request)) {
+                return;
+            }
+            if (transactionManager != null && !transactionManager.receiveRequest(request)) {
+                return;
             }
-
             messageHandler.onRequest(request);
         } else if (message instanceof SipResponse) {
             SipResponse response = (SipResponse) message;
+            if (transactionManager != null && !transactionManager.receiveResponse(response)) {
+                return;
+            }
             messageHandler.onResponse(response);
         }
     }
 
-    private boolean checkForHeaders(SipRequest request, Channel channel, SipHeader... headers) {
-        if (!strictParsing) return true;
-        for (SipHeader header : headers) {
-            if (!StringUtils.hasLength(request.getHeaderValue(header))) {
-                log.warn(String.format("No %s header found in SIP message. Bouncing it",
-                        header.getName()));
-                request.setResponseStatus(SipResponseStatus.BAD_REQUEST);
-                logMessage("SENDING", request);
-                channel.write(request.toSipResponse());
-                return false;
-            }
+    /**
+     * Adds the address the request is received from to the top most Via, so the
+     * response can be routed back to it (see http://tools.ietf.org/html/rfc3261#section-18.2.1
+     * and http://tools.ietf.org/html/rfc3581#section-4). For stream transports
+     * rport is always set; it identifies the connection to respond on.
+     */
+    private void setReceived(SipRequest request, SocketAddress remoteAddress, boolean stream) {
+        if (!(remoteAddress instanceof InetSocketAddress)) {
+            return;
         }
-        return true;
+        List<String> vias = request.getHeaderValues(SipHeader.VIA);
+        if (vias.isEmpty()) {
+            return;
+        }
+        ViaHeader via;
+        try {
+            via = ViaHeader.parse(vias.get(0));
+        } catch (IllegalArgumentException e) {
+            log.warn(String.format("setReceived. Invalid Via[%s]", vias.get(0)));
+            return;
+        }
+        InetSocketAddress address = (InetSocketAddress) remoteAddress;
+        String host = address.getAddress().getHostAddress();
+        boolean rport = stream || via.hasRport();
+        if (!rport && host.equals(via.getHost())) {
+            return;
+        }
+        via.setParameter(ViaHeader.RECEIVED, host);
+        if (rport) {
+            via.setParameter(ViaHeader.RPORT, Integer.toString(address.getPort()));
+        }
+        List<String> values = new ArrayList<String>(vias);
+        values.set(0, via.toString());
+        request.setHeader(SipHeader.VIA, values.toArray());
     }
 
     private void logMessage(String prefix, SipMessage message) {
@@ -130,6 +169,11 @@ public class SipServerHandler extends SimpleChannelUpstreamHandler {
             throws Exception {
         log.error(String.format("exceptionCaught: [%s] -> [%s]",
                 e.getCause().getMessage(), e.getCause().getCause()), e.getCause());
+        if (e.getChannel() instanceof DatagramChannel) {
+            // the (shared) datagram channel serves all remote ends; a failed write
+            // (already reported through its future) or request must not close it
+            return;
+        }
         e.getChannel().close();
     }
 
@@ -148,4 +192,16 @@ public class SipServerHandler extends SimpleChannelUpstreamHandler {
     public void setSipChannelFactory(SipChannelFactory sipChannelFactory) {
         this.sipChannelFactory = sipChannelFactory;
     }
+
+    public void setTransactionManager(SipTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * Responder answering keep alives, OPTIONS and malformed requests; if set to
+     * null all requests are passed to the message handler
+     */
+    public void setStatelessResponder(SipStatelessResponder statelessResponder) {
+        this.statelessResponder = statelessResponder;
+    }
 }
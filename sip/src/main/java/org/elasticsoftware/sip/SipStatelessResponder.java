@@ -0,0 +1,291 @@
+package org.elasticsoftware.sip;
+
+import static org.jboss.netty.handler.codec.http.HttpConstants.CR;
+import static org.jboss.netty.handler.codec.http.HttpConstants.LF;
+
+import org.apache.log4j.Logger;
+import org.elasticsoftware.sip.codec.SipHeader;
+import org.elasticsoftware.sip.codec.SipKeepAlive;
+import org.elasticsoftware.sip.codec.SipMethod;
+import org.elasticsoftware.sip.codec.SipRequest;
+import org.elasticsoftware.sip.codec.SipResponseStatus;
+import org.elasticsoftware.sip.codec.SipUser;
+import org.elasticsoftware.sip.codec.SipVersion;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.util.CharsetUtil;
+import org.springframework.util.StringUtils;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Answers requests which need no transaction user straight from the
+ * {@link SipServerHandler}, without creating a transaction (see
+ * http://tools.ietf.org/html/rfc3261#section-8.2.7):<br>
+ * - OPTIONS addressed to the server itself (mostly keep alives) with a 200 OK,
+ * advertising Allow, Accept and Supported. Only OPTIONS outside a dialog (no To tag)
+ * whose Request-URI has no user part and, if <code>domains</code> are set, one of
+ * these as host are answered; others are meant for a user agent or dialog and
+ * passed on (see http://tools.ietf.org/html/rfc3261#section-11)<br>
+ * - double CRLF pings with a CRLF pong (see http://tools.ietf.org/html/rfc5626#section-4.4.1);
+ * on datagrams only if <code>datagramPong</code> is set<br>
+ * - requests lacking mandatory headers (strict parsing) with a 400 Bad Request<br>
+ * <br>
+ * Responses are built from a pre-encoded template, i.e. the status line and fixed
+ * headers, completed with the headers copied from the request (Via, From, To,
+ * Call-ID and CSeq), and written as buffer without passing the encoder.
+ *
+ * @author Leonard Wolters
+ */
+public class SipStatelessResponder {
+    private static final Logger log = Logger.getLogger(SipStatelessResponder.class);
+    private static final Logger sipLog = Logger.getLogger("sip");
+    private static final byte[] CRLF = {CR, LF};
+    private static final SipHeader[] COPIED_HEADERS = {SipHeader.VIA, SipHeader.FROM, SipHeader.TO,
+            SipHeader.CALL_ID, SipHeader.CSEQ};
+
+    private boolean options = true;
+    private boolean datagramPong = false;
+    private boolean strictParsing = true;
+    private String allow = "INVITE, ACK, CANCEL, OPTIONS, BYE";
+    private String accept = "application/sdp";
+    private String supported;
+    private String server;
+    private Set<String> domains = Collections.emptySet();
+
+    /**
+     * Pre-encoded responses: status line and fixed headers (ending with the empty
+     * line), created on first use
+     */
+    private volatile Template ok;
+    private volatile Template badRequest;
+
+    /**
+     * Answers given request if it needs no transaction user
+     *
+     * @return true if answered, i.e. the request must not be handled any further
+     */
+    public boolean respond(Channel channel, SocketAddress remoteAddress, SipRequest request) {
+        if (options && request.getMethod() == SipMethod.OPTIONS && isAddressedToServer(request)) {
+            write(channel, remoteAddress, getOk().encode(request), request);
+            return true;
+        }
+        if (strictParsing) {
+            SipHeader missing = getMissingHeader(request);
+            if (missing != null) {
+                log.warn(String.format("No %s header found in SIP message. Bouncing it", missing.getName()));
+                write(channel, remoteAddress, getBadRequest().encode(request), request);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Answers a keep alive ping
+     */
+    public void pong(Channel channel, SocketAddress remoteAddress) {
+        if (channel.isConnected()) {
+            channel.write(SipKeepAlive.pong());
+        } else if (datagramPong) {
+            channel.write(SipKeepAlive.pong(), remoteAddress);
+        }
+    }
+
+    /**
+     * Returns true if given request is sent outside a dialog and its Request-URI
+     * identifies the server rather than a user
+     */
+    private boolean isAddressedToServer(SipRequest request) {
+        String to = request.getHeaderValue(SipHeader.TO);
+        if (to != null && to.contains(";tag=")) {
+            return false;
+        }
+        SipUser uri = new SipUser(request.getUri());
+        if (StringUtils.hasLength(uri.getUsername()) || uri.getDomain() == null) {
+            return false;
+        }
+        return domains.isEmpty() || domains.contains(uri.getDomain().toLowerCase());
+    }
+
+    /**
+     * Returns the first mandatory header the request lacks, or null
+     */
+    private static SipHeader getMissingHeader(SipRequest request) {
+        switch (request.getMethod()) {
+            case INVITE:
+                return getMissingHeader(request, SipHeader.FROM, SipHeader.TO);
+            case REGISTER:
+                // without Contact, a REGISTER queries the bindings (RFC 3261 section 10.2.3)
+                return getMissingHeader(request, SipHeader.CALL_ID, SipHeader.FROM, SipHeader.VIA);
+            default:
+                return null;
+        }
+    }
+
+    private static SipHeader getMissingHeader(SipRequest request, SipHeader... headers) {
+        for (SipHeader header : headers) {
+            if (!StringUtils.hasLength(request.getHeaderValue(header))) {
+                return header;
+            }
+        }
+        return null;
+    }
+
+    private void write(Channel channel, SocketAddress remoteAddress, ChannelBuffer response,
+                       SipRequest request) {
+        if (sipLog.isDebugEnabled()) {
+            sipLog.debug(String.format("SENDING STATELESS RESPONSE\n%s\n", response.toString(CharsetUtil.UTF_8)));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("respond. %s %s", request.getMethod(), request.getUri()));
+        }
+        if (channel.isConnected()) {
+            channel.write(response);
+        } else {
+            channel.write(response, remoteAddress);
+        }
+    }
+
+    private Template getOk() {
+        Template template = ok;
+        if (template == null) {
+            StringBuilder headers = new StringBuilder();
+            appendHeader(headers, SipHeader.ALLOW, allow);
+            appendHeader(headers, SipHeader.ACCEPT, accept);
+            appendHeader(headers, SipHeader.SUPPORTED, supported);
+            appendHeader(headers, SipHeader.SERVER, server);
+            ok = template = new Template(SipResponseStatus.OK, headers);
+        }
+        return template;
+    }
+
+    private Template getBadRequest() {
+        Template template = badRequest;
+        if (template == null) {
+            StringBuilder headers = new StringBuilder();
+            appendHeader(headers, SipHeader.SERVER, server);
+            badRequest = template = new Template(SipResponseStatus.BAD_REQUEST, headers);
+        }
+        return template;
+    }
+
+    private static void appendHeader(StringBuilder headers, SipHeader header, String value) {
+        if (StringUtils.hasLength(value)) {
+            headers.append(header.getName()).append(": ").append(value).append("\r\n");
+        }
+    }
+
+    /**
+     * Pre-encoded status line and fixed headers of a response
+     */
+    private static final class Template {
+        private final byte[] statusLine;
+        private final byte[] headers;
+
+        private Template(SipResponseStatus status, StringBuilder headers) {
+            this.statusLine = String.format("%s %d %s\r\n", SipVersion.SIP_2_0.toString(), status.getCode(),
+                    status.getReasonPhrase()).getBytes(CharsetUtil.UTF_8);
+            headers.append(SipHeader.CONTENT_LENGTH.getName()).append(": 0\r\n\r\n");
+            this.headers = headers.toString().getBytes(CharsetUtil.UTF_8);
+        }
+
+        /**
+         * Returns the response to given request
+         */
+        ChannelBuffer encode(SipRequest request) {
+            ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(statusLine.length + headers.length + 512);
+            buffer.writeBytes(statusLine);
+            for (SipHeader header : COPIED_HEADERS) {
+                byte[] name = header.getEncodedName();
+                for (String value : request.getHeaderValues(header)) {
+                    if (header == SipHeader.TO && !value.contains(";tag=")) {
+                        value = value + ";tag=" + tag(request);
+                    }
+                    buffer.writeBytes(name);
+                    buffer.writeBytes(value.getBytes(CharsetUtil.UTF_8));
+                    buffer.writeBytes(CRLF);
+                }
+            }
+            buffer.writeBytes(headers);
+            return buffer;
+        }
+
+        /**
+         * The To tag is derived from the request, so a retransmission gets the
+         * same response
+         */
+        private static String tag(SipRequest request) {
+            return Integer.toHexString(31 * String.valueOf(request.getHeaderValue(SipHeader.CALL_ID)).hashCode()
+                    + String.valueOf(request.getHeaderValue(SipHeader.FROM)).hashCode());
+        }
+    }
+
+    ////////////////////////////////////
+    //
+    //  Getters /  Setters
+    //
+    ////////////////////////////////////
+
+    /**
+     * If set (default), OPTIONS requests are answered with a 200 OK
+     */
+    public void setOptions(boolean options) {
+        this.options = options;
+    }
+
+    /**
+     * Comma separated host names and addresses of the server; if set, only OPTIONS
+     * with one of these as host of the Request-URI are answered
+     */
+    public void setDomains(String domains) {
+        Set<String> set = new HashSet<String>();
+        for (String domain : StringUtils.commaDelimitedListToSet(domains)) {
+            if (StringUtils.hasText(domain)) {
+                set.add(domain.trim().toLowerCase());
+            }
+        }
+        this.domains = set;
+    }
+
+    /**
+     * If set, pings received as datagram are answered too (RFC 5626 uses STUN
+     * over UDP, but many clients send double CRLFs)
+     */
+    public void setDatagramPong(boolean datagramPong) {
+        this.datagramPong = datagramPong;
+    }
+
+    /**
+     * If set (default), INVITE and REGISTER requests lacking mandatory headers are
+     * answered with a 400 Bad Request
+     */
+    public void setStrictParsing(boolean strictParsing) {
+        this.strictParsing = strictParsing;
+    }
+
+    public void setAllow(String allow) {
+        this.allow = allow;
+        this.ok = null;
+    }
+
+    public void setAccept(String accept) {
+        this.accept = accept;
+        this.ok = null;
+    }
+
+    public void setSupported(String supported) {
+        this.supported = supported;
+        this.ok = null;
+    }
+
+    public void setServer(String server) {
+        this.server = server;
+        this.ok = null;
+        this.badRequest = null;
+    }
+}
@@ -0,0 +1,201 @@
+package org.elasticsoftware.sip;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.socket.nio.NioSocketChannel;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outbound queue of a single stream (TCP) channel; must be the first handler of
+ * the pipeline, i.e. the last one the (encoded) messages pass.<br>
+ * <br>
+ * Writes are queued and flushed once per I/O loop iteration, merging all messages
+ * written in between into a single buffer (and thus a single system call). Only
+ * whilst the channel is writable messages are flushed; messages queued for a slow
+ * peer are kept until the channel becomes writable again and, when more than
+ * <code>maxQueuedWrites</code> are queued, further writes fail immediately.
+ *
+ * @author Leonard Wolters
+ */
+public class SipWriteQueue extends SimpleChannelHandler {
+    private static final Logger log = Logger.getLogger(SipWriteQueue.class);
+    /**
+     * Maximum number of bytes merged into a single write, so writability is
+     * checked regularly
+     */
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    private final Queue<MessageEvent> queue = new ConcurrentLinkedQueue<MessageEvent>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final int maxQueuedWrites;
+    private volatile ChannelHandlerContext ctx;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            flush();
+        }
+    };
+
+    public SipWriteQueue(int maxQueuedWrites) {
+        if (maxQueuedWrites < 1) {
+            throw new IllegalArgumentException("maxQueuedWrites must be positive");
+        }
+        this.maxQueuedWrites = maxQueuedWrites;
+    }
+
+    /**
+     * Returns the number of messages queued, i.e. not yet handed to the channel
+     */
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        this.ctx = ctx;
+        if (size.incrementAndGet() > maxQueuedWrites) {
+            size.decrementAndGet();
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("writeRequested. Queue of [%s] full", e.getChannel().getRemoteAddress()));
+            }
+            e.getFuture().setFailure(new IllegalStateException(String.format(
+                    "More than %d writes queued for %s", maxQueuedWrites, e.getChannel().getRemoteAddress())));
+            return;
+        }
+        queue.add(e);
+        scheduleFlush(e.getChannel());
+    }
+
+    @Override
+    public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        if (e.getChannel().isWritable() && size.get() > 0) {
+            this.ctx = ctx;
+            scheduleFlush(e.getChannel());
+        }
+        super.channelInterestChanged(ctx, e);
+    }
+
+    @Override
+    public void closeRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        try {
+            flush();
+        } finally {
+            super.closeRequested(ctx, e);
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        ClosedChannelException cause = null;
+        MessageEvent event;
+        while ((event = queue.poll()) != null) {
+            size.decrementAndGet();
+            if (cause == null) {
+                cause = new ClosedChannelException();
+            }
+            event.getFuture().setFailure(cause);
+        }
+        super.channelClosed(ctx, e);
+    }
+
+    /**
+     * Flushes once the I/O thread has handled the current events, so all messages
+     * written in the meantime are flushed together
+     */
+    private void scheduleFlush(Channel channel) {
+        if (!flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        if (channel instanceof NioSocketChannel) {
+            ((NioSocketChannel) channel).getWorker().executeInIoThread(flushTask, true);
+        } else {
+            channel.getPipeline().execute(flushTask);
+        }
+    }
+
+    /**
+     * Writes queued messages for as long as the channel is writable
+     */
+    private synchronized void flush() {
+        ChannelHandlerContext ctx = this.ctx;
+        if (ctx == null) {
+            return;
+        }
+        Channel channel = ctx.getChannel();
+        List<MessageEvent> batch = new ArrayList<MessageEvent>();
+        int bytes = 0;
+        while (!channel.isOpen() || channel.isWritable()) {
+            MessageEvent e = queue.poll();
+            if (e == null) {
+                break;
+            }
+            size.decrementAndGet();
+            if (!(e.getMessage() instanceof ChannelBuffer)) {
+                write(ctx, batch);
+                batch.clear();
+                bytes = 0;
+                ctx.sendDownstream(e);
+                continue;
+            }
+            batch.add(e);
+            bytes += ((ChannelBuffer) e.getMessage()).readableBytes();
+            if (bytes >= MAX_BATCH_BYTES) {
+                write(ctx, batch);
+                batch.clear();
+                bytes = 0;
+            }
+        }
+        write(ctx, batch);
+    }
+
+    /**
+     * Writes given messages as one buffer, completing their futures when written
+     */
+    private static void write(ChannelHandlerContext ctx, List<MessageEvent> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.size() == 1) {
+            ctx.sendDownstream(batch.get(0));
+            return;
+        }
+        final MessageEvent[] events = batch.toArray(new MessageEvent[batch.size()]);
+        ChannelBuffer[] buffers = new ChannelBuffer[events.length];
+        for (int i = 0; i < events.length; i++) {
+            buffers[i] = (ChannelBuffer) events[i].getMessage();
+        }
+        ChannelFuture future = Channels.future(ctx.getChannel());
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                for (MessageEvent e : events) {
+                    if (future.isSuccess()) {
+                        e.getFuture().setSuccess();
+                    } else {
+                        e.getFuture().setFailure(future.getCause());
+                    }
+                }
+            }
+        });
+        Channels.write(ctx, future, ChannelBuffers.wrappedBuffer(buffers), events[0].getRemoteAddress());
+    }
+}
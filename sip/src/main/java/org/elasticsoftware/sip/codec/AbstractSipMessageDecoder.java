@@ -257,7 +257,7 @@ public abstract class AbstractSipMessageDecoder extends ReplayingDecoder<Abstrac
 					value = value + ' ' + line.trim();
 				} else {
 					if (name != null) {						
-						message.addHeader(SipHeader.lookup(name), value);
+						message.addHeader(name, value);
 					}
 					String[] header = splitHeader(line);
 					name = header[0];
@@ -274,10 +274,13 @@ public abstract class AbstractSipMessageDecoder extends ReplayingDecoder<Abstrac
 			// Add the last header.
 			if (name != null) {
 				//SipHeaders.addHeader(message, name, value);
-				message.addHeader(SipHeader.lookup(name), value);
+				message.addHeader(name, value);
 			}
 		}
-		
+		return nextState(message);
+	}
+
+	private State nextState(SipMessage message) {
 		// check if we need to parse SDP content
 		State nextState;
 		if (isContentAlwaysEmpty(message)) {
@@ -2,6 +2,7 @@ package org.elasticsoftware.sip.codec;
 
 import org.apache.log4j.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferFactory;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
@@ -16,7 +17,18 @@ import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
 import static org.jboss.netty.handler.codec.http.HttpConstants.*;
 
 /**
- * Encodes an {@link SipMessage} into a {@link ChannelBuffer}.
+ * Encodes an {@link SipMessage} into a {@link ChannelBuffer}.<br>
+ * <br>
+ * The size of the encoded message is computed up front, so the initial line,
+ * headers and content are written into a single buffer of exactly that size.
+ * Names of known headers are written from their pre-encoded bytes (see
+ * {@link SipHeader}), values are written without going through a
+ * {@link Charset} when they are ASCII.<br>
+ * <br>
+ * Buffers are taken from the buffer factory of the channel, unless a buffer
+ * factory is given (e.g. a <code>DirectChannelBufferFactory</code>, which
+ * allocates direct buffers from a preallocated slab so they can be written to
+ * the socket without being copied first).
  *
  * @author Leonard Wolters
  */
@@ -24,18 +36,44 @@ public abstract class AbstractSipMessageEncoder extends OneToOneEncoder {
     private static final Logger log = Logger.getLogger(AbstractSipMessageEncoder.class);
     protected static final Charset charSet = Charset.forName("UTF-8");
 
+    private final ChannelBufferFactory bufferFactory;
+
     // avoid construction...
     protected AbstractSipMessageEncoder() {
+        this(null);
+    }
+
+    protected AbstractSipMessageEncoder(ChannelBufferFactory bufferFactory) {
+        this.bufferFactory = bufferFactory;
     }
 
     @Override
     protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg)
             throws Exception {
         if (log.isDebugEnabled()) log.debug("encode");
+        if (msg instanceof SipMessageImpl) {
+            SipMessageImpl m = (SipMessageImpl) msg;
+            SipHeaders headers = m.getHeaderStore();
+            ChannelBuffer content = m.getContent();
+            int contentLength = content == null ? 0 : content.readableBytes();
+
+            int size = getInitialLineLength(m) + getHeadersLength(headers) + 2 + contentLength;
+            ChannelBuffer buf = getBufferFactory(channel).getBuffer(size);
+            encodeInitialLine(buf, m);
+            encodeHeaders(buf, headers);
+
+            // always add a single white line between headers and content
+            buf.writeByte(CR);
+            buf.writeByte(LF);
+            if (contentLength > 0) {
+                buf.writeBytes(content, content.readerIndex(), contentLength);
+            }
+            return buf;
+        }
         if (msg instanceof SipMessage) {
             SipMessage m = (SipMessage) msg;
 
-            ChannelBuffer header = dynamicBuffer(channel.getConfig().getBufferFactory());
+            ChannelBuffer header = dynamicBuffer(getBufferFactory(channel));
             encodeInitialLine(header, m);
             encodeHeaders(header, m);
 
@@ -60,6 +98,50 @@ public abstract class AbstractSipMessageEncoder extends OneToOneEncoder {
         return msg;
     }
 
+    private ChannelBufferFactory getBufferFactory(Channel channel) {
+        return bufferFactory != null ? bufferFactory : channel.getConfig().getBufferFactory();
+    }
+
+    /**
+     * Returns the number of bytes all headers (including line breaks) occupy
+     */
+    private static int getHeadersLength(SipHeaders headers) {
+        int length = 0;
+        for (int i = 0; i < headers.size(); i++) {
+            if (headers.isReceived(i)) {
+                length += headers.getReceivedLength(i);
+            } else {
+                SipHeader header = headers.getHeader(i);
+                length += header != null ? header.getEncodedName().length
+                        : SipCodecUtil.encodedLength(headers.getName(i)) + 2;
+                length += SipCodecUtil.encodedLength(headers.getValue(i));
+            }
+            length += 2;
+        }
+        return length;
+    }
+
+    private static void encodeHeaders(ChannelBuffer buf, SipHeaders headers) {
+        for (int i = 0; i < headers.size(); i++) {
+            if (headers.isReceived(i)) {
+                // forwarded unmodified, so written as received
+                headers.writeReceived(i, buf);
+            } else {
+                SipHeader header = headers.getHeader(i);
+                if (header != null) {
+                    buf.writeBytes(header.getEncodedName());
+                } else {
+                    SipCodecUtil.writeString(buf, headers.getName(i));
+                    buf.writeByte(COLON);
+                    buf.writeByte(SP);
+                }
+                SipCodecUtil.writeString(buf, headers.getValue(i));
+            }
+            buf.writeByte(CR);
+            buf.writeByte(LF);
+        }
+    }
+
     private static void encodeHeaders(ChannelBuffer buf, SipMessage message) {
         try {
             for (Map.Entry<String, List<String>> header : message.getHeaders().entrySet()) {
@@ -96,5 +178,11 @@ public abstract class AbstractSipMessageEncoder extends OneToOneEncoder {
         }
     }
 
+    /**
+     * Returns the number of bytes {@link #encodeInitialLine(ChannelBuffer, SipMessage)}
+     * writes for given message (including the line break)
+     */
+    protected abstract int getInitialLineLength(SipMessage message);
+
     protected abstract void encodeInitialLine(ChannelBuffer buf, SipMessage message) throws Exception;
 }
@@ -1,9 +1,25 @@
 package org.elasticsoftware.sip.codec;
 
+import static org.jboss.netty.handler.codec.http.HttpConstants.CR;
+import static org.jboss.netty.handler.codec.http.HttpConstants.HT;
+import static org.jboss.netty.handler.codec.http.HttpConstants.LF;
+import static org.jboss.netty.handler.codec.http.HttpConstants.SP;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.util.CharsetUtil;
+
 /**
  * @author Leonard Wolters
  */
 public final class SipCodecUtil {
+    private static final Logger log = Logger.getLogger(SipCodecUtil.class);
+    private static final Pattern URI_PATTERN =
+            Pattern.compile("^sip:([_a-z0-9-]+(\\.[_a-z0-9-]+)*@)*[a-z0-9-]+(\\.[a-z0-9-]+)*(:[0-9]+)*(;[a-z0-9-]+=[a-z0-9-]+)*$",
+                    Pattern.CASE_INSENSITIVE);
 
     public static void validateHeaderName(String name) {
         if (name == null) {
@@ -99,7 +115,221 @@ public final class SipCodecUtil {
         }
     }
 
+    /**
+     * Creates a SIP Request or SIP Response from the tokens of given initial line.
+     * If the initial line cannot be parsed, a message is returned that only
+     * holds the corresponding response status.
+     *
+     * @param initialLine
+     * @return
+     */
+    public static SipMessage createMessage(String[] initialLine) {
+        // SIP Request   --> REGISTER sip:sip.outerteams.com:5060 SIP/2.0
+        // SIP Response  --> SIP/2.0 401 Unauthorized
+        if (initialLine[0].regionMatches(true, 0, "SIP/", 0, 4)) {
+            return decodeResponse(initialLine);
+        } else {
+            return decodeRequest(initialLine);
+        }
+    }
+
+    /**
+     * Parses a SIP Response initial line e.g. SIP/2.0 401 Unauthorized.
+     * If an parsing error occurs, no message is sent back to sender but
+     * only an error message is logged
+     *
+     * @param initialLine
+     * @return
+     */
+    private static SipMessage decodeResponse(String[] initialLine) {
+        SipVersion version = SipVersion.lookup(initialLine[0], false);
+        if (version == null) {
+            log.warn(String.format("constructResponse. Invalid Sip Version[%s]", initialLine[0]));
+            return new SipMessageImpl(SipVersion.SIP_2_0, SipResponseStatus.VERSION_NOT_SUPPORTED);
+        }
+        SipResponseStatus response = null;
+        try {
+            response = SipResponseStatus.lookup(Integer.parseInt(initialLine[1]));
+        } catch (NumberFormatException e) {
+            // handled below
+        }
+        if (response == null) {
+            log.warn(String.format("constructResponse. Invalid Sip Response code[%s]", initialLine[1]));
+            return new SipMessageImpl(SipVersion.SIP_2_0, SipResponseStatus.RESPONSE_CODE_NOT_SUPPORTED);
+        }
+        return new SipResponseImpl(version, response);
+    }
+
+    /**
+     * Parses a SIP Request initial line e.g. REGISTER sip:sip.outerteams.com:5060 SIP/2.0
+     *
+     * @param initialLine
+     * @return
+     */
+    private static SipMessage decodeRequest(String[] initialLine) {
+        SipVersion version = SipVersion.lookup(initialLine[2], false);
+        if (version == null) {
+            log.warn(String.format("constructRequest. Invalid Sip Version[%s]", initialLine[2]));
+            return new SipMessageImpl(SipVersion.SIP_2_0, SipResponseStatus.VERSION_NOT_SUPPORTED);
+        }
+        SipMethod method = SipMethod.lookup(initialLine[0], false);
+        if (method == null) {
+            log.warn(String.format("constructRequest. Invalid Sip Method[%s]", initialLine[0]));
+            return new SipMessageImpl(SipVersion.SIP_2_0, SipResponseStatus.METHOD_NOT_ALLOWED);
+        }
+        String uri = initialLine[1];
+        Matcher matcher = URI_PATTERN.matcher(uri);
+        if (!matcher.matches()) {
+            log.warn(String.format("constructRequest. Invalid URI[%s]", uri));
+            return new SipMessageImpl(SipVersion.SIP_2_0, SipResponseStatus.BAD_REQUEST);
+        }
+        // TODO: Check domain of URI (do we accept this? Or do we need to transfer / redirect
+        // request?
+        return new SipRequestImpl(version, method, uri);
+    }
+
+    /**
+     * Searches given buffer between <code>fromIndex</code> and <code>toIndex</code>
+     * for the empty line that terminates the header section, i.e. a LF followed by
+     * a (CR)LF.
+     *
+     * @param buffer
+     * @param fromIndex
+     * @param toIndex
+     * @return the index directly after the empty line or -1 if not found
+     */
+    public static int findEndOfHeaders(ChannelBuffer buffer, int fromIndex, int toIndex) {
+        int pos = fromIndex;
+        while (pos < toIndex) {
+            int lf = buffer.indexOf(pos, toIndex, LF);
+            if (lf == -1 || lf + 1 >= toIndex) {
+                return -1;
+            }
+            byte next = buffer.getByte(lf + 1);
+            if (next == LF) {
+                return lf + 2;
+            }
+            if (next == CR) {
+                if (lf + 2 >= toIndex) {
+                    return -1;
+                }
+                if (buffer.getByte(lf + 2) == LF) {
+                    return lf + 3;
+                }
+            }
+            pos = lf + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Splits the initial line found between <code>start</code> and <code>end</code>
+     * of given buffer in its 3 tokens, e.g. INVITE sip:bob@biloxi.com SIP/2.0 or
+     * SIP/2.0 200 OK. The third token runs until the end of the line.<br>
+     * <br>
+     * If less tokens are found, last two tokens are empty
+     *
+     * @param buffer
+     * @param start
+     * @param end
+     * @return
+     */
+    public static String[] splitInitialLine(ChannelBuffer buffer, int start, int end) {
+        int aStart = findNonWhitespace(buffer, start, end);
+        int aEnd = findWhitespace(buffer, aStart, end);
+
+        int bStart = findNonWhitespace(buffer, aEnd, end);
+        int bEnd = findWhitespace(buffer, bStart, end);
+
+        int cStart = findNonWhitespace(buffer, bEnd, end);
+        int cEnd = end;
+        while (cEnd > cStart && isWhitespace(buffer.getByte(cEnd - 1))) {
+            cEnd--;
+        }
+
+        return new String[]{buffer.toString(aStart, aEnd - aStart, CharsetUtil.UTF_8),
+                bStart < bEnd ? buffer.toString(bStart, bEnd - bStart, CharsetUtil.UTF_8) : "",
+                cStart < cEnd ? buffer.toString(cStart, cEnd - cStart, CharsetUtil.UTF_8) : ""};
+    }
+
+    private static int findNonWhitespace(ChannelBuffer buffer, int offset, int end) {
+        while (offset < end && isWhitespace(buffer.getByte(offset))) {
+            offset++;
+        }
+        return offset;
+    }
+
+    private static int findWhitespace(ChannelBuffer buffer, int offset, int end) {
+        while (offset < end && !isWhitespace(buffer.getByte(offset))) {
+            offset++;
+        }
+        return offset;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == SP || b == HT;
+    }
+
     public static boolean isContentLengthSet(SipMessage m) {
         return !m.getHeaderValues(SipHeader.CONTENT_LENGTH).isEmpty();
     }
+
+    /**
+     * Returns the number of bytes given string occupies when encoded as UTF-8
+     */
+    public static int encodedLength(String s) {
+        int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                // 4 bytes for 2 chars
+                bytes += 2;
+                i++;
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                bytes += 2;
+            }
+            // else unpaired surrogate, encoded as '?'
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes given string as UTF-8 to given buffer. ASCII (which SIP headers
+     * practically always are) is written byte by byte, without encoding the
+     * string to a temporary byte array first.
+     */
+    public static void writeString(ChannelBuffer buf, String s) {
+        int length = s.length();
+        int writerIndex = buf.writerIndex();
+        if (buf.hasArray() && buf.writableBytes() >= length) {
+            byte[] array = buf.array();
+            int offset = buf.arrayOffset() + writerIndex;
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    buf.writerIndex(writerIndex + i);
+                    buf.writeBytes(s.substring(i).getBytes(CharsetUtil.UTF_8));
+                    return;
+                }
+                array[offset + i] = (byte) c;
+            }
+            buf.writerIndex(writerIndex + length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                buf.writeBytes(s.substring(i).getBytes(CharsetUtil.UTF_8));
+                return;
+            }
+            buf.writeByte(c);
+        }
+    }
 }
@@ -0,0 +1,251 @@
+package org.elasticsoftware.sip.codec;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the bodies of outbound messages of a connection, once the peer
+ * has advertised support for it by an Accept-Encoding header (see
+ * http://tools.ietf.org/html/rfc3261#section-20.2) in a message it sent. Only
+ * bodies of compressible types (SDP, PIDF, message/sipfrag and other XML) of at
+ * least <code>minLength</code> bytes are compressed; headers never are. The
+ * message written is left as is, a compressed copy of it is passed on
+ * instead.<br>
+ * <br>
+ * The peer's preference is taken from the first Accept-Encoding received:
+ * <code>deflate</code> is used if accepted, otherwise <code>gzip</code>. A
+ * single {@link Deflater} is kept per connection, so this handler must not be
+ * shared.
+ *
+ * @author Leonard Wolters
+ */
+public class SipContentCompressor extends SimpleChannelHandler {
+    private static final Logger log = Logger.getLogger(SipContentCompressor.class);
+    private static final String DEFLATE = "deflate";
+    private static final String GZIP = "gzip";
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final String[] COMPRESSIBLE_TYPES = {"application/sdp", "application/pidf+xml",
+            "message/sipfrag", "application/xml", "text/"};
+
+    private final int minLength;
+    private final int level;
+    /**
+     * Content coding accepted by the peer, or null if none (yet)
+     */
+    private volatile String encoding;
+    private Deflater deflater;
+    private CRC32 crc;
+    private byte[] output = new byte[1024];
+
+    /**
+     * Creates a compressor of bodies of at least 256 bytes, at the default
+     * compression level
+     */
+    public SipContentCompressor() {
+        this(256, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public SipContentCompressor(int minLength, int level) {
+        if (minLength < 0) {
+            throw new IllegalArgumentException("minLength must not be negative: " + minLength);
+        }
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("level must be -1 or in range 0-9: " + level);
+        }
+        this.minLength = minLength;
+        this.level = level;
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (encoding == null && e.getMessage() instanceof SipMessage) {
+            SipMessage message = (SipMessage) e.getMessage();
+            if (message.containsHeader(SipHeader.ACCEPT_ENCODING)) {
+                StringBuilder acceptEncoding = new StringBuilder();
+                for (String value : message.getHeaderValues(SipHeader.ACCEPT_ENCODING)) {
+                    acceptEncoding.append(value).append(',');
+                }
+                setAcceptEncoding(acceptEncoding.toString());
+            }
+        }
+        super.messageReceived(ctx, e);
+    }
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (encoding != null && e.getMessage() instanceof SipMessage) {
+            SipMessage message = (SipMessage) e.getMessage();
+            SipMessage compressed = compress(message);
+            if (compressed != message) {
+                Channels.write(ctx, e.getFuture(), compressed, e.getRemoteAddress());
+                return;
+            }
+        }
+        super.writeRequested(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        synchronized (this) {
+            if (deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+        }
+        super.channelClosed(ctx, e);
+    }
+
+    /**
+     * Takes the content codings the peer accepts from given Accept-Encoding
+     * header value, e.g. <code>gzip;q=0.5, deflate</code>
+     */
+    public void setAcceptEncoding(String acceptEncoding) {
+        String accepted = null;
+        for (String coding : acceptEncoding.split(",")) {
+            int semicolon = coding.indexOf(';');
+            String name = (semicolon == -1 ? coding : coding.substring(0, semicolon)).trim();
+            if (semicolon != -1 && !isAcceptable(coding.substring(semicolon + 1))) {
+                continue;
+            }
+            if (DEFLATE.equalsIgnoreCase(name)) {
+                accepted = DEFLATE;
+                break;
+            } else if (GZIP.equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+                accepted = GZIP;
+            }
+        }
+        if (accepted != null && encoding == null) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("setAcceptEncoding. Compressing bodies using %s", accepted));
+            }
+            encoding = accepted;
+        }
+    }
+
+    /**
+     * Returns false if given parameters of a content coding hold a zero quality
+     * value, i.e. the coding is not acceptable
+     */
+    private static boolean isAcceptable(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            int equals = parameter.indexOf('=');
+            if (equals != -1 && "q".equalsIgnoreCase(parameter.substring(0, equals).trim())) {
+                try {
+                    return Float.parseFloat(parameter.substring(equals + 1).trim()) > 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compresses the content of given message if the peer accepts it and it is
+     * worth it. Given message itself is never modified.
+     *
+     * @return a copy of given message holding the compressed content, or the
+     *         message itself if not compressed
+     */
+    public SipMessage compress(SipMessage message) {
+        ChannelBuffer content = message.getContent();
+        if (encoding == null || content == null || content.readableBytes() < minLength
+                || message.containsHeader(SipHeader.CONTENT_ENCODING)
+                || !isCompressible(message.getHeaderValue(SipHeader.CONTENT_TYPE))) {
+            return message;
+        }
+        ChannelBuffer compressed = deflate(content);
+        if (compressed == null) {
+            return message;
+        }
+        SipMessage copy = message instanceof SipRequest
+                ? new SipRequestImpl((SipRequest) message)
+                : new SipResponseImpl(message);
+        copy.setContent(compressed);
+        copy.setHeader(SipHeader.CONTENT_ENCODING, encoding);
+        copy.setHeader(SipHeader.CONTENT_LENGTH, compressed.readableBytes());
+        return copy;
+    }
+
+    private static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.trim().toLowerCase(Locale.ENGLISH);
+        for (String compressible : COMPRESSIBLE_TYPES) {
+            if (type.startsWith(compressible)) {
+                return true;
+            }
+        }
+        return type.contains("+xml");
+    }
+
+    /**
+     * Returns the compressed content, or null if it does not get any smaller
+     */
+    private synchronized ChannelBuffer deflate(ChannelBuffer content) {
+        boolean gzip = GZIP.equals(encoding);
+        if (deflater == null) {
+            deflater = new Deflater(level, gzip);
+            crc = new CRC32();
+        }
+        byte[] input;
+        int offset;
+        int length = content.readableBytes();
+        if (content.hasArray()) {
+            input = content.array();
+            offset = content.arrayOffset() + content.readerIndex();
+        } else {
+            input = new byte[length];
+            offset = 0;
+            content.getBytes(content.readerIndex(), input);
+        }
+        deflater.reset();
+        deflater.setInput(input, offset, length);
+        deflater.finish();
+        int written = 0;
+        while (!deflater.finished()) {
+            if (written == output.length) {
+                byte[] larger = new byte[output.length * 2];
+                System.arraycopy(output, 0, larger, 0, written);
+                output = larger;
+            }
+            written += deflater.deflate(output, written, output.length - written);
+        }
+        int total = gzip ? GZIP_HEADER.length + written + 8 : written;
+        if (total >= length) {
+            return null;
+        }
+        ChannelBuffer compressed = ChannelBuffers.buffer(total);
+        if (gzip) {
+            crc.reset();
+            crc.update(input, offset, length);
+            compressed.writeBytes(GZIP_HEADER);
+            compressed.writeBytes(output, 0, written);
+            // CRC32 and size, little endian
+            compressed.writeInt(Integer.reverseBytes((int) crc.getValue()));
+            compressed.writeInt(Integer.reverseBytes(length));
+        } else {
+            compressed.writeBytes(output, 0, written);
+        }
+        return compressed;
+    }
+
+    /**
+     * Returns the content coding used, or null if the peer did not (yet)
+     * advertise one
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+}
@@ -0,0 +1,170 @@
+package org.elasticsoftware.sip.codec;
+
+import static org.jboss.netty.handler.codec.http.HttpConstants.CR;
+import static org.jboss.netty.handler.codec.http.HttpConstants.LF;
+import static org.jboss.netty.handler.codec.http.HttpConstants.SP;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+
+/**
+ * Decodes datagrams (SIP over UDP) into {@link SipMessage}s<br>
+ * <br>
+ * Every datagram holds exactly one complete SIP message, see
+ * http://tools.ietf.org/html/rfc3261#section-18.1.1 so, unlike the stream decoder,
+ * this decoder keeps no state whatsoever and a single instance can be shared by
+ * all channels. The message is decoded in a single pass; headers and content are
+ * slices of the received datagram (see {@link SipHeaderBlock}).<br>
+ * <br>
+ * Malformed datagrams (no valid initial line, no SIP version, header lines that are
+ * too long, an invalid Content-Length or one that exceeds the size of the
+ * datagram, see http://tools.ietf.org/html/rfc3261#section-18.3) are dropped
+ * without further notice. A datagram holding nothing but a double CRLF is a keep
+ * alive ping and decoded as {@link SipKeepAlive#PING}.
+ *
+ * @author Leonard Wolters
+ */
+@Sharable
+public class SipDatagramDecoder extends OneToOneDecoder {
+    private static final Logger log = Logger.getLogger(SipDatagramDecoder.class);
+    private static final byte[] SIP_VERSION_PREFIX = {'S', 'I', 'P', '/'};
+
+    private final int maxInitialLineLength;
+    private final int maxHeaderLineLength;
+
+    /**
+     * Creates a new instance with the default
+     * {@code maxInitialLineLength (4096}} and {@code maxHeaderLineLength (4096)}
+     */
+    public SipDatagramDecoder() {
+        this(4096, 4096);
+    }
+
+    public SipDatagramDecoder(int maxInitialLineLength, int maxHeaderLineLength) {
+        if (maxInitialLineLength <= 0) {
+            throw new IllegalArgumentException(
+                    "maxInitialLineLength must be a positive integer: " + maxInitialLineLength);
+        }
+        if (maxHeaderLineLength <= 0) {
+            throw new IllegalArgumentException(
+                    "maxHeaderLineLength must be a positive integer: " + maxHeaderLineLength);
+        }
+        this.maxInitialLineLength = maxInitialLineLength;
+        this.maxHeaderLineLength = maxHeaderLineLength;
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, Object msg)
+            throws Exception {
+        if (!(msg instanceof ChannelBuffer)) {
+            return msg;
+        }
+        ChannelBuffer buffer = (ChannelBuffer) msg;
+        int end = buffer.writerIndex();
+        int start = skipControlCharacters(buffer, buffer.readerIndex(), end);
+        if (start == end) {
+            return isPing(buffer, buffer.readerIndex(), end) ? SipKeepAlive.PING : null;
+        }
+
+        // initial line
+        int eol = buffer.indexOf(start, end, LF);
+        if (eol == -1) {
+            return drop("no initial line", buffer);
+        }
+        int lineEnd = eol > start && buffer.getByte(eol - 1) == CR ? eol - 1 : eol;
+        if (lineEnd - start > maxInitialLineLength) {
+            return drop("initial line too long", buffer);
+        }
+        if (!hasSipVersion(buffer, start, lineEnd)) {
+            return drop("no SIP version in initial line", buffer);
+        }
+
+        // header section; a missing empty line is tolerated when there is no content
+        int headerEnd = SipCodecUtil.findEndOfHeaders(buffer, start, end);
+        if (headerEnd == -1) {
+            headerEnd = end;
+        }
+        SipMessage message = SipCodecUtil.createMessage(SipCodecUtil.splitInitialLine(buffer, start, lineEnd));
+        if (message.getResponseStatus() != null && !(message instanceof SipResponse)) {
+            return drop(String.format("invalid initial line (%s)", message.getResponseStatus()), buffer);
+        }
+        try {
+            ((SipMessageImpl) message).setHeaderBlock(SipHeaderBlock.parse(
+                    buffer.slice(eol + 1, headerEnd - eol - 1), maxHeaderLineLength));
+        } catch (TooLongFrameException e) {
+            return drop(e.getMessage(), buffer);
+        }
+
+        // content
+        int available = end - headerEnd;
+        long contentLength;
+        try {
+            contentLength = message.getContentLength(available);
+        } catch (NumberFormatException e) {
+            return drop("invalid Content-Length", buffer);
+        }
+        if (contentLength < 0 || contentLength > available) {
+            return drop(String.format("Content-Length [%d] exceeds datagram", contentLength), buffer);
+        }
+        if (contentLength > 0) {
+            message.setContent(buffer.slice(headerEnd, (int) contentLength));
+        }
+        buffer.readerIndex(end);
+        return message;
+    }
+
+    /**
+     * Checks (without creating any objects) if either a response starts with, or
+     * a request ends with a SIP version
+     */
+    private static boolean hasSipVersion(ChannelBuffer buffer, int start, int end) {
+        if (startsWith(buffer, start, end, SIP_VERSION_PREFIX)) {
+            return true;
+        }
+        int lastSpace = end;
+        while (lastSpace > start && buffer.getByte(lastSpace - 1) != SP) {
+            lastSpace--;
+        }
+        return lastSpace > start && startsWith(buffer, lastSpace, end, SIP_VERSION_PREFIX);
+    }
+
+    private static boolean startsWith(ChannelBuffer buffer, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.getByte(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipControlCharacters(ChannelBuffer buffer, int start, int end) {
+        while (start < end) {
+            char c = (char) buffer.getUnsignedByte(start);
+            if (!Character.isISOControl(c) && !Character.isWhitespace(c)) {
+                break;
+            }
+            start++;
+        }
+        return start;
+    }
+
+    private static boolean isPing(ChannelBuffer buffer, int start, int end) {
+        return end - start == 4 && buffer.getByte(start) == CR && buffer.getByte(start + 1) == LF
+                && buffer.getByte(start + 2) == CR && buffer.getByte(start + 3) == LF;
+    }
+
+    private static Object drop(String reason, ChannelBuffer buffer) {
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Dropping datagram of %d bytes: %s", buffer.readableBytes(), reason));
+        }
+        return null;
+    }
+}
@@ -0,0 +1,117 @@
+package org.elasticsoftware.sip.codec;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.util.CharsetUtil;
+
+/**
+ * Registry of the names of extension headers, i.e. headers that are not enumerated
+ * in {@link SipHeader} (like <code>P-Asserted-Identity</code>, <code>Session-Expires</code>,
+ * <code>Require</code> or <code>Reason</code>)<br>
+ * <br>
+ * Header names are case-insensitive, see http://tools.ietf.org/html/rfc3261#section-7.3.1
+ * The spelling in which a name is first seen becomes its canonical name; the same
+ * <code>String</code> instance is returned for every later lookup, no matter its
+ * case. Lookups from a buffer do not allocate once a name is registered.<br>
+ * <br>
+ * The registry is bounded (at most {@link #MAX_NAMES} names) so a peer sending random
+ * header names cannot exhaust memory; names that do not fit anymore are simply
+ * not cached.
+ *
+ * @author Leonard Wolters
+ */
+public final class SipExtensionHeaders {
+    public static final int MAX_NAMES = 512;
+    private static final int SLOTS = MAX_NAMES * 2;
+    private static final int MAX_PROBES = 8;
+
+    private static final AtomicReferenceArray<String> names = new AtomicReferenceArray<String>(SLOTS);
+    private static final AtomicInteger size = new AtomicInteger();
+
+    // avoid construction...
+    private SipExtensionHeaders() {
+    }
+
+    /**
+     * Returns the canonical name of given header name
+     */
+    public static String lookup(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + toLowerCase(name.charAt(i));
+        }
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int slot = (hash + i) & (SLOTS - 1);
+            String s = names.get(slot);
+            if (s == null) {
+                return register(slot, name);
+            }
+            if (s.equalsIgnoreCase(name)) {
+                return s;
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Returns the canonical name of the header name found at given index
+     * of given buffer
+     */
+    public static String lookup(ChannelBuffer buffer, int index, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + toLowerCase(buffer.getByte(index + i));
+        }
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int slot = (hash + i) & (SLOTS - 1);
+            String s = names.get(slot);
+            if (s == null) {
+                return register(slot, buffer.toString(index, length, CharsetUtil.US_ASCII));
+            }
+            if (equalsIgnoreCase(buffer, index, length, s)) {
+                return s;
+            }
+        }
+        return buffer.toString(index, length, CharsetUtil.US_ASCII);
+    }
+
+    /**
+     * Returns the number of registered names
+     */
+    public static int size() {
+        return size.get();
+    }
+
+    private static String register(int slot, String name) {
+        if (size.get() >= MAX_NAMES) {
+            return name;
+        }
+        if (names.compareAndSet(slot, null, name)) {
+            size.incrementAndGet();
+            return name;
+        }
+        // lost the race for this slot; it is most likely the same name
+        String s = names.get(slot);
+        return s.equalsIgnoreCase(name) ? s : name;
+    }
+
+    private static boolean equalsIgnoreCase(ChannelBuffer buffer, int index, int length, String name) {
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            int b = buffer.getByte(index + i);
+            int c = name.charAt(i);
+            if (b != c && toLowerCase(b) != toLowerCase(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + 32 : c;
+    }
+}
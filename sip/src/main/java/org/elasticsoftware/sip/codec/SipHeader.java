@@ -1,11 +1,17 @@
 package org.elasticsoftware.sip.codec;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Locale;
 
-import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.util.CharsetUtil;
 
 /**
- * Enumeration for all available SIP Headers
+ * Enumeration for all available SIP Headers<br>
+ * <br>
+ * Header names are case-insensitive and a couple of headers have a compact
+ * form (e.g. <code>v</code> for <code>Via</code>). Both are resolved by
+ * {@link #lookup(String)} and, straight from the received bytes, by
+ * {@link #lookup(ChannelBuffer, int, int)}.
  *
  * @author Leonard Wolters
  */
@@ -43,7 +49,7 @@ public enum SipHeader {
 	PROXY_REQUIRE("Proxy-Require"),
 	RECORD_ROUTE("Record-Route"),
 	REPLY_TO("Reply-To"),
-	RETRY_AFTER("Reply-After"),
+	RETRY_AFTER("Retry-After"),
 	ROUTE("Route"),
 	SERVER("Server"),
 	SUBJECT("Subject"),
@@ -55,30 +61,117 @@ public enum SipHeader {
 	VIA("Via"),
 	WARNING("Warning"),
 	WWW_AUTHENTICATE("WWW-Authenticate");
-	private static final Logger log = Logger.getLogger(SipHeader.class);
-	private final static ConcurrentHashMap<String, SipHeader> cache =
-			new ConcurrentHashMap<String, SipHeader>();
+
+	/**
+	 * Open addressing table of all lower-cased header names, including the
+	 * compact forms, see http://tools.ietf.org/html/rfc3261#section-7.3.3 and
+	 * http://tools.ietf.org/html/rfc3265#section-7.2
+	 */
+	private static final int TABLE_SIZE = 256;
+	private static final String[] KEYS = new String[TABLE_SIZE];
+	private static final SipHeader[] HEADERS = new SipHeader[TABLE_SIZE];
+	static {
+		for (SipHeader header : values()) {
+			register(header.name, header);
+		}
+		register("u", ALLOW_EVENTS);
+		register("i", CALL_ID);
+		register("m", CONTACT);
+		register("e", CONTENT_ENCODING);
+		register("l", CONTENT_LENGTH);
+		register("c", CONTENT_TYPE);
+		register("o", EVENT);
+		register("f", FROM);
+		register("s", SUBJECT);
+		register("k", SUPPORTED);
+		register("t", TO);
+		register("v", VIA);
+	}
+
 	private final String name;	
+	private final byte[] encodedName;
 	private SipHeader(String name) {
 		this.name= name;
+		this.encodedName = (name + ": ").getBytes(CharsetUtil.US_ASCII);
 	}
 	
 	public String getName() {
 		return name;
 	}
 
-    public static SipHeader lookup(String name) {
-        if (cache.contains(name)) {
-            return cache.get(name);
-        }
+	/**
+	 * Returns the name, followed by <code>": "</code>, as it is encoded.
+	 * The returned array must not be modified.
+	 */
+	public byte[] getEncodedName() {
+		return encodedName;
+	}
+
+	private static void register(String name, SipHeader header) {
+		String key = name.toLowerCase(Locale.ENGLISH);
+		int slot = hash(key) & (TABLE_SIZE - 1);
+		while (KEYS[slot] != null) {
+			slot = (slot + 1) & (TABLE_SIZE - 1);
+		}
+		KEYS[slot] = key;
+		HEADERS[slot] = header;
+	}
+
+	/**
+	 * Returns the header with given (case-insensitive, possibly compact) name
+	 * or {@code null} if it is not a known header
+	 */
+	public static SipHeader lookup(String name) {
+		int hash = hash(name);
+		for (int slot = hash & (TABLE_SIZE - 1); KEYS[slot] != null; slot = (slot + 1) & (TABLE_SIZE - 1)) {
+			String key = KEYS[slot];
+			if (key.length() == name.length() && key.equalsIgnoreCase(name)) {
+				return HEADERS[slot];
+			}
+		}
+		// extension header, see SipExtensionHeaders
+		return null;
+	}
 
-        for (SipHeader s : values()) {
-            if (s.name.equals(name)) {
-                cache.put(name, s);
-                return s;
-            }
-        }
-        log.warn(String.format("SipHeader[%s] not found", name));
-        return null;
-    }
-}
\ No newline at end of file
+	/**
+	 * Returns the header with given (case-insensitive, possibly compact) name,
+	 * read from <code>length</code> bytes at given index of given buffer, or
+	 * {@code null} if it is not a known header. No objects are allocated.
+	 */
+	public static SipHeader lookup(ChannelBuffer buffer, int index, int length) {
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + toLowerCase(buffer.getByte(index + i));
+		}
+		for (int slot = hash & (TABLE_SIZE - 1); KEYS[slot] != null; slot = (slot + 1) & (TABLE_SIZE - 1)) {
+			if (equals(KEYS[slot], buffer, index, length)) {
+				return HEADERS[slot];
+			}
+		}
+		return null;
+	}
+
+	private static boolean equals(String key, ChannelBuffer buffer, int index, int length) {
+		if (key.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (toLowerCase(buffer.getByte(index + i)) != key.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(String name) {
+		int hash = 0;
+		for (int i = 0; i < name.length(); i++) {
+			hash = 31 * hash + toLowerCase(name.charAt(i));
+		}
+		return hash;
+	}
+
+	private static int toLowerCase(int c) {
+		return c >= 'A' && c <= 'Z' ? c + 32 : c;
+	}
+}
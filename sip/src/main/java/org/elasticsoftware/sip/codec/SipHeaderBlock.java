@@ -0,0 +1,305 @@
+package org.elasticsoftware.sip.codec;
+
+import static org.jboss.netty.handler.codec.http.HttpConstants.COLON;
+import static org.jboss.netty.handler.codec.http.HttpConstants.CR;
+import static org.jboss.netty.handler.codec.http.HttpConstants.HT;
+import static org.jboss.netty.handler.codec.http.HttpConstants.LF;
+import static org.jboss.netty.handler.codec.http.HttpConstants.SP;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.jboss.netty.util.CharsetUtil;
+
+/**
+ * The header section of a decoded SIP message, kept as a slice of the
+ * inbound {@link ChannelBuffer}.<br>
+ * <br>
+ * Parsing only records the offsets of every header name and value; no
+ * <code>String</code> is created until a caller actually reads a value, after
+ * which it is cached. Folded (multi line) values are unfolded on first read,
+ * see http://tools.ietf.org/html/rfc3261#section-7.3.1
+ * <br>
+ * <br>
+ * The block does not copy the bytes, so the underlying buffer must not be
+ * reused for as long as the message is alive.
+ *
+ * @author Leonard Wolters
+ */
+public final class SipHeaderBlock {
+    private static final int NAME_START = 0;
+    private static final int NAME_END = 1;
+    private static final int VALUE_START = 2;
+    private static final int VALUE_END = 3;
+    private static final int SLOTS = 4;
+
+    private final ChannelBuffer buffer;
+    private int[] offsets;
+    private boolean[] folded;
+    private String[] values;
+    private int size;
+
+    private SipHeaderBlock(ChannelBuffer buffer, int expectedHeaders) {
+        this.buffer = buffer;
+        this.offsets = new int[expectedHeaders * SLOTS];
+    }
+
+    /**
+     * Parses the header lines found in the readable bytes of given buffer. The
+     * buffer should not contain the empty line that terminates the header section.
+     * A line that exceeds <code>maxLineLength</code> raises a {@link TooLongFrameException}
+     *
+     * @param buffer
+     * @param maxLineLength
+     * @return
+     * @throws TooLongFrameException
+     */
+    public static SipHeaderBlock parse(ChannelBuffer buffer, int maxLineLength) throws TooLongFrameException {
+        SipHeaderBlock block = new SipHeaderBlock(buffer, 16);
+        int end = buffer.writerIndex();
+        int pos = buffer.readerIndex();
+        while (pos < end) {
+            int eol = buffer.indexOf(pos, end, LF);
+            int next = eol == -1 ? end : eol + 1;
+            int lineEnd = eol == -1 ? end : eol;
+            if (lineEnd > pos && buffer.getByte(lineEnd - 1) == CR) {
+                lineEnd--;
+            }
+            if (maxLineLength > 0 && lineEnd - pos > maxLineLength) {
+                throw new TooLongFrameException(String.format("Given line length [%d] "
+                        + "exceeds max[%d]", lineEnd - pos, maxLineLength));
+            }
+            if (lineEnd == pos) {
+                // empty line; end of header section
+                break;
+            }
+            byte first = buffer.getByte(pos);
+            if (block.size > 0 && (first == SP || first == HT)) {
+                block.fold(pos, lineEnd);
+            } else {
+                block.add(pos, lineEnd);
+            }
+            pos = next;
+        }
+        return block;
+    }
+
+    private void add(int start, int end) {
+        int nameStart = skipWhitespace(start, end);
+        int nameEnd = nameStart;
+        while (nameEnd < end) {
+            byte b = buffer.getByte(nameEnd);
+            if (b == COLON || b == SP || b == HT) {
+                break;
+            }
+            nameEnd++;
+        }
+        int colon = buffer.indexOf(nameEnd, end, COLON);
+        int valueStart = colon == -1 ? end : skipWhitespace(colon + 1, end);
+        int valueEnd = trimWhitespace(valueStart, end);
+
+        if (offsets.length < (size + 1) * SLOTS) {
+            int[] grown = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, grown, 0, offsets.length);
+            offsets = grown;
+        }
+        int idx = size * SLOTS;
+        offsets[idx + NAME_START] = nameStart;
+        offsets[idx + NAME_END] = nameEnd;
+        offsets[idx + VALUE_START] = valueStart;
+        offsets[idx + VALUE_END] = valueEnd;
+        size++;
+    }
+
+    private void fold(int start, int end) {
+        int idx = (size - 1) * SLOTS;
+        int valueEnd = trimWhitespace(start, end);
+        if (valueEnd == start) {
+            // continuation line containing only whitespace
+            return;
+        }
+        if (offsets[idx + VALUE_START] == offsets[idx + VALUE_END]) {
+            offsets[idx + VALUE_START] = skipWhitespace(start, end);
+        }
+        offsets[idx + VALUE_END] = valueEnd;
+        if (folded == null) {
+            folded = new boolean[offsets.length / SLOTS];
+        } else if (folded.length < size) {
+            boolean[] grown = new boolean[offsets.length / SLOTS];
+            System.arraycopy(folded, 0, grown, 0, folded.length);
+            folded = grown;
+        }
+        folded[size - 1] = true;
+    }
+
+    private int skipWhitespace(int start, int end) {
+        while (start < end) {
+            byte b = buffer.getByte(start);
+            if (b != SP && b != HT) {
+                break;
+            }
+            start++;
+        }
+        return start;
+    }
+
+    private int trimWhitespace(int start, int end) {
+        while (end > start) {
+            byte b = buffer.getByte(end - 1);
+            if (b != SP && b != HT) {
+                break;
+            }
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the number of headers in this block
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the buffer this block refers to
+     */
+    public ChannelBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns {@code true} if the name of the header at given index equals given
+     * name, ignoring case. No objects are allocated.
+     */
+    public boolean nameEquals(int index, String name) {
+        int idx = index * SLOTS;
+        int start = offsets[idx + NAME_START];
+        int length = offsets[idx + NAME_END] - start;
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            int b = buffer.getByte(start + i);
+            int c = name.charAt(i);
+            if (b != c && toLowerCase(b) != toLowerCase(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the (first) index of the header with given name or -1 if
+     * not present
+     */
+    public int indexOf(String name, int fromIndex) {
+        for (int i = fromIndex; i < size; i++) {
+            if (nameEquals(i, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the header at given index or {@code null} if it is not a known
+     * (enumerated) header. No objects are allocated.
+     */
+    public SipHeader getHeader(int index) {
+        int idx = index * SLOTS;
+        return SipHeader.lookup(buffer, offsets[idx + NAME_START],
+                offsets[idx + NAME_END] - offsets[idx + NAME_START]);
+    }
+
+    /**
+     * Returns the name of the header at given index, as sent on the wire
+     */
+    public String getName(int index) {
+        int idx = index * SLOTS;
+        return buffer.toString(offsets[idx + NAME_START], offsets[idx + NAME_END]
+                - offsets[idx + NAME_START], CharsetUtil.US_ASCII);
+    }
+
+    /**
+     * Returns the canonical name of the (extension) header at given index,
+     * see {@link SipExtensionHeaders}
+     */
+    String getCanonicalName(int index) {
+        int idx = index * SLOTS;
+        return SipExtensionHeaders.lookup(buffer, offsets[idx + NAME_START],
+                offsets[idx + NAME_END] - offsets[idx + NAME_START]);
+    }
+
+    /**
+     * Writes the header at given index, exactly as it was received (without
+     * the terminating line break), to given buffer
+     */
+    public void writeHeader(int index, ChannelBuffer dst) {
+        int idx = index * SLOTS;
+        int start = offsets[idx + NAME_START];
+        dst.writeBytes(buffer, start, offsets[idx + VALUE_END] - start);
+    }
+
+    /**
+     * Returns the number of bytes {@link #writeHeader(int, ChannelBuffer)} writes
+     */
+    public int getHeaderLength(int index) {
+        int idx = index * SLOTS;
+        return offsets[idx + VALUE_END] - offsets[idx + NAME_START];
+    }
+
+    /**
+     * Returns the value of the header at given index. The value is created
+     * on first access and cached afterwards.
+     */
+    public String getValue(int index) {
+        if (values == null) {
+            values = new String[size];
+        }
+        String value = values[index];
+        if (value == null) {
+            int idx = index * SLOTS;
+            int start = offsets[idx + VALUE_START];
+            int length = offsets[idx + VALUE_END] - start;
+            if (folded != null && index < folded.length && folded[index]) {
+                value = unfold(start, length);
+            } else {
+                value = buffer.toString(start, length, CharsetUtil.UTF_8);
+            }
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Replaces every line break (including its surrounding whitespace) with a
+     * single space
+     */
+    private String unfold(int start, int length) {
+        byte[] bytes = new byte[length];
+        int n = 0;
+        for (int i = start; i < start + length; i++) {
+            byte b = buffer.getByte(i);
+            if (b == CR || b == LF) {
+                while (n > 0 && (bytes[n - 1] == SP || bytes[n - 1] == HT)) {
+                    n--;
+                }
+                while (i + 1 < start + length) {
+                    byte c = buffer.getByte(i + 1);
+                    if (c != CR && c != LF && c != SP && c != HT) {
+                        break;
+                    }
+                    i++;
+                }
+                bytes[n++] = SP;
+            } else {
+                bytes[n++] = b;
+            }
+        }
+        return new String(bytes, 0, n, CharsetUtil.UTF_8);
+    }
+
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + 32 : c;
+    }
+}
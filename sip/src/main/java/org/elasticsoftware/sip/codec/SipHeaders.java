@@ -0,0 +1,337 @@
+package org.elasticsoftware.sip.codec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Compact header store of a {@link SipMessage}<br>
+ * <br>
+ * Headers are kept in insertion order (which is the order in which they are
+ * encoded) in a couple of parallel arrays. Known headers are indexed by
+ * {@link SipHeader#ordinal()}: the index points to the first entry of that header
+ * and every entry links to the next entry of the same header, so looking up a
+ * header neither hashes a <code>String</code> nor allocates. Unknown (extension)
+ * headers are only present in the entries, with their canonical name (see
+ * {@link SipExtensionHeaders}).<br>
+ * <br>
+ * Entries can be backed by a {@link SipHeaderBlock}, in which case their value is
+ * only created when read and they are encoded exactly as they were received.
+ *
+ * @author Leonard Wolters
+ */
+final class SipHeaders {
+    private static final SipHeader[] HEADERS = SipHeader.values();
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Index of the first entry per known header, plus one (0 meaning absent)
+     */
+    private final short[] first = new short[HEADERS.length];
+
+    // entries, in insertion order
+    private SipHeader[] headers;
+    private String[] names;
+    private String[] values;
+    private short[] next;
+    private int size;
+
+    /**
+     * Block backing the first <code>blockSize</code> entries (if any)
+     */
+    private SipHeaderBlock block;
+    private int blockSize;
+
+    SipHeaders() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private SipHeaders(int capacity) {
+        headers = new SipHeader[capacity];
+        names = new String[capacity];
+        values = new String[capacity];
+        next = new short[capacity];
+    }
+
+    /**
+     * Creates a store backed by given header block. No header value is read.
+     */
+    SipHeaders(SipHeaderBlock block) {
+        this(Math.max(INITIAL_CAPACITY, block.size() + 4));
+        for (int i = 0; i < block.size(); i++) {
+            append(block.getHeader(i), null, null);
+        }
+        this.block = block;
+        this.blockSize = block.size();
+    }
+
+    /**
+     * Creates a copy of given store
+     */
+    SipHeaders(SipHeaders other) {
+        System.arraycopy(other.first, 0, first, 0, first.length);
+        headers = other.headers.clone();
+        names = other.names.clone();
+        values = other.values.clone();
+        next = other.next.clone();
+        size = other.size;
+        block = other.block;
+        blockSize = other.blockSize;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the (known) header of the entry at given index or {@code null}
+     * if it is an extension header
+     */
+    SipHeader getHeader(int index) {
+        return headers[index];
+    }
+
+    /**
+     * Returns the name of the entry at given index
+     */
+    String getName(int index) {
+        SipHeader header = headers[index];
+        if (header != null) {
+            return header.getName();
+        }
+        String name = names[index];
+        if (name == null && index < blockSize) {
+            name = block.getCanonicalName(index);
+            names[index] = name;
+        }
+        return name;
+    }
+
+    /**
+     * Returns the value of the entry at given index
+     */
+    String getValue(int index) {
+        String value = values[index];
+        if (value == null && index < blockSize) {
+            value = block.getValue(index);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Returns {@code true} if the entry at given index is unmodified since
+     * it was received
+     */
+    boolean isReceived(int index) {
+        return index < blockSize;
+    }
+
+    /**
+     * Returns the length of the entry at given index as it was received
+     */
+    int getReceivedLength(int index) {
+        return block.getHeaderLength(index);
+    }
+
+    /**
+     * Writes the entry at given index exactly as it was received
+     */
+    void writeReceived(int index, ChannelBuffer dst) {
+        block.writeHeader(index, dst);
+    }
+
+    String get(SipHeader header) {
+        int index = first[header.ordinal()] - 1;
+        return index == -1 ? null : getValue(index);
+    }
+
+    List<String> getAll(SipHeader header) {
+        int index = first[header.ordinal()] - 1;
+        if (index == -1) {
+            return Collections.emptyList();
+        }
+        List<String> list = new ArrayList<String>(next[index] == 0 ? 1 : 4);
+        for (; index != -1; index = next[index] - 1) {
+            list.add(getValue(index));
+        }
+        return list;
+    }
+
+    boolean contains(SipHeader header) {
+        return first[header.ordinal()] != 0;
+    }
+
+    void add(SipHeader header, String value) {
+        append(header, null, value);
+    }
+
+    String get(String name) {
+        SipHeader header = SipHeader.lookup(name);
+        if (header != null) {
+            return get(header);
+        }
+        int index = indexOf(name, 0);
+        return index == -1 ? null : getValue(index);
+    }
+
+    List<String> getAll(String name) {
+        SipHeader header = SipHeader.lookup(name);
+        if (header != null) {
+            return getAll(header);
+        }
+        List<String> list = Collections.emptyList();
+        for (int index = indexOf(name, 0); index != -1; index = indexOf(name, index + 1)) {
+            if (list.isEmpty()) {
+                list = new ArrayList<String>(1);
+            }
+            list.add(getValue(index));
+        }
+        return list;
+    }
+
+    void add(String name, String value) {
+        SipHeader header = SipHeader.lookup(name);
+        if (header != null) {
+            append(header, null, value);
+        } else {
+            append(null, SipExtensionHeaders.lookup(name), value);
+        }
+    }
+
+    /**
+     * Returns the index of the first extension header with given name, starting
+     * at given index, or -1 if not present
+     */
+    private int indexOf(String name, int fromIndex) {
+        for (int i = fromIndex; i < size; i++) {
+            if (headers[i] == null && getName(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void append(SipHeader header, String name, String value) {
+        if (size == headers.length) {
+            int capacity = size * 2;
+            headers = Arrays.copyOf(headers, capacity);
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        int index = size++;
+        headers[index] = header;
+        names[index] = name;
+        values[index] = value;
+        next[index] = 0;
+        if (header != null) {
+            int ordinal = header.ordinal();
+            int last = first[ordinal] - 1;
+            if (last == -1) {
+                first[ordinal] = (short) (index + 1);
+            } else {
+                while (next[last] != 0) {
+                    last = next[last] - 1;
+                }
+                next[last] = (short) (index + 1);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries of given header
+     */
+    void remove(SipHeader header) {
+        if (first[header.ordinal()] != 0) {
+            remove(header, null);
+        }
+    }
+
+    /**
+     * Removes all entries with given name
+     */
+    void remove(String name) {
+        SipHeader header = SipHeader.lookup(name);
+        if (header != null) {
+            remove(header);
+        } else if (indexOf(name, 0) != -1) {
+            remove(null, name);
+        }
+    }
+
+    private void remove(SipHeader header, String name) {
+        // entries backed by the block move, so read them first
+        for (int i = 0; i < blockSize; i++) {
+            getName(i);
+            getValue(i);
+        }
+        block = null;
+        blockSize = 0;
+
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (headers[i] != header || (name != null && !names[i].equalsIgnoreCase(name))) {
+                headers[count] = headers[i];
+                names[count] = names[i];
+                values[count] = values[i];
+                count++;
+            }
+        }
+        Arrays.fill(headers, count, size, null);
+        Arrays.fill(names, count, size, null);
+        Arrays.fill(values, count, size, null);
+        size = count;
+        reindex();
+    }
+
+    private void reindex() {
+        Arrays.fill(first, (short) 0);
+        short[] last = new short[HEADERS.length];
+        for (int i = 0; i < size; i++) {
+            next[i] = 0;
+            SipHeader header = headers[i];
+            if (header != null) {
+                int ordinal = header.ordinal();
+                if (first[ordinal] == 0) {
+                    first[ordinal] = (short) (i + 1);
+                } else {
+                    next[last[ordinal] - 1] = (short) (i + 1);
+                }
+                last[ordinal] = (short) (i + 1);
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(first, (short) 0);
+        Arrays.fill(headers, 0, size, null);
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        block = null;
+        blockSize = 0;
+    }
+
+    /**
+     * Returns all headers grouped by name, in order of first appearance
+     */
+    Map<String, List<String>> toMap() {
+        Map<String, List<String>> map = new LinkedHashMap<String, List<String>>();
+        for (int i = 0; i < size; i++) {
+            String name = getName(i);
+            List<String> list = map.get(name);
+            if (list == null) {
+                list = new ArrayList<String>(1);
+                map.put(name, list);
+            }
+            list.add(getValue(i));
+        }
+        return map;
+    }
+}
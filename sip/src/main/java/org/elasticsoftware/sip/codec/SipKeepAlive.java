@@ -0,0 +1,28 @@
+package org.elasticsoftware.sip.codec;
+
+import static org.jboss.netty.handler.codec.http.HttpConstants.CR;
+import static org.jboss.netty.handler.codec.http.HttpConstants.LF;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * Keep alive received instead of a message: a double CRLF ping, which is to be
+ * answered with a single CRLF pong, see http://tools.ietf.org/html/rfc5626#section-4.4.1
+ * <br>
+ * Decoders pass it upstream as message, like a decoded {@link SipMessage}.
+ *
+ * @author Leonard Wolters
+ */
+public enum SipKeepAlive {
+    PING;
+
+    private static final byte[] PONG = {CR, LF};
+
+    /**
+     * Returns the pong answering a ping
+     */
+    public static ChannelBuffer pong() {
+        return ChannelBuffers.wrappedBuffer(PONG);
+    }
+}
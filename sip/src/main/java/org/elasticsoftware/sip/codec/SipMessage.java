@@ -36,8 +36,26 @@ public interface SipMessage {
      */
     List<String> getHeaderValues(SipHeader header);
 
+    /**
+     * Returns the (first) header value for the header with given name, which
+     * may be an extension header (see {@link SipExtensionHeaders}). Header
+     * names are case-insensitive.
+     *
+     * @return the header value or {@code null} if there is no such header
+     */
+    String getHeaderValue(String name);
+
+    /**
+     * Returns the header values for the header with given (case-insensitive) name
+     *
+     * @return the {@link List} of header values.  An empty list if there is no
+     *         such header.
+     */
+    List<String> getHeaderValues(String name);
+
     /**
      * Returns the all header names and values that this message contains.
+     * The returned map is a snapshot; changes to it do not affect this message.
      *
      * @return the {@link List} of the header-value pairs.  An empty list
      *         if there is no header in this message.
@@ -77,6 +95,12 @@ public interface SipMessage {
      */
     void addHeader(SipHeader header, Object... value);
 
+    /**
+     * Adds a new header with given name, which may be an extension header
+     * (see {@link SipExtensionHeaders}), and the specified value.
+     */
+    void addHeader(String name, Object... value);
+
     /**
      * Sets a new header with the specified value. Existing header(s) will
      * be removed.
@@ -88,6 +112,11 @@ public interface SipMessage {
      */
     void removeHeader(SipHeader header);
 
+    /**
+     * Removes all headers with given (case-insensitive) name
+     */
+    void removeHeader(String name);
+
     /**
      * Removes all headers from this message.
      */
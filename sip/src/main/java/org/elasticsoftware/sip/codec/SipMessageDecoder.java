@@ -5,9 +5,6 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.handler.codec.frame.TooLongFrameException;
 import org.springframework.util.StringUtils;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Decodes {@link ChannelBuffer}s into {@link SipRequest}s
  * <p/>
@@ -36,9 +33,6 @@ import java.util.regex.Pattern;
  */
 public class SipMessageDecoder extends AbstractSipMessageDecoder {
     private static final Logger log = Logger.getLogger(SipMessageDecoder.class);
-    private static final Pattern URI_PATTERN =
-            Pattern.compile("^sip:([_a-z0-9-]+(\\.[_a-z0-9-]+)*@)*[a-z0-9-]+(\\.[a-z0-9-]+)*(:[0-9]+)*(;[a-z0-9-]+=[a-z0-9-]+)*$",
-                    Pattern.CASE_INSENSITIVE);
 
     public SipMessageDecoder() {
         super(4096, 8192, 4096);
@@ -64,64 +58,6 @@ public class SipMessageDecoder extends AbstractSipMessageDecoder {
         if (log.isDebugEnabled()) log.debug(String.format("createMessage. Creating SIP Message[%s]",
                 StringUtils.arrayToCommaDelimitedString(initialLine)));
 
-        // OK, check if we have a SIP Request or a SIP Response message....
-
-        // SIP Request   --> REGISTER sip:sip.outerteams.com:5060 SIP/2.0
-        // SIP Response  --> SIP/2.0 401 Unauthorized
-        if (initialLine[0].substring(0, 2).equalsIgnoreCase("SIP")) {
-            return decodeResponse(initialLine);
-        } else {
-            return decodeRequest(initialLine);
-        }
-    }
-
-    /**
-     * Parses a SIP Response initial line e.g. SIP/2.0 401 Unauthorized.
-     * If an parsing error occurs, no message is sent back to sender but
-     * only an error message is logged
-     *
-     * @param initialLine
-     * @return
-     */
-    private SipMessage decodeResponse(String[] initialLine) {
-        SipVersion version = SipVersion.lookup(initialLine[0], false);
-        if (version == null) {
-            log.warn(String.format("constructResponse. Invalid Sip Version[%s]", initialLine[0]));
-            return new SipMessageImpl(SipVersion.SIP_2_0, SipResponseStatus.VERSION_NOT_SUPPORTED);
-        }
-        SipResponseStatus response = SipResponseStatus.lookup(Integer.parseInt(initialLine[1]));
-        if (response == null) {
-            log.warn(String.format("constructResponse. Invalid Sip Method[%s]", initialLine[0]));
-            return new SipMessageImpl(SipVersion.SIP_2_0, SipResponseStatus.RESPONSE_CODE_NOT_SUPPORTED);
-        }
-        return new SipResponseImpl(version, response);
-    }
-
-    /**
-     * Parses a SIP Request initial line e.g. REGISTER sip:sip.outerteams.com:5060 SIP/2.0
-     *
-     * @param initialLine
-     * @return
-     */
-    private SipMessage decodeRequest(String[] initialLine) {
-        SipVersion version = SipVersion.lookup(initialLine[2], false);
-        if (version == null) {
-            log.warn(String.format("constructRequest. Invalid Sip Version[%s]", initialLine[2]));
-            return new SipMessageImpl(SipVersion.SIP_2_0, SipResponseStatus.VERSION_NOT_SUPPORTED);
-        }
-        SipMethod method = SipMethod.lookup(initialLine[0], false);
-        if (method == null) {
-            log.warn(String.format("constructRequest. Invalid Sip Method[%s]", initialLine[0]));
-            return new SipMessageImpl(SipVersion.SIP_2_0, SipResponseStatus.METHOD_NOT_ALLOWED);
-        }
-        String uri = initialLine[1];
-        Matcher matcher = URI_PATTERN.matcher(uri);
-        if (!matcher.matches()) {
-            log.warn(String.format("constructRequest. Invalid URI[%s]", uri));
-            return new SipMessageImpl(SipVersion.SIP_2_0, SipResponseStatus.BAD_REQUEST);
-        }
-        // TODO: Check domain of URI (do we accept this? Or do we need to transfer / redirect
-        // request?
-        return new SipRequestImpl(version, method, uri);
+        return SipCodecUtil.createMessage(initialLine);
     }
 }
@@ -2,16 +2,57 @@ package org.elasticsoftware.sip.codec;
 
 import org.apache.log4j.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
 import org.springframework.util.StringUtils;
 
 import static org.jboss.netty.handler.codec.http.HttpConstants.*;
 
 /**
+ * The encoder keeps no state and can be shared by multiple pipelines
+ *
  * @author Leonard Wolters
  */
+@Sharable
 public class SipMessageEncoder extends AbstractSipMessageEncoder {
     private static final Logger log = Logger.getLogger(SipMessageEncoder.class);
 
+    public SipMessageEncoder() {
+    }
+
+    /**
+     * Creates an encoder that takes its buffers from given factory, rather than
+     * from the buffer factory of the channel
+     */
+    public SipMessageEncoder(ChannelBufferFactory bufferFactory) {
+        super(bufferFactory);
+    }
+
+    @Override
+    protected int getInitialLineLength(SipMessage message) {
+        if (message instanceof SipRequest) {
+            SipRequest request = (SipRequest) message;
+            return request.getMethod().name().length() + 1
+                    + SipCodecUtil.encodedLength(request.getUri()) + 1
+                    + request.getVersion().toString().length() + 2;
+        } else if (message instanceof SipResponse) {
+            SipResponse response = (SipResponse) message;
+            SipResponseStatus status = response.getResponseStatus();
+            if (isPreEncoded(response)) {
+                return status.getEncodedStatusLine().length;
+            }
+            int length = message.getVersion().toString().length() + 1
+                    + String.valueOf(status.getCode()).length() + 1
+                    + SipCodecUtil.encodedLength(String.valueOf(status.getReasonPhrase())) + 2;
+            if (StringUtils.hasLength(response.getOptionalMessage())) {
+                length += SipCodecUtil.encodedLength(response.getOptionalMessage()) + 3;
+            }
+            return length;
+        }
+        // encodeInitialLine throws
+        return 0;
+    }
+
     @Override
     protected void encodeInitialLine(ChannelBuffer buf, SipMessage message)
             throws Exception {
@@ -37,11 +78,11 @@ public class SipMessageEncoder extends AbstractSipMessageEncoder {
      * @param request
      */
     private void encodeRequest(ChannelBuffer buf, SipRequest request) {
-        buf.writeBytes(request.getMethod().name().getBytes(charSet));
+        SipCodecUtil.writeString(buf, request.getMethod().name());
         buf.writeByte(SP);
-        buf.writeBytes(request.getUri().getBytes(charSet));
+        SipCodecUtil.writeString(buf, request.getUri());
         buf.writeByte(SP);
-        buf.writeBytes(request.getVersion().toString().getBytes(charSet));
+        SipCodecUtil.writeString(buf, request.getVersion().toString());
         buf.writeByte(CR);
         buf.writeByte(LF);
     }
@@ -54,16 +95,32 @@ public class SipMessageEncoder extends AbstractSipMessageEncoder {
      * @param request
      */
     private void encodeResponse(ChannelBuffer buf, SipResponse response) {
-        buf.writeBytes(response.getVersion().toString().getBytes(charSet));
+        SipResponseStatus status = response.getResponseStatus();
+        if (isPreEncoded(response)) {
+            buf.writeBytes(status.getEncodedStatusLine());
+            return;
+        }
+        SipCodecUtil.writeString(buf, response.getVersion().toString());
         buf.writeByte(SP);
-        buf.writeBytes(String.valueOf(response.getResponseStatus().getCode()).getBytes(charSet));
+        SipCodecUtil.writeString(buf, String.valueOf(status.getCode()));
         buf.writeByte(SP);
-        buf.writeBytes(String.valueOf(response.getResponseStatus().getReasonPhrase()).getBytes(charSet));
-        if (StringUtils.hasLength(response.getResponseStatus().getOptionalMessage())) {
+        SipCodecUtil.writeString(buf, String.valueOf(status.getReasonPhrase()));
+        if (StringUtils.hasLength(response.getOptionalMessage())) {
             buf.writeByte(SP);
-            buf.writeBytes(String.format("(%s)", response.getResponseStatus().getOptionalMessage()).getBytes(charSet));
+            buf.writeByte('(');
+            SipCodecUtil.writeString(buf, response.getOptionalMessage());
+            buf.writeByte(')');
         }
         buf.writeByte(CR);
         buf.writeByte(LF);
     }
+
+    /**
+     * Returns true if the status line of given response is the pre-encoded one
+     * of its status, i.e. it has no optional message
+     */
+    private static boolean isPreEncoded(SipResponse response) {
+        return response.getVersion() == SipVersion.SIP_2_0 && response.getResponseStatus() != null
+                && !StringUtils.hasLength(response.getOptionalMessage());
+    }
 }
@@ -1,7 +1,6 @@
 package org.elasticsoftware.sip.codec;
 
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -12,11 +11,15 @@ import org.jboss.netty.util.internal.StringUtil;
 import org.springframework.util.StringUtils;
 
 /**
+ * Headers are kept in a {@link SipHeaders} store. Headers of a decoded message
+ * are backed by the received bytes ({@link SipHeaderBlock}) and only turned into
+ * <code>String</code>s when read.
+ *
  * @author leonard Wolters
  */
 public class SipMessageImpl implements SipMessage {
-    private final LinkedHashMap<String, List<String>> headers =
-            new LinkedHashMap<String, List<String>>();
+    private SipHeaders headers = new SipHeaders();
+    private SipUser[] sipUsers;
     private final SipVersion version;
     private SipResponseStatus responseStatus;
     private ChannelBuffer content = ChannelBuffers.EMPTY_BUFFER;
@@ -28,7 +31,15 @@ public class SipMessageImpl implements SipMessage {
     }
 
     protected SipMessageImpl(SipMessage message) {
-        this.headers.putAll(message.getHeaders());
+        if (message instanceof SipMessageImpl) {
+            this.headers = new SipHeaders(((SipMessageImpl) message).headers);
+        } else {
+            for (Map.Entry<String, List<String>> entry : message.getHeaders().entrySet()) {
+                for (String value : entry.getValue()) {
+                    this.headers.add(entry.getKey(), value);
+                }
+            }
+        }
         this.version = message.getVersion();
         this.responseStatus = message.getResponseStatus();
         this.content = message.getContent();
@@ -74,15 +85,34 @@ public class SipMessageImpl implements SipMessage {
         this.responseStatus = responseStatus;
     }
 
+    /**
+     * Sets the (not yet materialized) headers of this message, as parsed by the decoder
+     */
+    void setHeaderBlock(SipHeaderBlock headerBlock) {
+        sipUsers = null;
+        this.headers = new SipHeaders(headerBlock);
+    }
+
+    /**
+     * Returns the header store of this message, used for encoding
+     */
+    SipHeaders getHeaderStore() {
+        return headers;
+    }
+
     @Override
     public void addHeader(final SipHeader header, final Object... values) {
-        List<String> list = headers.get(header.getName());
-        if (list == null) {
-            list = new ArrayList<String>(values.length);
-            headers.put(header.getName(), list);
+        sipUsers = null;
+        for (Object value : values) {
+            headers.add(header, value.toString());
         }
+    }
+
+    @Override
+    public void addHeader(final String name, final Object... values) {
+        sipUsers = null;
         for (Object value : values) {
-            list.add(value.toString());
+            headers.add(name, value.toString());
         }
     }
 
@@ -94,60 +124,92 @@ public class SipMessageImpl implements SipMessage {
 
     @Override
     public void removeHeader(final SipHeader header) {
-        headers.remove(header.getName());
+        sipUsers = null;
+        headers.remove(header);
+    }
+
+    @Override
+    public void removeHeader(final String name) {
+        sipUsers = null;
+        headers.remove(name);
     }
 
     @Override
     public void clearHeaders() {
+        sipUsers = null;
         headers.clear();
     }
 
     @Override
     public String getHeaderValue(final SipHeader header) {
-        List<String> list = headers.get(header.getName());
-        if (list != null && list.size() > 0) {
-            return list.get(0);
-        }
-        return null;
+        return headers.get(header);
     }
 
     @Override
     public List<String> getHeaderValues(final SipHeader header) {
-        return headers.get(header.getName());
+        return headers.getAll(header);
+    }
+
+    @Override
+    public String getHeaderValue(final String name) {
+        return headers.get(name);
+    }
+
+    @Override
+    public List<String> getHeaderValues(final String name) {
+        return headers.getAll(name);
     }
 
+    /**
+     * Returns a snapshot of all headers, grouped by name. Changes to the
+     * returned map are not reflected in this message.
+     */
     @Override
     public Map<String, List<String>> getHeaders() {
-        return headers;
+        return headers.toMap();
     }
 
     @Override
     public boolean containsHeader(final SipHeader header) {
-        return headers.containsKey(header.getName());
+        return headers.contains(header);
     }
 
     @Override
     public Set<String> getHeaderNames() {
-        return headers.keySet();
+        Set<String> names = new LinkedHashSet<String>();
+        for (int i = 0; i < headers.size(); i++) {
+            names.add(headers.getName(i));
+        }
+        return names;
     }
 
+    /**
+     * Returns the (cached) SIP user of given header, parsed on first access. The
+     * cache is invalidated whenever headers are modified.
+     */
     @Override
     public SipUser getSipUser(SipHeader header) {
     	if(header == null) {
     		header = SipHeader.TO;
     	}
+    	if (sipUsers != null && sipUsers[header.ordinal()] != null) {
+    		return sipUsers[header.ordinal()];
+    	}
     	String user = getHeaderValue(header);
     	if(!StringUtils.hasLength(user)) {
     		return null;
     	}
-    	return new SipUser(user);
+    	if (sipUsers == null) {
+    		sipUsers = new SipUser[SipHeader.values().length];
+    	}
+    	return sipUsers[header.ordinal()] = new SipUser(user);
     }
 
 	protected void appendHeaders(StringBuilder buf) {
-		for (Map.Entry<String, List<String>> e: getHeaders().entrySet()) {
-			buf.append(e.getKey());
+		for (int i = 0; i < headers.size(); i++) {
+			buf.append(headers.getName(i));
 			buf.append(": ");
-			buf.append(StringUtils.collectionToCommaDelimitedString(e.getValue()));
+			buf.append(headers.getValue(i));
 			buf.append(StringUtil.NEWLINE);
 		}
 	}
@@ -26,6 +26,15 @@ public class SipRequestImpl extends SipMessageImpl implements SipRequest {
         setUri(uri);
     }
 
+    /**
+     * Creates a copy of given request, sharing its content
+     */
+    protected SipRequestImpl(SipRequest request) {
+        super(request);
+        setMethod(request.getMethod());
+        setUri(request.getUri());
+    }
+
     @Override
     public SipMethod getMethod() {
         return method;
@@ -1,11 +1,21 @@
 package org.elasticsoftware.sip.codec;
 
 /**
- * An SIP response<br>
- * <br>
- * Currently a a tagging interface only
+ * An SIP response
  *
  * @see SipRequest
  */
 public interface SipResponse extends SipMessage {
+
+    /**
+     * Returns the text added to the reason phrase of the response status, or
+     * null if none
+     */
+    String getOptionalMessage();
+
+    /**
+     * Sets the text added (between parentheses) to the reason phrase of the
+     * response status, e.g. <code>404 Not Found (no mailbox)</code>
+     */
+    void setOptionalMessage(String optionalMessage);
 }
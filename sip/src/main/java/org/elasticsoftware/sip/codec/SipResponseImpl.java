@@ -11,6 +11,7 @@ import org.springframework.util.StringUtils;
  * @author Leonard Wolters
  */
 public class SipResponseImpl extends SipMessageImpl implements SipResponse {
+    private String optionalMessage;
 
     /**
      * Creates a new instance.
@@ -24,6 +25,19 @@ public class SipResponseImpl extends SipMessageImpl implements SipResponse {
 
     protected SipResponseImpl(SipMessage message) {
         super(message);
+        if (message instanceof SipResponse) {
+            this.optionalMessage = ((SipResponse) message).getOptionalMessage();
+        }
+    }
+
+    @Override
+    public String getOptionalMessage() {
+        return optionalMessage;
+    }
+
+    @Override
+    public void setOptionalMessage(String optionalMessage) {
+        this.optionalMessage = optionalMessage;
     }
 
     @Override
@@ -32,8 +46,8 @@ public class SipResponseImpl extends SipMessageImpl implements SipResponse {
         buf.append(getVersion().name()).append(' ');
         buf.append(getResponseStatus().getCode()).append(' ');
         buf.append(getResponseStatus().getReasonPhrase());
-        if(StringUtils.hasLength(getResponseStatus().getOptionalMessage())) {
-        	buf.append(String.format(" (%s)", getResponseStatus().getOptionalMessage()));
+        if(StringUtils.hasLength(optionalMessage)) {
+        	buf.append(" (").append(optionalMessage).append(')');
         }
         buf.append(StringUtil.NEWLINE);
         appendHeaders(buf);
@@ -1,9 +1,14 @@
 package org.elasticsoftware.sip.codec;
 
+import org.jboss.netty.util.CharsetUtil;
+
 /**
  * The response code and its description of SIP method<br>
  * <br>
- * See http://tools.ietf.org/html/rfc3261#section-21
+ * See http://tools.ietf.org/html/rfc3261#section-21<br>
+ * <br>
+ * A status is an immutable constant, shared by all responses. Additional reason
+ * text is set on the individual response, see {@link SipResponse#setOptionalMessage(String)}.
  *
  * @author Leonard Wolters
  */
@@ -89,7 +94,20 @@ public enum SipResponseStatus {
     private final int code;
     private final String reasonPhrase;
     private final boolean provisional;
-    private final ThreadLocal<String> optionalMessage = new ThreadLocal<String>();
+    /**
+     * The SIP/2.0 status line, e.g. <code>SIP/2.0 200 OK\r\n</code>
+     */
+    private final byte[] encodedStatusLine;
+
+    private static final SipResponseStatus[] CODES = new SipResponseStatus[700];
+
+    static {
+        for (SipResponseStatus status : values()) {
+            if (CODES[status.code] == null) {
+                CODES[status.code] = status;
+            }
+        }
+    }
 
     private SipResponseStatus(int code, String reasonPhrase) {
         this(code, reasonPhrase, false);
@@ -107,6 +125,8 @@ public enum SipResponseStatus {
         this.code = code;
         this.reasonPhrase = reasonPhrase;
         this.provisional = provisional;
+        this.encodedStatusLine = String.format("SIP/2.0 %d %s\r\n", code, reasonPhrase)
+                .getBytes(CharsetUtil.UTF_8);
     }
 
     /**
@@ -123,21 +143,18 @@ public enum SipResponseStatus {
         return reasonPhrase;
     }
 
-    public static SipResponseStatus lookup(int code) {
-        for (SipResponseStatus s : values()) {
-            if (s.code == code) {
-                return s;
-            }
-        }
-        return null;
-    }
-
-    public SipResponseStatus setOptionalMessage(String optionalMessage) {
-        this.optionalMessage.set(optionalMessage);
-        return this;
+    /**
+     * Returns the SIP/2.0 status line of this status, as it is encoded. The
+     * returned array must not be modified.
+     */
+    byte[] getEncodedStatusLine() {
+        return encodedStatusLine;
     }
 
-    public String getOptionalMessage() {
-        return this.optionalMessage.get();
+    /**
+     * Returns the status with given code or null if unknown
+     */
+    public static SipResponseStatus lookup(int code) {
+        return code >= 0 && code < CODES.length ? CODES[code] : null;
     }
 }
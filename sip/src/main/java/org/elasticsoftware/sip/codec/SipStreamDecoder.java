@@ -0,0 +1,330 @@
+package org.elasticsoftware.sip.codec;
+
+import static org.jboss.netty.handler.codec.http.HttpConstants.CR;
+import static org.jboss.netty.handler.codec.http.HttpConstants.LF;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.DynamicChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.CorruptedFrameException;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+
+/**
+ * Decodes a stream of {@link ChannelBuffer}s (SIP over TCP) into {@link SipMessage}s
+ * <br>
+ * <br>
+ * Unlike the {@link SipMessageDecoder}, which is a <code>ReplayingDecoder</code>
+ * and starts all over at its last checkpoint whenever a segment ends halfway a
+ * message, this decoder remembers how far it scanned the cumulated bytes for the
+ * end of the header section. Bytes are therefore scanned only once, no matter in
+ * how many segments a message arrives. Once the header section is complete, the
+ * initial line and headers are parsed in place (see {@link SipHeaderBlock}) and the
+ * decoder waits until <code>Content-Length</code> bytes of content are received.
+ * <br>
+ * <br>
+ * Over a stream, the Content-Length header is mandatory. If it is absent
+ * the message is assumed to have no content, see
+ * http://tools.ietf.org/html/rfc3261#section-18.3
+ * <br>
+ * <br>
+ * A double CRLF between messages is a keep alive ping (see
+ * http://tools.ietf.org/html/rfc5626#section-4.4.1) and decoded as {@link SipKeepAlive#PING}.
+ * <p/>
+ * <h3>Parameters that prevents excessive memory consumption</h3>
+ * <table border="1">
+ * <tr>
+ * <th>Name</th><th>Meaning</th>
+ * </tr>
+ * <tr>
+ * <td>{@code maxInitialLineLength}</td>
+ * <td>The maximum length of the initial line.</td>
+ * </tr>
+ * <tr>
+ * <td>{@code maxHeaderSize}</td>
+ * <td>The maximum length of all headers.</td>
+ * </tr>
+ * <tr>
+ * <td>{@code maxHeaderLineLength}</td>
+ * <td>The maximum length of a single header.</td>
+ * </tr>
+ * <tr>
+ * <td>{@code maxContentLength}</td>
+ * <td>The maximum length of the content.</td>
+ * </tr>
+ * </table>
+ * If any of these is exceeded, a {@link TooLongFrameException} will be raised; an
+ * invalid Content-Length raises a {@link CorruptedFrameException}. The offending
+ * bytes are discarded, so the decoder does not fail again on the next segment: a
+ * message whose content is too long is skipped, after which decoding continues with
+ * the next message. Otherwise the start of the next message can no longer be found
+ * and all bytes received on the connection are discarded; it is up to the handler
+ * of the exception to close it.
+ *
+ * @author Leonard Wolters
+ */
+public class SipStreamDecoder extends FrameDecoder {
+    private static final Logger log = Logger.getLogger(SipStreamDecoder.class);
+
+    private final int maxInitialLineLength;
+    private final int maxHeaderSize;
+    private final int maxHeaderLineLength;
+    private final int maxContentLength;
+
+    /**
+     * Number of bytes (relative to the reader index) already scanned for the
+     * end of the header section.
+     */
+    private int scanned;
+
+    /**
+     * Message of which the content is not yet (completely) received
+     */
+    private SipMessage message;
+    private int contentLength;
+
+    /**
+     * Number of consecutive CR and LF bytes skipped between messages
+     */
+    private int lineBreaks;
+
+    /**
+     * Number of content bytes still to be skipped of a message that is too long
+     */
+    private int bytesToDiscard;
+
+    /**
+     * Set if the start of the next message can no longer be found
+     */
+    private boolean discarding;
+
+    /**
+     * Creates a new instance with the default
+     * {@code maxInitialLineLength (4096}}, {@code maxHeaderSize (8192)},
+     * {@code maxHeaderLineLength (4096)} and {@code maxContentLength (65536)}
+     */
+    public SipStreamDecoder() {
+        this(4096, 8192, 4096, 65536);
+    }
+
+    /**
+     * Creates a new instance with the specified parameters.
+     */
+    public SipStreamDecoder(int maxInitialLineLength, int maxHeaderSize,
+                            int maxHeaderLineLength, int maxContentLength) {
+        if (maxInitialLineLength <= 0) {
+            throw new IllegalArgumentException(
+                    "maxInitialLineLength must be a positive integer: " + maxInitialLineLength);
+        }
+        if (maxHeaderSize <= 0) {
+            throw new IllegalArgumentException(
+                    "maxHeaderSize must be a positive integer: " + maxHeaderSize);
+        }
+        if (maxHeaderLineLength <= 0) {
+            throw new IllegalArgumentException(
+                    "maxHeaderLineLength must be a positive integer: " + maxHeaderLineLength);
+        }
+        if (maxContentLength < 0) {
+            throw new IllegalArgumentException(
+                    "maxContentLength must not be negative: " + maxContentLength);
+        }
+        this.maxInitialLineLength = maxInitialLineLength;
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxHeaderLineLength = maxHeaderLineLength;
+        this.maxContentLength = maxContentLength;
+    }
+
+    /**
+     * Returns the capacity of the buffer holding the bytes received but not yet
+     * decoded (0 if all are decoded)
+     */
+    public int getBufferCapacity() {
+        ChannelBuffer buffer = cumulation;
+        return buffer == null ? 0 : buffer.capacity();
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer)
+            throws Exception {
+        if (discarding) {
+            buffer.skipBytes(buffer.readableBytes());
+            return null;
+        }
+        if (bytesToDiscard > 0) {
+            int length = Math.min(bytesToDiscard, buffer.readableBytes());
+            buffer.skipBytes(length);
+            bytesToDiscard -= length;
+            return null;
+        }
+        if (message == null) {
+            if (!skipControlCharacters(buffer)) {
+                if (lineBreaks == 4) {
+                    lineBreaks = 0;
+                    return SipKeepAlive.PING;
+                }
+                return null;
+            }
+            int start = buffer.readerIndex();
+            int end = buffer.writerIndex();
+            int headerEnd = SipCodecUtil.findEndOfHeaders(buffer, start + scanned, end);
+            if (headerEnd == -1) {
+                // the terminating empty line might be partially received, so
+                // rescan (at most) its last 3 bytes on the next invocation
+                scanned = Math.max(0, end - start - 3);
+                if (end - start > maxInitialLineLength + maxHeaderSize) {
+                    discard(buffer);
+                    throw new TooLongFrameException(String.format("Given headers size [%d] "
+                            + "exceeds max[%d]", end - start, maxInitialLineLength + maxHeaderSize));
+                }
+                return null;
+            }
+            scanned = 0;
+            SipMessage message;
+            try {
+                message = readMessage(buffer, start, headerEnd);
+            } catch (TooLongFrameException e) {
+                discard(buffer);
+                throw e;
+            }
+            long length;
+            try {
+                length = message.getContentLength(0);
+            } catch (NumberFormatException e) {
+                length = -1;
+            }
+            if (length < 0) {
+                discard(buffer);
+                throw new CorruptedFrameException(String.format("Invalid content length [%s]",
+                        message.getHeaderValue(SipHeader.CONTENT_LENGTH)));
+            }
+            if (length > maxContentLength) {
+                // skip the content, the next message follows it
+                bytesToDiscard = (int) Math.min(length, Integer.MAX_VALUE);
+                int available = Math.min(bytesToDiscard, buffer.readableBytes());
+                buffer.skipBytes(available);
+                bytesToDiscard -= available;
+                throw new TooLongFrameException(String.format("Given content length [%d] "
+                        + "exceeds max[%d]", length, maxContentLength));
+            }
+            this.message = message;
+            this.contentLength = (int) length;
+        }
+        if (buffer.readableBytes() < contentLength) {
+            return null;
+        }
+        SipMessage message = this.message;
+        if (contentLength > 0) {
+            message.setContent(extractFrame(buffer, buffer.readerIndex(), contentLength));
+            buffer.skipBytes(contentLength);
+        }
+        this.message = null;
+        this.contentLength = 0;
+        return message;
+    }
+
+    /**
+     * Discards all bytes received, now and later, as the start of the next message
+     * can no longer be found
+     */
+    private void discard(ChannelBuffer buffer) {
+        buffer.skipBytes(buffer.readableBytes());
+        scanned = 0;
+        discarding = true;
+    }
+
+    /**
+     * Appends received segments to a single (growing) cumulation buffer, rather
+     * than wrapping each of them in a composite buffer which becomes slower to
+     * scan with every (small) segment added.
+     */
+    @Override
+    protected ChannelBuffer appendToCumulation(ChannelBuffer input) {
+        ChannelBuffer cumulation = this.cumulation;
+        if (!(cumulation instanceof DynamicChannelBuffer)) {
+            ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(
+                    Math.max(512, cumulation.readableBytes() + input.readableBytes()));
+            buffer.writeBytes(cumulation);
+            cumulation = buffer;
+        }
+        cumulation.writeBytes(input);
+        this.cumulation = cumulation;
+        return cumulation;
+    }
+
+    @Override
+    protected ChannelBuffer updateCumulation(ChannelHandlerContext ctx, ChannelBuffer input) {
+        if (input != cumulation || !(input instanceof DynamicChannelBuffer)) {
+            return super.updateCumulation(ctx, input);
+        }
+        if (!input.readable()) {
+            cumulation = null;
+        } else if (input.readerIndex() > input.capacity() / 2) {
+            // messages are copied out of the cumulation buffer, so we are
+            // free to reclaim the space of everything that has been read
+            input.discardReadBytes();
+        }
+        return cumulation;
+    }
+
+    /**
+     * Creates the message from the initial line and header section found between
+     * <code>start</code> and <code>headerEnd</code> and moves the reader index
+     * to the start of the content
+     */
+    private SipMessage readMessage(ChannelBuffer buffer, int start, int headerEnd)
+            throws TooLongFrameException {
+        int eol = buffer.indexOf(start, headerEnd, LF);
+        int lineEnd = eol;
+        if (lineEnd > start && buffer.getByte(lineEnd - 1) == CR) {
+            lineEnd--;
+        }
+        if (lineEnd - start > maxInitialLineLength) {
+            throw new TooLongFrameException(String.format("Given line length [%d] "
+                    + "exceeds max[%d]", lineEnd - start, maxInitialLineLength));
+        }
+        if (headerEnd - eol > maxHeaderSize) {
+            throw new TooLongFrameException(String.format("Given headers size [%d] "
+                    + "exceeds max[%d]", headerEnd - eol, maxHeaderSize));
+        }
+        SipMessage message = SipCodecUtil.createMessage(SipCodecUtil.splitInitialLine(buffer, start, lineEnd));
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("readMessage. Status[%s]", message.getResponseStatus()));
+        }
+
+        // headers are parsed even if the initial line is invalid, since we need
+        // the content length to find the start of the next message
+        SipHeaderBlock headers = SipHeaderBlock.parse(
+                extractFrame(buffer, eol + 1, headerEnd - eol - 1), maxHeaderLineLength);
+        ((SipMessageImpl) message).setHeaderBlock(headers);
+        buffer.readerIndex(headerEnd);
+        return message;
+    }
+
+    /**
+     * Skips all leading control characters and whitespace, counting consecutive
+     * line breaks. Stops right after a double CRLF, so it can be decoded as ping.
+     *
+     * @return {@code true} if readable bytes remain and no ping is skipped
+     */
+    private boolean skipControlCharacters(ChannelBuffer buffer) {
+        while (buffer.readable()) {
+            char c = (char) buffer.getUnsignedByte(buffer.readerIndex());
+            if (!Character.isISOControl(c) && !Character.isWhitespace(c)) {
+                lineBreaks = 0;
+                return true;
+            }
+            buffer.skipBytes(1);
+            if (c == (lineBreaks % 2 == 0 ? CR : LF)) {
+                if (++lineBreaks == 4) {
+                    return false;
+                }
+            } else {
+                lineBreaks = c == CR ? 1 : 0;
+            }
+        }
+        return false;
+    }
+}
@@ -6,7 +6,13 @@ import org.springframework.util.StringUtils;
  * Sip User Domain Object<br>
  * <br>
  * Parses a traditional sip user element, e.g. <br>
- * "Hans de Borst"<sip:124@sip.outerteams.com:5060>;tag=ce337d00
+ * "Hans de Borst"<sip:124@sip.outerteams.com:5060>;tag=ce337d00<br>
+ * <br>
+ * The value is parsed in a single pass over its characters; only the display
+ * name, username and domain are copied out of it. Both <code>sip:</code> and
+ * <code>sips:</code> URIs, IPv6 references (e.g. <code>[2001:db8::1]:5060</code>)
+ * and URI parameters (e.g. <code>;transport=UDP</code>) are supported, see
+ * http://tools.ietf.org/html/rfc3261#section-19.1.1
  *
  * @author Leonard Wolters
  */
@@ -15,7 +21,16 @@ public class SipUser {
     private String username;
     private String domain;
     private int port = 0;
-    
+    private boolean secure;
+
+    /**
+     * Value this user is parsed from and the offsets of the URI parameters
+     * (without the leading ';') in it
+     */
+    private String value;
+    private int parametersStart;
+    private int parametersEnd;
+
     public SipUser(String displayName, String username, String domain, int port) {
     	this.displayName = displayName;
     	this.username = username;
@@ -24,43 +39,119 @@ public class SipUser {
     }
 
     public SipUser(String value) {
-        int idx = value.indexOf("<");
-        if(idx == -1) {
-        	// give value must be a 'uri' e.g. sip:1234@localhost:5060
+        this.value = value;
+        int start = 0;
+        int end = value.length();
+        int lt = value.indexOf('<');
+        if (lt != -1) {
+            displayName = parseDisplayName(value, lt);
+            start = lt + 1;
+            int gt = value.indexOf('>', start);
+            end = gt == -1 ? end : gt;
         } else {
-            displayName = value.substring(0, idx).replace('\"', ' ').trim();
-            value = value.substring(idx + 1, value.indexOf('>'));
+            // given value must be a 'uri' e.g. sip:1234@localhost:5060, of which
+            // parameters are header parameters (e.g. tag), not uri parameters
+            // (see http://tools.ietf.org/html/rfc3261#section-20.10)
+            while (start < end && value.charAt(start) == ' ') {
+                start++;
+            }
+            int semicolon = value.indexOf(';', value.indexOf('@', start) + 1);
+            end = semicolon == -1 ? end : semicolon;
+        }
+        parseUri(value, start, end);
+    }
+
+    /**
+     * Returns the (unquoted) display name found before the '&lt;' at given index
+     */
+    private static String parseDisplayName(String value, int lt) {
+        int start = 0;
+        int end = lt;
+        while (start < end && value.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
         }
-        // remaining value must be a 'uri', e.g. 
-        // sip:124@sip.outerteams.com:5060
-        // sip:124@62.163.143.30:60236;transport=UDP;rinstance=e6768ab86fdcf0b4
-
-        idx = value.indexOf('@');
-        if (idx != -1) {
-            username = value.substring(0, idx);
-            domain = value.substring(idx + 1);
+        if (end - start >= 2 && value.charAt(start) == '"' && value.charAt(end - 1) == '"') {
+            start++;
+            end--;
+        }
+        return value.substring(start, end);
+    }
+
+    /**
+     * Parses a uri, e.g.
+     * sip:124@sip.outerteams.com:5060
+     * sips:124@62.163.143.30:60236;transport=TLS;rinstance=e6768ab86fdcf0b4
+     * sip:[2001:db8::1]:5060
+     */
+    private void parseUri(String value, int start, int end) {
+        // scheme
+        if (value.regionMatches(true, start, "sips:", 0, 5)) {
+            secure = true;
+            start += 5;
+        } else if (value.regionMatches(true, start, "sip:", 0, 4)
+                || value.regionMatches(true, start, "tel:", 0, 4)) {
+            start += 4;
+        }
+        int at = value.indexOf('@', start);
+        if (at >= end) {
+            at = -1;
         }
 
-        // username => sip:124
-        idx = username.indexOf(':');
-        if (idx != -1) {
-            username = username.substring(idx + 1);
+        // user info (password is ignored)
+        if (at != -1) {
+            int userEnd = start;
+            while (userEnd < at && value.charAt(userEnd) != ':') {
+                userEnd++;
+            }
+            username = value.substring(start, userEnd);
+            start = at + 1;
+        }
+
+        // host
+        int hostEnd;
+        if (start < end && value.charAt(start) == '[') {
+            int bracket = value.indexOf(']', start);
+            hostEnd = bracket == -1 || bracket > end ? end : bracket;
+            domain = value.substring(start + 1, hostEnd);
+            hostEnd = Math.min(hostEnd + 1, end);
+        } else {
+            hostEnd = start;
+            while (hostEnd < end && !isHostDelimiter(value.charAt(hostEnd))) {
+                hostEnd++;
+            }
+            domain = value.substring(start, hostEnd);
         }
 
-        // domain
-        idx = domain.indexOf(':');
-        if (idx != -1) {
-            // remeber that port might contain 'other' suffices, e.g. transport or rinstance
-            String sPort = domain.substring(idx + 1);
-            int idx2 = sPort.indexOf(';');
-            if (idx2 != -1) {
-                sPort = sPort.substring(0, idx2);
+        // port
+        int pos = hostEnd;
+        if (pos < end && value.charAt(pos) == ':') {
+            pos++;
+            int p = 0;
+            while (pos < end && value.charAt(pos) >= '0' && value.charAt(pos) <= '9') {
+                p = p * 10 + (value.charAt(pos) - '0');
+                pos++;
             }
-            port = Integer.parseInt(sPort);
-            domain = domain.substring(0, idx);
+            port = p;
+        }
+
+        // uri parameters, up to the headers (if any)
+        while (pos < end && value.charAt(pos) != ';' && value.charAt(pos) != '?') {
+            pos++;
+        }
+        if (pos < end && value.charAt(pos) == ';') {
+            parametersStart = pos + 1;
+            int question = value.indexOf('?', parametersStart);
+            parametersEnd = question == -1 || question > end ? end : question;
         }
     }
 
+    private static boolean isHostDelimiter(char c) {
+        return c == ':' || c == ';' || c == '?' || c == '>';
+    }
+
     public String getDisplayName() {
         return displayName;
     }
@@ -76,18 +167,57 @@ public class SipUser {
     public int getPort() {
         return port;
     }
-    
+
+    /**
+     * Returns {@code true} if this user is identified by a <code>sips:</code> URI
+     */
+    public boolean isSecure() {
+        return secure;
+    }
+
+    /**
+     * Returns the value of the (case-insensitive) URI parameter with given name,
+     * an empty string if it has no value or {@code null} if it is absent
+     */
+    public String getUriParameter(String name) {
+        int pos = parametersStart;
+        while (pos < parametersEnd) {
+            int next = value.indexOf(';', pos);
+            if (next == -1 || next > parametersEnd) {
+                next = parametersEnd;
+            }
+            int nameEnd = pos + name.length();
+            if (nameEnd <= next && value.regionMatches(true, pos, name, 0, name.length())) {
+                if (nameEnd == next) {
+                    return "";
+                }
+                if (value.charAt(nameEnd) == '=') {
+                    return value.substring(nameEnd + 1, next);
+                }
+            }
+            pos = next + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the host as used in a uri, i.e. IPv6 addresses are enclosed in brackets
+     */
+    private String getHost() {
+        return domain != null && domain.indexOf(':') != -1 ? "[" + domain + "]" : domain;
+    }
+
     public String fromHeader(String tag) {
     	// From: "Unknown" <sip:Unknown@217.195.124.187>;tag=as406c5327
     	return String.format("\"%s\" <sip:%s@%s%s%s", getDisplayName(),
-    			getUsername(), getDomain(), getPort() < 0 ? "" : ":" + Integer.toString(port), 
+    			getUsername(), getHost(), getPort() < 0 ? "" : ":" + Integer.toString(port),
     			StringUtils.hasLength(tag) ? ";tag=" + tag : "");
     }
     public String toHeader(String transport, String rinstance, boolean appendChevrons) {
     	// To: <sip:124@62.163.143.30:63703;transport=UDP;rinstance=e849fb1679215146>
-    	return String.format("%ssip:%s@%s%s%s%s%s", 
-    			appendChevrons ? "<" : "", getUsername(), getDomain(), 
-    			getPort() < 0 ? "" : ":" + Integer.toString(port), 
+    	return String.format("%ssip:%s@%s%s%s%s%s",
+    			appendChevrons ? "<" : "", getUsername(), getHost(),
+    			getPort() < 0 ? "" : ":" + Integer.toString(port),
     			StringUtils.hasLength(rinstance) ? ";rinstance=" + rinstance : "",
     			StringUtils.hasLength(transport) ? ";transport=" + transport : "",
     			appendChevrons ? ">" : "");
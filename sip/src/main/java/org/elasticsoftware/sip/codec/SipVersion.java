@@ -15,6 +15,7 @@ public enum SipVersion {
     private final int majorVersion;
     private final int minorVersion;
     private final boolean keepAliveDefault;
+    private final String text;
 
     private SipVersion(String protocolName, int majorVersion, int minorVersion,
                        boolean keepAliveDefault) {
@@ -22,6 +23,7 @@ public enum SipVersion {
         this.majorVersion = majorVersion;
         this.minorVersion = minorVersion;
         this.keepAliveDefault = keepAliveDefault;
+        this.text = String.format("SIP/%d.0", majorVersion);
     }
 
     public boolean isKeepAliveDefault() {
@@ -77,6 +79,6 @@ public enum SipVersion {
 
     @Override
     public String toString() {
-        return String.format("SIP/%d.0", majorVersion);
+        return text;
     }
 }
@@ -0,0 +1,91 @@
+package org.elasticsoftware.sip.codec.header;
+
+import org.elasticsoftware.sip.codec.SipMethod;
+
+/**
+ * Typed view of a CSeq header, e.g. <br>
+ * 314159 INVITE<br>
+ * <br>
+ * See http://tools.ietf.org/html/rfc3261#section-20.16
+ *
+ * @author Leonard Wolters
+ */
+public final class CSeqHeader {
+    /**
+     * The sequence number must be less than 2**31
+     */
+    public static final long MAX_SEQUENCE = Integer.MAX_VALUE;
+
+    private final long sequence;
+    private final String methodName;
+    private final SipMethod method;
+
+    public CSeqHeader(long sequence, SipMethod method) {
+        this(sequence, method.name(), method);
+    }
+
+    private CSeqHeader(long sequence, String methodName, SipMethod method) {
+        if (sequence < 0 || sequence > MAX_SEQUENCE) {
+            throw new IllegalArgumentException("Invalid sequence: " + sequence);
+        }
+        this.sequence = sequence;
+        this.methodName = methodName;
+        this.method = method;
+    }
+
+    /**
+     * Parses given value
+     *
+     * @throws IllegalArgumentException if the value is not a valid CSeq
+     */
+    public static CSeqHeader parse(String value) {
+        int length = value.length();
+        int pos = HeaderParameters.skipWhitespace(value, 0);
+        int start = pos;
+        long sequence = 0;
+        while (pos < length && value.charAt(pos) >= '0' && value.charAt(pos) <= '9'
+                && sequence <= MAX_SEQUENCE) {
+            sequence = sequence * 10 + (value.charAt(pos++) - '0');
+        }
+        int end = HeaderParameters.skipWhitespace(value, pos);
+        if (pos == start || end == pos || sequence > MAX_SEQUENCE) {
+            throw new IllegalArgumentException(String.format("Invalid CSeq[%s]", value));
+        }
+        pos = end;
+        while (end < length && !HeaderParameters.isWhitespace(value.charAt(end))) {
+            end++;
+        }
+        if (HeaderParameters.skipWhitespace(value, end) != length) {
+            throw new IllegalArgumentException(String.format("Invalid CSeq[%s]", value));
+        }
+        String methodName = value.substring(pos, end);
+        return new CSeqHeader(sequence, methodName, SipMethod.lookup(methodName));
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the method or {@code null} if it is not a known method
+     */
+    public SipMethod getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the name of the method, as sent
+     */
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * Returns the header value
+     */
+    @Override
+    public String toString() {
+        return new StringBuilder(methodName.length() + 11).append(sequence)
+                .append(' ').append(methodName).toString();
+    }
+}
@@ -0,0 +1,143 @@
+package org.elasticsoftware.sip.codec.header;
+
+import org.elasticsoftware.sip.codec.SipUser;
+
+/**
+ * Typed view of a Contact header, e.g. <br>
+ * "Hans de Borst" &lt;sip:124@62.163.143.30:60236;transport=UDP&gt;;expires=3600;q=0.7<br>
+ * * <br>
+ * <br>
+ * Parameters following the URI are header parameters (e.g. expires and q); the
+ * parameters inside the URI are available through {@link SipUser#getUriParameter(String)}.
+ * If the value holds more than one contact (separated by a comma), the first one is
+ * parsed; the others are left untouched. See http://tools.ietf.org/html/rfc3261#section-20.10
+ *
+ * @author Leonard Wolters
+ */
+public final class ContactHeader {
+    public static final String EXPIRES = "expires";
+    public static final String Q = "q";
+
+    private String value;
+    private final boolean wildcard;
+    private final int addressEnd;
+    private HeaderParameters parameters;
+    private SipUser user;
+
+    private ContactHeader(String value, boolean wildcard, int addressEnd) {
+        this.value = value;
+        this.wildcard = wildcard;
+        this.addressEnd = addressEnd;
+        this.parameters = new HeaderParameters(value, addressEnd, ';', ',');
+    }
+
+    /**
+     * Parses given value
+     *
+     * @throws IllegalArgumentException if the value is not a valid contact
+     */
+    public static ContactHeader parse(String value) {
+        int length = value.length();
+        int pos = HeaderParameters.skipWhitespace(value, 0);
+        if (pos < length && value.charAt(pos) == '*') {
+            return new ContactHeader(value, true, pos + 1);
+        }
+
+        // name-addr (display name and uri between chevrons) or addr-spec
+        boolean quoted = false;
+        for (int i = pos; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == '\\' && quoted) {
+                i++;
+            } else if (!quoted && c == '<') {
+                int gt = value.indexOf('>', i);
+                if (gt == -1) {
+                    throw new IllegalArgumentException(String.format("Invalid Contact[%s]", value));
+                }
+                return new ContactHeader(value, false, gt + 1);
+            } else if (!quoted && (c == ';' || c == ',')) {
+                return new ContactHeader(value, false, i);
+            }
+        }
+        if (quoted || pos == length) {
+            throw new IllegalArgumentException(String.format("Invalid Contact[%s]", value));
+        }
+        return new ContactHeader(value, false, length);
+    }
+
+    /**
+     * Returns {@code true} if this is the '*' contact (used to remove all bindings)
+     */
+    public boolean isWildcard() {
+        return wildcard;
+    }
+
+    /**
+     * Returns the user identified by the URI of this contact or {@code null} for
+     * the wildcard contact
+     */
+    public SipUser getUser() {
+        if (user == null && !wildcard) {
+            user = new SipUser(value.substring(0, addressEnd));
+        }
+        return user;
+    }
+
+    /**
+     * Returns the value of the expires parameter or -1 if absent or invalid
+     */
+    public int getExpires() {
+        String expires = parameters.get(EXPIRES);
+        if (expires == null || expires.length() == 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(expires);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the value of the q parameter or 1.0 if absent or invalid
+     */
+    public float getQ() {
+        String q = parameters.get(Q);
+        if (q == null || q.length() == 0) {
+            return 1.0f;
+        }
+        try {
+            return Float.parseFloat(q);
+        } catch (NumberFormatException e) {
+            return 1.0f;
+        }
+    }
+
+    /**
+     * Returns the value of the parameter with given (case-insensitive) name, an
+     * empty string if it has no value or {@code null} if it is absent
+     */
+    public String getParameter(String name) {
+        return parameters.get(name);
+    }
+
+    /**
+     * Sets (or adds) given parameter; a {@code null} value sets a parameter
+     * without value
+     */
+    public ContactHeader setParameter(String name, String parameterValue) {
+        value = parameters.set(name, parameterValue, ';');
+        parameters = new HeaderParameters(value, addressEnd, ';', ',');
+        return this;
+    }
+
+    /**
+     * Returns the header value
+     */
+    @Override
+    public String toString() {
+        return value;
+    }
+}
@@ -0,0 +1,123 @@
+package org.elasticsoftware.sip.codec.header;
+
+/**
+ * Typed view of the credentials of an Authorization (or Proxy-Authorization)
+ * header, e.g. <br>
+ * Digest username="124",realm="elasticsoftware",nonce="24855234",
+ * uri="sip:sip.outerteams.com:5060",response="749c35e9fe30d6ba46cc801bdfe535a0",algorithm=MD5<br>
+ * <br>
+ * Quoted values may contain commas and spaces, see
+ * http://tools.ietf.org/html/rfc3261#section-25.1 (digest-response)
+ *
+ * @author Leonard Wolters
+ */
+public final class DigestCredentials {
+    private final String value;
+    private final String scheme;
+    private final HeaderParameters parameters;
+
+    private DigestCredentials(String value, String scheme, HeaderParameters parameters) {
+        this.value = value;
+        this.scheme = scheme;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Parses given value
+     *
+     * @throws IllegalArgumentException if the value has no scheme
+     */
+    public static DigestCredentials parse(String value) {
+        int pos = HeaderParameters.skipWhitespace(value, 0);
+        int start = pos;
+        while (pos < value.length() && !HeaderParameters.isWhitespace(value.charAt(pos))) {
+            pos++;
+        }
+        if (pos == start || value.indexOf('=', start) < pos) {
+            throw new IllegalArgumentException(String.format("Invalid credentials[%s]", value));
+        }
+        return new DigestCredentials(value, value.substring(start, pos),
+                new HeaderParameters(value, pos, ',', (char) 0));
+    }
+
+    /**
+     * Returns the scheme, e.g. Digest
+     */
+    public String getScheme() {
+        return scheme;
+    }
+
+    public boolean isDigest() {
+        return "Digest".equalsIgnoreCase(scheme);
+    }
+
+    public String getUsername() {
+        return parameters.get("username");
+    }
+
+    public String getRealm() {
+        return parameters.get("realm");
+    }
+
+    public String getNonce() {
+        return parameters.get("nonce");
+    }
+
+    public String getUri() {
+        return parameters.get("uri");
+    }
+
+    public String getResponse() {
+        return parameters.get("response");
+    }
+
+    /**
+     * Returns the algorithm or {@code null} if absent (which means MD5)
+     */
+    public String getAlgorithm() {
+        return parameters.get("algorithm");
+    }
+
+    public String getCnonce() {
+        return parameters.get("cnonce");
+    }
+
+    public String getOpaque() {
+        return parameters.get("opaque");
+    }
+
+    public String getQop() {
+        return parameters.get("qop");
+    }
+
+    /**
+     * Returns the nonce count (nc) or -1 if absent or invalid
+     */
+    public long getNonceCount() {
+        String nc = parameters.get("nc");
+        if (nc == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(nc, 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the value of the parameter with given (case-insensitive) name or
+     * {@code null} if absent
+     */
+    public String getParameter(String name) {
+        return parameters.get(name);
+    }
+
+    /**
+     * Returns the header value
+     */
+    @Override
+    public String toString() {
+        return value;
+    }
+}
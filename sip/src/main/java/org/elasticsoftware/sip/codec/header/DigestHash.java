@@ -0,0 +1,256 @@
+package org.elasticsoftware.sip.codec.header;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.jboss.netty.util.CharsetUtil;
+
+/**
+ * Computes the hashes of digest authentication (see
+ * http://tools.ietf.org/html/rfc2617#section-3.2.2.1), i.e.<br>
+ * HA1 = H(username:realm:password)<br>
+ * response = H(HA1:nonce:H(method:uri)) or, with qop auth,
+ * H(HA1:nonce:nc:cnonce:qop:H(method:uri))<br>
+ * <br>
+ * The {@link MessageDigest} per algorithm (MD5, the default, or SHA-256) is
+ * kept per thread and hashes are hex encoded straight into a byte array, so
+ * computing a response creates no intermediate Strings. HA1 only changes with
+ * the password, hence should be computed once and stored.
+ *
+ * @author Leonard Wolters
+ */
+public final class DigestHash {
+    public static final String MD5 = "MD5";
+    public static final String SHA_256 = "SHA-256";
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+            'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final byte COLON = ':';
+
+    private static final ThreadLocal<Digester> md5 = new ThreadLocal<Digester>() {
+        @Override
+        protected Digester initialValue() {
+            return new Digester(MD5);
+        }
+    };
+    private static final ThreadLocal<Digester> sha256 = new ThreadLocal<Digester>() {
+        @Override
+        protected Digester initialValue() {
+            return new Digester(SHA_256);
+        }
+    };
+
+    private DigestHash() {
+    }
+
+    /**
+     * Returns the hex encoded H(username:realm:password)
+     *
+     * @param algorithm MD5 (or null) or SHA-256
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    public static String ha1(String algorithm, String username, String realm, String password) {
+        Digester digester = getDigester(algorithm);
+        digester.update(username);
+        digester.update(COLON);
+        digester.update(realm);
+        digester.update(COLON);
+        digester.update(password);
+        digester.digest();
+        return digester.toHexString();
+    }
+
+    /**
+     * Returns the hex encoded H(HA1:nonce:H(method:uri)), i.e. the expected
+     * response of credentials without qop
+     *
+     * @param algorithm MD5 (or null) or SHA-256
+     * @param ha1 hex encoded HA1, see {@link #ha1(String, String, String, String)}
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    public static String response(String algorithm, String ha1, String nonce, String method, String uri) {
+        return response(algorithm, ha1, nonce, null, null, null, method, uri);
+    }
+
+    /**
+     * Returns the hex encoded H(HA1:nonce:nc:cnonce:qop:H(method:uri)), i.e. the
+     * expected response of credentials with qop (auth), or the one without if
+     * qop is null
+     *
+     * @param algorithm MD5 (or null) or SHA-256
+     * @param ha1 hex encoded HA1, see {@link #ha1(String, String, String, String)}
+     * @param nc nonce count as sent, i.e. 8 hex digits
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    public static String response(String algorithm, String ha1, String nonce, String nc, String cnonce,
+                                  String qop, String method, String uri) {
+        Digester digester = getDigester(algorithm);
+        digestResponse(digester, ha1, nonce, nc, cnonce, qop, method, uri);
+        return digester.toHexString();
+    }
+
+    /**
+     * Returns true if given (hex encoded) response equals H(HA1:nonce:H(method:uri)),
+     * ignoring case. Unlike {@link #response(String, String, String, String, String)}
+     * this creates no objects at all.
+     *
+     * @param algorithm MD5 (or null) or SHA-256
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    public static boolean matches(String algorithm, String ha1, String nonce, String method, String uri,
+                                  String response) {
+        return matches(algorithm, ha1, nonce, null, null, null, method, uri, response);
+    }
+
+    /**
+     * Returns true if given (hex encoded) response equals the one computed by
+     * {@link #response(String, String, String, String, String, String, String, String)},
+     * ignoring case
+     *
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    public static boolean matches(String algorithm, String ha1, String nonce, String nc, String cnonce,
+                                  String qop, String method, String uri, String response) {
+        Digester digester = getDigester(algorithm);
+        digestResponse(digester, ha1, nonce, nc, cnonce, qop, method, uri);
+        return response != null && digester.hexEquals(response);
+    }
+
+    private static void digestResponse(Digester digester, String ha1, String nonce, String nc, String cnonce,
+                                       String qop, String method, String uri) {
+        digester.update(method);
+        digester.update(COLON);
+        digester.update(uri);
+        int length = digester.digest();
+
+        digester.update(ha1);
+        digester.update(COLON);
+        digester.update(nonce);
+        digester.update(COLON);
+        if (qop != null) {
+            digester.update(nc);
+            digester.update(COLON);
+            digester.update(cnonce);
+            digester.update(COLON);
+            digester.update(qop);
+            digester.update(COLON);
+        }
+        digester.updateHex(length);
+        digester.digest();
+    }
+
+    private static Digester getDigester(String algorithm) {
+        if (algorithm == null || MD5.equalsIgnoreCase(algorithm)) {
+            return md5.get();
+        } else if (SHA_256.equalsIgnoreCase(algorithm)) {
+            return sha256.get();
+        }
+        throw new IllegalArgumentException(String.format("Unsupported digest algorithm[%s]", algorithm));
+    }
+
+    /**
+     * MessageDigest of a thread, with the buffers to encode the input and
+     * output in
+     */
+    private static final class Digester {
+        private final MessageDigest digest;
+        private final byte[] hash;
+        private final byte[] hex;
+        private byte[] input = new byte[128];
+
+        private Digester(String algorithm) {
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException(String.format("Unsupported digest algorithm[%s]",
+                        algorithm), e);
+            }
+            hash = new byte[digest.getDigestLength()];
+            hex = new byte[hash.length * 2];
+        }
+
+        void update(byte b) {
+            digest.update(b);
+        }
+
+        /**
+         * Feeds given value UTF-8 encoded; ASCII (i.e. nearly always) without
+         * creating a byte array
+         */
+        void update(String value) {
+            if (value == null) {
+                return;
+            }
+            int length = value.length();
+            if (length > input.length) {
+                input = new byte[Math.max(length, input.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c > 0x7f) {
+                    digest.update(input, 0, i);
+                    digest.update(value.substring(i).getBytes(CharsetUtil.UTF_8));
+                    return;
+                }
+                input[i] = (byte) c;
+            }
+            digest.update(input, 0, length);
+        }
+
+        /**
+         * Feeds the first <code>length</code> bytes of the hex encoded hash
+         */
+        void updateHex(int length) {
+            digest.update(hex, 0, length);
+        }
+
+        /**
+         * Completes the hash and hex encodes it into the output buffer
+         *
+         * @return the number of hex bytes
+         */
+        int digest() {
+            try {
+                digest.digest(hash, 0, hash.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            for (int i = 0; i < hash.length; i++) {
+                hex[2 * i] = HEX[(hash[i] >> 4) & 0x0f];
+                hex[2 * i + 1] = HEX[hash[i] & 0x0f];
+            }
+            return hex.length;
+        }
+
+        /**
+         * Returns the last completed hash, hex encoded
+         */
+        String toHexString() {
+            char[] chars = new char[hex.length];
+            for (int i = 0; i < hex.length; i++) {
+                chars[i] = (char) hex[i];
+            }
+            return new String(chars);
+        }
+
+        /**
+         * Returns true if given value equals the last completed hash, hex
+         * encoded, ignoring case. All characters are compared, so the time
+         * taken does not reveal how much of the value is right.
+         */
+        boolean hexEquals(String value) {
+            if (value.length() != hex.length) {
+                return false;
+            }
+            int difference = 0;
+            for (int i = 0; i < hex.length; i++) {
+                char c = value.charAt(i);
+                if (c >= 'A' && c <= 'F') {
+                    c += 'a' - 'A';
+                }
+                difference |= c ^ hex[i];
+            }
+            return difference == 0;
+        }
+    }
+}
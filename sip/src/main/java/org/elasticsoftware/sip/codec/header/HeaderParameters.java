@@ -0,0 +1,216 @@
+package org.elasticsoftware.sip.codec.header;
+
+/**
+ * Parameters of a header value, e.g. <br>
+ * ;branch=z9hG4bK776asdhds;received=192.0.2.1;rport<br>
+ * username="124",realm="elasticsoftware",nonce="24855234"<br>
+ * <br>
+ * Parsing only records the offsets of every parameter name and value. Names are
+ * case-insensitive, values may be quoted strings (which may contain separators),
+ * see http://tools.ietf.org/html/rfc3261#section-25.1
+ *
+ * @author Leonard Wolters
+ */
+final class HeaderParameters {
+    private static final int NAME_START = 0;
+    private static final int NAME_END = 1;
+    private static final int VALUE_START = 2;
+    private static final int VALUE_END = 3;
+    private static final int SLOTS = 4;
+
+    private final String value;
+    private int[] offsets = new int[4 * SLOTS];
+    private int size;
+    private final int end;
+
+    /**
+     * Parses the parameters of given value, starting at <code>start</code>, that
+     * are separated by <code>separator</code>. Parsing stops at the end of the
+     * value or at a <code>terminator</code> (if not 0) outside a quoted string.
+     */
+    HeaderParameters(String value, int start, char separator, char terminator) {
+        this.value = value;
+        int length = value.length();
+        int pos = start;
+        while (pos < length) {
+            char c = value.charAt(pos);
+            if (c == terminator && terminator != 0) {
+                break;
+            }
+            if (c == separator || isWhitespace(c)) {
+                pos++;
+                continue;
+            }
+
+            // name
+            int nameStart = pos;
+            while (pos < length && !isDelimiter(value.charAt(pos), separator, terminator)) {
+                pos++;
+            }
+            int nameEnd = pos;
+            pos = skipWhitespace(value, pos);
+
+            // value (if any)
+            int valueStart = -1;
+            int valueEnd = -1;
+            if (pos < length && value.charAt(pos) == '=') {
+                pos = skipWhitespace(value, pos + 1);
+                valueStart = pos;
+                if (pos < length && value.charAt(pos) == '"') {
+                    pos++;
+                    while (pos < length && value.charAt(pos) != '"') {
+                        pos += value.charAt(pos) == '\\' ? 2 : 1;
+                    }
+                    pos = Math.min(pos + 1, length);
+                    valueEnd = pos;
+                } else {
+                    while (pos < length && value.charAt(pos) != separator
+                            && (value.charAt(pos) != terminator || terminator == 0)) {
+                        pos++;
+                    }
+                    valueEnd = pos;
+                    while (valueEnd > valueStart && isWhitespace(value.charAt(valueEnd - 1))) {
+                        valueEnd--;
+                    }
+                }
+            }
+            if (nameEnd > nameStart) {
+                add(nameStart, nameEnd, valueStart, valueEnd);
+            }
+            // skip garbage up to next separator
+            while (pos < length && value.charAt(pos) != separator
+                    && (value.charAt(pos) != terminator || terminator == 0)) {
+                pos++;
+            }
+        }
+        this.end = pos;
+    }
+
+    private void add(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        if (offsets.length < (size + 1) * SLOTS) {
+            int[] grown = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, grown, 0, offsets.length);
+            offsets = grown;
+        }
+        int idx = size * SLOTS;
+        offsets[idx + NAME_START] = nameStart;
+        offsets[idx + NAME_END] = nameEnd;
+        offsets[idx + VALUE_START] = valueStart;
+        offsets[idx + VALUE_END] = valueEnd;
+        size++;
+    }
+
+    /**
+     * Returns the index at which parsing stopped
+     */
+    int getEnd() {
+        return end;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String getName(int index) {
+        int idx = index * SLOTS;
+        return value.substring(offsets[idx + NAME_START], offsets[idx + NAME_END]);
+    }
+
+    /**
+     * Returns the index of the parameter with given (case-insensitive) name
+     * or -1 if absent
+     */
+    int indexOf(String name) {
+        for (int i = 0; i < size; i++) {
+            int idx = i * SLOTS;
+            int nameStart = offsets[idx + NAME_START];
+            if (offsets[idx + NAME_END] - nameStart == name.length()
+                    && value.regionMatches(true, nameStart, name, 0, name.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the (unquoted) value of the parameter with given name, an empty
+     * string if it has no value or {@code null} if it is absent
+     */
+    String get(String name) {
+        int index = indexOf(name);
+        return index == -1 ? null : getValue(index);
+    }
+
+    String getValue(int index) {
+        int idx = index * SLOTS;
+        int start = offsets[idx + VALUE_START];
+        int end = offsets[idx + VALUE_END];
+        if (start == -1) {
+            return "";
+        }
+        if (end - start >= 2 && value.charAt(start) == '"' && value.charAt(end - 1) == '"') {
+            return unquote(start + 1, end - 1);
+        }
+        return value.substring(start, end);
+    }
+
+    private String unquote(int start, int end) {
+        int escape = value.indexOf('\\', start);
+        if (escape == -1 || escape >= end) {
+            return value.substring(start, end);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                c = value.charAt(++i);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns given value, in which the parameter with given name is set to
+     * given value (appended if absent, a flag parameter if value is {@code null})
+     */
+    String set(String name, String parameterValue, char separator) {
+        int index = indexOf(name);
+        StringBuilder sb = new StringBuilder(value.length() + name.length()
+                + (parameterValue == null ? 1 : parameterValue.length() + 2));
+        if (index == -1) {
+            sb.append(value, 0, end);
+            sb.append(separator).append(name);
+            if (parameterValue != null) {
+                sb.append('=').append(parameterValue);
+            }
+            sb.append(value, end, value.length());
+        } else {
+            int idx = index * SLOTS;
+            int replaceEnd = offsets[idx + VALUE_START] == -1
+                    ? offsets[idx + NAME_END] : offsets[idx + VALUE_END];
+            sb.append(value, 0, offsets[idx + NAME_START]);
+            sb.append(name);
+            if (parameterValue != null) {
+                sb.append('=').append(parameterValue);
+            }
+            sb.append(value, replaceEnd, value.length());
+        }
+        return sb.toString();
+    }
+
+    static int skipWhitespace(String value, int pos) {
+        while (pos < value.length() && isWhitespace(value.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    private static boolean isDelimiter(char c, char separator, char terminator) {
+        return c == '=' || c == separator || (c == terminator && terminator != 0) || isWhitespace(c);
+    }
+}
@@ -0,0 +1,184 @@
+package org.elasticsoftware.sip.codec.header;
+
+/**
+ * Typed view of a Via header, e.g. <br>
+ * SIP/2.0/UDP pc33.atlanta.com:5060;branch=z9hG4bK776asdhds;received=192.0.2.1;rport<br>
+ * <br>
+ * See http://tools.ietf.org/html/rfc3261#section-20.42 and
+ * http://tools.ietf.org/html/rfc3581 (rport). If the value holds more than one
+ * via (separated by a comma), the first one is parsed; the others are left
+ * untouched.
+ *
+ * @author Leonard Wolters
+ */
+public final class ViaHeader {
+    public static final String BRANCH = "branch";
+    public static final String RECEIVED = "received";
+    public static final String RPORT = "rport";
+
+    /**
+     * The magic cookie that starts every branch of an RFC 3261 compliant client,
+     * see http://tools.ietf.org/html/rfc3261#section-8.1.1.7
+     */
+    public static final String MAGIC_COOKIE = "z9hG4bK";
+
+    private String value;
+    private String transport;
+    private int transportStart;
+    private String host;
+    private int port;
+    private int parametersStart;
+    private HeaderParameters parameters;
+
+    private ViaHeader(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Parses given value
+     *
+     * @throws IllegalArgumentException if the value is not a valid via
+     */
+    public static ViaHeader parse(String value) {
+        ViaHeader via = new ViaHeader(value);
+        int length = value.length();
+
+        // sent-protocol, e.g. SIP/2.0/UDP (LWS is allowed around the slashes)
+        int slash = value.indexOf('/');
+        slash = slash == -1 ? -1 : value.indexOf('/', slash + 1);
+        if (slash == -1) {
+            throw new IllegalArgumentException(String.format("Invalid Via[%s]", value));
+        }
+        int pos = HeaderParameters.skipWhitespace(value, slash + 1);
+        int start = pos;
+        while (pos < length && !HeaderParameters.isWhitespace(value.charAt(pos))) {
+            pos++;
+        }
+        via.transportStart = start;
+        via.transport = value.substring(start, pos);
+
+        // sent-by, i.e. host and optional port
+        pos = HeaderParameters.skipWhitespace(value, pos);
+        start = pos;
+        if (pos < length && value.charAt(pos) == '[') {
+            pos = value.indexOf(']', pos);
+            if (pos == -1) {
+                throw new IllegalArgumentException(String.format("Invalid Via[%s]", value));
+            }
+            via.host = value.substring(start + 1, pos++);
+        } else {
+            while (pos < length && !isSentByDelimiter(value.charAt(pos))) {
+                pos++;
+            }
+            via.host = value.substring(start, pos);
+        }
+        if (via.host.length() == 0) {
+            throw new IllegalArgumentException(String.format("Invalid Via[%s]", value));
+        }
+        pos = HeaderParameters.skipWhitespace(value, pos);
+        if (pos < length && value.charAt(pos) == ':') {
+            pos = HeaderParameters.skipWhitespace(value, pos + 1);
+            int port = 0;
+            while (pos < length && value.charAt(pos) >= '0' && value.charAt(pos) <= '9') {
+                port = port * 10 + (value.charAt(pos++) - '0');
+            }
+            via.port = port;
+        }
+        via.parametersStart = pos;
+        via.parameters = new HeaderParameters(value, pos, ';', ',');
+        return via;
+    }
+
+    private static boolean isSentByDelimiter(char c) {
+        return c == ':' || c == ';' || c == ',' || HeaderParameters.isWhitespace(c);
+    }
+
+    /**
+     * Returns the transport, e.g. UDP or TCP
+     */
+    public String getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the transport, e.g. to the one of the connection the message is
+     * sent over
+     */
+    public ViaHeader setTransport(String transport) {
+        ViaHeader via = parse(new StringBuilder(value.length() + transport.length())
+                .append(value, 0, transportStart).append(transport)
+                .append(value, transportStart + this.transport.length(), value.length()).toString());
+        this.value = via.value;
+        this.transport = via.transport;
+        this.parametersStart = via.parametersStart;
+        this.parameters = via.parameters;
+        return this;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the port or 0 if absent
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public String getBranch() {
+        return parameters.get(BRANCH);
+    }
+
+    public String getReceived() {
+        return parameters.get(RECEIVED);
+    }
+
+    /**
+     * Returns {@code true} if the rport parameter is present (with or without value)
+     */
+    public boolean hasRport() {
+        return parameters.indexOf(RPORT) != -1;
+    }
+
+    /**
+     * Returns the value of the rport parameter or -1 if absent or without value
+     */
+    public int getRport() {
+        String rport = parameters.get(RPORT);
+        if (rport == null || rport.length() == 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(rport);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the value of the parameter with given (case-insensitive) name, an
+     * empty string if it has no value or {@code null} if it is absent
+     */
+    public String getParameter(String name) {
+        return parameters.get(name);
+    }
+
+    /**
+     * Sets (or adds) given parameter; a {@code null} value sets a parameter
+     * without value
+     */
+    public ViaHeader setParameter(String name, String parameterValue) {
+        value = parameters.set(name, parameterValue, ';');
+        parameters = new HeaderParameters(value, parametersStart, ';', ',');
+        return this;
+    }
+
+    /**
+     * Returns the header value
+     */
+    @Override
+    public String toString() {
+        return value;
+    }
+}
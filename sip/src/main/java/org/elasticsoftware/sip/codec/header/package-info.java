@@ -0,0 +1,7 @@
+/**
+ * Typed views of structured SIP header values (Via, CSeq, Contact and digest
+ * credentials), parsed once from the raw value.
+ *
+ * @author Leonard Wolters
+ */
+package org.elasticsoftware.sip.codec.header;
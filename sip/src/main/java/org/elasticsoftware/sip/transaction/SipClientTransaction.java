@@ -0,0 +1,150 @@
+package org.elasticsoftware.sip.transaction;
+
+import org.apache.log4j.Logger;
+import org.elasticsoftware.sip.codec.SipHeader;
+import org.elasticsoftware.sip.codec.SipMethod;
+import org.elasticsoftware.sip.codec.SipRequest;
+import org.elasticsoftware.sip.codec.SipRequestImpl;
+import org.elasticsoftware.sip.codec.SipResponse;
+import org.elasticsoftware.sip.codec.SipUser;
+import org.elasticsoftware.sip.codec.header.CSeqHeader;
+import org.jboss.netty.channel.ChannelFuture;
+
+/**
+ * Client transaction (see http://tools.ietf.org/html/rfc3261#section-17.1).
+ * Over unreliable transports the request is retransmitted until a response is
+ * received; retransmitted final responses are absorbed.<br>
+ * <br>
+ * INVITE: Calling (timers A and B) -> Proceeding (1xx; timer C) -> Completed
+ * (3xx-6xx, ACK sent; timer D) -> Terminated, or -> Terminated on a 2xx.<br>
+ * Non-INVITE: Trying (timers E and F) -> Proceeding (1xx) -> Completed (final;
+ * timer K) -> Terminated.<br>
+ * <br>
+ * If no (final) response is received in time, the transaction user receives a
+ * 408 Request Timeout.
+ *
+ * @author Leonard Wolters
+ */
+class SipClientTransaction extends SipTransaction {
+    private static final Logger log = Logger.getLogger(SipClientTransaction.class);
+
+    private final SipUser user;
+    private final SipRequest request;
+    private SipRequest ack;
+
+    SipClientTransaction(SipTransactionManager manager, String key, SipUser user,
+                         SipRequest request, boolean reliable) {
+        super(manager, key, request.getMethod() == SipMethod.INVITE, reliable,
+                request.getMethod() == SipMethod.INVITE ? State.CALLING : State.TRYING);
+        this.user = user;
+        this.request = request;
+    }
+
+    /**
+     * Sends the request and starts timers A and B (INVITE) or E and F
+     */
+    synchronized ChannelFuture start() {
+        if (!reliable) {
+            scheduleRetransmit(manager.getT1());
+        }
+        scheduleStateTimeout(64 * manager.getT1());
+        return manager.write(user, request);
+    }
+
+    /**
+     * Handles a response matching this transaction
+     *
+     * @return true if the response must be passed to the transaction user
+     */
+    synchronized boolean receiveResponse(SipResponse response) {
+        int code = response.getResponseStatus().getCode();
+        switch (state) {
+            case CALLING:
+            case TRYING:
+            case PROCEEDING:
+                if (code < 200) {
+                    if (state != State.PROCEEDING) {
+                        state = State.PROCEEDING;
+                        if (invite) {
+                            // the callee may ring for a long time
+                            cancelRetransmit();
+                            scheduleStateTimeout(manager.getTimerC());
+                        }
+                    }
+                    if (!invite && !reliable) {
+                        retransmitInterval = manager.getT2();
+                    }
+                    return true;
+                }
+                cancelRetransmit();
+                if (invite && code < 300) {
+                    // the ACK of a 2xx is sent by the transaction user
+                    terminate();
+                    return true;
+                }
+                state = State.COMPLETED;
+                if (invite) {
+                    ack = createAck(response);
+                    manager.write(user, ack);
+                    // timer D, at least 32 seconds
+                    scheduleStateTimeout(reliable ? 0 : Math.max(32000, 64 * manager.getT1()));
+                } else {
+                    scheduleStateTimeout(reliable ? 0 : manager.getT4());
+                }
+                return true;
+            case COMPLETED:
+                manager.absorbed();
+                if (ack != null) {
+                    manager.write(user, ack);
+                }
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Timers A and E: retransmits the request, doubling the interval (capped at
+     * T2 for non-INVITE)
+     */
+    @Override
+    protected void onRetransmit() {
+        if (state != State.CALLING && state != State.TRYING && state != State.PROCEEDING) {
+            return;
+        }
+        manager.retransmitted();
+        manager.write(user, request);
+        long interval = 2 * retransmitInterval;
+        scheduleRetransmit(invite ? interval : Math.min(interval, manager.getT2()));
+    }
+
+    @Override
+    protected void onStateTimeout(State expected) {
+        if (expected != State.COMPLETED) {
+            // timers B, C and F
+            log.warn(String.format("onStateTimeout. No response received in %s", this));
+            manager.timeout(request);
+        }
+        terminate();
+    }
+
+    /**
+     * Creates the ACK of a non-2xx final response to the INVITE (see
+     * http://tools.ietf.org/html/rfc3261#section-17.1.1.3)
+     */
+    private SipRequest createAck(SipResponse response) {
+        SipRequestImpl ack = new SipRequestImpl(request.getVersion(), SipMethod.ACK, request.getUri());
+        ack.setHeader(SipHeader.VIA, request.getHeaderValue(SipHeader.VIA));
+        ack.setHeader(SipHeader.CALL_ID, request.getHeaderValue(SipHeader.CALL_ID));
+        ack.setHeader(SipHeader.FROM, request.getHeaderValue(SipHeader.FROM));
+        ack.setHeader(SipHeader.TO, response.getHeaderValue(SipHeader.TO));
+        ack.setHeader(SipHeader.CSEQ, new CSeqHeader(CSeqHeader.parse(
+                request.getHeaderValue(SipHeader.CSEQ)).getSequence(), SipMethod.ACK).toString());
+        if (request.containsHeader(SipHeader.ROUTE)) {
+            ack.setHeader(SipHeader.ROUTE, request.getHeaderValues(SipHeader.ROUTE).toArray());
+        }
+        ack.setHeader(SipHeader.MAX_FORWARDS, "70");
+        ack.setHeader(SipHeader.CONTENT_LENGTH, "0");
+        return ack;
+    }
+}
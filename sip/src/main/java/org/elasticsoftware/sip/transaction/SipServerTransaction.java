@@ -0,0 +1,153 @@
+package org.elasticsoftware.sip.transaction;
+
+import org.apache.log4j.Logger;
+import org.elasticsoftware.sip.codec.SipMethod;
+import org.elasticsoftware.sip.codec.SipRequest;
+import org.elasticsoftware.sip.codec.SipResponse;
+import org.elasticsoftware.sip.codec.header.ViaHeader;
+import org.jboss.netty.channel.ChannelFuture;
+
+/**
+ * Server transaction (see http://tools.ietf.org/html/rfc3261#section-17.2).
+ * Retransmitted requests are absorbed and answered with the last response sent,
+ * so they never reach the transaction user.<br>
+ * <br>
+ * INVITE: Proceeding -> Completed (3xx-6xx; timers G and H) -> Confirmed (ACK;
+ * timer I) -> Terminated, or Proceeding -> Accepted (2xx; timer L, see RFC 6026)
+ * -> Terminated.<br>
+ * Non-INVITE: Trying -> Proceeding (1xx) -> Completed (final; timer J) -> Terminated.<br>
+ * <br>
+ * A transaction the transaction user never answers is terminated after 64*T1
+ * (non-INVITE, the client has given up by then) or after timer C (INVITE).
+ *
+ * @author Leonard Wolters
+ */
+class SipServerTransaction extends SipTransaction {
+    private static final Logger log = Logger.getLogger(SipServerTransaction.class);
+
+    private final ViaHeader via;
+    private SipResponse lastResponse;
+
+    SipServerTransaction(SipTransactionManager manager, String key, SipRequest request,
+                         ViaHeader via, boolean reliable) {
+        super(manager, key, request.getMethod() == SipMethod.INVITE, reliable,
+                request.getMethod() == SipMethod.INVITE ? State.PROCEEDING : State.TRYING);
+        this.via = via;
+    }
+
+    /**
+     * Starts the timer abandoning the transaction if the transaction user never
+     * responds
+     */
+    synchronized void start() {
+        scheduleStateTimeout(invite ? manager.getTimerC() : 64 * manager.getT1());
+    }
+
+    /**
+     * Handles a request matching this transaction, i.e. a retransmission or (for
+     * INVITE) the ACK of a non-2xx final response
+     *
+     * @return true if the request must be passed to the transaction user
+     */
+    synchronized boolean receiveRequest(SipRequest request) {
+        if (request.getMethod() == SipMethod.ACK) {
+            switch (state) {
+                case COMPLETED:
+                    state = State.CONFIRMED;
+                    cancelRetransmit();
+                    scheduleStateTimeout(reliable ? 0 : manager.getT4());
+                    return false;
+                case ACCEPTED:
+                    // ACK of a 2xx is for the transaction user (RFC 6026)
+                    return true;
+                default:
+                    manager.absorbed();
+                    return false;
+            }
+        }
+        manager.absorbed();
+        switch (state) {
+            case PROCEEDING:
+            case COMPLETED:
+            case ACCEPTED:
+                if (lastResponse != null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("receiveRequest. Retransmission in %s; replaying %d",
+                                this, lastResponse.getResponseStatus().getCode()));
+                    }
+                    manager.write(via, lastResponse);
+                }
+                break;
+            default:
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("receiveRequest. Retransmission in %s; absorbed", this));
+                }
+        }
+        return false;
+    }
+
+    /**
+     * Sends given response, sent by the transaction user
+     */
+    synchronized ChannelFuture sendResponse(SipResponse response) {
+        int code = response.getResponseStatus().getCode();
+        switch (state) {
+            case TRYING:
+            case PROCEEDING:
+                lastResponse = response;
+                if (code < 200) {
+                    state = State.PROCEEDING;
+                } else if (!invite) {
+                    state = State.COMPLETED;
+                    cancelStateTimeout();
+                    scheduleStateTimeout(reliable ? 0 : 64 * manager.getT1());
+                } else if (code < 300) {
+                    // retransmission of the 2xx is up to the transaction user
+                    state = State.ACCEPTED;
+                    scheduleStateTimeout(64 * manager.getT1());
+                } else {
+                    state = State.COMPLETED;
+                    if (!reliable) {
+                        scheduleRetransmit(manager.getT1());
+                    }
+                    scheduleStateTimeout(64 * manager.getT1());
+                }
+                break;
+            default:
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("sendResponse. %d sent in %s", code, this));
+                }
+        }
+        return manager.write(via, response);
+    }
+
+    /**
+     * Timer G: retransmits the final response until the ACK is received
+     */
+    @Override
+    protected void onRetransmit() {
+        if (state != State.COMPLETED) {
+            return;
+        }
+        manager.retransmitted();
+        manager.write(via, lastResponse);
+        scheduleRetransmit(Math.min(2 * retransmitInterval, manager.getT2()));
+    }
+
+    @Override
+    protected void onStateTimeout(State expected) {
+        switch (expected) {
+            case TRYING:
+            case PROCEEDING:
+                log.warn(String.format("onStateTimeout. No final response sent in %s", this));
+                break;
+            case COMPLETED:
+                if (invite) {
+                    // timer H
+                    log.warn(String.format("onStateTimeout. No ACK received in %s", this));
+                }
+                break;
+        }
+        terminate();
+    }
+}
@@ -0,0 +1,144 @@
+package org.elasticsoftware.sip.transaction;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * Base class of client and server transactions. A transaction is identified by
+ * its key (branch of the top most Via and method) and all state changes are
+ * synchronized on the transaction, as it is driven by the I/O threads, the
+ * transaction user and the timer.
+ *
+ * @author Leonard Wolters
+ */
+abstract class SipTransaction {
+
+    /**
+     * States of both client and server transactions; ACCEPTED is the INVITE server
+     * state of http://tools.ietf.org/html/rfc6026#section-7.1
+     */
+    enum State {
+        CALLING, TRYING, PROCEEDING, COMPLETED, CONFIRMED, ACCEPTED, TERMINATED
+    }
+
+    protected final SipTransactionManager manager;
+    protected final String key;
+    protected final boolean invite;
+    /**
+     * Reliable transports (i.e. TCP) have no retransmissions and no wait states
+     */
+    protected final boolean reliable;
+    protected State state;
+
+    /**
+     * Retransmission timer (A, E or G) and its current interval
+     */
+    private Timeout retransmitTimeout;
+    protected long retransmitInterval;
+    /**
+     * Timer ending the current state (B, C, D, F, H, I, J, K or L)
+     */
+    private Timeout stateTimeout;
+
+    protected SipTransaction(SipTransactionManager manager, String key, boolean invite,
+                             boolean reliable, State state) {
+        this.manager = manager;
+        this.key = key;
+        this.invite = invite;
+        this.reliable = reliable;
+        this.state = state;
+    }
+
+    /**
+     * Invoked by the retransmission timer
+     */
+    protected abstract void onRetransmit();
+
+    /**
+     * Invoked when the timer of the current state fires
+     */
+    protected abstract void onStateTimeout(State expected);
+
+    /**
+     * Removes this transaction and cancels its timers
+     */
+    protected synchronized void terminate() {
+        state = State.TERMINATED;
+        cancelRetransmit();
+        cancelStateTimeout();
+        manager.remove(this);
+    }
+
+    protected void scheduleRetransmit(long interval) {
+        cancelRetransmit();
+        retransmitInterval = interval;
+        retransmitTimeout = manager.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                synchronized (SipTransaction.this) {
+                    if (timeout != retransmitTimeout || state == State.TERMINATED) {
+                        return;
+                    }
+                    onRetransmit();
+                }
+            }
+        }, interval);
+    }
+
+    protected void cancelRetransmit() {
+        if (retransmitTimeout != null) {
+            retransmitTimeout.cancel();
+            retransmitTimeout = null;
+        }
+    }
+
+    /**
+     * Schedules the timer of the current state; if the delay is zero (reliable
+     * transports) it fires immediately. A timer scheduled in TRYING (timer F
+     * and the 64*T1 of an unanswered non-INVITE server transaction) keeps
+     * running in PROCEEDING; a provisional response does not stop the clock.
+     */
+    protected void scheduleStateTimeout(long delay) {
+        cancelStateTimeout();
+        final State expected = state;
+        if (delay <= 0) {
+            onStateTimeout(expected);
+            return;
+        }
+        stateTimeout = manager.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                synchronized (SipTransaction.this) {
+                    if (timeout != stateTimeout || !isCurrent(expected)) {
+                        return;
+                    }
+                    onStateTimeout(expected);
+                }
+            }
+        }, delay);
+    }
+
+    private boolean isCurrent(State expected) {
+        return state == expected || (expected == State.TRYING && state == State.PROCEEDING);
+    }
+
+    protected void cancelStateTimeout() {
+        if (stateTimeout != null) {
+            stateTimeout.cancel();
+            stateTimeout = null;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s, %s]", getClass().getSimpleName(), key, state);
+    }
+}
@@ -0,0 +1,386 @@
+package org.elasticsoftware.sip.transaction;
+
+import org.apache.log4j.Logger;
+import org.elasticsoftware.sip.SipChannelFactory;
+import org.elasticsoftware.sip.SipMessageHandler;
+import org.elasticsoftware.sip.codec.SipHeader;
+import org.elasticsoftware.sip.codec.SipMessage;
+import org.elasticsoftware.sip.codec.SipMethod;
+import org.elasticsoftware.sip.codec.SipRequest;
+import org.elasticsoftware.sip.codec.SipResponse;
+import org.elasticsoftware.sip.codec.SipResponseImpl;
+import org.elasticsoftware.sip.codec.SipResponseStatus;
+import org.elasticsoftware.sip.codec.SipUser;
+import org.elasticsoftware.sip.codec.header.CSeqHeader;
+import org.elasticsoftware.sip.codec.header.ViaHeader;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transaction layer (see http://tools.ietf.org/html/rfc3261#section-17), between
+ * the transport ({@link org.elasticsoftware.sip.SipServerHandler} and
+ * {@link org.elasticsoftware.sip.SipMessageSenderImpl}) and the transaction user.<br>
+ * <br>
+ * Server transactions are keyed by the branch and sent-by of the top most Via and
+ * the method (ACK matching the INVITE transaction), client transactions by the
+ * branch and the CSeq method. Only branches of RFC 3261 compliant clients (i.e.
+ * starting with the magic cookie) are matched; other messages bypass the
+ * transaction layer. Timers A to L are driven by a single {@link HashedWheelTimer};
+ * timer C (INVITE transactions in Proceeding) ends both client transactions and
+ * server transactions the transaction user never answered.<br>
+ * <br>
+ * Retransmitted requests are answered with the last response sent and
+ * retransmitted responses absorbed, without being passed to the transaction
+ * user. Counters are exposed through JMX.
+ *
+ * @author Leonard Wolters
+ */
+@ManagedResource(objectName = "org.elasticsoftware.sip:name=SipTransactionManager",
+        description = "Client and server transactions")
+public class SipTransactionManager {
+    private static final Logger log = Logger.getLogger(SipTransactionManager.class);
+
+    /**
+     * RTT estimate, maximum retransmission interval and maximum time a message
+     * remains in the network (in milliseconds)
+     */
+    private long t1 = 500;
+    private long t2 = 4000;
+    private long t4 = 5000;
+    private long timerC = TimeUnit.MINUTES.toMillis(3);
+    private SipChannelFactory sipChannelFactory;
+    private SipMessageHandler messageHandler;
+    private Timer timer;
+    private boolean releaseTimer;
+
+    private final ConcurrentMap<String, SipServerTransaction> serverTransactions =
+            new ConcurrentHashMap<String, SipServerTransaction>();
+    private final ConcurrentMap<String, SipClientTransaction> clientTransactions =
+            new ConcurrentHashMap<String, SipClientTransaction>();
+    private final AtomicLong absorbed = new AtomicLong();
+    private final AtomicLong retransmissions = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    @PostConstruct
+    public synchronized void init() {
+        if (timer == null) {
+            timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+            releaseTimer = true;
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        List<SipTransaction> transactions = new ArrayList<SipTransaction>(serverTransactions.values());
+        transactions.addAll(clientTransactions.values());
+        for (SipTransaction transaction : transactions) {
+            transaction.terminate();
+        }
+        Timer timer;
+        synchronized (this) {
+            timer = releaseTimer ? this.timer : null;
+            this.timer = null;
+        }
+        if (timer != null) {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Matches a received request with its server transaction, creating one for a
+     * new request
+     *
+     * @return true if the request must be passed to the transaction user, false
+     *         if it is absorbed (e.g. a retransmission)
+     */
+    public boolean receiveRequest(SipRequest request) {
+        ViaHeader via = getVia(request);
+        if (via == null) {
+            return true;
+        }
+        SipMethod method = request.getMethod();
+        String key = serverKey(via, method == SipMethod.ACK ? SipMethod.INVITE.name() : method.name());
+        SipServerTransaction transaction = serverTransactions.get(key);
+        if (transaction == null) {
+            if (method == SipMethod.ACK) {
+                // ACK of a 2xx (or of an ended transaction)
+                return true;
+            }
+            transaction = new SipServerTransaction(this, key, request, via, isReliable(via));
+            SipServerTransaction existing = serverTransactions.putIfAbsent(key, transaction);
+            if (existing == null) {
+                transaction.start();
+                return true;
+            }
+            transaction = existing;
+        }
+        return transaction.receiveRequest(request);
+    }
+
+    /**
+     * Sends given response back to the sender of the request, through its server
+     * transaction (if any)
+     */
+    public ChannelFuture sendResponse(ViaHeader via, SipResponse response) {
+        SipServerTransaction transaction = null;
+        if (isCompliant(via)) {
+            String method = getMethod(response);
+            if (method != null) {
+                transaction = serverTransactions.get(serverKey(via, method));
+            }
+        }
+        return transaction == null ? write(via, response) : transaction.sendResponse(response);
+    }
+
+    /**
+     * Sends given request to given user, creating a client transaction (unless
+     * it is an ACK)
+     */
+    public ChannelFuture sendRequest(SipUser user, SipRequest request) {
+        ViaHeader via = getVia(request);
+        if (via == null || request.getMethod() == SipMethod.ACK || getMethod(request) == null) {
+            return write(user, request);
+        }
+        String key = clientKey(via, request.getMethod().name());
+        // the transport of the channel carrying the request, which may differ from the Via
+        boolean reliable = isReliable(sipChannelFactory.getTransport(user));
+        SipClientTransaction transaction = new SipClientTransaction(this, key, user, request, reliable);
+        if (clientTransactions.putIfAbsent(key, transaction) != null) {
+            log.warn(String.format("sendRequest. Transaction[%s] exists; sending without transaction", key));
+            return write(user, request);
+        }
+        return transaction.start();
+    }
+
+    /**
+     * Matches a received response with its client transaction
+     *
+     * @return true if the response must be passed to the transaction user, false
+     *         if it is absorbed (i.e. a retransmission)
+     */
+    public boolean receiveResponse(SipResponse response) {
+        ViaHeader via = getVia(response);
+        String method = via == null ? null : getMethod(response);
+        if (method == null) {
+            return true;
+        }
+        SipClientTransaction transaction = clientTransactions.get(clientKey(via, method));
+        return transaction == null || transaction.receiveResponse(response);
+    }
+
+    /**
+     * Returns the top most Via of given message if it holds an RFC 3261 branch,
+     * null otherwise
+     */
+    private static ViaHeader getVia(SipMessage message) {
+        String value = message.getHeaderValue(SipHeader.VIA);
+        if (value == null) {
+            return null;
+        }
+        try {
+            ViaHeader via = ViaHeader.parse(value);
+            return isCompliant(via) ? via : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isCompliant(ViaHeader via) {
+        String branch = via.getBranch();
+        return branch != null && branch.startsWith(ViaHeader.MAGIC_COOKIE);
+    }
+
+    /**
+     * Returns the method of the CSeq header or null if absent or invalid
+     */
+    private static String getMethod(SipMessage message) {
+        String value = message.getHeaderValue(SipHeader.CSEQ);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return CSeqHeader.parse(value).getMethodName();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isReliable(ViaHeader via) {
+        return isReliable(via.getTransport());
+    }
+
+    private static boolean isReliable(String transport) {
+        return !"UDP".equalsIgnoreCase(transport);
+    }
+
+    private static String serverKey(ViaHeader via, String method) {
+        return new StringBuilder(via.getBranch()).append('|').append(via.getHost()).append(':')
+                .append(via.getPort()).append('|').append(method).toString();
+    }
+
+    private static String clientKey(ViaHeader via, String method) {
+        return new StringBuilder(via.getBranch()).append('|').append(method).toString();
+    }
+
+    ////////////////////////////////////
+    //
+    //  Used by the transactions
+    //
+    ////////////////////////////////////
+
+    ChannelFuture write(ViaHeader via, SipResponse response) {
+        return sipChannelFactory.write(via, response);
+    }
+
+    ChannelFuture write(SipUser user, SipRequest request) {
+        return sipChannelFactory.write(user, request);
+    }
+
+    Timeout newTimeout(TimerTask task, long delay) {
+        Timer timer = this.timer;
+        if (timer == null) {
+            init();
+            timer = this.timer;
+        }
+        return timer.newTimeout(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    void remove(SipTransaction transaction) {
+        if (transaction instanceof SipServerTransaction) {
+            serverTransactions.remove(transaction.getKey(), transaction);
+        } else {
+            clientTransactions.remove(transaction.getKey(), transaction);
+        }
+    }
+
+    void absorbed() {
+        absorbed.incrementAndGet();
+    }
+
+    void retransmitted() {
+        retransmissions.incrementAndGet();
+    }
+
+    /**
+     * Reports a request which received no (final) response in time to the
+     * transaction user, as a 408 Request Timeout
+     */
+    void timeout(SipRequest request) {
+        timeouts.incrementAndGet();
+        if (messageHandler == null) {
+            return;
+        }
+        SipResponse response = new SipResponseImpl(request.getVersion(), SipResponseStatus.REQUEST_TIMEOUT);
+        response.setHeader(SipHeader.VIA, request.getHeaderValues(SipHeader.VIA).toArray());
+        response.setHeader(SipHeader.CALL_ID, request.getHeaderValue(SipHeader.CALL_ID));
+        response.setHeader(SipHeader.FROM, request.getHeaderValue(SipHeader.FROM));
+        response.setHeader(SipHeader.TO, request.getHeaderValue(SipHeader.TO));
+        response.setHeader(SipHeader.CSEQ, request.getHeaderValue(SipHeader.CSEQ));
+        try {
+            messageHandler.onResponse(response);
+        } catch (RuntimeException e) {
+            log.error(String.format("timeout. Handling timeout of [%s] failed", request.getUri()), e);
+        }
+    }
+
+    @ManagedAttribute(description = "Number of server transactions")
+    public int getServerTransactionCount() {
+        return serverTransactions.size();
+    }
+
+    @ManagedAttribute(description = "Number of client transactions")
+    public int getClientTransactionCount() {
+        return clientTransactions.size();
+    }
+
+    @ManagedAttribute(description = "Number of retransmitted requests and responses absorbed")
+    public long getAbsorbedRetransmissions() {
+        return absorbed.get();
+    }
+
+    @ManagedAttribute(description = "Number of requests and responses retransmitted")
+    public long getRetransmissions() {
+        return retransmissions.get();
+    }
+
+    @ManagedAttribute(description = "Number of client transactions timed out")
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    ////////////////////////////////////
+    //
+    //  Getters /  Setters
+    //
+    ////////////////////////////////////
+
+    long getT1() {
+        return t1;
+    }
+
+    long getT2() {
+        return t2;
+    }
+
+    long getT4() {
+        return t4;
+    }
+
+    long getTimerC() {
+        return timerC;
+    }
+
+    public void setT1(long t1) {
+        this.t1 = t1;
+    }
+
+    public void setT2(long t2) {
+        this.t2 = t2;
+    }
+
+    public void setT4(long t4) {
+        this.t4 = t4;
+    }
+
+    /**
+     * Maximum time (in milliseconds) an INVITE transaction remains in Proceeding
+     */
+    public void setTimerC(long timerC) {
+        this.timerC = timerC;
+    }
+
+    /**
+     * Timer driving all transaction timers; if not set a {@link HashedWheelTimer}
+     * is created (and stopped on destroy)
+     */
+    public void setTimer(Timer timer) {
+        this.timer = timer;
+    }
+
+    @Required
+    public void setSipChannelFactory(SipChannelFactory sipChannelFactory) {
+        this.sipChannelFactory = sipChannelFactory;
+    }
+
+    /**
+     * Handler notified of requests timing out (as a 408 response)
+     */
+    public void setMessageHandler(SipMessageHandler messageHandler) {
+        this.messageHandler = messageHandler;
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * SIP transaction layer (see http://tools.ietf.org/html/rfc3261#section-17):
+ * client and server transactions, their state machines and timers, absorbing
+ * retransmissions before they reach the transaction user.
+ *
+ * @author Leonard Wolters
+ */
+package org.elasticsoftware.sip.transaction;
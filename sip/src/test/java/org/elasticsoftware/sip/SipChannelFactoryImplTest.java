@@ -0,0 +1,479 @@
+package org.elasticsoftware.sip;
+
+import org.elasticsoftware.sip.codec.SipHeader;
+import org.elasticsoftware.sip.codec.SipMethod;
+import org.elasticsoftware.sip.codec.SipMessageEncoder;
+import org.elasticsoftware.sip.codec.SipRequestImpl;
+import org.elasticsoftware.sip.codec.SipResponseImpl;
+import org.elasticsoftware.sip.codec.SipResponseStatus;
+import org.elasticsoftware.sip.codec.SipUser;
+import org.elasticsoftware.sip.codec.SipVersion;
+import org.elasticsoftware.sip.codec.header.ViaHeader;
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.util.CharsetUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for connecting, queueing and reusing outbound connections
+ *
+ * @author Leonard Wolters
+ */
+public class SipChannelFactoryImplTest {
+    private ServerBootstrap server;
+    private Channel serverChannel;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final StringBuffer received = new StringBuffer();
+    private SipChannelFactoryImpl factory;
+    private volatile Channel accepted;
+    private volatile boolean suspendReads;
+    private HoldingChannelFactory clientChannelFactory;
+
+    @BeforeMethod
+    public void startServer() {
+        connections.set(0);
+        accepted = null;
+        suspendReads = false;
+        received.setLength(0);
+        server = new ServerBootstrap(new NioServerSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool(), 1));
+        server.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return Channels.pipeline(new SipMessageEncoder(), new SimpleChannelUpstreamHandler() {
+                    @Override
+                    public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) {
+                        connections.incrementAndGet();
+                        accepted = e.getChannel();
+                        if (suspendReads) {
+                            e.getChannel().setReadable(false);
+                        }
+                    }
+
+                    @Override
+                    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+                        received.append(((ChannelBuffer) e.getMessage()).toString(CharsetUtil.UTF_8));
+                    }
+                });
+            }
+        });
+        serverChannel = server.bind(new InetSocketAddress("127.0.0.1", 0));
+
+        factory = new SipChannelFactoryImpl();
+        factory.setSipServerHandler(new SipServerHandler());
+        factory.setWorkerCount(1);
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        factory.destroy();
+        if (clientChannelFactory != null) {
+            clientChannelFactory.releaseExternalResources();
+            clientChannelFactory = null;
+        }
+        serverChannel.close().awaitUninterruptibly();
+        server.releaseExternalResources();
+    }
+
+    private SipUser getUser() {
+        return new SipUser(null, "124", "127.0.0.1",
+                ((InetSocketAddress) serverChannel.getLocalAddress()).getPort());
+    }
+
+    private SipRequestImpl createRequest(int cSeq) {
+        SipRequestImpl request = new SipRequestImpl(SipVersion.SIP_2_0, SipMethod.OPTIONS, "sip:124@127.0.0.1");
+        request.addHeader(SipHeader.CSEQ, cSeq + " OPTIONS");
+        request.addHeader(SipHeader.CONTENT_LENGTH, 0);
+        return request;
+    }
+
+    private SipRequestImpl createRequest(int cSeq, int contentLength) {
+        SipRequestImpl request = new SipRequestImpl(SipVersion.SIP_2_0, SipMethod.MESSAGE, "sip:124@127.0.0.1");
+        request.addHeader(SipHeader.CSEQ, cSeq + " MESSAGE");
+        request.addHeader(SipHeader.CONTENT_LENGTH, contentLength);
+        request.setContent(ChannelBuffers.wrappedBuffer(new byte[contentLength]));
+        return request;
+    }
+
+    @Test
+    public void testQueueWhilstConnectingAndReuse() throws Exception {
+        SipUser user = getUser();
+        Assert.assertNull(factory.getChannel(user));
+
+        // written before the connection is established
+        ChannelFuture first = factory.write(user, createRequest(1));
+        ChannelFuture second = factory.write(user, createRequest(2));
+        Assert.assertTrue(first.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(second.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(first.isSuccess());
+        Assert.assertTrue(second.isSuccess());
+
+        // reused
+        Channel channel = factory.getChannel(user);
+        Assert.assertNotNull(channel);
+        Assert.assertTrue(factory.write(user, createRequest(3)).await(5, TimeUnit.SECONDS));
+        Assert.assertSame(factory.getChannel(user), channel);
+
+        waitFor(3);
+        Assert.assertEquals(connections.get(), 1);
+        String content = received.toString();
+        Assert.assertTrue(content.indexOf("CSeq: 1 OPTIONS") < content.indexOf("CSeq: 2 OPTIONS"));
+        Assert.assertTrue(content.indexOf("CSeq: 2 OPTIONS") < content.indexOf("CSeq: 3 OPTIONS"));
+    }
+
+    @Test
+    public void testBatchedWrites() throws Exception {
+        SipUser user = getUser();
+        Assert.assertTrue(factory.write(user, createRequest(0)).await(5, TimeUnit.SECONDS));
+
+        List<ChannelFuture> futures = new ArrayList<ChannelFuture>();
+        for (int i = 1; i <= 200; i++) {
+            futures.add(factory.write(user, createRequest(i)));
+        }
+        for (ChannelFuture future : futures) {
+            Assert.assertTrue(future.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(future.isSuccess());
+        }
+        waitFor(200);
+        String content = received.toString();
+        for (int i = 1; i <= 200; i++) {
+            Assert.assertTrue(content.indexOf("CSeq: " + (i - 1) + " OPTIONS") < content.indexOf("CSeq: " + i + " OPTIONS"));
+        }
+        Assert.assertEquals(connections.get(), 1);
+        Assert.assertTrue(factory.getQueueDepths().isEmpty());
+        Assert.assertEquals(factory.getQueuedMessages(), 0);
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        suspendReads = true;
+        factory.setMaxQueuedWrites(4);
+        SipUser user = getUser();
+
+        // fill the socket buffers until a write is not completed anymore
+        ChannelFuture blocked = null;
+        for (int i = 0; i < 1000 && blocked == null; i++) {
+            ChannelFuture future = factory.write(user, createRequest(i, 256 * 1024));
+            if (!future.await(500, TimeUnit.MILLISECONDS)) {
+                blocked = future;
+            } else {
+                Assert.assertTrue(future.isSuccess());
+            }
+        }
+        Assert.assertNotNull(blocked);
+
+        // the message being written does not count; the next one makes the channel unwritable
+        ChannelFuture unwritable = factory.write(user, createRequest(1000, 256 * 1024));
+        Channel channel = factory.getChannel(user);
+        for (int i = 0; i < 50 && channel.isWritable(); i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertFalse(channel.isWritable());
+
+        // the remote end does not read; messages are queued up to maxQueuedWrites
+        List<ChannelFuture> queued = new ArrayList<ChannelFuture>();
+        for (int i = 0; i < 4; i++) {
+            queued.add(factory.write(user, createRequest(i, 16)));
+        }
+        Assert.assertEquals(factory.getQueuedMessages(), 4);
+        Assert.assertEquals(factory.getQueueDepths().get("127.0.0.1:" + user.getPort()), Integer.valueOf(4));
+        ChannelFuture rejected = factory.write(user, createRequest(4, 16));
+        Assert.assertTrue(rejected.isDone());
+        Assert.assertFalse(rejected.isSuccess());
+
+        // resumed
+        accepted.setReadable(true);
+        Assert.assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(unwritable.await(10, TimeUnit.SECONDS));
+        for (ChannelFuture future : queued) {
+            Assert.assertTrue(future.await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(future.isSuccess());
+        }
+        Assert.assertEquals(factory.getQueuedMessages(), 0);
+    }
+
+    @Test
+    public void testMaxPendingWrites() throws Exception {
+        clientChannelFactory = new HoldingChannelFactory();
+        factory.setClientChannelFactory(clientChannelFactory);
+        factory.setMaxPendingWrites(1);
+        SipUser user = getUser();
+        ChannelFuture first = factory.write(user, createRequest(1));
+        ChannelFuture second = factory.write(user, createRequest(2));
+        Assert.assertTrue(second.isDone());
+        Assert.assertFalse(second.isSuccess());
+        Assert.assertFalse(first.isDone());
+
+        clientChannelFactory.connect();
+        Assert.assertTrue(first.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(first.isSuccess());
+    }
+
+    @Test
+    public void testEvictedWhilstConnecting() throws Exception {
+        clientChannelFactory = new HoldingChannelFactory();
+        factory.setClientChannelFactory(clientChannelFactory);
+        factory.setInitialCacheSize(2);
+        factory.setIdleTimeoutMillis(200);
+        SipUser user = getUser();
+        ChannelFuture first = factory.write(user, createRequest(1));
+
+        // push the endpoint being connected out of the cache
+        for (int i = 1; i <= 10; i++) {
+            Assert.assertNull(factory.getChannel(new SipUser(null, "124", "10.0.0." + i, 5060)));
+        }
+        Assert.assertEquals(factory.getEndpointCount(), 2);
+
+        clientChannelFactory.connect();
+        Assert.assertTrue(first.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(first.isSuccess());
+
+        // the connection is still reused and closed when idle
+        Assert.assertNotNull(factory.getChannel(user));
+        for (int i = 0; i < 50 && accepted == null; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertTrue(accepted.getCloseFuture().await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testConnectFailure() throws Exception {
+        SipUser user = getUser();
+        serverChannel.close().awaitUninterruptibly();
+        ChannelFuture future = factory.write(user, createRequest(1));
+        Assert.assertTrue(future.await(10, TimeUnit.SECONDS));
+        Assert.assertFalse(future.isSuccess());
+        Assert.assertNull(factory.getChannel(user));
+    }
+
+    @Test
+    public void testIdleClose() throws Exception {
+        factory.setIdleTimeoutMillis(200);
+        SipUser user = getUser();
+        Assert.assertTrue(factory.write(user, createRequest(1)).await(5, TimeUnit.SECONDS));
+        Channel channel = factory.getChannel(user);
+        Assert.assertNotNull(channel);
+        Assert.assertTrue(channel.getCloseFuture().await(5, TimeUnit.SECONDS));
+        Assert.assertNull(factory.getChannel(user));
+    }
+
+    @Test
+    public void testResponseOnInboundConnection() throws Exception {
+        Socket client = new Socket("127.0.0.1", ((InetSocketAddress) serverChannel.getLocalAddress()).getPort());
+        try {
+            for (int i = 0; i < 50 && accepted == null; i++) {
+                Thread.sleep(100);
+            }
+            factory.setChannel(accepted.getRemoteAddress(), accepted);
+
+            // sent-by is unreachable; the response must go back on the inbound connection
+            ViaHeader via = ViaHeader.parse("SIP/2.0/TCP 10.255.255.1:5070;branch=z9hG4bK1"
+                    + ";received=127.0.0.1;rport=" + client.getLocalPort());
+            Assert.assertTrue(factory.write(via, createResponse()).await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(connections.get(), 1);
+
+            byte[] bytes = new byte[512];
+            client.setSoTimeout(5000);
+            int read = client.getInputStream().read(bytes);
+            Assert.assertTrue(new String(bytes, 0, read, "UTF-8").startsWith("SIP/2.0 200 OK"));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testInboundConnectionNotEvicted() throws Exception {
+        factory.setInitialCacheSize(2);
+        Socket client = new Socket("127.0.0.1", ((InetSocketAddress) serverChannel.getLocalAddress()).getPort());
+        try {
+            for (int i = 0; i < 50 && accepted == null; i++) {
+                Thread.sleep(100);
+            }
+            factory.setChannel(accepted.getRemoteAddress(), accepted);
+            Assert.assertEquals(factory.getInboundEndpointCount(), 1);
+
+            // push the endpoint of the inbound connection out of the cache
+            for (int i = 1; i <= 10; i++) {
+                Assert.assertNull(factory.getChannel(new SipUser(null, "124", "10.0.0." + i, 5060)));
+            }
+            Assert.assertEquals(factory.getEndpointCount(), 2);
+
+            ViaHeader via = ViaHeader.parse("SIP/2.0/TCP 10.255.255.1:5070;branch=z9hG4bK1"
+                    + ";received=127.0.0.1;rport=" + client.getLocalPort());
+            Assert.assertTrue(factory.write(via, createResponse()).await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(connections.get(), 1);
+            byte[] bytes = new byte[512];
+            client.setSoTimeout(5000);
+            int read = client.getInputStream().read(bytes);
+            Assert.assertTrue(new String(bytes, 0, read, "UTF-8").startsWith("SIP/2.0 200 OK"));
+        } finally {
+            client.close();
+        }
+
+        // removed once the connection is closed
+        Assert.assertTrue(accepted.getCloseFuture().await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 50 && factory.getInboundEndpointCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(factory.getInboundEndpointCount(), 0);
+    }
+
+    @Test
+    public void testResponseOnDatagramChannel() throws Exception {
+        DatagramSocket client = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(new NioDatagramChannelFactory(
+                Executors.newCachedThreadPool(), 1));
+        bootstrap.setPipeline(Channels.pipeline(new SipMessageEncoder()));
+        Channel datagramChannel = bootstrap.bind(new InetSocketAddress("127.0.0.1", 0));
+        try {
+            factory.setChannel(new InetSocketAddress("127.0.0.1", client.getLocalPort()), datagramChannel);
+
+            ViaHeader via = ViaHeader.parse("SIP/2.0/UDP 10.255.255.1:5070;branch=z9hG4bK1"
+                    + ";received=127.0.0.1;rport=" + client.getLocalPort());
+            Assert.assertTrue(factory.write(via, createResponse()).await(5, TimeUnit.SECONDS));
+
+            DatagramPacket packet = new DatagramPacket(new byte[512], 512);
+            client.setSoTimeout(5000);
+            client.receive(packet);
+            Assert.assertTrue(new String(packet.getData(), 0, packet.getLength(), "UTF-8")
+                    .startsWith("SIP/2.0 200 OK"));
+        } finally {
+            datagramChannel.close().awaitUninterruptibly();
+            bootstrap.releaseExternalResources();
+            client.close();
+        }
+    }
+
+    @Test
+    public void testResponseToDatagramHostName() throws Exception {
+        DatagramSocket client = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(new NioDatagramChannelFactory(
+                Executors.newCachedThreadPool(), 1));
+        bootstrap.setPipeline(Channels.pipeline(new SipMessageEncoder()));
+        Channel datagramChannel = bootstrap.bind(new InetSocketAddress("127.0.0.1", 0));
+        try {
+            factory.setChannel(new InetSocketAddress("127.0.0.1", client.getLocalPort()), datagramChannel);
+
+            // no received address; sent-by is resolved (off the calling thread)
+            ViaHeader via = ViaHeader.parse("SIP/2.0/UDP localhost:" + client.getLocalPort()
+                    + ";branch=z9hG4bK1");
+            ChannelFuture future = factory.write(via, createResponse());
+            Assert.assertTrue(future.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(future.isSuccess());
+
+            DatagramPacket packet = new DatagramPacket(new byte[512], 512);
+            client.setSoTimeout(5000);
+            client.receive(packet);
+            Assert.assertTrue(new String(packet.getData(), 0, packet.getLength(), "UTF-8")
+                    .startsWith("SIP/2.0 200 OK"));
+        } finally {
+            datagramChannel.close().awaitUninterruptibly();
+            bootstrap.releaseExternalResources();
+            client.close();
+        }
+    }
+
+    @Test
+    public void testResponseWithoutDatagramChannel() throws Exception {
+        ViaHeader via = ViaHeader.parse("SIP/2.0/UDP 127.0.0.1:5070;branch=z9hG4bK1");
+        ChannelFuture future = factory.write(via, createResponse());
+        Assert.assertTrue(future.isDone());
+        Assert.assertFalse(future.isSuccess());
+    }
+
+    @Test
+    public void testIsAddress() {
+        Assert.assertTrue(SipChannelFactoryImpl.isAddress("127.0.0.1"));
+        Assert.assertTrue(SipChannelFactoryImpl.isAddress("2001:db8::1"));
+        Assert.assertFalse(SipChannelFactoryImpl.isAddress("localhost"));
+        Assert.assertFalse(SipChannelFactoryImpl.isAddress("sip.localhost.com"));
+        Assert.assertFalse(SipChannelFactoryImpl.isAddress("1.2.3"));
+    }
+
+    private SipResponseImpl createResponse() {
+        SipResponseImpl response = new SipResponseImpl(SipVersion.SIP_2_0, SipResponseStatus.OK);
+        response.addHeader(SipHeader.CSEQ, "1 OPTIONS");
+        response.addHeader(SipHeader.CONTENT_LENGTH, 0);
+        return response;
+    }
+
+    /**
+     * Client channel factory holding connect requests until {@link #connect()}
+     * is invoked
+     */
+    private static final class HoldingChannelFactory implements ChannelFactory {
+        private final ChannelFactory channelFactory = new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool(), 1, 1);
+        private final List<Object[]> held = new ArrayList<Object[]>();
+
+        @Override
+        public Channel newChannel(ChannelPipeline pipeline) {
+            pipeline.addFirst("hold", new SimpleChannelDownstreamHandler() {
+                @Override
+                public void connectRequested(ChannelHandlerContext ctx, ChannelStateEvent e) {
+                    synchronized (held) {
+                        held.add(new Object[]{ctx, e});
+                    }
+                }
+            });
+            return channelFactory.newChannel(pipeline);
+        }
+
+        private void connect() {
+            List<Object[]> connects;
+            synchronized (held) {
+                connects = new ArrayList<Object[]>(held);
+                held.clear();
+            }
+            for (Object[] connect : connects) {
+                ((ChannelHandlerContext) connect[0]).sendDownstream((ChannelStateEvent) connect[1]);
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            channelFactory.shutdown();
+        }
+
+        @Override
+        public void releaseExternalResources() {
+            channelFactory.releaseExternalResources();
+        }
+    }
+
+    private void waitFor(int messages) throws Exception {
+        for (int i = 0; i < 50 && !received.toString().contains("CSeq: " + messages + " OPTIONS"); i++) {
+            Thread.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.elasticsoftware.sip;
+
+import org.elasticsoftware.sip.codec.SipRequest;
+import org.elasticsoftware.sip.codec.SipResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Tests for limiting the number of connections and closing idle ones
+ *
+ * @author Leonard Wolters
+ */
+public class SipConnectionManagerTest {
+    private SipConnectionManager connectionManager;
+    private SipServer server;
+    private SipChannelFactoryImpl channelFactory;
+
+    @BeforeMethod
+    public void startServer() throws Exception {
+        connectionManager = new SipConnectionManager();
+        connectionManager.setMaxConnections(1);
+        connectionManager.setIdleTimeoutSeconds(1);
+        channelFactory = new SipChannelFactoryImpl();
+        SipServerHandler handler = new SipServerHandler();
+        handler.setSipChannelFactory(channelFactory);
+        handler.setMessageHandler(new SipMessageHandler() {
+            @Override
+            public void onRequest(SipRequest request) {
+            }
+
+            @Override
+            public void onResponse(SipResponse response) {
+            }
+        });
+        channelFactory.setSipServerHandler(handler);
+        server = new SipServer();
+        server.setPort(0);
+        server.setSipServerHandler(handler);
+        server.setConnectionManager(connectionManager);
+        server.setChildWriteBufferHighWaterMark(16384);
+        server.setChildWriteBufferLowWaterMark(4096);
+        server.start();
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        server.stop();
+        channelFactory.destroy();
+        connectionManager.destroy();
+    }
+
+    @Test
+    public void testMaxConnections() throws Exception {
+        Socket first = connect();
+        Socket second = connect();
+        try {
+            // the second connection is closed before anything is read
+            Assert.assertEquals(second.getInputStream().read(), -1);
+            Assert.assertEquals(connectionManager.getConnectionCount(), 1);
+            Assert.assertEquals(connectionManager.getRejectedConnections(), 1);
+
+            // a partially received message is buffered
+            first.getOutputStream().write("REGISTER sip:127.0.0.1 SIP/2.0\r\nVia: ".getBytes("UTF-8"));
+            waitFor(connectionManager, 1);
+            Assert.assertTrue(connectionManager.getBytesPerConnection() > connectionManager.getDecoderBufferBytes());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void testIdleConnectionClosed() throws Exception {
+        Socket socket = connect();
+        try {
+            // keep alives keep the connection open
+            for (int i = 0; i < 3; i++) {
+                Thread.sleep(500);
+                socket.getOutputStream().write("\r\n\r\n".getBytes("UTF-8"));
+                Assert.assertEquals(socket.getInputStream().read(), '\r');
+                Assert.assertEquals(socket.getInputStream().read(), '\n');
+            }
+            Assert.assertEquals(socket.getInputStream().read(), -1);
+            Assert.assertEquals(connectionManager.getIdleClosedConnections(), 1);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private Socket connect() throws Exception {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress("127.0.0.1", server.getStreamAddress().getPort()), 1000);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void waitFor(SipConnectionManager connectionManager, long decoderBufferBytes)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + 1000;
+        while (connectionManager.getDecoderBufferBytes() < decoderBufferBytes && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(connectionManager.getDecoderBufferBytes() >= decoderBufferBytes);
+    }
+}
@@ -0,0 +1,97 @@
+package org.elasticsoftware.sip;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the expiry of bindings by the timing wheel of the location service
+ *
+ * @author Leonard Wolters
+ */
+public class SipLocationServiceTest {
+    private final List<String> notifications = new ArrayList<String>();
+    private SipLocationService locationService;
+
+    @BeforeMethod
+    public void setup() {
+        notifications.clear();
+        locationService = new SipLocationService();
+        locationService.setExpiryListener(new SipLocationService.ExpiryListener() {
+            @Override
+            public void onExpired(String addressOfRecord, List<String> contacts) {
+                List<String> sorted = new ArrayList<String>(contacts);
+                Collections.sort(sorted);
+                notifications.add(addressOfRecord + sorted);
+            }
+        });
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        long now = System.currentTimeMillis();
+        locationService.register("alice", "uac/a", now + 5000);
+        locationService.register("alice", "uac/b", now + 100000);
+        locationService.register("bob", "uac/c", now + TimeUnit.DAYS.toMillis(10));
+        Assert.assertEquals(locationService.getBindingCount(), 3);
+        Assert.assertEquals(locationService.getAddressOfRecordCount(), 2);
+
+        locationService.advance(now + 4000);
+        Assert.assertTrue(notifications.isEmpty());
+        locationService.advance(now + 6000);
+        Assert.assertEquals(notifications, Collections.singletonList("alice[uac/a]"));
+        Assert.assertEquals(locationService.getContacts("alice", now + 6000), Collections.singletonList("uac/b"));
+
+        // re-registering moves the deadline
+        locationService.register("alice", "uac/b", now + 200000);
+        Assert.assertEquals(locationService.getBindingCount(), 2);
+        locationService.advance(now + 150000);
+        Assert.assertEquals(notifications.size(), 1);
+        locationService.advance(now + 201000);
+        Assert.assertEquals(notifications.get(1), "alice[uac/b]");
+        Assert.assertEquals(locationService.getAddressOfRecordCount(), 1);
+
+        locationService.advance(now + TimeUnit.DAYS.toMillis(10) - 1000);
+        Assert.assertEquals(notifications.size(), 2);
+        locationService.advance(now + TimeUnit.DAYS.toMillis(10) + 1000);
+        Assert.assertEquals(notifications.get(2), "bob[uac/c]");
+        Assert.assertEquals(locationService.getBindingCount(), 0);
+        Assert.assertEquals(locationService.getExpiredBindings(), 3);
+        Assert.assertEquals(locationService.getExpiryBacklog(), 0);
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            locationService.register("alice", "uac/" + i, now + 70000);
+        }
+        locationService.register("bob", "uac/b", now + 70000);
+        locationService.advance(now + 71000);
+        Collections.sort(notifications);
+        Assert.assertEquals(notifications.size(), 2);
+        Assert.assertEquals(notifications.get(0), "alice[uac/0, uac/1, uac/2]");
+        Assert.assertEquals(notifications.get(1), "bob[uac/b]");
+    }
+
+    @Test
+    public void testUnregister() throws Exception {
+        long now = System.currentTimeMillis();
+        locationService.register("alice", "uac/a", now + 5000);
+        locationService.register("alice", "uac/b", now + 5000);
+        Assert.assertTrue(locationService.unregister("alice", "uac/a"));
+        Assert.assertFalse(locationService.unregister("alice", "uac/a"));
+        Assert.assertFalse(locationService.unregister("bob", "uac/a"));
+        Assert.assertEquals(locationService.getContacts("alice"), Collections.singletonList("uac/b"));
+        Assert.assertTrue(locationService.getContacts("bob").isEmpty());
+
+        locationService.advance(now + 6000);
+        Assert.assertEquals(notifications, Collections.singletonList("alice[uac/b]"));
+        Assert.assertEquals(locationService.getBindingCount(), 0);
+    }
+}
@@ -0,0 +1,75 @@
+package org.elasticsoftware.sip;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for issuing and verifying stateless digest nonces
+ *
+ * @author Leonard Wolters
+ */
+public class SipNonceManagerTest {
+
+    @Test
+    public void testVerify() throws Exception {
+        SipNonceManager nonces = new SipNonceManager();
+        nonces.setSecret("secret");
+        nonces.setLifetimeSeconds(300);
+        long now = System.currentTimeMillis();
+
+        String nonce = nonces.generate("elastic-software", now);
+        Assert.assertEquals(nonce.length(), 56);
+        Assert.assertTrue(nonce.matches("[0-9a-f]+"), nonce);
+        Assert.assertFalse(nonce.equals(nonces.generate("elastic-software", now)));
+
+        Assert.assertEquals(nonces.verify(nonce, "elastic-software", now), SipNonceManager.Verdict.VALID);
+        Assert.assertEquals(nonces.verify(nonce, "elastic-software", now + 300000), SipNonceManager.Verdict.VALID);
+        Assert.assertEquals(nonces.verify(nonce, "elastic-software", now + 302000), SipNonceManager.Verdict.STALE);
+        Assert.assertFalse(nonces.isStale(nonce, "elastic-software"));
+        Assert.assertEquals(nonces.verify(nonce, "other", now), SipNonceManager.Verdict.INVALID);
+        Assert.assertEquals(nonces.verify("123456789", "elastic-software", now), SipNonceManager.Verdict.INVALID);
+        Assert.assertEquals(nonces.verify(null, "elastic-software", now), SipNonceManager.Verdict.INVALID);
+
+        // tampered time
+        String tampered = Long.toHexString(now / 1000 + 1) + nonce.substring(8);
+        Assert.assertEquals(nonces.verify(tampered, "elastic-software", now), SipNonceManager.Verdict.INVALID);
+
+        // another node with the same secret accepts it, one with another secret does not
+        SipNonceManager other = new SipNonceManager();
+        other.setSecret("secret");
+        Assert.assertEquals(other.verify(nonce, "elastic-software", now), SipNonceManager.Verdict.VALID);
+        other = new SipNonceManager();
+        other.setSecret("other");
+        Assert.assertEquals(other.verify(nonce, "elastic-software", now), SipNonceManager.Verdict.INVALID);
+        // without secret, a random one
+        other = new SipNonceManager();
+        other.setSecret("");
+        Assert.assertEquals(other.verify(nonce, "elastic-software", now), SipNonceManager.Verdict.INVALID);
+        Assert.assertEquals(other.verify(other.generate("elastic-software", now), "elastic-software", now),
+                SipNonceManager.Verdict.VALID);
+
+        Assert.assertEquals(nonces.getIssued(), 2);
+        Assert.assertEquals(nonces.getStale(), 1);
+        Assert.assertEquals(nonces.getInvalid(), 4);
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        SipNonceManager nonces = new SipNonceManager();
+        String nonce = nonces.generate("elastic-software");
+        Assert.assertEquals(nonces.verify(nonce, "elastic-software"), SipNonceManager.Verdict.VALID);
+
+        Assert.assertTrue(nonces.use(nonce, 1));
+        Assert.assertFalse(nonces.use(nonce, 1));
+        Assert.assertTrue(nonces.use(nonce, 3));
+        Assert.assertFalse(nonces.use(nonce, 2));
+
+        // without nonce count a nonce can be used once
+        nonce = nonces.generate("elastic-software");
+        Assert.assertTrue(nonces.use(nonce, -1));
+        Assert.assertFalse(nonces.use(nonce, -1));
+
+        Assert.assertEquals(nonces.getReplayed(), 3);
+        Assert.assertEquals(nonces.getTrackedNonces(), 2);
+    }
+}
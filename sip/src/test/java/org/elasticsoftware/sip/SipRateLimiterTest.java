@@ -0,0 +1,228 @@
+package org.elasticsoftware.sip;
+
+import org.elasticsoftware.sip.codec.SipRequest;
+import org.elasticsoftware.sip.codec.SipResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for limiting the rate of messages per source address
+ *
+ * @author Leonard Wolters
+ */
+public class SipRateLimiterTest {
+    private static final String REGISTER = "REGISTER sip:127.0.0.1 SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP 10.0.0.1:5060;branch=z9hG4bK%d\r\n"
+            + "From: <sip:alice@127.0.0.1>;tag=1\r\n"
+            + "To: <sip:alice@127.0.0.1>\r\n"
+            + "Call-ID: %d@10.0.0.1\r\n"
+            + "CSeq: %d REGISTER\r\n"
+            + "Contact: <sip:alice@10.0.0.1>\r\n"
+            + "Content-Length: 0\r\n\r\n";
+
+    private final AtomicInteger handled = new AtomicInteger();
+    private SipRateLimiter limiter;
+    private SipServer server;
+    private SipChannelFactoryImpl channelFactory;
+    private DatagramSocket socket;
+
+    @BeforeMethod
+    public void startServer() throws Exception {
+        handled.set(0);
+        limiter = new SipRateLimiter();
+        limiter.setMessagesPerSecond(1);
+        limiter.setBurst(3);
+        limiter.setDenyAfterDrops(3);
+        limiter.setRetryAfter(5);
+        channelFactory = new SipChannelFactoryImpl();
+        SipServerHandler handler = new SipServerHandler();
+        handler.setSipChannelFactory(channelFactory);
+        handler.setMessageHandler(new SipMessageHandler() {
+            @Override
+            public void onRequest(SipRequest request) {
+                handled.incrementAndGet();
+            }
+
+            @Override
+            public void onResponse(SipResponse response) {
+                handled.incrementAndGet();
+            }
+        });
+        channelFactory.setSipServerHandler(handler);
+        server = new SipServer();
+        server.setPort(0);
+        server.setSipServerHandler(handler);
+        server.setRateLimiter(limiter);
+        server.start();
+        socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        socket.setSoTimeout(300);
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        socket.close();
+        server.stop();
+        channelFactory.destroy();
+        limiter.destroy();
+    }
+
+    @Test
+    public void testOverLimitDropped() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            Assert.assertNull(exchange(i));
+        }
+        Assert.assertEquals(handled.get(), 3);
+
+        // the source address might be spoofed, so it is never answered
+        Assert.assertNull(exchange(4));
+        Assert.assertEquals(handled.get(), 3);
+        Assert.assertEquals(limiter.getDropped(), 1);
+        Assert.assertEquals(limiter.getRejected(), 0);
+    }
+
+    @Test
+    public void testServiceUnavailable() throws Exception {
+        limiter.setGlobalMessagesPerSecond(1);
+        limiter.setGlobalBurst(2);
+        for (int i = 1; i <= 2; i++) {
+            Assert.assertNull(exchange(i));
+        }
+        Assert.assertEquals(handled.get(), 2);
+
+        String response = exchange(3);
+        Assert.assertTrue(response.startsWith("SIP/2.0 503 Service Unavailable\r\n"), response);
+        Assert.assertTrue(response.contains("Via: SIP/2.0/UDP 10.0.0.1:5060;branch=z9hG4bK3\r\n"), response);
+        Assert.assertTrue(response.contains("To: <sip:alice@127.0.0.1>;tag="), response);
+        Assert.assertTrue(response.contains("Call-ID: 3@10.0.0.1\r\n"), response);
+        Assert.assertTrue(response.contains("CSeq: 3 REGISTER\r\n"), response);
+        Assert.assertFalse(response.contains("Contact"), response);
+        Assert.assertTrue(response.endsWith("Retry-After: 5\r\nContent-Length: 0\r\n\r\n"), response);
+        Assert.assertEquals(handled.get(), 2);
+        Assert.assertEquals(limiter.getRejected(), 1);
+    }
+
+    @Test
+    public void testOverloadSuspendsConnection() throws Exception {
+        limiter.setGlobalMessagesPerSecond(1);
+        limiter.setGlobalBurst(1);
+        Socket stream = new Socket("127.0.0.1", server.getStreamAddress().getPort());
+        try {
+            OutputStream out = stream.getOutputStream();
+            for (int i = 1; i <= 2; i++) {
+                out.write(String.format(REGISTER, i, i, i).getBytes("UTF-8"));
+                out.flush();
+                Thread.sleep(100);
+            }
+            // the second read is passed on, after which reading is suspended
+            // instead of closing the connection
+            long end = System.currentTimeMillis() + 3000;
+            while (handled.get() < 2 && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(handled.get(), 2);
+            Assert.assertEquals(limiter.getSuspended(), 1);
+            Assert.assertEquals(limiter.getClosed(), 0);
+
+            // reading resumes once the global bucket has room again
+            Thread.sleep(1000);
+            out.write(String.format(REGISTER, 3, 3, 3).getBytes("UTF-8"));
+            out.flush();
+            end = System.currentTimeMillis() + 3000;
+            while (handled.get() < 3 && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(handled.get(), 3);
+            Assert.assertEquals(limiter.getClosed(), 0);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testDenylist() throws Exception {
+        for (int i = 1; i <= 6; i++) {
+            send(i);
+        }
+        Thread.sleep(200);
+        // denied after 3 messages over the limit: no longer answered
+        Assert.assertEquals(limiter.getDenied().keySet().iterator().next(), "127.0.0.1");
+        Assert.assertNull(exchange(7));
+        Assert.assertEquals(limiter.getDropped(), 4);
+
+        limiter.allow("127.0.0.1");
+        Assert.assertTrue(limiter.getDenied().isEmpty());
+        Assert.assertNull(exchange(8));
+        Assert.assertEquals(handled.get(), 4);
+    }
+
+    @Test
+    public void testBucket() throws Exception {
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        long now = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(limiter.check(address, now), SipRateLimiter.Verdict.ACCEPT);
+        }
+        Assert.assertEquals(limiter.check(address, now), SipRateLimiter.Verdict.OVER_LIMIT);
+        // refilled at one message per second
+        now += TimeUnit.SECONDS.toNanos(1);
+        Assert.assertEquals(limiter.check(address, now), SipRateLimiter.Verdict.ACCEPT);
+        Assert.assertEquals(limiter.check(address, now), SipRateLimiter.Verdict.OVER_LIMIT);
+        // other sources have their own bucket
+        Assert.assertEquals(limiter.check(InetAddress.getByName("10.0.0.2"), now), SipRateLimiter.Verdict.ACCEPT);
+    }
+
+    @Test
+    public void testGlobalBucket() throws Exception {
+        limiter.setBurst(1);
+        limiter.setGlobalMessagesPerSecond(1);
+        limiter.setGlobalBurst(2);
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        long now = System.nanoTime();
+        Assert.assertEquals(limiter.check(address, now), SipRateLimiter.Verdict.ACCEPT);
+        // messages over the limit of their source leave the global bucket untouched
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(limiter.check(address, now), SipRateLimiter.Verdict.OVER_LIMIT);
+        }
+        InetAddress other = InetAddress.getByName("10.0.0.2");
+        Assert.assertEquals(limiter.check(other, now), SipRateLimiter.Verdict.ACCEPT);
+        // refused on overload, without being charged or denied
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(limiter.check(other, now), SipRateLimiter.Verdict.OVERLOADED);
+        }
+        Assert.assertTrue(limiter.getDenied().isEmpty());
+        now += TimeUnit.SECONDS.toNanos(1);
+        Assert.assertEquals(limiter.check(other, now), SipRateLimiter.Verdict.ACCEPT);
+    }
+
+    /**
+     * Sends the i-th REGISTER and returns the response or null if none is received
+     */
+    private String exchange(int i) throws Exception {
+        send(i);
+        DatagramPacket packet = new DatagramPacket(new byte[4096], 4096);
+        try {
+            socket.receive(packet);
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+        return new String(packet.getData(), 0, packet.getLength(), "UTF-8");
+    }
+
+    private void send(int i) throws Exception {
+        byte[] bytes = String.format(REGISTER, i, i, i).getBytes("UTF-8");
+        socket.send(new DatagramPacket(bytes, bytes.length,
+                new InetSocketAddress("127.0.0.1", server.getDatagramAddress().getPort())));
+    }
+}
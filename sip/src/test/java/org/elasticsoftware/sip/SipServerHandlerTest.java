@@ -0,0 +1,68 @@
+package org.elasticsoftware.sip;
+
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for handling exceptions raised on the server's channels
+ *
+ * @author Leonard Wolters
+ */
+public class SipServerHandlerTest {
+
+    @Test
+    public void testExceptionKeepsDatagramChannelOpen() throws Exception {
+        ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(new NioDatagramChannelFactory(
+                Executors.newCachedThreadPool(), 1));
+        bootstrap.setPipeline(Channels.pipeline(new SipServerHandler()));
+        Channel channel = bootstrap.bind(new InetSocketAddress("127.0.0.1", 0));
+        try {
+            Channels.fireExceptionCaught(channel, new IllegalStateException("write failed"));
+            Assert.assertFalse(channel.getCloseFuture().await(200, TimeUnit.MILLISECONDS));
+            Assert.assertTrue(channel.isBound());
+        } finally {
+            channel.close().awaitUninterruptibly();
+            bootstrap.releaseExternalResources();
+        }
+    }
+
+    @Test
+    public void testExceptionClosesConnection() throws Exception {
+        final Channel[] accepted = new Channel[1];
+        ServerBootstrap server = new ServerBootstrap(new NioServerSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool(), 1));
+        server.setPipeline(Channels.pipeline(new SipServerHandler() {
+            @Override
+            public void channelConnected(ChannelHandlerContext ctx,
+                                         ChannelStateEvent e) {
+                accepted[0] = e.getChannel();
+            }
+        }));
+        Channel serverChannel = server.bind(new InetSocketAddress("127.0.0.1", 0));
+        Socket client = new Socket("127.0.0.1", ((InetSocketAddress) serverChannel.getLocalAddress()).getPort());
+        try {
+            for (int i = 0; i < 50 && accepted[0] == null; i++) {
+                Thread.sleep(100);
+            }
+            Channels.fireExceptionCaught(accepted[0], new IllegalStateException("invalid message"));
+            Assert.assertTrue(accepted[0].getCloseFuture().await(5, TimeUnit.SECONDS));
+        } finally {
+            client.close();
+            serverChannel.close().awaitUninterruptibly();
+            server.releaseExternalResources();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.elasticsoftware.sip;
+
+import org.elasticsoftware.sip.codec.SipRequest;
+import org.elasticsoftware.sip.codec.SipResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for answering keep alives, OPTIONS and malformed requests without
+ * passing them to the message handler
+ *
+ * @author Leonard Wolters
+ */
+public class SipStatelessResponderTest {
+    private static final String OPTIONS = "OPTIONS sip:127.0.0.1 SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP 10.0.0.1:5060;rport;branch=z9hG4bK1\r\n"
+            + "From: <sip:alice@127.0.0.1>;tag=1\r\n"
+            + "To: <sip:127.0.0.1>\r\n"
+            + "Call-ID: 1@10.0.0.1\r\n"
+            + "CSeq: 1 OPTIONS\r\n"
+            + "Content-Length: 0\r\n\r\n";
+    private static final String REGISTER = "REGISTER sip:127.0.0.1 SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP 10.0.0.1:5060;branch=z9hG4bK2\r\n"
+            + "From: <sip:alice@127.0.0.1>;tag=1\r\n"
+            + "To: <sip:alice@127.0.0.1>\r\n"
+            + "Call-ID: 2@10.0.0.1\r\n"
+            + "CSeq: 1 REGISTER\r\n"
+            + "Content-Length: 0\r\n\r\n";
+
+    private final AtomicInteger handled = new AtomicInteger();
+    private SipStatelessResponder responder;
+    private SipServer server;
+    private SipChannelFactoryImpl channelFactory;
+    private DatagramSocket socket;
+
+    @BeforeMethod
+    public void startServer() throws Exception {
+        handled.set(0);
+        responder = new SipStatelessResponder();
+        responder.setAllow("INVITE, ACK, OPTIONS");
+        responder.setServer("test");
+        channelFactory = new SipChannelFactoryImpl();
+        SipServerHandler handler = new SipServerHandler();
+        handler.setSipChannelFactory(channelFactory);
+        handler.setStatelessResponder(responder);
+        handler.setMessageHandler(new SipMessageHandler() {
+            @Override
+            public void onRequest(SipRequest request) {
+                handled.incrementAndGet();
+            }
+
+            @Override
+            public void onResponse(SipResponse response) {
+                handled.incrementAndGet();
+            }
+        });
+        channelFactory.setSipServerHandler(handler);
+        server = new SipServer();
+        server.setPort(0);
+        server.setSipServerHandler(handler);
+        server.start();
+        socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        socket.setSoTimeout(500);
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        socket.close();
+        server.stop();
+        channelFactory.destroy();
+    }
+
+    @Test
+    public void testOptions() throws Exception {
+        String response = exchange(OPTIONS);
+        Assert.assertTrue(response.startsWith("SIP/2.0 200 OK\r\n"), response);
+        Assert.assertTrue(response.contains("Via: SIP/2.0/UDP 10.0.0.1:5060;rport="), response);
+        Assert.assertTrue(response.contains(";received=127.0.0.1"), response);
+        Assert.assertTrue(response.contains("To: <sip:127.0.0.1>;tag="), response);
+        Assert.assertTrue(response.contains("CSeq: 1 OPTIONS\r\n"), response);
+        Assert.assertTrue(response.contains("Allow: INVITE, ACK, OPTIONS\r\n"), response);
+        Assert.assertTrue(response.endsWith("Server: test\r\nContent-Length: 0\r\n\r\n"), response);
+
+        // a retransmission gets the same response
+        Assert.assertEquals(exchange(OPTIONS), response);
+        Assert.assertEquals(handled.get(), 0);
+    }
+
+    @Test
+    public void testOptionsNotAddressedToServer() throws Exception {
+        // meant for a user agent
+        Assert.assertNull(exchange(OPTIONS.replace("OPTIONS sip:127.0.0.1", "OPTIONS sip:bob@127.0.0.1")));
+        Assert.assertEquals(handled.get(), 1);
+        // within a dialog
+        Assert.assertNull(exchange(OPTIONS.replace("To: <sip:127.0.0.1>", "To: <sip:127.0.0.1>;tag=2")));
+        Assert.assertEquals(handled.get(), 2);
+
+        // another domain, if the domains of the server are known
+        responder.setDomains("localhost, 127.0.0.1");
+        Assert.assertNotNull(exchange(OPTIONS));
+        Assert.assertNull(exchange(OPTIONS.replace("OPTIONS sip:127.0.0.1", "OPTIONS sip:example.com")));
+        Assert.assertEquals(handled.get(), 3);
+    }
+
+    @Test
+    public void testMissingHeader() throws Exception {
+        String response = exchange(REGISTER.replace("From: <sip:alice@127.0.0.1>;tag=1\r\n", ""));
+        Assert.assertTrue(response.startsWith("SIP/2.0 400 Bad Request\r\n"), response);
+        Assert.assertTrue(response.contains("Call-ID: 2@10.0.0.1\r\n"), response);
+        Assert.assertEquals(handled.get(), 0);
+
+        // without Contact, a REGISTER queries the bindings
+        response = exchange(REGISTER);
+        Assert.assertNull(response);
+        Assert.assertEquals(handled.get(), 1);
+    }
+
+    @Test
+    public void testPingPong() throws Exception {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress("127.0.0.1", server.getStreamAddress().getPort()), 1000);
+            socket.setSoTimeout(1000);
+            socket.getOutputStream().write("\r\n\r\n".getBytes("UTF-8"));
+            InputStream in = socket.getInputStream();
+            Assert.assertEquals(in.read(), '\r');
+            Assert.assertEquals(in.read(), '\n');
+        } finally {
+            socket.close();
+        }
+        Assert.assertEquals(handled.get(), 0);
+    }
+
+    /**
+     * Sends given datagram and returns the response or null if none is received
+     */
+    private String exchange(String request) throws Exception {
+        byte[] bytes = request.getBytes("UTF-8");
+        socket.send(new DatagramPacket(bytes, bytes.length,
+                new InetSocketAddress("127.0.0.1", server.getDatagramAddress().getPort())));
+        DatagramPacket packet = new DatagramPacket(new byte[4096], 4096);
+        try {
+            socket.receive(packet);
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+        return new String(packet.getData(), 0, packet.getLength(), "UTF-8");
+    }
+}
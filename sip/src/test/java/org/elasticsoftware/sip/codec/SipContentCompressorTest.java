@@ -0,0 +1,136 @@
+package org.elasticsoftware.sip.codec;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.jboss.netty.util.CharsetUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Tests for compressing bodies of outbound messages
+ *
+ * @author Leonard Wolters
+ */
+public class SipContentCompressorTest {
+    private static final String SDP = "v=0\r\n"
+            + "o=- 13021925633373920 1 IN IP4 192.168.1.10\r\n"
+            + "s=X-Lite release 4.5.4 stamp 71128\r\n"
+            + "c=IN IP4 192.168.1.10\r\n"
+            + "t=0 0\r\n"
+            + "m=audio 64504 RTP/AVP 9 8 120 0 84 101\r\n"
+            + "a=rtpmap:120 opus/48000/2\r\n"
+            + "a=fmtp:120 useinbandfec=1; usedtx=1; maxaveragebitrate=64000\r\n"
+            + "a=rtpmap:84 speex/16000\r\n"
+            + "a=rtpmap:101 telephone-event/8000\r\n"
+            + "a=fmtp:101 0-15\r\n"
+            + "a=sendrecv\r\n"
+            + "m=video 62460 RTP/AVP 123 100 34\r\n"
+            + "a=rtpmap:123 H264/90000\r\n"
+            + "a=fmtp:123 profile-level-id=42801f; packetization-mode=1\r\n"
+            + "a=rtpmap:100 VP8/90000\r\n"
+            + "a=rtpmap:34 H263/90000\r\n"
+            + "a=sendrecv\r\n";
+
+    @Test
+    public void testNotAdvertised() throws Exception {
+        SipContentCompressor compressor = new SipContentCompressor();
+        SipMessage message = createMessage("application/sdp", SDP);
+        Assert.assertSame(compressor.compress(message), message);
+        Assert.assertEquals(message.getContent().toString(CharsetUtil.UTF_8), SDP);
+
+        compressor.setAcceptEncoding("gzip;q=0, identity");
+        Assert.assertNull(compressor.getEncoding());
+        Assert.assertSame(compressor.compress(message), message);
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        SipContentCompressor compressor = new SipContentCompressor();
+        compressor.setAcceptEncoding("gzip;q=0.5, deflate");
+        Assert.assertEquals(compressor.getEncoding(), "deflate");
+
+        SipMessage message = createMessage("application/sdp", SDP);
+        SipMessage compressed = compressor.compress(message);
+        Assert.assertNotSame(compressed, message);
+        Assert.assertTrue(compressed instanceof SipRequest);
+        Assert.assertEquals(((SipRequest) compressed).getMethod(), SipMethod.INVITE);
+        Assert.assertEquals(compressed.getHeaderValue(SipHeader.CALL_ID), "call-1");
+        Assert.assertEquals(compressed.getHeaderValue(SipHeader.CONTENT_ENCODING), "deflate");
+        int length = compressed.getContent().readableBytes();
+        Assert.assertTrue(length < SDP.length(), "length: " + length);
+        Assert.assertEquals(compressed.getHeaderValue(SipHeader.CONTENT_LENGTH), String.valueOf(length));
+        Assert.assertEquals(inflate(new InflaterInputStream(new ChannelBufferInputStream(compressed.getContent()))),
+                SDP);
+
+        // the message given is left as is
+        Assert.assertNull(message.getHeaderValue(SipHeader.CONTENT_ENCODING));
+        Assert.assertEquals(message.getHeaderValue(SipHeader.CONTENT_LENGTH), String.valueOf(SDP.length()));
+        Assert.assertEquals(message.getContent().toString(CharsetUtil.UTF_8), SDP);
+
+        // already compressed
+        Assert.assertSame(compressor.compress(compressed), compressed);
+
+        // the deflater is reused
+        Assert.assertEquals(compressor.compress(message).getContent().readableBytes(), length);
+    }
+
+    @Test
+    public void testAdvertised() throws Exception {
+        SipContentCompressor compressor = new SipContentCompressor();
+        SipMessage message = createMessage("application/sdp", SDP);
+        message.addHeader(SipHeader.ACCEPT_ENCODING, "gzip");
+        // the Accept-Encoding of a received message is taken
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(compressor);
+        embedder.offer(message);
+        Assert.assertSame(embedder.poll(), message);
+        Assert.assertEquals(compressor.getEncoding(), "gzip");
+    }
+
+    @Test
+    public void testEncoded() throws Exception {
+        SipContentCompressor compressor = new SipContentCompressor();
+        compressor.setAcceptEncoding("gzip");
+        EncoderEmbedder<ChannelBuffer> embedder = new EncoderEmbedder<ChannelBuffer>(
+                new SipMessageEncoder(), compressor);
+        SipMessage message = createMessage("application/sdp", SDP);
+        embedder.offer(message);
+        Assert.assertNull(message.getHeaderValue(SipHeader.CONTENT_ENCODING));
+        String encoded = embedder.poll().toString(CharsetUtil.ISO_8859_1);
+        Assert.assertTrue(encoded.contains("Content-Encoding: gzip\r\n"), encoded);
+        String body = encoded.substring(encoded.indexOf("\r\n\r\n") + 4);
+        Assert.assertEquals(inflate(new GZIPInputStream(new ChannelBufferInputStream(
+                ChannelBuffers.copiedBuffer(body, CharsetUtil.ISO_8859_1)))), SDP);
+
+        // small and binary bodies are left alone
+        SipMessage small = createMessage("application/sdp", "v=0\r\n");
+        Assert.assertSame(compressor.compress(small), small);
+        SipMessage binary = createMessage("application/octet-stream", SDP);
+        Assert.assertSame(compressor.compress(binary), binary);
+    }
+
+    private static SipMessage createMessage(String contentType, String body) {
+        SipMessage message = new SipRequestImpl(SipVersion.SIP_2_0, SipMethod.INVITE, "sip:bob@sip.outerteams.com");
+        message.addHeader(SipHeader.CALL_ID, "call-1");
+        message.addHeader(SipHeader.CONTENT_TYPE, contentType);
+        message.addHeader(SipHeader.CONTENT_LENGTH, body.length());
+        message.setContent(ChannelBuffers.copiedBuffer(body, CharsetUtil.UTF_8));
+        return message;
+    }
+
+    private static String inflate(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+}
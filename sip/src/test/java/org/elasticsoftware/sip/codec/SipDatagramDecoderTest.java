@@ -0,0 +1,87 @@
+package org.elasticsoftware.sip.codec;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.util.CharsetUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for decoding SIP messages received as datagrams (UDP)
+ *
+ * @author Leonard Wolters
+ */
+public class SipDatagramDecoderTest extends AbstractSipTest {
+    private static final String OPTIONS = "OPTIONS sip:localhost SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP 10.0.0.1:5060;branch=z9hG4bK1\r\n"
+            + "Call-ID: 1@10.0.0.1\r\n"
+            + "CSeq: 1 OPTIONS\r\n";
+
+    private final SipDatagramDecoder decoder = new SipDatagramDecoder();
+
+    private SipMessage decode(String datagram) {
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(decoder);
+        embedder.offer(ChannelBuffers.copiedBuffer(datagram, CharsetUtil.UTF_8));
+        return embedder.poll();
+    }
+
+    @Test
+    public void testValidMessage() throws Exception {
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(decoder);
+        embedder.offer(createChannelFromFile("alice_invite_bob.txt"));
+        SipRequest request = (SipRequest) embedder.poll();
+        Assert.assertNotNull(request);
+        Assert.assertEquals(request.getMethod(), SipMethod.INVITE);
+        Assert.assertEquals(request.getHeaderValue(SipHeader.TO), "Bob <sip:bob@biloxi.com>");
+        Assert.assertEquals(request.getContent().toString(CharsetUtil.UTF_8), "abcdefghijklmnopqrs\n");
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        DecoderEmbedder<Object> embedder = new DecoderEmbedder<Object>(decoder);
+        embedder.offer(ChannelBuffers.copiedBuffer("\r\n\r\n", CharsetUtil.UTF_8));
+        Assert.assertEquals(embedder.poll(), SipKeepAlive.PING);
+        embedder.offer(ChannelBuffers.copiedBuffer("\r\n", CharsetUtil.UTF_8));
+        Assert.assertNull(embedder.poll());
+    }
+
+    @Test
+    public void testContentWithoutContentLength() throws Exception {
+        SipMessage message = decode(OPTIONS + "\r\nhello");
+        Assert.assertNotNull(message);
+        Assert.assertEquals(message.getContent().toString(CharsetUtil.UTF_8), "hello");
+    }
+
+    @Test
+    public void testContentLengthSmallerThanDatagram() throws Exception {
+        SipMessage message = decode(OPTIONS + "Content-Length: 4\r\n\r\nhello");
+        Assert.assertNotNull(message);
+        Assert.assertEquals(message.getContent().toString(CharsetUtil.UTF_8), "hell");
+    }
+
+    @Test
+    public void testMissingEmptyLine() throws Exception {
+        SipMessage message = decode(OPTIONS);
+        Assert.assertNotNull(message);
+        Assert.assertEquals(message.getHeaderValue(SipHeader.CSEQ), "1 OPTIONS");
+        Assert.assertFalse(message.getContent().readable());
+    }
+
+    @Test
+    public void testResponse() throws Exception {
+        SipMessage message = decode("SIP/2.0 180 Ringing\r\nCSeq: 1 INVITE\r\n\r\n");
+        Assert.assertTrue(message instanceof SipResponse);
+        Assert.assertEquals(message.getResponseStatus(), SipResponseStatus.RINGING);
+    }
+
+    @Test
+    public void testMalformedDatagramsAreDropped() throws Exception {
+        Assert.assertNull(decode("\r\n"));
+        Assert.assertNull(decode("bla bla bla"));
+        Assert.assertNull(decode("bla bla bla\r\n\r\n"));
+        Assert.assertNull(decode("bla bla SIP/2.0\r\n\r\n"));
+        Assert.assertNull(decode("SIP/2.0 999 Whatever\r\n\r\n"));
+        Assert.assertNull(decode(OPTIONS + "Content-Length: 10\r\n\r\nhello"));
+        Assert.assertNull(decode(OPTIONS + "Content-Length: ten\r\n\r\nhello"));
+    }
+}
@@ -1,6 +1,9 @@
 package org.elasticsoftware.sip.codec;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
 import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -55,4 +58,63 @@ public class SipResponseEncoderTest extends AbstractSipTest {
         Assert.assertTrue(checkCharacters(content, generated));
         Assert.assertEquals(content.trim(), generated.trim());
     }
+
+    @Test
+    public void testForwardReceivedHeaders() throws Exception {
+        String headers = "Via: SIP/2.0/UDP pc33.atlanta.com\r\n ;branch=z9hG4bK776asdhds\r\n"
+                + "p-asserted-identity:<sip:alice@atlanta.com>\r\n"
+                + "Session-Expires: 1800\r\n"
+                + "CSeq: 314159 INVITE\r\n";
+        SipDatagramDecoder decoder = new SipDatagramDecoder();
+        DecoderEmbedder<SipMessage> decoderEmbedder = new DecoderEmbedder<SipMessage>(decoder);
+        decoderEmbedder.offer(ChannelBuffers.copiedBuffer("SIP/2.0 200 OK\r\n" + headers
+                + "\r\n", SipMessageEncoder.charSet));
+        SipMessage msg = decoderEmbedder.poll();
+        msg.addHeader("Reason", "SIP;cause=200");
+
+        EncoderEmbedder<ChannelBuffer> embedder = new EncoderEmbedder<ChannelBuffer>(new SipMessageEncoder());
+        embedder.offer(msg);
+        Assert.assertEquals(embedder.poll().toString(SipMessageEncoder.charSet), "SIP/2.0 200 OK\r\n"
+                + headers + "Reason: SIP;cause=200\r\n\r\n");
+    }
+
+    @Test
+    public void testExactSize() throws Exception {
+        SipResponse msg = new SipResponseImpl(SipVersion.SIP_2_0, SipResponseStatus.UNAUTHORIZED);
+        msg.addHeader(SipHeader.FROM, "\"J\u00fcrgen \u20ac\" <sip:j@localhost>");
+        msg.addHeader("X-Extension", "value");
+        msg.addHeader(SipHeader.CONTENT_LENGTH, 5);
+        msg.setContent(ChannelBuffers.copiedBuffer("hello", SipMessageEncoder.charSet));
+
+        EncoderEmbedder<ChannelBuffer> embedder = new EncoderEmbedder<ChannelBuffer>(
+                new SipMessageEncoder(DirectChannelBufferFactory.getInstance()));
+        embedder.offer(msg);
+        ChannelBuffer buffer = embedder.poll();
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(buffer.writableBytes(), 0);
+        Assert.assertEquals(buffer.toString(SipMessageEncoder.charSet), "SIP/2.0 401 Unauthorized\r\n"
+                + "From: \"J\u00fcrgen \u20ac\" <sip:j@localhost>\r\n"
+                + "X-Extension: value\r\n"
+                + "Content-Length: 5\r\n\r\nhello");
+    }
+
+    @Test
+    public void testOptionalMessage() throws Exception {
+        SipResponse notFound = new SipResponseImpl(SipVersion.SIP_2_0, SipResponseStatus.NOT_FOUND);
+        notFound.setOptionalMessage("no mailbox");
+        SipResponse other = new SipResponseImpl(SipVersion.SIP_2_0, SipResponseStatus.NOT_FOUND);
+
+        // the optional message belongs to the response, not to the (shared) status
+        EncoderEmbedder<ChannelBuffer> embedder = new EncoderEmbedder<ChannelBuffer>(
+                new SipMessageEncoder(DirectChannelBufferFactory.getInstance()));
+        embedder.offer(notFound);
+        embedder.offer(other);
+        ChannelBuffer buffer = embedder.poll();
+        Assert.assertEquals(buffer.writableBytes(), 0);
+        Assert.assertEquals(buffer.toString(SipMessageEncoder.charSet), "SIP/2.0 404 Not Found (no mailbox)\r\n\r\n");
+        buffer = embedder.poll();
+        Assert.assertEquals(buffer.writableBytes(), 0);
+        Assert.assertEquals(buffer.toString(SipMessageEncoder.charSet), "SIP/2.0 404 Not Found\r\n\r\n");
+        Assert.assertTrue(notFound.toString().startsWith("SIP_2_0 404 Not Found (no mailbox)"));
+    }
 }
@@ -0,0 +1,280 @@
+package org.elasticsoftware.sip.codec;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.CodecEmbedderException;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.frame.CorruptedFrameException;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.jboss.netty.util.CharsetUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * Tests for decoding SIP messages received over a stream (TCP)
+ *
+ * @author Leonard Wolters
+ */
+public class SipStreamDecoderTest extends AbstractSipTest {
+    private static final String REGISTER = "REGISTER sip:localhost SIP/2.0\r\n"
+            + "Via: SIP/2.0/TCP 10.0.0.1:5060;branch=z9hG4bK%d\r\n"
+            + "Call-ID: %d@10.0.0.1\r\n"
+            + "CSeq: %d REGISTER\r\n"
+            + "Content-Length: 0\r\n"
+            + "\r\n";
+
+    @Test
+    public void testValidMessage() throws Exception {
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(new SipStreamDecoder());
+        embedder.offer(createChannelFromFile("alice_invite_bob.txt"));
+        SipRequest request = (SipRequest) embedder.poll();
+        Assert.assertNotNull(request);
+        Assert.assertNull(request.getResponseStatus());
+        Assert.assertEquals(request.getMethod(), SipMethod.INVITE);
+        Assert.assertEquals(request.getHeaderValue(SipHeader.CALL_ID), "a84b4c76e66710@pc33.atlanta.com");
+        Assert.assertEquals(request.getContent().toString(CharsetUtil.UTF_8), "abcdefghijklmnopqrs\n");
+        Assert.assertNull(embedder.poll());
+    }
+
+    @Test
+    public void testFragmentedMessage() throws Exception {
+        ChannelBuffer buf = createChannelFromFile("alice_invite_bob.txt");
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(new SipStreamDecoder());
+        while (buf.readable()) {
+            Assert.assertNull(embedder.poll());
+            embedder.offer(buf.readBytes(1));
+        }
+        SipMessage message = embedder.poll();
+        Assert.assertNotNull(message);
+        Assert.assertEquals(message.getHeaderValue(SipHeader.CSEQ), "314159 INVITE");
+        Assert.assertEquals(message.getContent().readableBytes(), 20);
+    }
+
+    @Test
+    public void testIncompleteContent() throws Exception {
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(new SipStreamDecoder());
+        embedder.offer(createChannelFromFile("alice_invite_bob.txt", 10));
+        Assert.assertNull(embedder.poll());
+    }
+
+    @Test
+    public void testPipelinedMessages() throws Exception {
+        StringBuilder sb = new StringBuilder("\r\n\r\n");
+        for (int i = 1; i <= 3; i++) {
+            sb.append(String.format(REGISTER, i, i, i));
+        }
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer(sb.toString(), CharsetUtil.UTF_8);
+        DecoderEmbedder<Object> embedder = new DecoderEmbedder<Object>(new SipStreamDecoder());
+
+        // offer first message and a half, followed by the remainder
+        int split = buf.readableBytes() / 2;
+        embedder.offer(buf.readBytes(split));
+        embedder.offer(buf);
+        // the leading double CRLF is a keep alive
+        Assert.assertEquals(embedder.poll(), SipKeepAlive.PING);
+        for (int i = 1; i <= 3; i++) {
+            SipMessage message = (SipMessage) embedder.poll();
+            Assert.assertNotNull(message);
+            Assert.assertEquals(message.getHeaderValue(SipHeader.CSEQ), i + " REGISTER");
+        }
+        Assert.assertNull(embedder.poll());
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        DecoderEmbedder<Object> embedder = new DecoderEmbedder<Object>(new SipStreamDecoder());
+
+        // ping split over two segments, a single CRLF (no ping) and a ping between messages
+        embedder.offer(ChannelBuffers.copiedBuffer("\r\n\r", CharsetUtil.UTF_8));
+        Assert.assertNull(embedder.poll());
+        embedder.offer(ChannelBuffers.copiedBuffer("\n", CharsetUtil.UTF_8));
+        Assert.assertEquals(embedder.poll(), SipKeepAlive.PING);
+        embedder.offer(ChannelBuffers.copiedBuffer("\r\n" + String.format(REGISTER, 1, 1, 1)
+                + "\r\n\r\n" + String.format(REGISTER, 2, 2, 2), CharsetUtil.UTF_8));
+        Assert.assertEquals(((SipMessage) embedder.poll()).getHeaderValue(SipHeader.CSEQ), "1 REGISTER");
+        Assert.assertEquals(embedder.poll(), SipKeepAlive.PING);
+        Assert.assertEquals(((SipMessage) embedder.poll()).getHeaderValue(SipHeader.CSEQ), "2 REGISTER");
+        Assert.assertNull(embedder.poll());
+    }
+
+    @Test
+    public void testResponse() throws Exception {
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer("SIP/2.0 200 OK\r\n"
+                + "CSeq: 1 OPTIONS\r\n"
+                + "Content-Length: 0\r\n\r\n", CharsetUtil.UTF_8);
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(new SipStreamDecoder());
+        embedder.offer(buf);
+        SipMessage message = embedder.poll();
+        Assert.assertTrue(message instanceof SipResponse);
+        Assert.assertEquals(message.getResponseStatus(), SipResponseStatus.OK);
+    }
+
+    @Test
+    public void testInvalidInitialLineSkipsContent() throws Exception {
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer("bla bla SIP/2.0\r\n"
+                + "Content-Length: 5\r\n\r\nhello"
+                + String.format(REGISTER, 1, 1, 1), CharsetUtil.UTF_8);
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(new SipStreamDecoder());
+        embedder.offer(buf);
+        SipMessage message = embedder.poll();
+        Assert.assertEquals(message.getResponseStatus(), SipResponseStatus.METHOD_NOT_ALLOWED);
+        message = embedder.poll();
+        Assert.assertTrue(message instanceof SipRequest);
+        Assert.assertNull(message.getResponseStatus());
+    }
+
+    @Test
+    public void testFoldedAndRepeatedHeaders() throws Exception {
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer("REGISTER sip:localhost SIP/2.0\r\n"
+                + "Via: SIP/2.0/TCP 10.0.0.1:5060;branch=z9hG4bK1\r\n"
+                + "via: SIP/2.0/TCP 10.0.0.2:5060;branch=z9hG4bK2\r\n"
+                + "Subject: I know you're there,\r\n"
+                + "   pick up the phone   \r\n"
+                + "\tand talk to me!\r\n"
+                + "Content-Length: 0\r\n"
+                + "\r\n", CharsetUtil.UTF_8);
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(new SipStreamDecoder());
+        embedder.offer(buf);
+        SipMessage message = embedder.poll();
+        Assert.assertNotNull(message);
+        List<String> via = message.getHeaderValues(SipHeader.VIA);
+        Assert.assertEquals(via.size(), 2);
+        Assert.assertEquals(via.get(1), "SIP/2.0/TCP 10.0.0.2:5060;branch=z9hG4bK2");
+        Assert.assertEquals(message.getHeaderValue(SipHeader.SUBJECT),
+                "I know you're there, pick up the phone and talk to me!");
+
+        // modifying headers moves them into the header map
+        message.setHeader(SipHeader.CONTENT_LENGTH, 10);
+        Assert.assertEquals(message.getContentLength(-1), 10);
+        Assert.assertEquals(message.getHeaderValues(SipHeader.VIA).size(), 2);
+    }
+
+    @Test
+    public void testExtensionHeaders() throws Exception {
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer("INVITE sip:bob@localhost SIP/2.0\r\n"
+                + "P-Asserted-Identity: <sip:alice@localhost>\r\n"
+                + "session-expires: 1800;refresher=uac\r\n"
+                + "Require: timer\r\n"
+                + "Require: 100rel\r\n"
+                + "Content-Length: 0\r\n\r\n", CharsetUtil.UTF_8);
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(new SipStreamDecoder());
+        embedder.offer(buf);
+        SipMessage message = embedder.poll();
+        Assert.assertEquals(message.getHeaderValue("p-asserted-identity"), "<sip:alice@localhost>");
+        Assert.assertEquals(message.getHeaderValue("Session-Expires"), "1800;refresher=uac");
+        Assert.assertEquals(message.getHeaderValues("Require").size(), 2);
+        Assert.assertTrue(message.getHeaderValues("Reason").isEmpty());
+        Assert.assertEquals(message.getHeaderValue(SipHeader.CONTENT_LENGTH), "0");
+        Assert.assertEquals(message.getHeaders().size(), 4);
+
+        message.removeHeader("REQUIRE");
+        Assert.assertTrue(message.getHeaderValues("Require").isEmpty());
+        Assert.assertEquals(message.getHeaderValue("P-Asserted-Identity"), "<sip:alice@localhost>");
+    }
+
+    @Test
+    public void testCompactHeaders() throws Exception {
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer("INVITE sip:bob@localhost SIP/2.0\r\n"
+                + "v: SIP/2.0/TCP 10.0.0.1:5060;branch=z9hG4bK1\r\n"
+                + "f: <sip:alice@localhost>;tag=1\r\n"
+                + "T: <sip:bob@localhost>\r\n"
+                + "i: 1@10.0.0.1\r\n"
+                + "CSEQ: 1 INVITE\r\n"
+                + "l: 5\r\n\r\nhello", CharsetUtil.UTF_8);
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(new SipStreamDecoder());
+        embedder.offer(buf);
+        SipMessage message = embedder.poll();
+        Assert.assertEquals(message.getHeaderValue(SipHeader.VIA), "SIP/2.0/TCP 10.0.0.1:5060;branch=z9hG4bK1");
+        Assert.assertEquals(message.getHeaderValue(SipHeader.FROM), "<sip:alice@localhost>;tag=1");
+        Assert.assertEquals(message.getHeaderValue(SipHeader.TO), "<sip:bob@localhost>");
+        Assert.assertEquals(message.getHeaderValue(SipHeader.CALL_ID), "1@10.0.0.1");
+        Assert.assertEquals(message.getHeaderValue(SipHeader.CSEQ), "1 INVITE");
+        Assert.assertEquals(message.getContent().toString(CharsetUtil.UTF_8), "hello");
+        Assert.assertEquals(message.getHeaderValue("m"), null);
+        Assert.assertEquals(SipHeader.lookup("www-authenticate"), SipHeader.WWW_AUTHENTICATE);
+        Assert.assertEquals(SipHeader.lookup("K"), SipHeader.SUPPORTED);
+        Assert.assertEquals(SipHeader.lookup("o"), SipHeader.EVENT);
+        Assert.assertEquals(SipHeader.lookup("U"), SipHeader.ALLOW_EVENTS);
+        Assert.assertEquals(SipHeader.lookup(ChannelBuffers.copiedBuffer("o", CharsetUtil.UTF_8), 0, 1),
+                SipHeader.EVENT);
+        Assert.assertNull(SipHeader.lookup("P-Asserted-Identity"));
+    }
+
+    @Test
+    public void testRetryAfter() throws Exception {
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer("SIP/2.0 503 Service Unavailable\r\n"
+                + "CSeq: 1 REGISTER\r\n"
+                + "retry-after: 5\r\n"
+                + "Content-Length: 0\r\n\r\n", CharsetUtil.UTF_8);
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(new SipStreamDecoder());
+        embedder.offer(buf);
+        SipMessage message = embedder.poll();
+        Assert.assertEquals(message.getHeaderValue(SipHeader.RETRY_AFTER), "5");
+        Assert.assertEquals(SipHeader.RETRY_AFTER.getName(), "Retry-After");
+        Assert.assertEquals(SipHeader.lookup("Retry-After"), SipHeader.RETRY_AFTER);
+        Assert.assertNull(SipHeader.lookup("Reply-After"));
+    }
+
+    @Test
+    public void testHeadersTooLong() throws Exception {
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(
+                new SipStreamDecoder(64, 128, 64, 1024));
+        StringBuilder sb = new StringBuilder("REGISTER sip:localhost SIP/2.0\r\n");
+        while (sb.length() < 512) {
+            sb.append("Via: SIP/2.0/TCP 10.0.0.1:5060\r\n");
+        }
+        try {
+            embedder.offer(ChannelBuffers.copiedBuffer(sb.toString(), CharsetUtil.UTF_8));
+            Assert.fail("TooLongFrameException expected");
+        } catch (CodecEmbedderException e) {
+            Assert.assertTrue(e.getCause() instanceof TooLongFrameException);
+        }
+
+        // the start of the next message is lost, so everything else is discarded
+        embedder.offer(ChannelBuffers.copiedBuffer(String.format(REGISTER, 1, 1, 1), CharsetUtil.UTF_8));
+        Assert.assertNull(embedder.poll());
+    }
+
+    @Test
+    public void testContentTooLong() throws Exception {
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(
+                new SipStreamDecoder(4096, 8192, 4096, 16));
+        StringBuilder sb = new StringBuilder("MESSAGE sip:bob@localhost SIP/2.0\r\n"
+                + "Content-Length: 64\r\n\r\n");
+        for (int i = 0; i < 64; i++) {
+            sb.append('x');
+        }
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer(sb.toString(), CharsetUtil.UTF_8);
+        try {
+            embedder.offer(buf.readBytes(buf.readableBytes() - 10));
+            Assert.fail("TooLongFrameException expected");
+        } catch (CodecEmbedderException e) {
+            Assert.assertTrue(e.getCause() instanceof TooLongFrameException);
+        }
+
+        // the remainder of the content is skipped, the next message is decoded
+        embedder.offer(buf);
+        Assert.assertNull(embedder.poll());
+        embedder.offer(ChannelBuffers.copiedBuffer(String.format(REGISTER, 1, 1, 1), CharsetUtil.UTF_8));
+        SipMessage message = embedder.poll();
+        Assert.assertNotNull(message);
+        Assert.assertEquals(message.getHeaderValue(SipHeader.CSEQ), "1 REGISTER");
+    }
+
+    @Test
+    public void testInvalidContentLength() throws Exception {
+        DecoderEmbedder<SipMessage> embedder = new DecoderEmbedder<SipMessage>(new SipStreamDecoder());
+        try {
+            embedder.offer(ChannelBuffers.copiedBuffer("MESSAGE sip:bob@localhost SIP/2.0\r\n"
+                    + "Content-Length: -5\r\n\r\nhello", CharsetUtil.UTF_8));
+            Assert.fail("CorruptedFrameException expected");
+        } catch (CodecEmbedderException e) {
+            Assert.assertTrue(e.getCause() instanceof CorruptedFrameException);
+            Assert.assertEquals(e.getCause().getMessage(), "Invalid content length [-5]");
+        }
+        embedder.offer(ChannelBuffers.copiedBuffer(String.format(REGISTER, 1, 1, 1), CharsetUtil.UTF_8));
+        Assert.assertNull(embedder.poll());
+    }
+}
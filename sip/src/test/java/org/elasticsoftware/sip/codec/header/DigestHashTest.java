@@ -0,0 +1,77 @@
+package org.elasticsoftware.sip.codec.header;
+
+import java.security.MessageDigest;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for computing the hashes of digest authentication
+ *
+ * @author Leonard Wolters
+ */
+public class DigestHashTest {
+
+    @Test
+    public void testHa1() throws Exception {
+        // see http://tools.ietf.org/html/rfc2617#section-3.5
+        Assert.assertEquals(DigestHash.ha1(null, "Mufasa", "testrealm@host.com", "Circle Of Life"),
+                "939e7578ed9e3c518a452acee763bce9");
+        Assert.assertEquals(DigestHash.ha1("SHA-256", "124", "elasticsoftware", "test"),
+                hash("SHA-256", "124:elasticsoftware:test"));
+        Assert.assertEquals(DigestHash.ha1("MD5", "\u00fcn\u00efcode", "elasticsoftware", "wachtwoord"),
+                hash("MD5", "\u00fcn\u00efcode:elasticsoftware:wachtwoord"));
+    }
+
+    @Test
+    public void testResponse() throws Exception {
+        for (String algorithm : new String[]{"MD5", "SHA-256"}) {
+            String ha1 = DigestHash.ha1(algorithm, "124", "elasticsoftware", "test");
+            String expected = hash(algorithm, String.format("%s:%s:%s", ha1, "24855234",
+                    hash(algorithm, "REGISTER:sip:sip.localhost.com:5060")));
+            String response = DigestHash.response(algorithm, ha1, "24855234", "REGISTER",
+                    "sip:sip.localhost.com:5060");
+            Assert.assertEquals(response, expected);
+
+            Assert.assertTrue(DigestHash.matches(algorithm, ha1, "24855234", "REGISTER",
+                    "sip:sip.localhost.com:5060", expected));
+            Assert.assertTrue(DigestHash.matches(algorithm, ha1, "24855234", "REGISTER",
+                    "sip:sip.localhost.com:5060", expected.toUpperCase()));
+            Assert.assertFalse(DigestHash.matches(algorithm, ha1, "24855235", "REGISTER",
+                    "sip:sip.localhost.com:5060", expected));
+            Assert.assertFalse(DigestHash.matches(algorithm, ha1, "24855234", "REGISTER",
+                    "sip:sip.localhost.com:5060", null));
+            String last = expected.endsWith("0") ? "1" : "0";
+            Assert.assertFalse(DigestHash.matches(algorithm, ha1, "24855234", "REGISTER",
+                    "sip:sip.localhost.com:5060", expected.substring(0, expected.length() - 1) + last));
+            Assert.assertFalse(DigestHash.matches(algorithm, ha1, "24855234", "REGISTER",
+                    "sip:sip.localhost.com:5060", expected.substring(1)));
+        }
+    }
+
+    @Test
+    public void testResponseWithQop() throws Exception {
+        // see http://tools.ietf.org/html/rfc2617#section-3.5
+        String ha1 = DigestHash.ha1("MD5", "Mufasa", "testrealm@host.com", "Circle Of Life");
+        Assert.assertEquals(DigestHash.response("MD5", ha1, "dcd98b7102dd2f0e8b11d0f600bfb0c093", "00000001",
+                "0a4f113b", "auth", "GET", "/dir/index.html"), "6629fae49393a05397450978507c4ef1");
+        Assert.assertTrue(DigestHash.matches("MD5", ha1, "dcd98b7102dd2f0e8b11d0f600bfb0c093", "00000001",
+                "0a4f113b", "auth", "GET", "/dir/index.html", "6629fae49393a05397450978507c4ef1"));
+        Assert.assertFalse(DigestHash.matches("MD5", ha1, "dcd98b7102dd2f0e8b11d0f600bfb0c093", "00000002",
+                "0a4f113b", "auth", "GET", "/dir/index.html", "6629fae49393a05397450978507c4ef1"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnsupportedAlgorithm() throws Exception {
+        DigestHash.ha1("SHA-1", "124", "elasticsoftware", "test");
+    }
+
+    private static String hash(String algorithm, String value) throws Exception {
+        byte[] hash = MessageDigest.getInstance(algorithm).digest(value.getBytes("UTF-8"));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : hash) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
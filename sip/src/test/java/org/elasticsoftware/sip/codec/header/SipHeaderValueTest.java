@@ -0,0 +1,140 @@
+package org.elasticsoftware.sip.codec.header;
+
+import org.elasticsoftware.sip.codec.SipMethod;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for parsing and serializing typed header values
+ *
+ * @author Leonard Wolters
+ */
+public class SipHeaderValueTest {
+
+    @Test
+    public void testVia() throws Exception {
+        ViaHeader via = ViaHeader.parse("SIP/2.0/UDP 192.168.1.15:60236;branch=z9hG4bK-d8754z-886afb7a6949e660-1---d8754z-;rport");
+        Assert.assertEquals(via.getTransport(), "UDP");
+        Assert.assertEquals(via.getHost(), "192.168.1.15");
+        Assert.assertEquals(via.getPort(), 60236);
+        Assert.assertEquals(via.getBranch(), "z9hG4bK-d8754z-886afb7a6949e660-1---d8754z-");
+        Assert.assertTrue(via.hasRport());
+        Assert.assertEquals(via.getRport(), -1);
+        Assert.assertNull(via.getReceived());
+
+        via.setParameter(ViaHeader.RECEIVED, "62.163.143.30").setParameter(ViaHeader.RPORT, "60236");
+        Assert.assertEquals(via.toString(), "SIP/2.0/UDP 192.168.1.15:60236;"
+                + "branch=z9hG4bK-d8754z-886afb7a6949e660-1---d8754z-;rport=60236;received=62.163.143.30");
+        Assert.assertEquals(via.getRport(), 60236);
+        Assert.assertEquals(via.getReceived(), "62.163.143.30");
+
+        via.setTransport("TCP");
+        Assert.assertEquals(via.getTransport(), "TCP");
+        Assert.assertEquals(via.toString(), "SIP/2.0/TCP 192.168.1.15:60236;"
+                + "branch=z9hG4bK-d8754z-886afb7a6949e660-1---d8754z-;rport=60236;received=62.163.143.30");
+        Assert.assertEquals(via.getRport(), 60236);
+    }
+
+    @Test
+    public void testViaIPv6AndMultipleValues() throws Exception {
+        ViaHeader via = ViaHeader.parse("SIP / 2.0 / TCP [2001:db8::1];branch=z9hG4bK1, SIP/2.0/UDP other.com;branch=z9hG4bK2");
+        Assert.assertEquals(via.getTransport(), "TCP");
+        Assert.assertEquals(via.getHost(), "2001:db8::1");
+        Assert.assertEquals(via.getPort(), 0);
+        Assert.assertEquals(via.getBranch(), "z9hG4bK1");
+
+        via.setParameter(ViaHeader.RECEIVED, "2001:db8::2");
+        Assert.assertEquals(via.toString(), "SIP / 2.0 / TCP [2001:db8::1];branch=z9hG4bK1;received=2001:db8::2, "
+                + "SIP/2.0/UDP other.com;branch=z9hG4bK2");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testViaInvalid() throws Exception {
+        ViaHeader.parse("UDP 192.168.1.15");
+    }
+
+    @Test
+    public void testCSeq() throws Exception {
+        CSeqHeader cSeq = CSeqHeader.parse(" 314159  INVITE ");
+        Assert.assertEquals(cSeq.getSequence(), 314159);
+        Assert.assertEquals(cSeq.getMethod(), SipMethod.INVITE);
+        Assert.assertEquals(cSeq.toString(), "314159 INVITE");
+
+        cSeq = CSeqHeader.parse("1 FOO");
+        Assert.assertNull(cSeq.getMethod());
+        Assert.assertEquals(cSeq.getMethodName(), "FOO");
+        Assert.assertEquals(new CSeqHeader(2, SipMethod.REGISTER).toString(), "2 REGISTER");
+    }
+
+    @Test
+    public void testCSeqInvalid() throws Exception {
+        String[] values = {"", "REGISTER", "1", "1REGISTER", "a REGISTER", "1 REGISTER x", "2147483648 REGISTER"};
+        for (String value : values) {
+            try {
+                CSeqHeader.parse(value);
+                Assert.fail("Expected failure for " + value);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testDigestCredentials() throws Exception {
+        DigestCredentials credentials = DigestCredentials.parse("Digest username=\"124\",realm=\"elasticsoftware\","
+                + "nonce=\"24855234\",uri=\"sip:sip.outerteams.com:5060\","
+                + "response=\"749c35e9fe30d6ba46cc801bdfe535a0\",algorithm=MD5");
+        Assert.assertTrue(credentials.isDigest());
+        Assert.assertEquals(credentials.getUsername(), "124");
+        Assert.assertEquals(credentials.getRealm(), "elasticsoftware");
+        Assert.assertEquals(credentials.getNonce(), "24855234");
+        Assert.assertEquals(credentials.getUri(), "sip:sip.outerteams.com:5060");
+        Assert.assertEquals(credentials.getResponse(), "749c35e9fe30d6ba46cc801bdfe535a0");
+        Assert.assertEquals(credentials.getAlgorithm(), "MD5");
+        Assert.assertNull(credentials.getCnonce());
+        Assert.assertEquals(credentials.getNonceCount(), -1);
+    }
+
+    @Test
+    public void testDigestCredentialsQuotedValues() throws Exception {
+        DigestCredentials credentials = DigestCredentials.parse("Digest  username=\"de Borst, Hans\", "
+                + "realm = \"elastic \\\"software\\\"\", qop=auth, nc=0000000a, cnonce=\"0a4f113b\"");
+        Assert.assertEquals(credentials.getUsername(), "de Borst, Hans");
+        Assert.assertEquals(credentials.getRealm(), "elastic \"software\"");
+        Assert.assertEquals(credentials.getQop(), "auth");
+        Assert.assertEquals(credentials.getNonceCount(), 10);
+        Assert.assertEquals(credentials.getCnonce(), "0a4f113b");
+    }
+
+    @Test
+    public void testContact() throws Exception {
+        ContactHeader contact = ContactHeader.parse("\"Hans; de Borst\" <sip:124@62.163.143.30:60236;transport=UDP>"
+                + ";expires=3600;q=0.7");
+        Assert.assertFalse(contact.isWildcard());
+        Assert.assertEquals(contact.getExpires(), 3600);
+        Assert.assertEquals(contact.getQ(), 0.7f);
+        Assert.assertEquals(contact.getUser().getDisplayName(), "Hans; de Borst");
+        Assert.assertEquals(contact.getUser().getUsername(), "124");
+        Assert.assertEquals(contact.getUser().getPort(), 60236);
+        Assert.assertEquals(contact.getUser().getUriParameter("transport"), "UDP");
+        Assert.assertNull(contact.getParameter("transport"));
+
+        contact.setParameter(ContactHeader.EXPIRES, "0");
+        Assert.assertEquals(contact.getExpires(), 0);
+        Assert.assertEquals(contact.toString(), "\"Hans; de Borst\" <sip:124@62.163.143.30:60236;transport=UDP>"
+                + ";expires=0;q=0.7");
+    }
+
+    @Test
+    public void testContactAddrSpec() throws Exception {
+        ContactHeader contact = ContactHeader.parse("sip:124@62.163.143.30:60236;expires=60");
+        Assert.assertEquals(contact.getExpires(), 60);
+        Assert.assertEquals(contact.getQ(), 1.0f);
+        Assert.assertEquals(contact.getUser().getDomain(), "62.163.143.30");
+
+        contact = ContactHeader.parse("*");
+        Assert.assertTrue(contact.isWildcard());
+        Assert.assertNull(contact.getUser());
+        Assert.assertEquals(contact.getExpires(), -1);
+    }
+}
@@ -0,0 +1,304 @@
+package org.elasticsoftware.sip.transaction;
+
+import org.elasticsoftware.sip.SipChannelFactory;
+import org.elasticsoftware.sip.SipMessageHandler;
+import org.elasticsoftware.sip.codec.SipHeader;
+import org.elasticsoftware.sip.codec.SipMessage;
+import org.elasticsoftware.sip.codec.SipMethod;
+import org.elasticsoftware.sip.codec.SipRequest;
+import org.elasticsoftware.sip.codec.SipRequestImpl;
+import org.elasticsoftware.sip.codec.SipResponse;
+import org.elasticsoftware.sip.codec.SipResponseImpl;
+import org.elasticsoftware.sip.codec.SipResponseStatus;
+import org.elasticsoftware.sip.codec.SipUser;
+import org.elasticsoftware.sip.codec.SipVersion;
+import org.elasticsoftware.sip.codec.header.ViaHeader;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tests for the transaction state machines, with timers scaled down (T1 20ms)
+ *
+ * @author Leonard Wolters
+ */
+public class SipTransactionManagerTest {
+    private SipTransactionManager manager;
+    private final List<SipMessage> written = new CopyOnWriteArrayList<SipMessage>();
+    private final List<SipResponse> timedOut = new CopyOnWriteArrayList<SipResponse>();
+    private volatile String transport;
+
+    @BeforeMethod
+    public void setUp() {
+        written.clear();
+        timedOut.clear();
+        transport = "UDP";
+        manager = new SipTransactionManager();
+        manager.setT1(20);
+        manager.setT2(80);
+        manager.setT4(100);
+        manager.setTimerC(500);
+        manager.setSipChannelFactory(new RecordingChannelFactory());
+        manager.setMessageHandler(new SipMessageHandler() {
+            @Override
+            public void onRequest(SipRequest request) {
+            }
+
+            @Override
+            public void onResponse(SipResponse response) {
+                timedOut.add(response);
+            }
+        });
+        manager.init();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        manager.destroy();
+    }
+
+    @Test
+    public void testRetransmittedRequestAbsorbed() throws Exception {
+        SipRequest request = createRequest(SipMethod.REGISTER, "UDP", "z9hG4bK1");
+        Assert.assertTrue(manager.receiveRequest(request));
+        Assert.assertEquals(manager.getServerTransactionCount(), 1);
+
+        // no response yet: absorbed silently
+        Assert.assertFalse(manager.receiveRequest(createRequest(SipMethod.REGISTER, "UDP", "z9hG4bK1")));
+        Assert.assertTrue(written.isEmpty());
+
+        SipResponse response = createResponse(request, SipResponseStatus.OK);
+        manager.sendResponse(via(request), response);
+        Assert.assertEquals(written.size(), 1);
+
+        // completed: the response is replayed
+        Assert.assertFalse(manager.receiveRequest(createRequest(SipMethod.REGISTER, "UDP", "z9hG4bK1")));
+        Assert.assertEquals(written.size(), 2);
+        Assert.assertSame(written.get(1), response);
+        Assert.assertEquals(manager.getAbsorbedRetransmissions(), 2);
+
+        // another branch is a new transaction
+        Assert.assertTrue(manager.receiveRequest(createRequest(SipMethod.REGISTER, "UDP", "z9hG4bK2")));
+
+        Assert.assertEquals(manager.getServerTransactionCount(), 2);
+
+        // timer J and the unanswered one (both 64*T1)
+        waitFor(manager, 0, 5000);
+    }
+
+    @Test
+    public void testReliableTransactionEndsOnFinalResponse() throws Exception {
+        SipRequest request = createRequest(SipMethod.REGISTER, "TCP", "z9hG4bK1");
+        Assert.assertTrue(manager.receiveRequest(request));
+        manager.sendResponse(via(request), createResponse(request, SipResponseStatus.OK));
+        Assert.assertEquals(manager.getServerTransactionCount(), 0);
+    }
+
+    @Test
+    public void testInviteFinalResponseRetransmittedUntilAck() throws Exception {
+        SipRequest invite = createRequest(SipMethod.INVITE, "UDP", "z9hG4bK1");
+        Assert.assertTrue(manager.receiveRequest(invite));
+        manager.sendResponse(via(invite), createResponse(invite, SipResponseStatus.BUSY_HERE));
+
+        // timer G: T1, 2*T1, ..
+        Thread.sleep(200);
+        int retransmissions = written.size();
+        Assert.assertTrue(retransmissions > 2, "retransmissions: " + retransmissions);
+
+        // the ACK is absorbed and stops the retransmissions
+        Assert.assertFalse(manager.receiveRequest(createRequest(SipMethod.ACK, "UDP", "z9hG4bK1")));
+        Thread.sleep(150);
+        Assert.assertTrue(written.size() <= retransmissions + 1);
+
+        // timer I (T4)
+        waitFor(manager, 0, 5000);
+    }
+
+    @Test
+    public void testAckOfSuccessPassed() throws Exception {
+        SipRequest invite = createRequest(SipMethod.INVITE, "UDP", "z9hG4bK1");
+        Assert.assertTrue(manager.receiveRequest(invite));
+        manager.sendResponse(via(invite), createResponse(invite, SipResponseStatus.OK));
+
+        Assert.assertFalse(manager.receiveRequest(createRequest(SipMethod.INVITE, "UDP", "z9hG4bK1")));
+        Assert.assertEquals(written.size(), 2);
+        Assert.assertTrue(manager.receiveRequest(createRequest(SipMethod.ACK, "UDP", "z9hG4bK1")));
+        Assert.assertTrue(manager.receiveRequest(createRequest(SipMethod.ACK, "UDP", "z9hG4bK2")));
+    }
+
+    @Test
+    public void testClientRetransmission() throws Exception {
+        SipRequest request = createRequest(SipMethod.OPTIONS, "UDP", "z9hG4bK1");
+        manager.sendRequest(new SipUser("sip:bob@127.0.0.1:5060"), request);
+        Assert.assertEquals(manager.getClientTransactionCount(), 1);
+
+        // timer E: T1, 2*T1, 4*T1 (capped at T2)
+        Thread.sleep(150);
+        Assert.assertTrue(written.size() > 2, "written: " + written.size());
+
+        SipResponse response = createResponse(request, SipResponseStatus.OK);
+        Assert.assertTrue(manager.receiveResponse(response));
+        int sent = written.size();
+        Assert.assertFalse(manager.receiveResponse(createResponse(request, SipResponseStatus.OK)));
+        Thread.sleep(150);
+        Assert.assertEquals(written.size(), sent);
+
+        // timer K (T4)
+        waitFor(manager, 0, 5000);
+        Assert.assertTrue(timedOut.isEmpty());
+    }
+
+    @Test
+    public void testClientTimeout() throws Exception {
+        manager.sendRequest(new SipUser("sip:bob@127.0.0.1:5060"),
+                createRequest(SipMethod.OPTIONS, "UDP", "z9hG4bK1"));
+
+        // timer F (64*T1)
+        waitFor(manager, 0, 5000);
+        Assert.assertEquals(timedOut.size(), 1);
+        Assert.assertEquals(timedOut.get(0).getResponseStatus(), SipResponseStatus.REQUEST_TIMEOUT);
+        Assert.assertEquals(manager.getTimeouts(), 1);
+    }
+
+    @Test
+    public void testClientTimeoutAfterProvisional() throws Exception {
+        SipRequest request = createRequest(SipMethod.OPTIONS, "UDP", "z9hG4bK1");
+        manager.sendRequest(new SipUser("sip:bob@127.0.0.1:5060"), request);
+        Assert.assertTrue(manager.receiveResponse(createResponse(request, SipResponseStatus.TRYING)));
+
+        // timer F (64*T1) keeps running in proceeding
+        waitFor(manager, 0, 5000);
+        Assert.assertEquals(timedOut.size(), 1);
+        Assert.assertEquals(timedOut.get(0).getResponseStatus(), SipResponseStatus.REQUEST_TIMEOUT);
+        int sent = written.size();
+        Thread.sleep(200);
+        Assert.assertEquals(written.size(), sent);
+    }
+
+    @Test
+    public void testServerTimeoutAfterProvisional() throws Exception {
+        SipRequest request = createRequest(SipMethod.REGISTER, "UDP", "z9hG4bK1");
+        Assert.assertTrue(manager.receiveRequest(request));
+        manager.sendResponse(via(request), createResponse(request, SipResponseStatus.TRYING));
+
+        // never answered with a final response: abandoned after 64*T1
+        waitFor(manager, 0, 5000);
+    }
+
+    @Test
+    public void testInviteFailureAcknowledged() throws Exception {
+        transport = "TCP";
+        SipRequest invite = createRequest(SipMethod.INVITE, "TCP", "z9hG4bK1");
+        manager.sendRequest(new SipUser("sip:bob@127.0.0.1:5060"), invite);
+        Assert.assertEquals(written.size(), 1);
+
+        Assert.assertTrue(manager.receiveResponse(createResponse(invite, SipResponseStatus.TRYING)));
+        Assert.assertTrue(manager.receiveResponse(createResponse(invite, SipResponseStatus.BUSY_HERE)));
+        Assert.assertEquals(written.size(), 2);
+        SipRequest ack = (SipRequest) written.get(1);
+        Assert.assertEquals(ack.getMethod(), SipMethod.ACK);
+        Assert.assertEquals(ack.getHeaderValue(SipHeader.CSEQ), "1 ACK");
+        Assert.assertEquals(ack.getHeaderValue(SipHeader.VIA), invite.getHeaderValue(SipHeader.VIA));
+
+        // reliable: timer D is zero
+        Assert.assertEquals(manager.getClientTransactionCount(), 0);
+    }
+
+    @Test
+    public void testNoRetransmissionOverStream() throws Exception {
+        // the Via claims UDP, but the channel factory sends over TCP
+        transport = "TCP";
+        manager.sendRequest(new SipUser("sip:bob@127.0.0.1:5060"),
+                createRequest(SipMethod.INVITE, "UDP", "z9hG4bK1"));
+        manager.sendRequest(new SipUser("sip:bob@127.0.0.1:5060"),
+                createRequest(SipMethod.OPTIONS, "UDP", "z9hG4bK2"));
+
+        // timers A and E would have fired several times
+        Thread.sleep(200);
+        Assert.assertEquals(written.size(), 2);
+        Assert.assertEquals(manager.getRetransmissions(), 0);
+
+        // timers B and F still apply
+        waitFor(manager, 0, 5000);
+        Assert.assertEquals(written.size(), 2);
+        Assert.assertEquals(timedOut.size(), 2);
+    }
+
+    private static void waitFor(SipTransactionManager manager, int count, long timeoutMillis)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        while (manager.getServerTransactionCount() + manager.getClientTransactionCount() > count
+                && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(manager.getServerTransactionCount() + manager.getClientTransactionCount(), count);
+    }
+
+    private static ViaHeader via(SipMessage message) {
+        return ViaHeader.parse(message.getHeaderValue(SipHeader.VIA));
+    }
+
+    private static SipRequest createRequest(SipMethod method, String transport, String branch) {
+        SipRequestImpl request = new SipRequestImpl(SipVersion.SIP_2_0, method, "sip:sip.outerteams.com:5060");
+        request.addHeader(SipHeader.VIA, String.format("SIP/2.0/%s 10.0.0.1:5060;branch=%s", transport, branch));
+        request.addHeader(SipHeader.FROM, "<sip:alice@sip.outerteams.com>;tag=1");
+        request.addHeader(SipHeader.TO, "<sip:bob@sip.outerteams.com>");
+        request.addHeader(SipHeader.CALL_ID, "call-1");
+        request.addHeader(SipHeader.CSEQ, String.format("1 %s", method.name()));
+        return request;
+    }
+
+    private static SipResponse createResponse(SipRequest request, SipResponseStatus status) {
+        SipResponseImpl response = new SipResponseImpl(SipVersion.SIP_2_0, status);
+        for (SipHeader header : new SipHeader[]{SipHeader.VIA, SipHeader.FROM, SipHeader.TO,
+                SipHeader.CALL_ID, SipHeader.CSEQ}) {
+            response.addHeader(header, request.getHeaderValue(header));
+        }
+        return response;
+    }
+
+    private final class RecordingChannelFactory implements SipChannelFactory {
+        @Override
+        public void setChannel(SipUser user, Channel channel) {
+        }
+
+        @Override
+        public void setChannel(SocketAddress remoteAddress, Channel channel) {
+        }
+
+        @Override
+        public Channel getChannel(SipUser user) {
+            return null;
+        }
+
+        @Override
+        public ChannelFuture write(SipUser user, SipMessage message) {
+            return record(message);
+        }
+
+        @Override
+        public String getTransport(SipUser user) {
+            return transport;
+        }
+
+        @Override
+        public ChannelFuture write(ViaHeader via, SipMessage message) {
+            return record(message);
+        }
+
+        private ChannelFuture record(SipMessage message) {
+            written.add(message);
+            ChannelFuture future = new DefaultChannelFuture(null, false);
+            future.setSuccess();
+            return future;
+        }
+    }
+}